@@ -11,6 +11,9 @@ public final class DetourConstants {
     /** 导航多边形的最大顶点数 */
     public static final int DT_VERTS_PER_POLYGON = 6;
     
+    /** 导航网格瓦片数据魔数 */
+    public static final int DT_NAVMESH_MAGIC = ('D' << 24) | ('N' << 16) | ('A' << 8) | 'V';
+    
     /** 导航网格数据版本号 */
     public static final int DT_NAVMESH_VERSION = 7;
     
@@ -20,6 +23,15 @@ public final class DetourConstants {
     /** 导航网格状态版本号 */
     public static final int DT_NAVMESH_STATE_VERSION = 1;
     
+    /** 导航网格存档魔数 */
+    public static final int DT_NAVMESH_ARCHIVE_MAGIC = ('D' << 24) | ('N' << 16) | ('M' << 8) | 'A';
+    
+    /** 导航网格存档版本号 */
+    public static final int DT_NAVMESH_ARCHIVE_VERSION = 1;
+    
+    /** 压缩瓦片数据魔数 */
+    public static final int DT_TILE_COMPRESSED_MAGIC = ('D' << 24) | ('N' << 16) | ('T' << 8) | 'C';
+    
     /** 表示实体链接到外部实体的标志 */
     public static final int DT_EXT_LINK = 0x8000;
     
@@ -53,6 +65,9 @@ public final class DetourConstants {
     /** 分辨率数量（UE5扩展） */
     public static final int DT_RESOLUTION_COUNT = 3;
     
+    /** 一条瓦片边界边最多连接的相邻瓦片多边形数量，粗分辨率瓦片的长边可能跨越多个细分辨率多边形（UE5扩展） */
+    public static final int DT_MAX_PORTAL_CONNECTIONS = 8;
+    
     /** 最大离网连接段部分数（UE5扩展） */
     public static final int DT_MAX_OFFMESH_SEGMENT_PARTS = 4;
     
@@ -63,13 +78,13 @@ public final class DetourConstants {
     public static final int DT_CONNECTION_INTERNAL = (1 << 7);
     
     /** 链接标志 - 离网连接 */
-    public static final int DT_LINK_FLAG_OFFMESH_CON = 0x01;
+    public static final int DT_LINK_FLAG_OFFMESH_CON = (1 << 6);
     
     /** 链接标志 - 离网连接双向 */
-    public static final int DT_LINK_FLAG_OFFMESH_CON_BIDIR = 0x02;
+    public static final int DT_LINK_FLAG_OFFMESH_CON_BIDIR = (1 << 5);
     
     /** 链接标志 - 离网连接回溯器 */
-    public static final int DT_LINK_FLAG_OFFMESH_CON_BACKTRACKER = 0x04;
+    public static final int DT_LINK_FLAG_OFFMESH_CON_BACKTRACKER = (1 << 4);
     
     /** 链接标志 - 离网连接启用 */
     public static final int DT_LINK_FLAG_OFFMESH_CON_ENABLED = (1 << 3);
@@ -90,6 +90,28 @@ public final class DetourEnums {
         }
     }
     
+    /**
+     * 瓦片顶点存储方式
+     */
+    public enum VertStorage {
+        /** 双精度坐标 */
+        DT_VERTS_DOUBLE(0),
+        /** 单精度坐标 */
+        DT_VERTS_FLOAT(1),
+        /** 相对量化包围盒的16位量化坐标 */
+        DT_VERTS_QUANTIZED(2);
+        
+        private final int value;
+        
+        VertStorage(int value) {
+            this.value = value;
+        }
+        
+        public int getValue() {
+            return value;
+        }
+    }
+    
     /**
      * 旋转枚举（UE5扩展）
      */
@@ -129,7 +151,9 @@ public final class DetourEnums {
         /** 查询超出边界 */
         DT_OUT_OF_NODES(1 << 5),
         /** 查询结果部分 */
-        DT_PARTIAL_RESULT(1 << 6);
+        DT_PARTIAL_RESULT(1 << 6),
+        /** 瓦片位置已被占用 */
+        DT_ALREADY_OCCUPIED(1 << 7);
         
         private final int value;
         
@@ -0,0 +1,677 @@
+package odin.detour.core;
+
+import odin.detour.core.DetourNavMesh.*;
+import odin.detour.core.DetourNavMeshQuery.QueryStatus;
+
+import java.util.Arrays;
+
+/**
+ * Detour流场（距离场）
+ *
+ * 以目标多边形为根执行反向Dijkstra搜索，为有界区域内的每个多边形记录到目标的成本
+ * 以及朝向目标的下一个多边形。同一目标的大量代理可以共享一份流场，每个代理只需
+ * 按下一个多边形逐步前进，而不必各自执行A*。
+ *
+ * 数据按瓦片槽位存储并记录瓦片的盐值和状态版本；瓦片被替换或移除后，该瓦片中的数据自动失效，
+ * 通过导航网格批量修改多边形标志或区域后，该瓦片在下次修复时重新计算。
+ * 新加入的瓦片通过导航网格的瓦片代数检测，修复时从与其相邻的已到达多边形继续扩展，
+ * 经过新瓦片更短的路线同样会降低已有多边形的成本。
+ * 调用{@link #update(DetourNavMeshQuery)}可以只修复受影响的部分，而不必重建整个流场。
+ *
+ * 反向搜索沿链接的反方向行走，离网连接使用回溯方向的链接，过滤器按正向移动设置并原样使用，
+ * 子类覆盖的虚拟过滤和成本方法同样生效。流场保留调用方的过滤器实例供修复使用，
+ * 构建后不能再修改该过滤器，否则修复的部分与其余部分使用不同的成本；需要改变过滤器时重新构建。
+ *
+ * @author UE5NavMesh4J
+ */
+public class DetourFlowField {
+    
+    /** 单个瓦片内的流场数据 */
+    public static class TileField {
+        /** 构建时瓦片的盐值 */
+        public long salt;
+        
+        /** 数据对应的瓦片状态版本 */
+        public long version;
+        
+        /** 每个多边形到目标的成本，未到达为Float.MAX_VALUE [大小: polyCount] */
+        public float[] cost;
+        
+        /** 每个多边形朝向目标的下一个多边形，目标和未到达为0 [大小: polyCount] */
+        public long[] next;
+        
+        /** 每个多边形的出口点，即通往下一个多边形的门户中点 [(x, y, z) * polyCount] */
+        public float[] pos;
+        
+        /** 瓦片是否需要修复 */
+        public boolean dirty;
+    }
+    
+    /** 修复时的链状态：未知 */
+    private static final byte CHAIN_UNKNOWN = 0;
+    
+    /** 修复时的链状态：有效 */
+    private static final byte CHAIN_VALID = 1;
+    
+    /** 修复时的链状态：无效 */
+    private static final byte CHAIN_INVALID = 2;
+    
+    /** 导航网格 */
+    private final DetourNavMesh navMesh;
+    
+    /** 按瓦片索引存储的流场数据 [大小: maxTiles] */
+    private final TileField[] fields;
+    
+    /** 目标多边形引用 */
+    private long goalRef;
+    
+    /** 目标位置 */
+    private final float[] goalPos = new float[3];
+    
+    /** 区域边界最小值，为null时不限制 */
+    private float[] bmin;
+    
+    /** 区域边界最大值，为null时不限制 */
+    private float[] bmax;
+    
+    /** 最大成本 */
+    private float maxCost;
+    
+    /** 调用方的查询过滤器，反向搜索沿进入当前多边形的链接扩展 */
+    private DetourQueryFilter filter;
+    
+    /** 已到达的多边形数量 */
+    private int reachedCount;
+    
+    /** 上次构建或修复时导航网格的瓦片代数 */
+    private long tileGeneration;
+    
+    // 搜索堆（允许重复入堆，弹出时跳过过期项）
+    private long[] heapRefs = new long[256];
+    private float[] heapCosts = new float[256];
+    private int heapSize;
+    
+    // 临时缓冲
+    private final long[] neis = new long[64];
+    private final MeshTile[] tileOut = new MeshTile[1];
+    private final Poly[] polyOut = new Poly[1];
+    private final float[] left = new float[3];
+    private final float[] right = new float[3];
+    private final float[] mid = new float[3];
+    private final float[] curPos = new float[3];
+    
+    /**
+     * 构造函数
+     * @param navMesh 导航网格
+     */
+    public DetourFlowField(DetourNavMesh navMesh) {
+        this.navMesh = navMesh;
+        this.fields = new TileField[navMesh.getMaxTiles()];
+    }
+    
+    /**
+     * 构建流场
+     * @param query 用于邻居和门户计算的查询对象
+     * @param goalRef 目标多边形引用
+     * @param goalPos 目标位置
+     * @param bmin 区域边界最小值，为null时不限制
+     * @param bmax 区域边界最大值，为null时不限制
+     * @param maxCost 最大成本，超过此成本的多边形不再扩展
+     * @param filter 查询过滤器，按正向移动设置；流场沿回溯方向的链接反向搜索，单向离网连接只沿正向使用。
+     *               流场保留该实例用于修复，构建后不能修改
+     * @return 查询状态
+     */
+    public QueryStatus build(DetourNavMeshQuery query, long goalRef, float[] goalPos,
+                             float[] bmin, float[] bmax, float maxCost, DetourQueryFilter filter) {
+        clear();
+        
+        if (query == null || goalPos == null || filter == null || !navMesh.isValidPolyRef(goalRef)) {
+            return QueryStatus.FAILURE;
+        }
+        
+        this.goalRef = goalRef;
+        this.goalPos[0] = goalPos[0];
+        this.goalPos[1] = goalPos[1];
+        this.goalPos[2] = goalPos[2];
+        this.bmin = bmin != null ? bmin.clone() : null;
+        this.bmax = bmax != null ? bmax.clone() : null;
+        this.maxCost = maxCost;
+        this.filter = filter;
+        this.tileGeneration = navMesh.getTileGeneration();
+        
+        seedGoal();
+        expand(query);
+        
+        return QueryStatus.SUCCESS;
+    }
+    
+    /**
+     * 标记瓦片需要修复
+     *
+     * 瓦片被替换或移除时会通过盐值自动检测，通过导航网格修改多边形状态时会通过瓦片版本自动检测；
+     * 调用方直接修改多边形字段时需要显式标记。
+     *
+     * @param tileIndex 瓦片索引
+     */
+    public void markTileDirty(int tileIndex) {
+        if (tileIndex < 0 || tileIndex >= fields.length) {
+            return;
+        }
+        TileField field = fields[tileIndex];
+        if (field != null) {
+            field.dirty = true;
+        }
+    }
+    
+    /**
+     * 增量修复流场
+     *
+     * 清除脏瓦片中的数据以及下一个多边形链经过脏瓦片的数据，然后从仍然有效的
+     * 边界多边形重新执行Dijkstra，只重新计算受影响的区域。有瓦片加入时，
+     * 与新瓦片相邻的边界多边形同样重新扩展。
+     *
+     * @param query 用于邻居和门户计算的查询对象
+     * @return 查询状态；目标多边形已失效时为失败
+     */
+    public QueryStatus update(DetourNavMeshQuery query) {
+        if (goalRef == 0 || query == null) {
+            return QueryStatus.FAILURE;
+        }
+        
+        // 检测被替换或移除的瓦片
+        boolean anyDirty = false;
+        for (int i = 0; i < fields.length; i++) {
+            TileField field = fields[i];
+            if (field == null) {
+                continue;
+            }
+            MeshTile tile = navMesh.getTile(i);
+            if (tile == null || tile.header == null || tile.salt != field.salt) {
+                reachedCount -= countReached(field);
+                fields[i] = null;
+                anyDirty = true;
+            } else if (field.dirty || tile.version != field.version) {
+                field.dirty = true;
+                field.version = tile.version;
+                anyDirty = true;
+            }
+        }
+        
+        // 检测加入的瓦片：新瓦片没有流场数据，从相邻的边界多边形扩展进入
+        long generation = navMesh.getTileGeneration();
+        if (generation != tileGeneration) {
+            tileGeneration = generation;
+            anyDirty = true;
+        }
+        if (!anyDirty) {
+            return QueryStatus.SUCCESS;
+        }
+        
+        if (!navMesh.isValidPolyRef(goalRef)) {
+            clear();
+            return QueryStatus.FAILURE;
+        }
+        
+        // 清除脏瓦片中的数据
+        for (TileField field : fields) {
+            if (field != null && field.dirty) {
+                reachedCount -= countReached(field);
+                Arrays.fill(field.cost, Float.MAX_VALUE);
+                Arrays.fill(field.next, 0);
+                field.dirty = false;
+            }
+        }
+        
+        // 清除下一个多边形链经过无效数据的多边形
+        invalidateBrokenChains();
+        
+        // 目标所在瓦片被修复时重新放置目标
+        TileField goalField = fields[navMesh.decodePolyIdTile(goalRef)];
+        if (goalField == null || goalField.cost[navMesh.decodePolyIdPoly(goalRef)] != 0.0f) {
+            seedGoal();
+        }
+        
+        // 从有效的边界多边形重新扩展
+        for (int i = 0; i < fields.length; i++) {
+            TileField field = fields[i];
+            if (field == null) {
+                continue;
+            }
+            MeshTile tile = navMesh.getTile(i);
+            long base = navMesh.getPolyRefBase(tile);
+            for (int ip = 0; ip < field.cost.length; ip++) {
+                if (field.cost[ip] != Float.MAX_VALUE && hasUnreachedNeighbour(query, tile, tile.polys[ip])) {
+                    pushHeap(base | ip, field.cost[ip]);
+                }
+            }
+        }
+        expand(query);
+        
+        return QueryStatus.SUCCESS;
+    }
+    
+    /**
+     * 获取多边形到目标的成本
+     * @param ref 多边形引用
+     * @return 成本，如果多边形不在流场中则返回Float.MAX_VALUE
+     */
+    public float getCost(long ref) {
+        TileField field = getField(ref);
+        return field != null ? field.cost[navMesh.decodePolyIdPoly(ref)] : Float.MAX_VALUE;
+    }
+    
+    /**
+     * 获取朝向目标的下一个多边形
+     * @param ref 多边形引用
+     * @return 下一个多边形引用，目标多边形或不在流场中时返回0
+     */
+    public long getNextPoly(long ref) {
+        TileField field = getField(ref);
+        return field != null ? field.next[navMesh.decodePolyIdPoly(ref)] : 0;
+    }
+    
+    /**
+     * 获取多边形朝向目标的出口点
+     * @param ref 多边形引用
+     * @param pos 输出出口点
+     * @return true如果多边形在流场中
+     */
+    public boolean getExitPoint(long ref, float[] pos) {
+        TileField field = getField(ref);
+        if (field == null) {
+            return false;
+        }
+        int ip = navMesh.decodePolyIdPoly(ref);
+        if (field.cost[ip] == Float.MAX_VALUE) {
+            return false;
+        }
+        pos[0] = field.pos[ip * 3];
+        pos[1] = field.pos[ip * 3 + 1];
+        pos[2] = field.pos[ip * 3 + 2];
+        return true;
+    }
+    
+    /**
+     * 检查多边形是否可以到达目标
+     * @param ref 多边形引用
+     * @return true如果多边形在流场中
+     */
+    public boolean isReachable(long ref) {
+        return getCost(ref) != Float.MAX_VALUE;
+    }
+    
+    /**
+     * 沿流场从多边形走到目标，得到多边形路径
+     * @param startRef 起始多边形引用
+     * @param path 输出路径
+     * @param maxPath 最大路径长度
+     * @return 路径长度，多边形不在流场中时返回0
+     */
+    public int getPath(long startRef, long[] path, int maxPath) {
+        if (!isReachable(startRef)) {
+            return 0;
+        }
+        int n = 0;
+        for (long ref = startRef; ref != 0 && n < maxPath; ref = getNextPoly(ref)) {
+            path[n++] = ref;
+        }
+        return n;
+    }
+    
+    /**
+     * 获取目标多边形引用
+     * @return 目标多边形引用
+     */
+    public long getGoalRef() {
+        return goalRef;
+    }
+    
+    /**
+     * 获取目标位置
+     * @return 目标位置
+     */
+    public float[] getGoalPos() {
+        return goalPos;
+    }
+    
+    /**
+     * 获取已到达的多边形数量
+     * @return 多边形数量
+     */
+    public int getReachedCount() {
+        return reachedCount;
+    }
+    
+    /**
+     * 清空流场
+     */
+    public void clear() {
+        Arrays.fill(fields, null);
+        reachedCount = 0;
+        heapSize = 0;
+        goalRef = 0;
+    }
+    
+    // ========== 私有辅助方法 ==========
+    
+    /**
+     * 将目标多边形放入搜索堆
+     */
+    private void seedGoal() {
+        navMesh.getTileAndPolyByRef(goalRef, tileOut, polyOut);
+        TileField field = getOrCreateField(tileOut[0]);
+        int ip = navMesh.decodePolyIdPoly(goalRef);
+        if (field.cost[ip] == Float.MAX_VALUE) {
+            reachedCount++;
+        }
+        field.cost[ip] = 0.0f;
+        field.next[ip] = 0;
+        field.pos[ip * 3] = goalPos[0];
+        field.pos[ip * 3 + 1] = goalPos[1];
+        field.pos[ip * 3 + 2] = goalPos[2];
+        pushHeap(goalRef, 0.0f);
+    }
+    
+    /**
+     * 执行反向Dijkstra直到堆为空
+     * @param query 查询对象
+     */
+    private void expand(DetourNavMeshQuery query) {
+        while (heapSize > 0) {
+            float curCost = heapCosts[0];
+            long curRef = popHeap();
+            
+            // 当前、下一个和邻居瓦片在展开期间都需要保持解码
+            navMesh.holdDecodedTiles();
+            try {
+                if (!navMesh.getTileAndPolyByRef(curRef, tileOut, polyOut)) {
+                    continue;
+                }
+                MeshTile curTile = tileOut[0];
+                Poly curPoly = polyOut[0];
+                TileField curField = fields[curTile.index];
+                int cp = navMesh.decodePolyIdPoly(curRef);
+                
+                // 跳过过期的堆项
+                if (curField == null || curCost > curField.cost[cp]) {
+                    continue;
+                }
+                
+                curPos[0] = curField.pos[cp * 3];
+                curPos[1] = curField.pos[cp * 3 + 1];
+                curPos[2] = curField.pos[cp * 3 + 2];
+                
+                long nextRef = curField.next[cp];
+                MeshTile nextTile = null;
+                Poly nextPoly = null;
+                if (nextRef != 0 && navMesh.getTileAndPolyByRef(nextRef, tileOut, polyOut)) {
+                    nextTile = tileOut[0];
+                    nextPoly = polyOut[0];
+                }
+                
+                int neiCount = query.getPolyNeighbours(curTile, curPoly, filter, true, neis);
+                for (int i = 0; i < neiCount; i++) {
+                    long neiRef = neis[i];
+                    if (neiRef == nextRef || !navMesh.getTileAndPolyByRef(neiRef, tileOut, polyOut)) {
+                        continue;
+                    }
+                    MeshTile neiTile = tileOut[0];
+                    Poly neiPoly = polyOut[0];
+                    
+                    if (!filter.passFilter(neiRef, neiTile, neiPoly)) {
+                        continue;
+                    }
+                    
+                    // 邻居的出口点为两个多边形之间的门户中点
+                    if (!query.getPortalPoints(neiRef, neiPoly, neiTile, curRef, curPoly, curTile, left, right)) {
+                        continue;
+                    }
+                    mid[0] = (left[0] + right[0]) * 0.5f;
+                    mid[1] = (left[1] + right[1]) * 0.5f;
+                    mid[2] = (left[2] + right[2]) * 0.5f;
+                    
+                    if (!insideBounds(mid)) {
+                        continue;
+                    }
+                    
+                    // 按正向移动计算成本：从邻居进入当前多边形，再前往下一个多边形
+                    float cost = curCost + filter.getCost(mid, curPos, neiRef, neiTile, neiPoly,
+                                                          curRef, curTile, curPoly,
+                                                          nextRef, nextTile, nextPoly);
+                    if (cost > maxCost) {
+                        continue;
+                    }
+                    
+                    TileField neiField = getOrCreateField(neiTile);
+                    int np = navMesh.decodePolyIdPoly(neiRef);
+                    if (cost >= neiField.cost[np]) {
+                        continue;
+                    }
+                    
+                    if (neiField.cost[np] == Float.MAX_VALUE) {
+                        reachedCount++;
+                    }
+                    neiField.cost[np] = cost;
+                    neiField.next[np] = curRef;
+                    neiField.pos[np * 3] = mid[0];
+                    neiField.pos[np * 3 + 1] = mid[1];
+                    neiField.pos[np * 3 + 2] = mid[2];
+                    pushHeap(neiRef, cost);
+                }
+            } finally {
+                navMesh.releaseDecodedTiles();
+            }
+        }
+    }
+    
+    /**
+     * 清除下一个多边形链指向无效数据的多边形
+     *
+     * 沿链行走直到遇到已知状态，再把结果回写到整条链上，因此每个多边形只处理一次。
+     */
+    private void invalidateBrokenChains() {
+        byte[][] marks = new byte[fields.length][];
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] != null) {
+                marks[i] = new byte[fields[i].cost.length];
+            }
+        }
+        
+        long[] chain = new long[64];
+        for (int it = 0; it < fields.length; it++) {
+            TileField field = fields[it];
+            if (field == null) {
+                continue;
+            }
+            for (int ip = 0; ip < field.cost.length; ip++) {
+                if (marks[it][ip] != CHAIN_UNKNOWN || field.cost[ip] == Float.MAX_VALUE) {
+                    continue;
+                }
+                
+                // 沿链行走
+                int len = 0;
+                byte state;
+                long ref = navMesh.encodePolyId(field.salt, it, ip);
+                while (true) {
+                    int t = navMesh.decodePolyIdTile(ref);
+                    int p = navMesh.decodePolyIdPoly(ref);
+                    TileField f = fields[t];
+                    if (f == null || f.salt != navMesh.decodePolyIdSalt(ref) || f.cost[p] == Float.MAX_VALUE) {
+                        state = CHAIN_INVALID;
+                        break;
+                    }
+                    if (marks[t][p] != CHAIN_UNKNOWN) {
+                        state = marks[t][p];
+                        break;
+                    }
+                    if (f.next[p] == 0) {
+                        state = ref == goalRef ? CHAIN_VALID : CHAIN_INVALID;
+                        marks[t][p] = state;
+                        break;
+                    }
+                    if (len == chain.length) {
+                        chain = Arrays.copyOf(chain, len * 2);
+                    }
+                    chain[len++] = ref;
+                    ref = f.next[p];
+                }
+                
+                // 回写结果
+                for (int k = 0; k < len; k++) {
+                    int t = navMesh.decodePolyIdTile(chain[k]);
+                    int p = navMesh.decodePolyIdPoly(chain[k]);
+                    marks[t][p] = state;
+                    if (state == CHAIN_INVALID) {
+                        fields[t].cost[p] = Float.MAX_VALUE;
+                        fields[t].next[p] = 0;
+                        reachedCount--;
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * 检查多边形是否有尚未到达的可通行邻居
+     * @param query 查询对象
+     * @param tile 瓦片
+     * @param poly 多边形
+     * @return true如果存在
+     */
+    private boolean hasUnreachedNeighbour(DetourNavMeshQuery query, MeshTile tile, Poly poly) {
+        int neiCount = query.getPolyNeighbours(tile, poly, filter, true, neis);
+        for (int i = 0; i < neiCount; i++) {
+            TileField field = getField(neis[i]);
+            if (field == null || field.cost[navMesh.decodePolyIdPoly(neis[i])] == Float.MAX_VALUE) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * 检查点是否在区域边界内
+     * @param p 点
+     * @return true如果在边界内或未设置边界
+     */
+    private boolean insideBounds(float[] p) {
+        if (bmin == null || bmax == null) {
+            return true;
+        }
+        return p[0] >= bmin[0] && p[0] <= bmax[0] &&
+               p[1] >= bmin[1] && p[1] <= bmax[1] &&
+               p[2] >= bmin[2] && p[2] <= bmax[2];
+    }
+    
+    /**
+     * 获取多边形所在瓦片的流场数据
+     * @param ref 多边形引用
+     * @return 流场数据，如果引用无效或瓦片已被替换则返回null
+     */
+    private TileField getField(long ref) {
+        if (!navMesh.isValidPolyRef(ref)) {
+            return null;
+        }
+        TileField field = fields[navMesh.decodePolyIdTile(ref)];
+        if (field == null || field.salt != navMesh.decodePolyIdSalt(ref)) {
+            return null;
+        }
+        return field;
+    }
+    
+    /**
+     * 获取或创建瓦片的流场数据
+     * @param tile 瓦片
+     * @return 流场数据
+     */
+    private TileField getOrCreateField(MeshTile tile) {
+        TileField field = fields[tile.index];
+        if (field == null) {
+            int polyCount = tile.header.polyCount;
+            field = new TileField();
+            field.salt = tile.salt;
+            field.version = tile.version;
+            field.cost = new float[polyCount];
+            field.next = new long[polyCount];
+            field.pos = new float[polyCount * 3];
+            Arrays.fill(field.cost, Float.MAX_VALUE);
+            fields[tile.index] = field;
+        }
+        return field;
+    }
+    
+    /**
+     * 统计瓦片中已到达的多边形数量
+     * @param field 流场数据
+     * @return 多边形数量
+     */
+    private static int countReached(TileField field) {
+        int n = 0;
+        for (float c : field.cost) {
+            if (c != Float.MAX_VALUE) {
+                n++;
+            }
+        }
+        return n;
+    }
+    
+    /**
+     * 将多边形加入搜索堆
+     * @param ref 多边形引用
+     * @param cost 成本
+     */
+    private void pushHeap(long ref, float cost) {
+        if (heapSize == heapRefs.length) {
+            heapRefs = Arrays.copyOf(heapRefs, heapSize * 2);
+            heapCosts = Arrays.copyOf(heapCosts, heapSize * 2);
+        }
+        
+        // 向上调整堆
+        int hole = heapSize++;
+        while (hole > 0) {
+            int parent = (hole - 1) / 2;
+            if (heapCosts[parent] <= cost) {
+                break;
+            }
+            heapRefs[hole] = heapRefs[parent];
+            heapCosts[hole] = heapCosts[parent];
+            hole = parent;
+        }
+        heapRefs[hole] = ref;
+        heapCosts[hole] = cost;
+    }
+    
+    /**
+     * 弹出成本最小的多边形
+     * @return 多边形引用
+     */
+    private long popHeap() {
+        long result = heapRefs[0];
+        heapSize--;
+        if (heapSize > 0) {
+            long ref = heapRefs[heapSize];
+            float cost = heapCosts[heapSize];
+            
+            // 向下调整堆
+            int hole = 0;
+            while (true) {
+                int child = hole * 2 + 1;
+                if (child >= heapSize) {
+                    break;
+                }
+                if (child + 1 < heapSize && heapCosts[child + 1] < heapCosts[child]) {
+                    child++;
+                }
+                if (cost <= heapCosts[child]) {
+                    break;
+                }
+                heapRefs[hole] = heapRefs[child];
+                heapCosts[hole] = heapCosts[child];
+                hole = child;
+            }
+            heapRefs[hole] = ref;
+            heapCosts[hole] = cost;
+        }
+        return result;
+    }
+}
\ No newline at end of file
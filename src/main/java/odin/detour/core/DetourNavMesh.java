@@ -1,18 +1,71 @@
 package odin.detour.core;
 
-import java.util.List;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
 import static odin.detour.config.DetourConstants.*;
 import static odin.detour.config.DetourEnums.*;
+import static odin.detour.utils.DetourCommon.*;
 
 /**
  * Detour导航网格核心数据结构
  * 翻译自UE5 DetourNavMesh.h中的数据结构
  * 
+ * 线程安全：不修改导航网格时，多个线程可以各自使用自己的DetourNavMeshQuery同时查询；
+ * 写时复制模式下查询还可以与一个写线程并发（参见{@link #setCopyOnWrite(boolean)}）。
+ * 存在压缩瓦片或启用解码瓦片缓存时，读取访问器会原地解码瓦片并更新LRU链表，
+ * 此时所有访问必须在同一个线程上进行，检测到其他线程访问时抛出IllegalStateException
+ * （参见{@link #setDecodedTileCapacity(int)}）。
+ * 
  * @author UE5NavMesh4J
  */
 public class DetourNavMesh {
     
+    /** 同一位置或同一方向上最多处理的邻居瓦片数量 */
+    private static final int DT_MAX_NEIS = 32;
+    
+    /** 解码瓦片缓存的最小容量：当前瓦片和周围8个相邻瓦片 */
+    private static final int DT_MIN_DECODED_TILES = 9;
+    
+    /** 位置哈希表的空桶 */
+    private static final MeshTile[] EMPTY_TILES = new MeshTile[0];
+    
+    /**
+     * 瓦片面积前缀和
+     *
+     * 与计算时使用的瓦片数组一起发布，查询线程总是在同一个瓦片数组上查找采样结果。
+     */
+    private static class TileAreaTable {
+        /** 计算前缀和时的瓦片数组 */
+        final MeshTile[] tiles;
+        /** 各瓦片面积的前缀和 [大小: maxTiles] */
+        final float[] sums;
+        
+        TileAreaTable(MeshTile[] tiles, float[] sums) {
+            this.tiles = tiles;
+            this.sums = sums;
+        }
+    }
+    
+    /**
+     * 已发布的瓦片数组和位置哈希表
+     *
+     * 写时复制模式下两者通过一次volatile写入一起替换，查询线程每次调用只读取一次快照，
+     * 不会看到新的位置哈希表和旧的瓦片数组这样不匹配的组合。
+     */
+    private static class TileSnapshot {
+        /** 瓦片数组 [大小: maxTiles] */
+        final MeshTile[] tiles;
+        /** 瓦片位置哈希表，每个桶是不可修改的瓦片数组，插入或移除时替换整个桶 */
+        final MeshTile[][] posLookup;
+        
+        TileSnapshot(MeshTile[] tiles, MeshTile[][] posLookup) {
+            this.tiles = tiles;
+            this.posLookup = posLookup;
+        }
+    }
+    
     /**
      * 多边形引用类型
      */
@@ -77,11 +130,8 @@ public class DetourNavMesh {
         /** 第一个链接在链表中的索引（如果没有链接则为DT_NULL_LINK） */
         public long firstLink;
         
-        /** 多边形顶点的索引，实际顶点位于MeshTile::verts中 */
-        public int[] verts = new int[DT_VERTS_PER_POLYGON];
-        
-        /** 打包数据，表示每个边的邻居多边形引用和标志 */
-        public int[] neis = new int[DT_VERTS_PER_POLYGON];
+        /** 多边形在瓦片中的索引，顶点和邻居位于MeshTile::polyVerts/polyNeis中 */
+        public int index;
         
         /** 多边形类型（区域） */
         public int area;
@@ -166,58 +216,106 @@ public class DetourNavMesh {
     }
     
     /**
-     * 定义多边形之间的链接
+     * 动态离网链接池（UE5扩展）
+     *
+     * 瓦片的静态链接以结构数组形式存放在MeshTile::linkRefs等数组中，运行时建立的离网链接
+     * 存放在该池中，同样使用并行的基本类型数组。池内索引i对应的链接索引为MeshHeader::maxLinkCount + i，
+     * 数组容量不足时倍增；释放的链接通过next数组组成空闲链表，连接和断开离网连接不分配对象。
      */
-    public static class Link {
-        /** 邻居引用（链接到的邻居） */
-        public PolyRef ref;
+    public static class LinkPool {
+        /** 邻居引用 [大小: >= count] */
+        public long[] refs;
         
-        /** 下一个链接的索引 */
-        public long next;
+        /** 下一个链接的索引（DT_NULL_LINK存为-1），空闲链接存放下一个空闲的池内索引 [大小: >= count] */
+        public int[] next;
         
-        /** 拥有此链接的多边形边的索引 */
-        public int edge;
+        /** 拥有链接的多边形边的索引 [大小: >= count] */
+        public byte[] edge;
         
-        /** 如果是边界链接，定义链接在哪一边 */
-        public int side;
+        /** 链接的边界侧或离网连接标志 [大小: >= count] */
+        public byte[] side;
         
-        /** 如果是边界链接，定义最小子边区域 */
-        public int bmin;
+        /** 边界链接的最小子边区域 [大小: >= count] */
+        public byte[] bmin;
         
-        /** 如果是边界链接，定义最大子边区域 */
-        public int bmax;
+        /** 边界链接的最大子边区域 [大小: >= count] */
+        public byte[] bmax;
+        
+        /** 已使用的池内索引数量（包括空闲链表中的链接） */
+        public int count;
+        
+        /** 空闲链表头的池内索引，-1表示没有空闲链接 */
+        public int freeList;
         
         /**
          * 默认构造函数
          */
-        public Link() {
-            this.ref = new PolyRef();
-            this.next = DT_NULL_LINK;
-            this.edge = 0;
-            this.side = 0;
-            this.bmin = 0;
-            this.bmax = 0;
+        public LinkPool() {
+            this.refs = new long[0];
+            this.next = new int[0];
+            this.edge = new byte[0];
+            this.side = new byte[0];
+            this.bmin = new byte[0];
+            this.bmax = new byte[0];
+            this.count = 0;
+            this.freeList = -1;
         }
-    }
-    
-    /**
-     * 边界体积节点
-     */
-    public static class BVNode {
-        /** 节点AABB的最小边界 [(x, y, z)] */
-        public int[] bmin = new int[3];
         
-        /** 节点AABB的最大边界 [(x, y, z)] */
-        public int[] bmax = new int[3];
+        /**
+         * 分配一个链接，优先复用空闲链表中的链接
+         * @return 池内索引
+         */
+        public int alloc() {
+            if (freeList != -1) {
+                int i = freeList;
+                freeList = next[i];
+                return i;
+            }
+            if (count == refs.length) {
+                int cap = Math.max(4, count * 2);
+                refs = Arrays.copyOf(refs, cap);
+                next = Arrays.copyOf(next, cap);
+                edge = Arrays.copyOf(edge, cap);
+                side = Arrays.copyOf(side, cap);
+                bmin = Arrays.copyOf(bmin, cap);
+                bmax = Arrays.copyOf(bmax, cap);
+            }
+            return count++;
+        }
         
-        /** 节点的索引（负数表示转义序列） */
-        public int i;
+        /**
+         * 将链接归还到空闲链表
+         * @param i 池内索引
+         */
+        public void free(int i) {
+            refs[i] = 0;
+            next[i] = freeList;
+            freeList = i;
+        }
         
         /**
-         * 默认构造函数
+         * 释放所有链接，保留数组容量
          */
-        public BVNode() {
-            this.i = 0;
+        public void clear() {
+            count = 0;
+            freeList = -1;
+        }
+        
+        /**
+         * 复制链接池
+         * @return 副本
+         */
+        public LinkPool copy() {
+            LinkPool p = new LinkPool();
+            p.refs = Arrays.copyOf(refs, count);
+            p.next = Arrays.copyOf(next, count);
+            p.edge = Arrays.copyOf(edge, count);
+            p.side = Arrays.copyOf(side, count);
+            p.bmin = Arrays.copyOf(bmin, count);
+            p.bmax = Arrays.copyOf(bmax, count);
+            p.count = count;
+            p.freeList = freeList;
+            return p;
         }
     }
     
@@ -359,7 +457,7 @@ public class DetourNavMesh {
         /** 集群的中心位置 */
         public double[] center = new double[3];
         
-        /** MeshTile.links数组中的链接 */
+        /** MeshTile链接数组中的链接 */
         public long firstLink;
         
         /** 集群链接数量 */
@@ -375,25 +473,86 @@ public class DetourNavMesh {
     }
     
     /**
-     * 集群之间的链接（UE5扩展）
+     * 动态集群链接池（UE5扩展）
+     *
+     * 与LinkPool相同，以并行的基本类型数组存放集群之间的链接，释放的链接通过next数组组成空闲链表。
      */
-    public static class ClusterLink {
-        /** 目标瓦片和集群 */
-        public ClusterRef ref;
+    public static class ClusterLinkPool {
+        /** 目标瓦片和集群 [大小: >= count] */
+        public long[] refs;
         
-        /** MeshTile.links数组中的下一个链接 */
-        public long next;
+        /** 下一个链接的索引（DT_NULL_LINK存为-1），空闲链接存放下一个空闲的池内索引 [大小: >= count] */
+        public int[] next;
         
-        /** 链接遍历数据 */
-        public int flags;
+        /** 链接遍历数据 [大小: >= count] */
+        public byte[] flags;
+        
+        /** 已使用的池内索引数量（包括空闲链表中的链接） */
+        public int count;
+        
+        /** 空闲链表头的池内索引，-1表示没有空闲链接 */
+        public int freeList;
         
         /**
          * 默认构造函数
          */
-        public ClusterLink() {
-            this.ref = new ClusterRef();
-            this.next = DT_NULL_LINK;
-            this.flags = 0;
+        public ClusterLinkPool() {
+            this.refs = new long[0];
+            this.next = new int[0];
+            this.flags = new byte[0];
+            this.count = 0;
+            this.freeList = -1;
+        }
+        
+        /**
+         * 分配一个链接，优先复用空闲链表中的链接
+         * @return 池内索引
+         */
+        public int alloc() {
+            if (freeList != -1) {
+                int i = freeList;
+                freeList = next[i];
+                return i;
+            }
+            if (count == refs.length) {
+                int cap = Math.max(4, count * 2);
+                refs = Arrays.copyOf(refs, cap);
+                next = Arrays.copyOf(next, cap);
+                flags = Arrays.copyOf(flags, cap);
+            }
+            return count++;
+        }
+        
+        /**
+         * 将链接归还到空闲链表
+         * @param i 池内索引
+         */
+        public void free(int i) {
+            refs[i] = 0;
+            next[i] = freeList;
+            freeList = i;
+        }
+        
+        /**
+         * 释放所有链接，保留数组容量
+         */
+        public void clear() {
+            count = 0;
+            freeList = -1;
+        }
+        
+        /**
+         * 复制链接池
+         * @return 副本
+         */
+        public ClusterLinkPool copy() {
+            ClusterLinkPool p = new ClusterLinkPool();
+            p.refs = Arrays.copyOf(refs, count);
+            p.next = Arrays.copyOf(next, count);
+            p.flags = Arrays.copyOf(flags, count);
+            p.count = count;
+            p.freeList = freeList;
+            return p;
         }
     }
     
@@ -502,23 +661,65 @@ public class DetourNavMesh {
         /** 瓦片多边形 [大小: MeshHeader::polyCount] */
         public Poly[] polys;
         
-        /** 瓦片顶点 [大小: MeshHeader::vertCount] */
+        /** 多边形顶点的索引，实际顶点位于verts中 [大小: MeshHeader::polyCount * DT_VERTS_PER_POLYGON] */
+        public short[] polyVerts;
+        
+        /** 多边形每条边的邻居，0为无邻居，DT_EXT_LINK | 方向为瓦片边界，否则为多边形索引+1 [大小: 同polyVerts] */
+        public short[] polyNeis;
+        
+        /** 瓦片顶点，双精度存储时使用 [(x, y, z) * MeshHeader::vertCount] */
         public double[] verts;
         
-        /** 瓦片链接 [大小: MeshHeader::maxLinkCount] */
-        public Link[] links;
+        /** 瓦片顶点，单精度存储时使用 [(x, y, z) * MeshHeader::vertCount] */
+        public float[] vertsF;
+        
+        /** 瓦片顶点，量化存储时使用 [(x, y, z) * MeshHeader::vertCount] */
+        public short[] vertsQ;
+        
+        /** 链接的邻居引用 [大小: MeshHeader::maxLinkCount] */
+        public long[] linkRefs;
+        
+        /** 下一个链接的索引（DT_NULL_LINK存为-1） [大小: MeshHeader::maxLinkCount] */
+        public int[] linkNext;
+        
+        /** 拥有链接的多边形边的索引 [大小: MeshHeader::maxLinkCount] */
+        public byte[] linkEdge;
+        
+        /** 链接的边界侧或离网连接标志 [大小: MeshHeader::maxLinkCount] */
+        public byte[] linkSide;
+        
+        /** 边界链接的最小子边区域 [大小: MeshHeader::maxLinkCount] */
+        public byte[] linkBmin;
+        
+        /** 边界链接的最大子边区域 [大小: MeshHeader::maxLinkCount] */
+        public byte[] linkBmax;
         
         /** 瓦片的详细子网格 [大小: MeshHeader::detailMeshCount] */
         public PolyDetail[] detailMeshes;
         
-        /** 详细网格的唯一顶点 [(x, y, z) * MeshHeader::detailVertCount] */
+        /** 详细网格的唯一顶点，双精度存储时使用 [(x, y, z) * MeshHeader::detailVertCount] */
         public double[] detailVerts;
         
+        /** 详细网格的唯一顶点，单精度存储时使用 [(x, y, z) * MeshHeader::detailVertCount] */
+        public float[] detailVertsF;
+        
+        /** 详细网格的唯一顶点，量化存储时使用 [(x, y, z) * MeshHeader::detailVertCount] */
+        public short[] detailVertsQ;
+        
+        /** 量化坐标的原点，量化存储时使用 [(x, y, z)] */
+        public float[] quantOrig;
+        
+        /** 量化坐标的步长，量化存储时使用 [(x, y, z)] */
+        public float[] quantScale;
+        
         /** 详细网格的三角形 [(vertA, vertB, vertC) * MeshHeader::detailTriCount] */
         public byte[] detailTris;
         
-        /** 瓦片边界体积节点 [大小: MeshHeader::bvNodeCount] */
-        public BVNode[] bvTree;
+        /** 边界体积节点的量化包围盒 [(minx, miny, minz, maxx, maxy, maxz) * MeshHeader::bvNodeCount] */
+        public short[] bvBounds;
+        
+        /** 边界体积节点的多边形索引（负数表示转义序列） [大小: MeshHeader::bvNodeCount] */
+        public int[] bvIndex;
         
         /** 瓦片离网连接 [大小: MeshHeader::offMeshConCount] */
         public OffMeshConnection[] offMeshCons;
@@ -541,20 +742,26 @@ public class DetourNavMesh {
         /** 瓦片标志 (参见: TileFlags) */
         public int flags;
         
-        /** 下一个空闲瓦片，或空间网格中的下一个瓦片 */
-        public MeshTile next;
+        /** 动态离网链接池（UE5扩展） */
+        public LinkPool dynamicLinksO;
         
-        /** 动态链接数组（UE5扩展） */
-        public List<Link> dynamicLinksO;
+        /** 动态集群链接池（UE5扩展） */
+        public ClusterLinkPool dynamicLinksC;
         
-        /** 下一个空闲动态链接的索引（UE5扩展） */
-        public long dynamicFreeListO;
+        /** 瓦片在导航网格瓦片数组中的索引 */
+        public int index;
         
-        /** 动态集群链接数组（UE5扩展） */
-        public List<ClusterLink> dynamicLinksC;
+        /** 地面多边形的面积前缀和，用于按面积随机采样 [大小: MeshHeader::polyCount] */
+        public float[] polyAreaSums;
         
-        /** 下一个空闲动态集群链接的索引（UE5扩展） */
-        public long dynamicFreeListC;
+        /** 瓦片中地面多边形的总面积 */
+        public float totalArea;
+        
+        /** 压缩的瓦片运行时数据，瓦片处于压缩状态时非空 (参见: DetourTileCompressor) */
+        public byte[] compressedData;
+        
+        /** 状态版本，多边形标志、区域或离网连接启用状态改变时更新为导航网格的状态版本 */
+        public long version;
         
         /**
          * 默认构造函数
@@ -564,12 +771,26 @@ public class DetourNavMesh {
             this.linksFreeList = DT_NULL_LINK;
             this.header = null;
             this.polys = null;
+            this.polyVerts = null;
+            this.polyNeis = null;
             this.verts = null;
-            this.links = null;
+            this.vertsF = null;
+            this.vertsQ = null;
+            this.linkRefs = null;
+            this.linkNext = null;
+            this.linkEdge = null;
+            this.linkSide = null;
+            this.linkBmin = null;
+            this.linkBmax = null;
             this.detailMeshes = null;
             this.detailVerts = null;
+            this.detailVertsF = null;
+            this.detailVertsQ = null;
+            this.quantOrig = null;
+            this.quantScale = null;
             this.detailTris = null;
-            this.bvTree = null;
+            this.bvBounds = null;
+            this.bvIndex = null;
             this.offMeshCons = null;
             this.offMeshSeg = null;
             this.clusters = null;
@@ -577,11 +798,246 @@ public class DetourNavMesh {
             this.data = null;
             this.dataSize = 0;
             this.flags = 0;
-            this.next = null;
-            this.dynamicLinksO = new ArrayList<>();
-            this.dynamicFreeListO = DT_NULL_LINK;
-            this.dynamicLinksC = new ArrayList<>();
-            this.dynamicFreeListC = DT_NULL_LINK;
+            this.dynamicLinksO = new LinkPool();
+            this.dynamicLinksC = new ClusterLinkPool();
+            this.index = 0;
+            this.polyAreaSums = null;
+            this.totalArea = 0.0f;
+            this.compressedData = null;
+            this.version = 0;
+        }
+        
+        /**
+         * 获取多边形的顶点索引
+         * @param poly 多边形
+         * @param j 多边形内的顶点序号
+         * @return 顶点在verts中的索引
+         */
+        public int getPolyVert(Poly poly, int j) {
+            return polyVerts[poly.index * DT_VERTS_PER_POLYGON + j] & 0xffff;
+        }
+        
+        /**
+         * 获取多边形边的邻居
+         * @param poly 多边形
+         * @param j 边的序号
+         * @return 邻居编码（参见polyNeis）
+         */
+        public int getPolyNei(Poly poly, int j) {
+            return polyNeis[poly.index * DT_VERTS_PER_POLYGON + j] & 0xffff;
+        }
+        
+        /**
+         * 获取顶点的存储方式
+         * @return 存储方式 (参见: VertStorage)
+         */
+        public int getVertStorage() {
+            if (vertsF != null) {
+                return VertStorage.DT_VERTS_FLOAT.getValue();
+            }
+            if (vertsQ != null) {
+                return VertStorage.DT_VERTS_QUANTIZED.getValue();
+            }
+            return VertStorage.DT_VERTS_DOUBLE.getValue();
+        }
+        
+        /**
+         * 获取顶点坐标
+         * @param v 顶点索引
+         * @param out 输出：顶点坐标 [(x, y, z)]
+         * @param offset 输出数组的偏移
+         */
+        public void getVert(int v, float[] out, int offset) {
+            readVert(v, verts, vertsF, vertsQ, out, offset);
+        }
+        
+        /**
+         * 获取多边形的全部顶点坐标
+         * @param poly 多边形
+         * @param out 输出：顶点坐标 [(x, y, z) * Poly::vertCount]
+         * @return 顶点数量
+         */
+        public int getPolyVerts(Poly poly, float[] out) {
+            int nv = poly.vertCount;
+            int base = poly.index * DT_VERTS_PER_POLYGON;
+            for (int j = 0; j < nv; j++) {
+                readVert(polyVerts[base + j] & 0xffff, verts, vertsF, vertsQ, out, j * 3);
+            }
+            return nv;
+        }
+        
+        /**
+         * 设置顶点坐标，量化存储时超出量化范围的坐标会被限制在范围内
+         * @param v 顶点索引
+         * @param p 顶点坐标 [(x, y, z)]
+         */
+        public void setVert(int v, float[] p) {
+            int i = v * 3;
+            if (vertsF != null) {
+                vertsF[i] = p[0];
+                vertsF[i + 1] = p[1];
+                vertsF[i + 2] = p[2];
+            } else if (vertsQ != null) {
+                for (int k = 0; k < 3; k++) {
+                    vertsQ[i + k] = quantize(p[k], k);
+                }
+            } else {
+                verts[i] = p[0];
+                verts[i + 1] = p[1];
+                verts[i + 2] = p[2];
+            }
+        }
+        
+        /**
+         * 获取详细网格顶点坐标
+         * @param v 详细顶点索引
+         * @param out 输出：顶点坐标 [(x, y, z)]
+         * @param offset 输出数组的偏移
+         */
+        public void getDetailVert(int v, float[] out, int offset) {
+            readVert(v, detailVerts, detailVertsF, detailVertsQ, out, offset);
+        }
+        
+        /**
+         * 转换顶点和详细顶点的存储方式
+         *
+         * 单精度存储使顶点内存减半，量化存储减为四分之一。量化范围为顶点、详细顶点和
+         * 离网连接端点（按半径和捕捉高度扩展）的包围盒，每个轴的精度为范围的1/65535。
+         * 应在构建瓦片之后、加入导航网格之前调用。
+         *
+         * @param storage 存储方式 (参见: VertStorage)
+         */
+        public void setVertStorage(int storage) {
+            if (storage == getVertStorage()) {
+                return;
+            }
+            int nv = header != null ? header.vertCount : 0;
+            int nd = header != null ? header.detailVertCount : 0;
+            float[] v = new float[nv * 3];
+            float[] d = new float[nd * 3];
+            for (int i = 0; i < nv; i++) {
+                getVert(i, v, i * 3);
+            }
+            for (int i = 0; i < nd; i++) {
+                getDetailVert(i, d, i * 3);
+            }
+            
+            verts = null;
+            vertsF = null;
+            vertsQ = null;
+            detailVerts = null;
+            detailVertsF = null;
+            detailVertsQ = null;
+            quantOrig = null;
+            quantScale = null;
+            
+            if (storage == VertStorage.DT_VERTS_FLOAT.getValue()) {
+                vertsF = v;
+                detailVertsF = d;
+            } else if (storage == VertStorage.DT_VERTS_QUANTIZED.getValue()) {
+                calcQuantBounds(v, d);
+                vertsQ = new short[v.length];
+                for (int i = 0; i < v.length; i++) {
+                    vertsQ[i] = quantize(v[i], i % 3);
+                }
+                detailVertsQ = new short[d.length];
+                for (int i = 0; i < d.length; i++) {
+                    detailVertsQ[i] = quantize(d[i], i % 3);
+                }
+            } else {
+                verts = new double[v.length];
+                for (int i = 0; i < v.length; i++) {
+                    verts[i] = v[i];
+                }
+                detailVerts = new double[d.length];
+                for (int i = 0; i < d.length; i++) {
+                    detailVerts[i] = d[i];
+                }
+            }
+        }
+        
+        /**
+         * 从三种存储方式之一读取顶点坐标
+         * @param v 顶点索引
+         * @param dv 双精度顶点
+         * @param fv 单精度顶点
+         * @param qv 量化顶点
+         * @param out 输出：顶点坐标
+         * @param offset 输出数组的偏移
+         */
+        private void readVert(int v, double[] dv, float[] fv, short[] qv, float[] out, int offset) {
+            int i = v * 3;
+            if (fv != null) {
+                out[offset] = fv[i];
+                out[offset + 1] = fv[i + 1];
+                out[offset + 2] = fv[i + 2];
+            } else if (qv != null) {
+                out[offset] = quantOrig[0] + (qv[i] & 0xffff) * quantScale[0];
+                out[offset + 1] = quantOrig[1] + (qv[i + 1] & 0xffff) * quantScale[1];
+                out[offset + 2] = quantOrig[2] + (qv[i + 2] & 0xffff) * quantScale[2];
+            } else {
+                out[offset] = (float) dv[i];
+                out[offset + 1] = (float) dv[i + 1];
+                out[offset + 2] = (float) dv[i + 2];
+            }
+        }
+        
+        /**
+         * 量化一个坐标分量
+         * @param x 坐标
+         * @param axis 轴
+         * @return 量化值
+         */
+        private short quantize(float x, int axis) {
+            if (quantScale[axis] <= 0.0f) {
+                return 0;
+            }
+            int q = Math.round((x - quantOrig[axis]) / quantScale[axis]);
+            return (short) Math.max(0, Math.min(0xffff, q));
+        }
+        
+        /**
+         * 计算量化范围
+         * @param v 顶点
+         * @param d 详细顶点
+         */
+        private void calcQuantBounds(float[] v, float[] d) {
+            float[] bmin = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+            float[] bmax = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+            for (int i = 0; i < v.length; i++) {
+                bmin[i % 3] = Math.min(bmin[i % 3], v[i]);
+                bmax[i % 3] = Math.max(bmax[i % 3], v[i]);
+            }
+            for (int i = 0; i < d.length; i++) {
+                bmin[i % 3] = Math.min(bmin[i % 3], d[i]);
+                bmax[i % 3] = Math.max(bmax[i % 3], d[i]);
+            }
+            
+            // 离网连接端点在加入导航网格时会被捕捉到落点多边形上
+            int ncons = header.offMeshConCount;
+            for (int i = 0; i < ncons && offMeshCons != null; i++) {
+                OffMeshConnection con = offMeshCons[i];
+                float r = (float) con.rad;
+                float h = (float) Math.max(con.rad, con.height);
+                for (int j = 0; j < 6; j += 3) {
+                    bmin[0] = Math.min(bmin[0], (float) con.pos[j] - r);
+                    bmin[1] = Math.min(bmin[1], (float) con.pos[j + 1] - h);
+                    bmin[2] = Math.min(bmin[2], (float) con.pos[j + 2] - r);
+                    bmax[0] = Math.max(bmax[0], (float) con.pos[j] + r);
+                    bmax[1] = Math.max(bmax[1], (float) con.pos[j + 1] + h);
+                    bmax[2] = Math.max(bmax[2], (float) con.pos[j + 2] + r);
+                }
+            }
+            
+            quantOrig = new float[3];
+            quantScale = new float[3];
+            for (int k = 0; k < 3; k++) {
+                if (bmin[k] > bmax[k]) {
+                    bmin[k] = bmax[k] = 0.0f;
+                }
+                quantOrig[k] = bmin[k];
+                quantScale[k] = (bmax[k] - bmin[k]) / 0xffff;
+            }
         }
     }
     
@@ -648,17 +1104,2869 @@ public class DetourNavMesh {
             this.maxTiles = 0;
             this.maxPolys = 0;
         }
+        
+        /**
+         * 按分辨率的单元格大小设置边界体积量化因子（UE5扩展）
+         *
+         * 瓦片的BV树按1 / 单元格大小量化（参见{@link DetourNavMeshBuilder#createTile}），
+         * 每个使用的分辨率都需要用构建该分辨率瓦片时的单元格大小设置。
+         *
+         * @param resolution 分辨率索引 [限制: < DT_RESOLUTION_COUNT]
+         * @param cellSize 单元格大小（xz平面） [限制: > 0]
+         */
+        public void setResolutionCellSize(int resolution, double cellSize) {
+            resolutionParams[resolution].bvQuantFactor = 1.0 / cellSize;
+        }
+    }
+    
+    /** 导航网格初始化参数 */
+    private NavMeshParams params;
+    
+    /** 瓦片空间的世界空间原点 */
+    private final double[] orig = new double[3];
+    
+    /** 每个瓦片的宽度（沿x轴） */
+    private double tileWidth;
+    
+    /** 每个瓦片的高度（沿z轴） */
+    private double tileHeight;
+    
+    /** 导航网格可以包含的最大瓦片数 */
+    private int maxTiles;
+    
+    /** 瓦片数组和位置哈希表，写时复制模式下整体替换发布，null表示尚未初始化 */
+    private volatile TileSnapshot snapshot;
+    
+    /** 多边形引用中盐值的位数 */
+    private int saltBits;
+    
+    /** 多边形引用中瓦片索引的位数 */
+    private int tileBits;
+    
+    /** 多边形引用中多边形索引的位数 */
+    private int polyBits;
+    
+    /** 瓦片面积前缀和及计算时使用的瓦片数组，null表示需要重建 */
+    private volatile TileAreaTable tileAreaTable;
+    
+    /** 各瓦片槽位的当前盐值，槽位被释放时递增 [大小: maxTiles] */
+    private long[] slotSalts;
+    
+    /** 空闲槽位链表中的下一个槽位，-1表示链表结尾 [大小: maxTiles] */
+    private int[] nextFreeSlot;
+    
+    /** 空闲槽位链表头，-1表示没有空闲槽位 */
+    private int nextFree;
+    
+    /** 瓦片位置哈希表的掩码 */
+    private int tileLutMask;
+    
+    /** 解码瓦片缓存的容量，0表示不自动压缩瓦片 */
+    private int decodedCapacity;
+    
+    /** 解码瓦片LRU链表中的前一个槽位，-1表示链表头 [大小: maxTiles] */
+    private int[] lruPrev;
+    
+    /** 解码瓦片LRU链表中的后一个槽位，-1表示链表尾 [大小: maxTiles] */
+    private int[] lruNext;
+    
+    /** 最近使用的解码瓦片槽位，-1表示链表为空 */
+    private int lruHead;
+    
+    /** 最久未使用的解码瓦片槽位，-1表示链表为空 */
+    private int lruTail;
+    
+    /** LRU链表中的瓦片数量 */
+    private int decodedCount;
+    
+    /** 解码或更新LRU链表的线程，压缩瓦片只能在这个线程上访问 */
+    private final AtomicReference<Thread> decodeThread = new AtomicReference<>();
+    
+    /** 暂停淘汰的嵌套深度，添加或移除瓦片以及查询步骤期间用到的瓦片需要同时处于解码状态 */
+    private int lruHoldDepth;
+    
+    /** 状态版本，每次修改多边形标志、区域或离网连接启用状态时递增 */
+    private volatile long stateVersion;
+    
+    /** 瓦片代数，每次添加或移除瓦片并发布后递增 */
+    private volatile long tileGeneration;
+    
+    /** 当前写操作中添加或移除了瓦片，最外层的写操作结束时递增瓦片代数 */
+    private boolean tilesChanged;
+    
+    /** 写时复制模式，查询线程可以在写线程修改瓦片时无锁读取 */
+    private boolean copyOnWrite;
+    
+    /** 写时复制模式下正在修改的瓦片数组，写操作结束时发布，非写操作期间为null */
+    private MeshTile[] writeTiles;
+    
+    /** 写时复制模式下正在修改的位置哈希表，写操作结束时发布 */
+    private MeshTile[][] writeLookup;
+    
+    /** 写操作的嵌套深度，最外层的写操作结束时发布修改 */
+    private int writeDepth;
+    
+    /**
+     * 初始化多瓦片导航网格
+     * @param params 初始化参数
+     * @return 状态标志 (参见: Status)
+     */
+    public int init(NavMeshParams params) {
+        if (params == null || params.maxTiles <= 0 || params.maxPolys <= 0) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        
+        this.params = params;
+        System.arraycopy(params.orig, 0, this.orig, 0, 3);
+        this.tileWidth = params.tileWidth;
+        this.tileHeight = params.tileHeight;
+        this.maxTiles = params.maxTiles;
+        
+        // 计算多边形引用的位分配
+        this.tileBits = dtIlog2(dtNextPow2(params.maxTiles));
+        this.polyBits = dtIlog2(dtNextPow2(params.maxPolys));
+        this.saltBits = Math.min(31, 64 - tileBits - polyBits);
+        if (saltBits < DT_MIN_SALT_BITS) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        
+        this.tileAreaTable = null;
+        
+        // 构建空闲槽位链表，使低索引的槽位先被使用
+        this.slotSalts = new long[maxTiles];
+        this.nextFreeSlot = new int[maxTiles];
+        this.nextFree = -1;
+        for (int i = maxTiles - 1; i >= 0; i--) {
+            slotSalts[i] = DT_SALT_BASE;
+            nextFreeSlot[i] = nextFree;
+            nextFree = i;
+        }
+        
+        int lutSize = dtNextPow2(Math.max(1, maxTiles / 4));
+        MeshTile[][] lookup = new MeshTile[lutSize][];
+        Arrays.fill(lookup, EMPTY_TILES);
+        this.snapshot = new TileSnapshot(new MeshTile[maxTiles], lookup);
+        this.tileLutMask = lutSize - 1;
+        
+        this.lruPrev = new int[maxTiles];
+        this.lruNext = new int[maxTiles];
+        this.lruHead = -1;
+        this.lruTail = -1;
+        this.decodedCount = 0;
+        
+        return Status.DT_SUCCESS.getValue();
     }
     
     /**
-     * 获取指定索引的瓦片
-     * @param index 瓦片索引
-     * @return 瓦片实例，如果索引无效则返回null
+     * 将瓦片添加到导航网格
+     * @param tile 瓦片数据
+     * @param result 输出：瓦片引用 [可选]
+     * @return 状态标志 (参见: Status)
      */
-    public MeshTile getTile(int index) {
-        if (index < 0 || index >= maxTiles) {
-            return null;
+    public int addTile(MeshTile tile, long[] result) {
+        return addTile(tile, 0, result);
+    }
+    
+    /**
+     * 将瓦片添加到导航网格
+     *
+     * 槽位从空闲链表头部取出，复杂度为O(1)。指定lastRef时恢复之前的槽位和盐值，
+     * 使旧的多边形引用重新有效。瓦片加入后会建立内部链接，并与已加载的相邻瓦片
+     * （包括同一位置的其他层）互相连接。
+     *
+     * @param tile 瓦片数据
+     * @param lastRef 要恢复的瓦片引用，0表示分配新的槽位
+     * @param result 输出：瓦片引用 [可选]
+     * @return 状态标志 (参见: Status)
+     */
+    public int addTile(MeshTile tile, long lastRef, long[] result) {
+        int check = checkTile(tile);
+        if (Status.dtStatusFailed(check)) {
+            return check;
+        }
+        
+        // 同一位置的同一层只能有一个瓦片
+        MeshHeader header = tile.header;
+        if (findTileAt(writableLookup(), header.x, header.y, header.layer) != null) {
+            return Status.DT_FAILURE.getValue() | Status.DT_ALREADY_OCCUPIED.getValue();
+        }
+        if (tile.compressedData != null) {
+            int status = DetourTileCompressor.decompress(tile.compressedData, tile);
+            if (Status.dtStatusFailed(status)) {
+                return status;
+            }
+            tile.compressedData = null;
+        }
+        
+        int slot;
+        if (lastRef == 0) {
+            slot = nextFree;
+            if (slot == -1) {
+                return Status.DT_FAILURE.getValue() | Status.DT_OUT_OF_MEMORY.getValue();
+            }
+            nextFree = nextFreeSlot[slot];
+        } else {
+            // 从空闲链表中摘除指定的槽位
+            slot = decodePolyIdTile(lastRef);
+            if (slot >= maxTiles) {
+                return Status.DT_FAILURE.getValue() | Status.DT_OUT_OF_MEMORY.getValue();
+            }
+            int prev = -1;
+            int cur = nextFree;
+            while (cur != -1 && cur != slot) {
+                prev = cur;
+                cur = nextFreeSlot[cur];
+            }
+            if (cur == -1) {
+                return Status.DT_FAILURE.getValue() | Status.DT_OUT_OF_MEMORY.getValue();
+            }
+            if (prev == -1) {
+                nextFree = nextFreeSlot[slot];
+            } else {
+                nextFreeSlot[prev] = nextFreeSlot[slot];
+            }
+            slotSalts[slot] = decodePolyIdSalt(lastRef);
+        }
+        nextFreeSlot[slot] = -1;
+        
+        beginWrite();
+        tile.index = slot;
+        tile.salt = slotSalts[slot];
+        writableTiles()[slot] = tile;
+        lruHoldDepth++;
+        if (decodedCapacity > 0) {
+            lruPushFront(slot);
+            decodedCount++;
+        }
+        
+        // 插入位置哈希表，同一位置的各层在桶内连续并按层从低到高排列
+        MeshTile[][] lookup = writableLookup();
+        int h = computeTileHash(header.x, header.y, tileLutMask);
+        MeshTile[] old = lookup[h];
+        int pos = old.length;
+        for (int i = 0; i < old.length; i++) {
+            MeshHeader o = old[i].header;
+            if (o.x == header.x && o.y == header.y) {
+                if (o.layer > header.layer) {
+                    pos = i;
+                    break;
+                }
+                pos = i + 1;
+            }
+        }
+        MeshTile[] bucket = new MeshTile[old.length + 1];
+        System.arraycopy(old, 0, bucket, 0, pos);
+        bucket[pos] = tile;
+        System.arraycopy(old, pos, bucket, pos + 1, old.length - pos);
+        lookup[h] = bucket;
+        
+        // 建立瓦片内的链接
+        initLinks(tile);
+        connectIntLinks(tile);
+        baseOffMeshLinks(tile);
+        connectExtOffMeshLinks(tile, tile, -1);
+        
+        // 连接同一位置的其他层
+        MeshTile[] neis = new MeshTile[DT_MAX_NEIS];
+        int nneis = getTilesAt(writableLookup(), header.x, header.y, neis, DT_MAX_NEIS);
+        for (int j = 0; j < nneis; j++) {
+            if (neis[j] == tile || !canConnectLayers(tile, neis[j])) {
+                continue;
+            }
+            neis[j] = writable(neis[j]);
+            if (overlapLayerHeights(tile, neis[j])) {
+                connectExtLinks(tile, neis[j], -1);
+                connectExtLinks(neis[j], tile, -1);
+            }
+            connectExtOffMeshLinks(tile, neis[j], -1);
+            connectExtOffMeshLinks(neis[j], tile, -1);
+        }
+        
+        // 连接周围8个方向的相邻瓦片，跳过高度范围不重叠且没有离网连接的层
+        for (int i = 0; i < 8; i++) {
+            nneis = getNeighbourTilesAt(header.x, header.y, i, neis, DT_MAX_NEIS);
+            for (int j = 0; j < nneis; j++) {
+                if (!canConnectLayers(tile, neis[j])) {
+                    continue;
+                }
+                neis[j] = writable(neis[j]);
+                if (overlapLayerHeights(tile, neis[j])) {
+                    connectExtLinks(tile, neis[j], i);
+                    connectExtLinks(neis[j], tile, dtOppositeTile(i));
+                }
+                connectExtOffMeshLinks(tile, neis[j], i);
+                connectExtOffMeshLinks(neis[j], tile, dtOppositeTile(i));
+            }
+        }
+        
+        buildTileAreaTable(tile);
+        tilesChanged = true;
+        endWrite();
+        
+        releaseDecodedTiles();
+        
+        if (result != null && result.length > 0) {
+            result[0] = getTileRef(tile);
+        }
+        return Status.DT_SUCCESS.getValue();
+    }
+    
+    /**
+     * 检查瓦片头能否加入导航网格
+     *
+     * 执行{@link #addTile(MeshTile, long, long[])}在修改导航网格之前的版本、多边形数量和分辨率检查，
+     * 不检查位置是否已被占用和空闲槽位。
+     *
+     * @param tile 瓦片数据
+     * @return 状态标志 (参见: Status)
+     */
+    public int checkTile(MeshTile tile) {
+        if (snapshot == null || tile == null || tile.header == null) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        if (tile.header.version != DT_NAVMESH_VERSION) {
+            return Status.DT_FAILURE.getValue() | Status.DT_WRONG_VERSION.getValue();
+        }
+        if (tile.header.polyCount > (1 << polyBits) ||
+            tile.header.resolution < 0 || tile.header.resolution >= DT_RESOLUTION_COUNT) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        return Status.DT_SUCCESS.getValue();
+    }
+    
+    /**
+     * 从导航网格中移除瓦片
+     *
+     * 断开相邻瓦片指向该瓦片的链接，递增槽位的盐值使旧的多边形引用失效，
+     * 并将槽位放回空闲链表头部，复杂度与相邻瓦片的链接数量成正比。
+     *
+     * @param ref 瓦片引用
+     * @param removed 输出：被移除的瓦片 [可选]
+     * @return 状态标志 (参见: Status)
+     */
+    public int removeTile(long ref, MeshTile[] removed) {
+        if (ref == 0 || snapshot == null) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        int slot = decodePolyIdTile(ref);
+        long salt = decodePolyIdSalt(ref);
+        if (slot >= maxTiles) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        MeshTile tile = writableTiles()[slot];
+        if (tile == null || tile.salt != salt) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        touchTile(tile);
+        lruHoldDepth++;
+        beginWrite();
+        
+        // 从位置哈希表中移除
+        MeshHeader header = tile.header;
+        MeshTile[][] lookup = writableLookup();
+        int h = computeTileHash(header.x, header.y, tileLutMask);
+        MeshTile[] bucket = lookup[h];
+        for (int i = 0; i < bucket.length; i++) {
+            if (bucket[i] == tile) {
+                MeshTile[] shrunk = new MeshTile[bucket.length - 1];
+                System.arraycopy(bucket, 0, shrunk, 0, i);
+                System.arraycopy(bucket, i + 1, shrunk, i, shrunk.length - i);
+                lookup[h] = shrunk;
+                break;
+            }
+        }
+        
+        // 断开同一位置其他层和周围瓦片指向该瓦片的链接
+        MeshTile[] neis = new MeshTile[DT_MAX_NEIS];
+        int nneis = getTilesAt(writableLookup(), header.x, header.y, neis, DT_MAX_NEIS);
+        for (int j = 0; j < nneis; j++) {
+            if (neis[j] != tile && canConnectLayers(tile, neis[j])) {
+                unconnectLinks(writable(neis[j]), tile);
+            }
+        }
+        for (int i = 0; i < 8; i++) {
+            nneis = getNeighbourTilesAt(header.x, header.y, i, neis, DT_MAX_NEIS);
+            for (int j = 0; j < nneis; j++) {
+                if (canConnectLayers(tile, neis[j])) {
+                    unconnectLinks(writable(neis[j]), tile);
+                }
+            }
+        }
+        
+        writableTiles()[slot] = null;
+        tilesChanged = true;
+        endWrite();
+        if (decodedCapacity > 0) {
+            lruUnlink(slot);
+            decodedCount--;
+        }
+        releaseDecodedTiles();
+        
+        // 递增盐值，跳过0以保证引用不为0
+        long saltMask = (1L << saltBits) - 1;
+        long nextSalt = (salt + 1) & saltMask;
+        slotSalts[slot] = nextSalt == 0 ? DT_SALT_BASE : nextSalt;
+        
+        nextFreeSlot[slot] = nextFree;
+        nextFree = slot;
+        
+        if (removed != null && removed.length > 0) {
+            removed[0] = tile;
+        }
+        return Status.DT_SUCCESS.getValue();
+    }
+    
+    // ========== 瓦片位置查找 ==========
+    
+    /**
+     * 计算瓦片位置的哈希值
+     * @param x 瓦片x坐标
+     * @param y 瓦片y坐标
+     * @param mask 哈希表掩码
+     * @return 哈希桶索引
+     */
+    private static int computeTileHash(int x, int y, int mask) {
+        final int h1 = 0x8da6b343; // 大乘数常量
+        final int h2 = 0xd8163841; // 同上
+        int n = h1 * x + h2 * y;
+        return n & mask;
+    }
+    
+    /**
+     * 计算世界坐标所在的瓦片位置
+     * @param pos 世界坐标
+     * @param tx 输出：瓦片x坐标 [大小: >= 1]
+     * @param ty 输出：瓦片y坐标 [大小: >= 1]
+     */
+    public void calcTileLoc(float[] pos, int[] tx, int[] ty) {
+        tx[0] = (int) Math.floor((pos[0] - orig[0]) / tileWidth);
+        ty[0] = (int) Math.floor((pos[2] - orig[2]) / tileHeight);
+    }
+    
+    /**
+     * 获取指定位置和层的瓦片
+     * @param x 瓦片x坐标
+     * @param y 瓦片y坐标
+     * @param layer 瓦片层
+     * @return 瓦片，如果不存在则返回null
+     */
+    public MeshTile getTileAt(int x, int y, int layer) {
+        MeshTile tile = findTileAt(x, y, layer);
+        if (tile != null) {
+            touchTile(tile);
+        }
+        return tile;
+    }
+    
+    /**
+     * 在位置哈希表中查找指定位置和层的瓦片，不解码压缩的瓦片
+     * @param x 瓦片x坐标
+     * @param y 瓦片y坐标
+     * @param layer 瓦片层
+     * @return 瓦片，如果不存在则返回null
+     */
+    private MeshTile findTileAt(int x, int y, int layer) {
+        TileSnapshot s = snapshot;
+        return s != null ? findTileAt(s.posLookup, x, y, layer) : null;
+    }
+    
+    /**
+     * 在指定的位置哈希表中查找指定位置和层的瓦片，不解码压缩的瓦片
+     * @param lookup 位置哈希表
+     * @param x 瓦片x坐标
+     * @param y 瓦片y坐标
+     * @param layer 瓦片层
+     * @return 瓦片，如果不存在则返回null
+     */
+    private MeshTile findTileAt(MeshTile[][] lookup, int x, int y, int layer) {
+        if (lookup == null) {
+            return null;
+        }
+        for (MeshTile tile : lookup[computeTileHash(x, y, tileLutMask)]) {
+            MeshHeader header = tile.header;
+            if (header.x == x && header.y == y && header.layer == layer) {
+                return tile;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * 获取指定位置和层的瓦片引用
+     * @param x 瓦片x坐标
+     * @param y 瓦片y坐标
+     * @param layer 瓦片层
+     * @return 瓦片引用，如果不存在则返回0
+     */
+    public long getTileRefAt(int x, int y, int layer) {
+        return getTileRef(findTileAt(x, y, layer));
+    }
+    
+    /**
+     * 获取世界坐标所在位置上按高度匹配的层
+     *
+     * 在坐标所在瓦片位置的各层中选择高度范围包含pos[1]的层；没有包含该高度的层时选择垂直距离最近的层，
+     * 距离相同时选择较低的层。
+     *
+     * @param pos 世界坐标 [(x, y, z)]
+     * @return 瓦片，如果该位置没有瓦片则返回null
+     */
+    public MeshTile getTileAt(float[] pos) {
+        MeshTile tile = findTileAtHeight(pos);
+        if (tile != null) {
+            touchTile(tile);
+        }
+        return tile;
+    }
+    
+    /**
+     * 获取世界坐标所在位置上按高度匹配的层的瓦片引用（参见{@link #getTileAt(float[])}）
+     * @param pos 世界坐标 [(x, y, z)]
+     * @return 瓦片引用，如果该位置没有瓦片则返回0
+     */
+    public long getTileRefAt(float[] pos) {
+        return getTileRef(findTileAtHeight(pos));
+    }
+    
+    /**
+     * 在位置哈希表中查找世界坐标所在位置上按高度匹配的层，不解码压缩的瓦片
+     * @param pos 世界坐标 [(x, y, z)]
+     * @return 瓦片，如果该位置没有瓦片则返回null
+     */
+    private MeshTile findTileAtHeight(float[] pos) {
+        TileSnapshot s = snapshot;
+        if (s == null) {
+            return null;
+        }
+        MeshTile[][] lookup = s.posLookup;
+        int x = (int) Math.floor((pos[0] - orig[0]) / tileWidth);
+        int y = (int) Math.floor((pos[2] - orig[2]) / tileHeight);
+        MeshTile best = null;
+        double bestDist = Double.MAX_VALUE;
+        for (MeshTile tile : lookup[computeTileHash(x, y, tileLutMask)]) {
+            MeshHeader header = tile.header;
+            if (header.x != x || header.y != y) {
+                continue;
+            }
+            double d = Math.max(0.0, Math.max(header.bmin[1] - pos[1], pos[1] - header.bmax[1]));
+            if (d < bestDist) {
+                best = tile;
+                bestDist = d;
+                if (d == 0.0) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+    
+    /**
+     * 获取指定位置所有层的瓦片，按层从低到高排列
+     * @param x 瓦片x坐标
+     * @param y 瓦片y坐标
+     * @param out 输出瓦片数组
+     * @param maxTiles 输出数组的最大数量
+     * @return 找到的瓦片数量
+     */
+    public int getTilesAt(int x, int y, MeshTile[] out, int maxTiles) {
+        TileSnapshot s = snapshot;
+        return s != null ? getTilesAt(s.posLookup, x, y, out, maxTiles) : 0;
+    }
+    
+    /**
+     * 在指定的位置哈希表中获取指定位置所有层的瓦片
+     *
+     * 写操作使用正在修改的位置哈希表，同一批量修改中先前加入或替换的瓦片对后续写操作可见。
+     *
+     * @param lookup 位置哈希表
+     * @param x 瓦片x坐标
+     * @param y 瓦片y坐标
+     * @param out 输出瓦片数组
+     * @param maxTiles 输出数组的最大数量
+     * @return 找到的瓦片数量
+     */
+    private int getTilesAt(MeshTile[][] lookup, int x, int y, MeshTile[] out, int maxTiles) {
+        if (lookup == null) {
+            return 0;
+        }
+        int n = 0;
+        for (MeshTile tile : lookup[computeTileHash(x, y, tileLutMask)]) {
+            if (n < maxTiles && tile.header.x == x && tile.header.y == y) {
+                touchTile(tile);
+                out[n++] = tile;
+            }
+        }
+        return n;
+    }
+    
+    /**
+     * 在写操作的位置哈希表中获取指定方向上相邻位置的所有瓦片
+     * @param x 瓦片x坐标
+     * @param y 瓦片y坐标
+     * @param side 方向 [0, 7]，0为x+，按逆时针每次旋转45度
+     * @param out 输出瓦片数组
+     * @param maxTiles 输出数组的最大数量
+     * @return 找到的瓦片数量
+     */
+    private int getNeighbourTilesAt(int x, int y, int side, MeshTile[] out, int maxTiles) {
+        int nx = x;
+        int ny = y;
+        switch (side) {
+            case 0: nx++; break;
+            case 1: nx++; ny++; break;
+            case 2: ny++; break;
+            case 3: nx--; ny++; break;
+            case 4: nx--; break;
+            case 5: nx--; ny--; break;
+            case 6: ny--; break;
+            case 7: nx++; ny--; break;
+            default: break;
+        }
+        return getTilesAt(writableLookup(), nx, ny, out, maxTiles);
+    }
+    
+    /**
+     * 检查两个瓦片的高度范围在按步高扩展后是否重叠
+     *
+     * 地面多边形的边界链接只会在高度差不超过步高的边之间建立，高度范围不重叠的层（例如建筑的不同楼层）
+     * 之间不需要逐边检查。
+     *
+     * @param a 瓦片A
+     * @param b 瓦片B
+     * @return true如果高度范围重叠
+     */
+    private boolean overlapLayerHeights(MeshTile a, MeshTile b) {
+        double climb = params != null ? params.walkableClimb : 0.0;
+        return a.header.bmin[1] - climb <= b.header.bmax[1] && b.header.bmin[1] - climb <= a.header.bmax[1];
+    }
+    
+    /**
+     * 检查两个瓦片之间是否可能存在链接
+     *
+     * 离网连接的落点可能位于其他楼层，带有离网连接的瓦片总是需要检查。
+     *
+     * @param a 瓦片A
+     * @param b 瓦片B
+     * @return true如果可能存在链接
+     */
+    private boolean canConnectLayers(MeshTile a, MeshTile b) {
+        return a.header.offMeshConCount > 0 || b.header.offMeshConCount > 0 || overlapLayerHeights(a, b);
+    }
+    
+    /**
+     * 获取导航网格初始化参数
+     * @return 初始化参数
+     */
+    public NavMeshParams getParams() {
+        return params;
+    }
+    
+    /**
+     * 获取导航网格可以包含的最大瓦片数
+     * @return 最大瓦片数
+     */
+    public int getMaxTiles() {
+        return maxTiles;
+    }
+    
+    /**
+     * 获取空闲的瓦片槽位数量
+     * @return 空闲槽位数量
+     */
+    public int getFreeTileCount() {
+        int n = 0;
+        for (int i = nextFree; i != -1; i = nextFreeSlot[i]) {
+            n++;
+        }
+        return n;
+    }
+    
+    // ========== 多边形引用编码 ==========
+    
+    /**
+     * 从盐值、瓦片索引和多边形索引构造多边形引用
+     * @param salt 瓦片的盐值
+     * @param it 瓦片索引
+     * @param ip 瓦片内的多边形索引
+     * @return 编码后的多边形引用
+     */
+    public long encodePolyId(long salt, int it, int ip) {
+        return (salt << (polyBits + tileBits)) | ((long) it << polyBits) | (long) ip;
+    }
+    
+    /**
+     * 从多边形引用中提取盐值
+     * @param ref 多边形引用
+     * @return 盐值
+     */
+    public long decodePolyIdSalt(long ref) {
+        long saltMask = (1L << saltBits) - 1;
+        return (ref >>> (polyBits + tileBits)) & saltMask;
+    }
+    
+    /**
+     * 从多边形引用中提取瓦片索引
+     * @param ref 多边形引用
+     * @return 瓦片索引
+     */
+    public int decodePolyIdTile(long ref) {
+        long tileMask = (1L << tileBits) - 1;
+        return (int) ((ref >>> polyBits) & tileMask);
+    }
+    
+    /**
+     * 从多边形引用中提取多边形索引
+     * @param ref 多边形引用
+     * @return 多边形索引
+     */
+    public int decodePolyIdPoly(long ref) {
+        long polyMask = (1L << polyBits) - 1;
+        return (int) (ref & polyMask);
+    }
+    
+    /**
+     * 获取瓦片中多边形引用的基址（多边形索引为0时的引用）
+     * @param tile 瓦片
+     * @return 引用基址，如果瓦片无效则返回0
+     */
+    public long getPolyRefBase(MeshTile tile) {
+        if (tile == null) {
+            return 0;
+        }
+        return encodePolyId(tile.salt, tile.index, 0);
+    }
+    
+    /**
+     * 获取瓦片引用
+     * @param tile 瓦片
+     * @return 瓦片引用，如果瓦片无效则返回0
+     */
+    public long getTileRef(MeshTile tile) {
+        if (tile == null) {
+            return 0;
+        }
+        return encodePolyId(tile.salt, tile.index, 0);
+    }
+    
+    /**
+     * 检查多边形引用是否有效
+     * @param ref 多边形引用
+     * @return true如果引用指向现有的多边形
+     */
+    public boolean isValidPolyRef(long ref) {
+        return getValidTile(ref) != null;
+    }
+    
+    /**
+     * 获取多边形引用所在的瓦片，只读取一次瓦片数组，写时复制模式下结果总是来自同一个快照
+     * @param ref 多边形引用
+     * @return 瓦片，如果引用无效则返回null
+     */
+    private MeshTile getValidTile(long ref) {
+        TileSnapshot s = snapshot;
+        if (s == null) {
+            return null;
+        }
+        return getValidTile(s.tiles, ref);
+    }
+    
+    /**
+     * 在写操作可以修改的瓦片数组中获取多边形引用所在的瓦片，
+     * 批量更新期间能找到本批次中新加入的瓦片
+     * @param ref 多边形引用
+     * @return 瓦片，如果引用无效则返回null
+     */
+    private MeshTile getValidWriteTile(long ref) {
+        if (snapshot == null) {
+            return null;
+        }
+        return getValidTile(writableTiles(), ref);
+    }
+    
+    /**
+     * 在指定的瓦片数组中获取多边形引用所在的瓦片
+     * @param ts 瓦片数组
+     * @param ref 多边形引用
+     * @return 瓦片，如果引用无效则返回null
+     */
+    private MeshTile getValidTile(MeshTile[] ts, long ref) {
+        if (ref == 0) {
+            return null;
+        }
+        int it = decodePolyIdTile(ref);
+        if (it >= maxTiles) {
+            return null;
+        }
+        MeshTile tile = ts[it];
+        if (tile == null || tile.header == null || tile.salt != decodePolyIdSalt(ref) ||
+            decodePolyIdPoly(ref) >= tile.header.polyCount) {
+            return null;
+        }
+        return tile;
+    }
+    
+    /**
+     * 根据多边形引用获取瓦片和多边形
+     * @param ref 多边形引用
+     * @param tile 输出：瓦片 [大小: >= 1]
+     * @param poly 输出：多边形 [大小: >= 1]
+     * @return true如果引用有效
+     */
+    public boolean getTileAndPolyByRef(long ref, MeshTile[] tile, Poly[] poly) {
+        MeshTile t = getValidTile(ref);
+        if (t == null) {
+            return false;
+        }
+        touchTile(t);
+        tile[0] = t;
+        poly[0] = t.polys[decodePolyIdPoly(ref)];
+        return true;
+    }
+    
+    /**
+     * 根据多边形引用获取瓦片
+     * @param ref 多边形引用
+     * @return 瓦片，如果引用无效则返回null
+     */
+    public MeshTile getTileByRef(long ref) {
+        MeshTile tile = getValidTile(ref);
+        if (tile != null) {
+            touchTile(tile);
+        }
+        return tile;
+    }
+    
+    // ========== 链接管理 ==========
+    
+    /**
+     * 获取链接的邻居引用
+     *
+     * 链接索引小于MeshHeader::maxLinkCount时指向瓦片的静态链接数组，否则指向动态离网链接。
+     *
+     * @param tile 瓦片
+     * @param index 链接索引
+     * @return 邻居引用
+     */
+    public long getLinkRef(MeshTile tile, long index) {
+        int maxLinkCount = tile.header.maxLinkCount;
+        if (index >= maxLinkCount) {
+            return tile.dynamicLinksO.refs[(int) (index - maxLinkCount)];
+        }
+        return tile.linkRefs[(int) index];
+    }
+    
+    /**
+     * 获取下一个链接的索引
+     * @param tile 瓦片
+     * @param index 链接索引
+     * @return 下一个链接的索引，如果没有则返回DT_NULL_LINK
+     */
+    public long getLinkNext(MeshTile tile, long index) {
+        int maxLinkCount = tile.header.maxLinkCount;
+        if (index >= maxLinkCount) {
+            return tile.dynamicLinksO.next[(int) (index - maxLinkCount)] & 0xffffffffL;
+        }
+        return tile.linkNext[(int) index] & 0xffffffffL;
+    }
+    
+    /**
+     * 获取拥有链接的多边形边的索引
+     * @param tile 瓦片
+     * @param index 链接索引
+     * @return 边索引
+     */
+    public int getLinkEdge(MeshTile tile, long index) {
+        int maxLinkCount = tile.header.maxLinkCount;
+        if (index >= maxLinkCount) {
+            return tile.dynamicLinksO.edge[(int) (index - maxLinkCount)] & 0xff;
+        }
+        return tile.linkEdge[(int) index] & 0xff;
+    }
+    
+    /**
+     * 获取链接的边界侧或离网连接标志
+     * @param tile 瓦片
+     * @param index 链接索引
+     * @return 边界侧或链接标志
+     */
+    public int getLinkSide(MeshTile tile, long index) {
+        int maxLinkCount = tile.header.maxLinkCount;
+        if (index >= maxLinkCount) {
+            return tile.dynamicLinksO.side[(int) (index - maxLinkCount)] & 0xff;
+        }
+        return tile.linkSide[(int) index] & 0xff;
+    }
+    
+    /**
+     * 获取边界链接的最小子边区域
+     * @param tile 瓦片
+     * @param index 链接索引
+     * @return 子边区域 [0, 255]
+     */
+    public int getLinkBmin(MeshTile tile, long index) {
+        int maxLinkCount = tile.header.maxLinkCount;
+        if (index >= maxLinkCount) {
+            return tile.dynamicLinksO.bmin[(int) (index - maxLinkCount)] & 0xff;
+        }
+        return tile.linkBmin[(int) index] & 0xff;
+    }
+    
+    /**
+     * 获取边界链接的最大子边区域
+     * @param tile 瓦片
+     * @param index 链接索引
+     * @return 子边区域 [0, 255]
+     */
+    public int getLinkBmax(MeshTile tile, long index) {
+        int maxLinkCount = tile.header.maxLinkCount;
+        if (index >= maxLinkCount) {
+            return tile.dynamicLinksO.bmax[(int) (index - maxLinkCount)] & 0xff;
+        }
+        return tile.linkBmax[(int) index] & 0xff;
+    }
+    
+    /**
+     * 设置下一个链接的索引
+     * @param tile 瓦片
+     * @param index 链接索引
+     * @param next 下一个链接的索引
+     */
+    private void setLinkNext(MeshTile tile, long index, long next) {
+        int maxLinkCount = tile.header.maxLinkCount;
+        if (index >= maxLinkCount) {
+            tile.dynamicLinksO.next[(int) (index - maxLinkCount)] = (int) next;
+        } else {
+            tile.linkNext[(int) index] = (int) next;
+        }
+    }
+    
+    /**
+     * 设置链接的边界侧或离网连接标志
+     * @param tile 瓦片
+     * @param index 链接索引
+     * @param side 边界侧或链接标志
+     */
+    private void setLinkSide(MeshTile tile, long index, int side) {
+        int maxLinkCount = tile.header.maxLinkCount;
+        if (index >= maxLinkCount) {
+            tile.dynamicLinksO.side[(int) (index - maxLinkCount)] = (byte) side;
+        } else {
+            tile.linkSide[(int) index] = (byte) side;
+        }
+    }
+    
+    /**
+     * 初始化瓦片的链接存储和空闲列表
+     * @param tile 瓦片
+     */
+    private void initLinks(MeshTile tile) {
+        int maxLinkCount = tile.header.maxLinkCount;
+        if (tile.linkRefs == null || tile.linkRefs.length < maxLinkCount) {
+            tile.linkRefs = new long[maxLinkCount];
+            tile.linkNext = new int[maxLinkCount];
+            tile.linkEdge = new byte[maxLinkCount];
+            tile.linkSide = new byte[maxLinkCount];
+            tile.linkBmin = new byte[maxLinkCount];
+            tile.linkBmax = new byte[maxLinkCount];
+        }
+        for (int i = 0; i < maxLinkCount; i++) {
+            tile.linkRefs[i] = 0;
+            tile.linkNext[i] = i + 1 < maxLinkCount ? i + 1 : (int) DT_NULL_LINK;
+        }
+        tile.linksFreeList = maxLinkCount > 0 ? 0 : DT_NULL_LINK;
+        
+        tile.dynamicLinksO.clear();
+        
+        for (int i = 0; i < tile.header.polyCount; i++) {
+            tile.polys[i].index = i;
+            tile.polys[i].firstLink = DT_NULL_LINK;
+        }
+    }
+    
+    /**
+     * 从瓦片分配一个链接
+     * @param tile 瓦片
+     * @param offMesh 是否为离网链接（从动态链接池分配，不受maxLinkCount限制）
+     * @return 链接索引，如果没有空闲链接则返回DT_NULL_LINK
+     */
+    private long allocLink(MeshTile tile, boolean offMesh) {
+        if (!offMesh) {
+            if (tile.linksFreeList == DT_NULL_LINK) {
+                return DT_NULL_LINK;
+            }
+            long link = tile.linksFreeList;
+            tile.linksFreeList = tile.linkNext[(int) link] & 0xffffffffL;
+            return link;
+        }
+        
+        return tile.header.maxLinkCount + tile.dynamicLinksO.alloc();
+    }
+    
+    /**
+     * 将链接归还到空闲列表
+     * @param tile 瓦片
+     * @param link 链接索引
+     */
+    private void freeLink(MeshTile tile, long link) {
+        int maxLinkCount = tile.header.maxLinkCount;
+        if (link >= maxLinkCount) {
+            tile.dynamicLinksO.free((int) (link - maxLinkCount));
+        } else {
+            tile.linkRefs[(int) link] = 0;
+            tile.linkNext[(int) link] = (int) tile.linksFreeList;
+            tile.linksFreeList = link;
+        }
+    }
+    
+    /**
+     * 分配链接并加入多边形的链接链表头部
+     * @param tile 瓦片
+     * @param poly 多边形
+     * @param ref 邻居引用
+     * @param edge 边索引
+     * @param side 边界侧或链接标志
+     * @param offMesh 是否为离网链接
+     * @return 链接索引，如果没有空闲链接则返回DT_NULL_LINK
+     */
+    private long addPolyLink(MeshTile tile, Poly poly, long ref, int edge, int side, boolean offMesh) {
+        long idx = allocLink(tile, offMesh);
+        if (idx == DT_NULL_LINK) {
+            return DT_NULL_LINK;
+        }
+        int maxLinkCount = tile.header.maxLinkCount;
+        if (idx >= maxLinkCount) {
+            LinkPool pool = tile.dynamicLinksO;
+            int i = (int) (idx - maxLinkCount);
+            pool.refs[i] = ref;
+            pool.edge[i] = (byte) edge;
+            pool.side[i] = (byte) side;
+            pool.bmin[i] = 0;
+            pool.bmax[i] = 0;
+            pool.next[i] = (int) poly.firstLink;
+        } else {
+            int i = (int) idx;
+            tile.linkRefs[i] = ref;
+            tile.linkEdge[i] = (byte) edge;
+            tile.linkSide[i] = (byte) side;
+            tile.linkBmin[i] = 0;
+            tile.linkBmax[i] = 0;
+            tile.linkNext[i] = (int) poly.firstLink;
+        }
+        poly.firstLink = idx;
+        return idx;
+    }
+    
+    /**
+     * 为瓦片内相邻的多边形建立链接
+     *
+     * 内部边（neis为多边形索引+1）的链接side为0xff，覆盖整条边。
+     * 反向遍历边，使链表中的链接按边索引从小到大排列。
+     *
+     * @param tile 瓦片
+     */
+    private void connectIntLinks(MeshTile tile) {
+        long base = getPolyRefBase(tile);
+        int ground = PolyTypes.DT_POLYTYPE_GROUND.getValue();
+        
+        for (int i = 0; i < tile.header.polyCount; i++) {
+            Poly poly = tile.polys[i];
+            if (poly.getType() != ground) {
+                continue;
+            }
+            for (int j = poly.vertCount - 1; j >= 0; j--) {
+                // 跳过不可通行边和瓦片边界边
+                int nei = tile.getPolyNei(poly, j);
+                if (nei == 0 || (nei & DT_EXT_LINK) != 0) {
+                    continue;
+                }
+                if (addPolyLink(tile, poly, base | (long) (nei - 1), j, 0xff, false) == DT_NULL_LINK) {
+                    return;
+                }
+            }
+        }
+    }
+    
+    /**
+     * 将瓦片的边界边连接到目标瓦片
+     *
+     * 边界边的neis为DT_EXT_LINK | 方向。链接的bmin/bmax记录重叠部分在边上的参数范围
+     * [0, 255]，用于计算跨瓦片的门户。
+     *
+     * @param tile 瓦片
+     * @param target 目标瓦片
+     * @param side 目标瓦片所在的方向，-1表示连接所有方向（同一位置的其他层）
+     */
+    private void connectExtLinks(MeshTile tile, MeshTile target, int side) {
+        long[] con = new long[DT_MAX_PORTAL_CONNECTIONS];
+        float[] conArea = new float[DT_MAX_PORTAL_CONNECTIONS * 2];
+        float[] va = new float[3];
+        float[] vb = new float[3];
+        
+        for (int i = 0; i < tile.header.polyCount; i++) {
+            Poly poly = tile.polys[i];
+            int nv = poly.vertCount;
+            for (int j = 0; j < nv; j++) {
+                // 跳过非门户边
+                int nei = tile.getPolyNei(poly, j);
+                if ((nei & DT_EXT_LINK) == 0) {
+                    continue;
+                }
+                int dir = nei & 0xff;
+                if (side != -1 && dir != side) {
+                    continue;
+                }
+                
+                tile.getVert(tile.getPolyVert(poly, j), va, 0);
+                tile.getVert(tile.getPolyVert(poly, (j + 1) % nv), vb, 0);
+                int ncon = findConnectingPolys(va, vb, target, dtOppositeTile(dir), con, conArea, DT_MAX_PORTAL_CONNECTIONS);
+                for (int k = 0; k < ncon; k++) {
+                    long idx = addPolyLink(tile, poly, con[k], j, dir, false);
+                    if (idx == DT_NULL_LINK) {
+                        return;
+                    }
+                    
+                    // 将门户范围压缩为字节
+                    int axis = dir == 0 || dir == 4 ? 2 : dir == 2 || dir == 6 ? 0 : -1;
+                    if (axis != -1) {
+                        double a = va[axis];
+                        double b = vb[axis];
+                        double tmin = (conArea[k * 2] - a) / (b - a);
+                        double tmax = (conArea[k * 2 + 1] - a) / (b - a);
+                        if (tmin > tmax) {
+                            double tmp = tmin;
+                            tmin = tmax;
+                            tmax = tmp;
+                        }
+                        tile.linkBmin[(int) idx] = (byte) (dtClamp(tmin, 0.0, 1.0) * 255.0);
+                        tile.linkBmax[(int) idx] = (byte) (dtClamp(tmax, 0.0, 1.0) * 255.0);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * 查找目标瓦片中与指定边界边重叠的多边形
+     * @param va 边起点
+     * @param vb 边终点
+     * @param tile 目标瓦片
+     * @param side 目标瓦片中边界边的方向
+     * @param con 输出：连接的多边形引用
+     * @param conArea 输出：每个连接在边上的重叠范围 [(min, max) * n]
+     * @param maxCon 最大连接数量
+     * @return 连接数量
+     */
+    private int findConnectingPolys(float[] va, float[] vb, MeshTile tile, int side,
+                                    long[] con, float[] conArea, int maxCon) {
+        float[] amin = new float[2];
+        float[] amax = new float[2];
+        float[] bmin = new float[2];
+        float[] bmax = new float[2];
+        float[] vc = new float[3];
+        float[] vd = new float[3];
+        calcSlabEndPoints(va, vb, amin, amax, side);
+        float apos = getSlabCoord(va, side);
+        float climb = params != null ? (float) params.walkableClimb : 0.0f;
+        
+        int m = DT_EXT_LINK | side;
+        int n = 0;
+        long base = getPolyRefBase(tile);
+        
+        for (int i = 0; i < tile.header.polyCount; i++) {
+            Poly poly = tile.polys[i];
+            int nv = poly.vertCount;
+            for (int j = 0; j < nv; j++) {
+                // 跳过不朝向指定方向的边
+                if (tile.getPolyNei(poly, j) != m) {
+                    continue;
+                }
+                tile.getVert(tile.getPolyVert(poly, j), vc, 0);
+                tile.getVert(tile.getPolyVert(poly, (j + 1) % nv), vd, 0);
+                
+                // 两条边不在同一条边界线上
+                float bpos = getSlabCoord(vc, side);
+                if (Math.abs(apos - bpos) > 0.01f) {
+                    continue;
+                }
+                
+                // 检查两条边是否接触
+                calcSlabEndPoints(vc, vd, bmin, bmax, side);
+                if (!overlapSlabs(amin, amax, bmin, bmax, 0.01f, climb)) {
+                    continue;
+                }
+                
+                if (n < maxCon) {
+                    conArea[n * 2] = Math.max(amin[0], bmin[0]);
+                    conArea[n * 2 + 1] = Math.min(amax[0], bmax[0]);
+                    con[n] = base | (long) i;
+                    n++;
+                }
+                break;
+            }
+        }
+        return n;
+    }
+    
+    /**
+     * 获取边界边在垂直于边界方向上的坐标
+     * @param v 顶点
+     * @param side 边界方向
+     * @return 坐标
+     */
+    private static float getSlabCoord(float[] v, int side) {
+        if (side == 0 || side == 4) {
+            return v[0];
+        } else if (side == 2 || side == 6) {
+            return v[2];
+        }
+        return 0.0f;
+    }
+    
+    /**
+     * 计算边界边沿边界方向的端点（沿边坐标, 高度），按沿边坐标排序
+     * @param va 边起点
+     * @param vb 边终点
+     * @param bmin 输出：较小的端点
+     * @param bmax 输出：较大的端点
+     * @param side 边界方向
+     */
+    private static void calcSlabEndPoints(float[] va, float[] vb, float[] bmin, float[] bmax, int side) {
+        int axis;
+        if (side == 0 || side == 4) {
+            axis = 2;
+        } else if (side == 2 || side == 6) {
+            axis = 0;
+        } else {
+            return;
+        }
+        if (va[axis] < vb[axis]) {
+            bmin[0] = va[axis];
+            bmin[1] = va[1];
+            bmax[0] = vb[axis];
+            bmax[1] = vb[1];
+        } else {
+            bmin[0] = vb[axis];
+            bmin[1] = vb[1];
+            bmax[0] = va[axis];
+            bmax[1] = va[1];
+        }
+    }
+    
+    /**
+     * 检查两条边界边是否重叠
+     *
+     * 边在水平方向上收缩px，只在端点接触的边不相连；垂直方向上允许py的高度差。
+     *
+     * @param amin 边A的较小端点
+     * @param amax 边A的较大端点
+     * @param bmin 边B的较小端点
+     * @param bmax 边B的较大端点
+     * @param px 水平容差
+     * @param py 垂直容差
+     * @return true如果重叠
+     */
+    private static boolean overlapSlabs(float[] amin, float[] amax, float[] bmin, float[] bmax, float px, float py) {
+        // 检查水平重叠
+        float minx = Math.max(amin[0] + px, bmin[0] + px);
+        float maxx = Math.min(amax[0] - px, bmax[0] - px);
+        if (minx > maxx) {
+            return false;
+        }
+        
+        // 检查垂直重叠
+        float ad = (amax[1] - amin[1]) / (amax[0] - amin[0]);
+        float ak = amin[1] - ad * amin[0];
+        float bd = (bmax[1] - bmin[1]) / (bmax[0] - bmin[0]);
+        float bk = bmin[1] - bd * bmin[0];
+        float aminy = ad * minx + ak;
+        float amaxy = ad * maxx + ak;
+        float bminy = bd * minx + bk;
+        float bmaxy = bd * maxx + bk;
+        float dmin = bminy - aminy;
+        float dmax = bmaxy - amaxy;
+        
+        // 交叉的边总是重叠
+        if (dmin * dmax < 0) {
+            return true;
+        }
+        
+        // 检查端点处的高度差
+        float thr = (py * 2) * (py * 2);
+        return dmin * dmin <= thr || dmax * dmax <= thr;
+    }
+    
+    /**
+     * 移除瓦片中指向目标瓦片的所有链接
+     * @param tile 瓦片
+     * @param target 目标瓦片
+     */
+    private void unconnectLinks(MeshTile tile, MeshTile target) {
+        int targetNum = target.index;
+        for (int i = 0; i < tile.header.polyCount; i++) {
+            Poly poly = tile.polys[i];
+            long j = poly.firstLink;
+            long pj = DT_NULL_LINK;
+            while (j != DT_NULL_LINK) {
+                long nj = getLinkNext(tile, j);
+                if (decodePolyIdTile(getLinkRef(tile, j)) == targetNum) {
+                    if (pj == DT_NULL_LINK) {
+                        poly.firstLink = nj;
+                    } else {
+                        setLinkNext(tile, pj, nj);
+                    }
+                    freeLink(tile, j);
+                } else {
+                    pj = j;
+                }
+                j = nj;
+            }
+        }
+    }
+    
+    // ========== 离网连接 ==========
+    
+    /**
+     * 连接瓦片内离网连接的起点
+     *
+     * 点连接的起点总是落在所属瓦片内；段连接的每个部分在瓦片内连接两端。
+     *
+     * @param tile 瓦片
+     */
+    private void baseOffMeshLinks(MeshTile tile) {
+        float[] p = new float[3];
+        float[] q = new float[3];
+        
+        for (int i = 0; i < tile.header.offMeshConCount; i++) {
+            OffMeshConnection con = tile.offMeshCons[i];
+            p[0] = (float) con.pos[0];
+            p[1] = (float) con.pos[1];
+            p[2] = (float) con.pos[2];
+            connectOffMeshEndpoint(tile, con.poly, 0, tile, p, (float) con.rad,
+                                   getSnapHeight(con.height), con.getBiDirectional(), 0);
+        }
+        
+        // 段连接按部分拆分，每个部分连接两条段上对应位置的中点
+        for (int i = 0; i < tile.header.offMeshSegConCount; i++) {
+            OffMeshSegmentConnection seg = tile.offMeshSeg[i];
+            int npolys = Math.min(seg.npolys, DT_MAX_OFFMESH_SEGMENT_PARTS);
+            for (int k = 0; k < npolys; k++) {
+                float t = (k + 0.5f) / npolys;
+                for (int j = 0; j < 3; j++) {
+                    p[j] = (float) (seg.startA[j] + (seg.endA[j] - seg.startA[j]) * t);
+                    q[j] = (float) (seg.startB[j] + (seg.endB[j] - seg.startB[j]) * t);
+                }
+                int ip = tile.header.offMeshSegPolyBase + seg.firstPoly + k;
+                float height = getSnapHeight(-1.0);
+                if (connectOffMeshEndpoint(tile, ip, 0, tile, p, (float) seg.rad, height, seg.getBiDirectional(), 0)) {
+                    connectOffMeshEndpoint(tile, ip, 1, tile, q, (float) seg.rad, height, seg.getBiDirectional(), 0);
+                }
+            }
+        }
+    }
+    
+    /**
+     * 连接从目标瓦片落到当前瓦片的离网连接终点
+     * @param tile 终点所在瓦片
+     * @param target 拥有离网连接的瓦片
+     * @param side 目标瓦片相对当前瓦片的方向，-1表示同一瓦片
+     */
+    private void connectExtOffMeshLinks(MeshTile tile, MeshTile target, int side) {
+        int oppositeSide = side == -1 ? 0xff : dtOppositeTile(side);
+        float[] p = new float[3];
+        
+        for (int i = 0; i < target.header.offMeshConCount; i++) {
+            OffMeshConnection con = target.offMeshCons[i];
+            if (con.side != oppositeSide) {
+                continue;
+            }
+            
+            // 跳过起点未能连接的离网连接
+            if (target.polys[con.poly].firstLink == DT_NULL_LINK) {
+                continue;
+            }
+            
+            p[0] = (float) con.pos[3];
+            p[1] = (float) con.pos[4];
+            p[2] = (float) con.pos[5];
+            connectOffMeshEndpoint(target, con.poly, 1, tile, p, (float) con.rad,
+                                   getSnapHeight(con.height), con.getBiDirectional(),
+                                   side == -1 ? 0 : oppositeSide & DT_LINK_FLAG_SIDE_MASK);
+        }
+    }
+    
+    /**
+     * 将离网连接的一个端点连接到落点多边形
+     *
+     * 同时创建离网多边形到落点多边形和落点多边形到离网多边形的链接。
+     * 与行进方向相反的单向链接带有回溯标志，只在回溯模式的过滤器中有效。
+     *
+     * @param conTile 离网多边形所在瓦片
+     * @param conPoly 离网多边形索引
+     * @param vert 端点 (0: 起点, 1: 终点)
+     * @param landTile 落点所在瓦片
+     * @param p 端点位置
+     * @param rad 端点半径
+     * @param height 端点捕捉高度
+     * @param bidir 是否双向
+     * @param side 跨瓦片时的边界侧
+     * @return true如果找到落点多边形
+     */
+    private boolean connectOffMeshEndpoint(MeshTile conTile, int conPoly, int vert, MeshTile landTile,
+                                           float[] p, float rad, float height, boolean bidir, int side) {
+        float[] ext = {rad, height, rad};
+        float[] nearestPt = new float[3];
+        long landRef = findNearestPolyInTile(landTile, p, ext, nearestPt);
+        if (landRef == 0) {
+            return false;
+        }
+        
+        // 最近多边形的搜索范围是包围盒，进一步检查水平距离
+        float dx = nearestPt[0] - p[0];
+        float dz = nearestPt[2] - p[2];
+        if (dx * dx + dz * dz > rad * rad) {
+            return false;
+        }
+        
+        // 将端点捕捉到导航网格上
+        Poly poly = conTile.polys[conPoly];
+        conTile.setVert(conTile.getPolyVert(poly, vert), nearestPt);
+        
+        int flags = DT_LINK_FLAG_OFFMESH_CON | DT_LINK_FLAG_OFFMESH_CON_ENABLED |
+                    (bidir ? DT_LINK_FLAG_OFFMESH_CON_BIDIR : 0);
+        int backFlags = bidir ? flags : flags | DT_LINK_FLAG_OFFMESH_CON_BACKTRACKER;
+        
+        // 起点：落点 -> 离网多边形为前进方向；终点：离网多边形 -> 落点为前进方向
+        Poly landPoly = landTile.polys[decodePolyIdPoly(landRef)];
+        long conRef = getPolyRefBase(conTile) | conPoly;
+        addPolyLink(conTile, poly, landRef, vert, (vert == 0 ? backFlags : flags) | side, true);
+        addPolyLink(landTile, landPoly, conRef, 0xff, (vert == 0 ? flags : backFlags) | side, true);
+        return true;
+    }
+    
+    /**
+     * 获取离网连接端点的捕捉高度
+     * @param height 连接的捕捉高度（小于0 = 使用步高）
+     * @return 捕捉高度
+     */
+    private float getSnapHeight(double height) {
+        return (float) (height < 0.0 && params != null ? params.walkableClimb : height);
+    }
+    
+    /**
+     * 启用或禁用离网连接
+     *
+     * 只切换链接上的DT_LINK_FLAG_OFFMESH_CON_ENABLED标志，不需要重新连接瓦片。
+     *
+     * @param userId 离网连接的用户id
+     * @param enabled 是否启用
+     * @return 更新的离网连接数量
+     */
+    public int setOffMeshConnectionEnabled(long userId, boolean enabled) {
+        if (snapshot == null) {
+            return 0;
+        }
+        int count = 0;
+        beginWrite();
+        long version = stateVersion + 1;
+        MeshTile[] ts = writableTiles();
+        for (int it = 0; it < maxTiles; it++) {
+            MeshTile tile = ts[it];
+            if (tile == null || tile.header == null ||
+                tile.header.offMeshConCount + tile.header.offMeshSegConCount == 0 ||
+                !hasOffMeshUser(tile, userId)) {
+                continue;
+            }
+            touchTile(tile);
+            tile = writable(tile);
+            for (int i = 0; i < tile.header.offMeshConCount; i++) {
+                if (tile.offMeshCons[i].userId == userId) {
+                    setOffMeshPolyEnabled(tile, tile.offMeshCons[i].poly, enabled, version);
+                    count++;
+                }
+            }
+            for (int i = 0; i < tile.header.offMeshSegConCount; i++) {
+                OffMeshSegmentConnection seg = tile.offMeshSeg[i];
+                if (seg.userId == userId) {
+                    for (int k = 0; k < seg.npolys; k++) {
+                        setOffMeshPolyEnabled(tile, tile.header.offMeshSegPolyBase + seg.firstPoly + k, enabled, version);
+                    }
+                    count++;
+                }
+            }
+        }
+        if (count > 0) {
+            stateVersion = version;
+        }
+        endWrite();
+        return count;
+    }
+    
+    /**
+     * 检查瓦片中是否有指定用户id的离网连接
+     * @param tile 瓦片
+     * @param userId 离网连接的用户id
+     * @return true如果存在
+     */
+    private static boolean hasOffMeshUser(MeshTile tile, long userId) {
+        for (int i = 0; i < tile.header.offMeshConCount; i++) {
+            if (tile.offMeshCons[i].userId == userId) {
+                return true;
+            }
+        }
+        for (int i = 0; i < tile.header.offMeshSegConCount; i++) {
+            if (tile.offMeshSeg[i].userId == userId) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * 切换离网多边形及其落点多边形上的链接启用标志
+     *
+     * 修改的瓦片版本更新为本次写操作的状态版本，调用方在有修改时发布该版本。
+     *
+     * @param tile 离网多边形所在瓦片
+     * @param ip 离网多边形索引
+     * @param enabled 是否启用
+     * @param version 本次写操作的状态版本
+     */
+    private void setOffMeshPolyEnabled(MeshTile tile, int ip, boolean enabled, long version) {
+        long conRef = getPolyRefBase(tile) | ip;
+        MeshTile[] landTile = new MeshTile[1];
+        Poly[] landPoly = new Poly[1];
+        
+        tile.version = version;
+        for (long k = tile.polys[ip].firstLink; k != DT_NULL_LINK; k = getLinkNext(tile, k)) {
+            setLinkSide(tile, k, setEnabledFlag(getLinkSide(tile, k), enabled));
+            
+            // 落点多边形指回离网多边形的链接
+            long landRef = getLinkRef(tile, k);
+            if (getTileAndPolyByRef(landRef, landTile, landPoly)) {
+                MeshTile lt = writable(landTile[0]);
+                Poly lp = lt.polys[decodePolyIdPoly(landRef)];
+                lt.version = version;
+                for (long j = lp.firstLink; j != DT_NULL_LINK; j = getLinkNext(lt, j)) {
+                    if (getLinkRef(lt, j) == conRef) {
+                        setLinkSide(lt, j, setEnabledFlag(getLinkSide(lt, j), enabled));
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * 设置链接标志中的启用位
+     * @param side 链接标志
+     * @param enabled 是否启用
+     * @return 新的链接标志
+     */
+    private static int setEnabledFlag(int side, boolean enabled) {
+        return enabled ? side | DT_LINK_FLAG_OFFMESH_CON_ENABLED : side & ~DT_LINK_FLAG_OFFMESH_CON_ENABLED;
+    }
+    
+    // ========== 瓦片内多边形查询 ==========
+    
+    /**
+     * 在瓦片中查找离指定点最近的地面多边形
+     * @param tile 瓦片
+     * @param center 查询中心
+     * @param extents 查询包围盒的半尺寸
+     * @param nearestPt 输出：多边形上的最近点
+     * @return 最近的多边形引用，如果没有找到则返回0
+     */
+    public long findNearestPolyInTile(MeshTile tile, float[] center, float[] extents, float[] nearestPt) {
+        float[] bmin = {center[0] - extents[0], center[1] - extents[1], center[2] - extents[2]};
+        float[] bmax = {center[0] + extents[0], center[1] + extents[1], center[2] + extents[2]};
+        float[] closest = new float[3];
+        long[] polys = new long[128];
+        int npolys = queryPolygonsInTile(tile, bmin, bmax, polys, polys.length);
+        
+        long nearest = 0;
+        float nearestDistSqr = Float.MAX_VALUE;
+        for (int i = 0; i < npolys; i++) {
+            Poly poly = tile.polys[decodePolyIdPoly(polys[i])];
+            boolean posOverPoly = closestPointOnPoly(tile, poly, center, closest);
+            
+            // 点在多边形正上方时只考虑高度差超出步高的部分
+            float d;
+            if (posOverPoly) {
+                float climb = params != null ? (float) params.walkableClimb : 0.0f;
+                d = Math.max(Math.abs(center[1] - closest[1]) - climb, 0.0f);
+                d = d * d;
+            } else {
+                float dx = closest[0] - center[0];
+                float dy = closest[1] - center[1];
+                float dz = closest[2] - center[2];
+                d = dx * dx + dy * dy + dz * dz;
+            }
+            
+            if (d < nearestDistSqr) {
+                nearestPt[0] = closest[0];
+                nearestPt[1] = closest[1];
+                nearestPt[2] = closest[2];
+                nearestDistSqr = d;
+                nearest = polys[i];
+            }
+        }
+        return nearest;
+    }
+    
+    /**
+     * 查询瓦片中与包围盒重叠的地面多边形
+     *
+     * 瓦片有BV树时遍历量化包围盒，不重叠的内部节点通过转义索引跳过整个子树；
+     * 否则逐个检查多边形的包围盒。
+     *
+     * @param tile 瓦片
+     * @param qmin 查询包围盒最小点
+     * @param qmax 查询包围盒最大点
+     * @param polys 输出：多边形引用
+     * @param maxPolys 输出数组的最大数量
+     * @return 找到的多边形数量
+     */
+    public int queryPolygonsInTile(MeshTile tile, float[] qmin, float[] qmax, long[] polys, int maxPolys) {
+        touchTile(tile);
+        MeshHeader header = tile.header;
+        long base = getPolyRefBase(tile);
+        int ground = PolyTypes.DT_POLYTYPE_GROUND.getValue();
+        int n = 0;
+        
+        double qfac = params != null ? params.resolutionParams[header.resolution].bvQuantFactor : 0.0;
+        if (header.bvNodeCount > 0 && tile.bvBounds != null && qfac > 0.0) {
+            // 将查询包围盒限制在瓦片包围盒内并量化
+            int[] bmin = new int[3];
+            int[] bmax = new int[3];
+            for (int k = 0; k < 3; k++) {
+                double mn = dtClamp(qmin[k], header.bmin[k], header.bmax[k]) - header.bmin[k];
+                double mx = dtClamp(qmax[k], header.bmin[k], header.bmax[k]) - header.bmin[k];
+                bmin[k] = (int) (qfac * mn) & 0xfffe;
+                bmax[k] = (int) (qfac * mx + 1) | 1;
+            }
+            
+            short[] bounds = tile.bvBounds;
+            int[] index = tile.bvIndex;
+            int node = 0;
+            int end = header.bvNodeCount;
+            while (node < end) {
+                int b = node * 6;
+                boolean overlap = bmin[0] <= (bounds[b + 3] & 0xffff) && bmax[0] >= (bounds[b] & 0xffff) &&
+                                  bmin[1] <= (bounds[b + 4] & 0xffff) && bmax[1] >= (bounds[b + 1] & 0xffff) &&
+                                  bmin[2] <= (bounds[b + 5] & 0xffff) && bmax[2] >= (bounds[b + 2] & 0xffff);
+                int i = index[node];
+                boolean isLeaf = i >= 0;
+                if (isLeaf && overlap && n < maxPolys && tile.polys[i].getType() == ground) {
+                    polys[n++] = base | i;
+                }
+                if (overlap || isLeaf) {
+                    node++;
+                } else {
+                    node -= i;
+                }
+            }
+            return n;
+        }
+        
+        for (int i = 0; i < header.polyCount && n < maxPolys; i++) {
+            Poly poly = tile.polys[i];
+            if (poly.getType() == ground && overlapPolyBounds(tile, poly, qmin, qmax)) {
+                polys[n++] = base | i;
+            }
+        }
+        return n;
+    }
+    
+    /**
+     * 计算多边形上离指定点最近的点
+     *
+     * 点在多边形正上方或正下方时，最近点为多边形在该处的高度；否则为边界上的最近点。
+     *
+     * @param tile 瓦片
+     * @param poly 多边形
+     * @param pos 查询点
+     * @param closest 输出：最近点
+     * @return true如果查询点在多边形正上方或正下方
+     */
+    public boolean closestPointOnPoly(MeshTile tile, Poly poly, float[] pos, float[] closest) {
+        float[] verts = new float[DT_VERTS_PER_POLYGON * 3];
+        int nv = tile.getPolyVerts(poly, verts);
+        
+        // 判断点是否在多边形内（xz平面）
+        boolean inside = nv >= 3 && pointInPoly2D(verts, nv, pos);
+        
+        if (inside) {
+            // 在三角扇中插值高度
+            int va = 0;
+            for (int k = 2; k < nv; k++) {
+                int vb = (k - 1) * 3;
+                int vc = k * 3;
+                float v0x = verts[vc] - verts[va];
+                float v0z = verts[vc + 2] - verts[va + 2];
+                float v1x = verts[vb] - verts[va];
+                float v1z = verts[vb + 2] - verts[va + 2];
+                float v2x = pos[0] - verts[va];
+                float v2z = pos[2] - verts[va + 2];
+                float denom = v0x * v1z - v0z * v1x;
+                if (Math.abs(denom) < 1e-9f) {
+                    continue;
+                }
+                float u = (v1z * v2x - v1x * v2z) / denom;
+                float v = (v0x * v2z - v0z * v2x) / denom;
+                if (u >= -1e-4f && v >= -1e-4f && u + v <= 1.0f + 1e-4f) {
+                    closest[0] = pos[0];
+                    closest[1] = verts[va + 1] + (verts[vc + 1] - verts[va + 1]) * u +
+                                 (verts[vb + 1] - verts[va + 1]) * v;
+                    closest[2] = pos[2];
+                    return true;
+                }
+            }
+        }
+        
+        // 边界上的最近点
+        float best = Float.MAX_VALUE;
+        for (int i = 0, j = nv - 1; i < nv; j = i++) {
+            int vp = j * 3;
+            int vq = i * 3;
+            float dx = verts[vq] - verts[vp];
+            float dy = verts[vq + 1] - verts[vp + 1];
+            float dz = verts[vq + 2] - verts[vp + 2];
+            float lenSqr = dx * dx + dy * dy + dz * dz;
+            float t = 0.0f;
+            if (lenSqr > 0.0f) {
+                t = ((pos[0] - verts[vp]) * dx + (pos[1] - verts[vp + 1]) * dy + (pos[2] - verts[vp + 2]) * dz) / lenSqr;
+                t = Math.max(0.0f, Math.min(1.0f, t));
+            }
+            float cx = verts[vp] + dx * t;
+            float cy = verts[vp + 1] + dy * t;
+            float cz = verts[vp + 2] + dz * t;
+            float d = (cx - pos[0]) * (cx - pos[0]) + (cy - pos[1]) * (cy - pos[1]) + (cz - pos[2]) * (cz - pos[2]);
+            if (d < best) {
+                best = d;
+                closest[0] = cx;
+                closest[1] = cy;
+                closest[2] = cz;
+            }
+        }
+        return inside;
+    }
+    
+    /**
+     * 检查点是否在多边形内（xz平面）
+     * @param verts 多边形顶点 [(x, y, z) * nv]
+     * @param nv 顶点数量
+     * @param pos 查询点
+     * @return true如果在多边形内
+     */
+    private static boolean pointInPoly2D(float[] verts, int nv, float[] pos) {
+        boolean c = false;
+        for (int i = 0, j = nv - 1; i < nv; j = i++) {
+            int vi = i * 3;
+            int vj = j * 3;
+            if (((verts[vi + 2] > pos[2]) != (verts[vj + 2] > pos[2])) &&
+                (pos[0] < (verts[vj] - verts[vi]) * (pos[2] - verts[vi + 2]) / (verts[vj + 2] - verts[vi + 2]) + verts[vi])) {
+                c = !c;
+            }
+        }
+        return c;
+    }
+    
+    /**
+     * 检查多边形包围盒是否与查询包围盒重叠
+     * @param tile 瓦片
+     * @param poly 多边形
+     * @param bmin 查询包围盒最小值
+     * @param bmax 查询包围盒最大值
+     * @return true如果重叠
+     */
+    private static boolean overlapPolyBounds(MeshTile tile, Poly poly, float[] bmin, float[] bmax) {
+        float[] verts = new float[DT_VERTS_PER_POLYGON * 3];
+        int nv = tile.getPolyVerts(poly, verts);
+        for (int axis = 0; axis < 3; axis++) {
+            float mn = Float.MAX_VALUE;
+            float mx = -Float.MAX_VALUE;
+            for (int k = 0; k < nv; k++) {
+                float v = verts[k * 3 + axis];
+                mn = Math.min(mn, v);
+                mx = Math.max(mx, v);
+            }
+            if (mn > bmax[axis] || mx < bmin[axis]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * 获取相反方向的瓦片边
+     * @param side 瓦片边 [0, 7]
+     * @return 相反方向的瓦片边
+     */
+    private static int dtOppositeTile(int side) {
+        return (side + 4) & 0x7;
+    }
+    
+    // ========== 按面积随机采样 ==========
+    
+    /**
+     * 构建瓦片的多边形面积前缀和
+     *
+     * 在瓦片加入导航网格时调用一次，之后随机采样只需二分查找。
+     * 离网连接多边形没有面积，不会被采样到。
+     *
+     * @param tile 瓦片
+     */
+    public void buildTileAreaTable(MeshTile tile) {
+        int polyCount = tile.header.polyCount;
+        float[] sums = new float[polyCount];
+        float acc = 0.0f;
+        for (int i = 0; i < polyCount; i++) {
+            Poly poly = tile.polys[i];
+            if (poly.getType() == PolyTypes.DT_POLYTYPE_GROUND.getValue()) {
+                acc += calcPolyArea(tile, poly);
+            }
+            sums[i] = acc;
+        }
+        tile.polyAreaSums = sums;
+        tile.totalArea = acc;
+        tileAreaTable = null;
+    }
+    
+    /**
+     * 计算多边形在xz平面上的面积
+     * @param tile 瓦片
+     * @param poly 多边形
+     * @return 面积
+     */
+    private static float calcPolyArea(MeshTile tile, Poly poly) {
+        float[] verts = new float[DT_VERTS_PER_POLYGON * 3];
+        int nv = tile.getPolyVerts(poly, verts);
+        float area = 0.0f;
+        for (int j = 2; j < nv; j++) {
+            int vb = (j - 1) * 3;
+            int vc = j * 3;
+            float abx = verts[vb] - verts[0];
+            float abz = verts[vb + 2] - verts[2];
+            float acx = verts[vc] - verts[0];
+            float acz = verts[vc + 2] - verts[2];
+            area += Math.abs(acx * abz - abx * acz) * 0.5f;
+        }
+        return area;
+    }
+    
+    /**
+     * 按面积权重采样一个地面多边形
+     *
+     * 先在瓦片面积前缀和上二分查找瓦片，再用剩余的随机量在瓦片的多边形前缀和上
+     * 二分查找多边形，因此一次采样只消耗一个随机数，复杂度为O(log n)。
+     *
+     * @param r 随机数 [0, 1)
+     * @return 多边形引用，如果导航网格没有可行走面积则返回0
+     */
+    public long samplePolyByArea(float r) {
+        TileSnapshot s = snapshot;
+        if (s == null) {
+            return 0;
+        }
+        MeshTile[] ts = s.tiles;
+        TileAreaTable table = tileAreaTable;
+        if (table == null || table.tiles != ts) {
+            float[] sums = new float[maxTiles];
+            float acc = 0.0f;
+            for (int i = 0; i < maxTiles; i++) {
+                MeshTile tile = ts[i];
+                if (tile != null && tile.header != null) {
+                    acc += tile.totalArea;
+                }
+                sums[i] = acc;
+            }
+            table = new TileAreaTable(ts, sums);
+            tileAreaTable = table;
+        }
+        float[] tileAreaSums = table.sums;
+        
+        float total = maxTiles > 0 ? tileAreaSums[maxTiles - 1] : 0.0f;
+        if (total <= 0.0f) {
+            return 0;
+        }
+        
+        float target = r * total;
+        int it = upperBound(tileAreaSums, maxTiles, target);
+        MeshTile tile = ts[it];
+        float local = target - (it > 0 ? tileAreaSums[it - 1] : 0.0f);
+        int ip = upperBound(tile.polyAreaSums, tile.header.polyCount, local);
+        return encodePolyId(tile.salt, it, ip);
+    }
+    
+    /**
+     * 在前缀和数组中查找第一个大于目标值的位置
+     * @param sums 非递减的前缀和数组
+     * @param n 有效元素数量
+     * @param value 目标值
+     * @return 索引（结果被限制在最后一个正面积元素上）
+     */
+    private static int upperBound(float[] sums, int n, float value) {
+        int lo = 0;
+        int hi = n - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sums[mid] > value) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        // 跳过浮点误差导致落在零面积元素上的情况
+        while (lo > 0 && sums[lo] == sums[lo - 1]) {
+            lo--;
+        }
+        return lo;
+    }
+    
+    /**
+     * 获取指定索引的瓦片
+     * @param index 瓦片索引
+     * @return 瓦片实例，如果索引无效则返回null
+     */
+    public MeshTile getTile(int index) {
+        TileSnapshot s = snapshot;
+        if (s == null || index < 0 || index >= maxTiles) {
+            return null;
+        }
+        MeshTile tile = s.tiles[index];
+        if (tile != null) {
+            touchTile(tile);
+        }
+        return tile;
+    }
+    
+    /**
+     * 设置解码瓦片缓存的容量
+     *
+     * 容量大于0时最多保持capacity个瓦片处于解码状态，超出时最久未访问的瓦片被压缩，
+     * 通过引用或坐标访问压缩的瓦片时自动解码。容量至少为DT_MIN_DECODED_TILES。
+     * 查询步骤同时使用当前瓦片和相邻瓦片期间暂停淘汰，解码瓦片数量可以暂时超过容量；
+     * 跨越多个瓦片访问保存的瓦片对象可能已被压缩，需要通过引用重新取得。
+     * 容量为0时不再自动压缩，已压缩的瓦片在访问时解码。
+     * 访问时解码会修改瓦片，写时复制模式下不能设置容量。
+     *
+     * 解码和淘汰没有同步：启用容量后，包括getTile、getTileAndPolyByRef、getPolyFlags在内的读取访问器
+     * 都会修改共享的瓦片和LRU链表，导航网格和所有查询只能在一个线程上使用。第一个解码瓦片或更新LRU链表的
+     * 线程成为所有者，其他线程随后的访问抛出IllegalStateException；再次调用此方法会解除绑定，
+     * 之后可以在另一个线程上继续使用。
+     *
+     * @param capacity 解码瓦片的最大数量，0表示不限制
+     */
+    public void setDecodedTileCapacity(int capacity) {
+        if (copyOnWrite) {
+            return;
+        }
+        decodeThread.set(null);
+        if (capacity <= 0) {
+            decodedCapacity = 0;
+            lruHead = -1;
+            lruTail = -1;
+            decodedCount = 0;
+            return;
+        }
+        boolean rebuild = decodedCapacity == 0;
+        decodedCapacity = Math.max(capacity, DT_MIN_DECODED_TILES);
+        TileSnapshot s = snapshot;
+        if (rebuild && s != null) {
+            lruHead = -1;
+            lruTail = -1;
+            decodedCount = 0;
+            for (int i = 0; i < maxTiles; i++) {
+                MeshTile tile = s.tiles[i];
+                if (tile != null && tile.compressedData == null) {
+                    lruPushFront(i);
+                    decodedCount++;
+                }
+            }
+        }
+        trimDecodedTiles();
+    }
+    
+    /**
+     * 获取解码瓦片缓存的容量
+     * @return 解码瓦片的最大数量，0表示不限制
+     */
+    public int getDecodedTileCapacity() {
+        return decodedCapacity;
+    }
+    
+    /**
+     * 压缩指定的瓦片，之后访问该瓦片时自动解码，写时复制模式下不能压缩瓦片
+     *
+     * 压缩瓦片在访问时原地解码，之后只能在一个线程上访问导航网格（参见{@link #setDecodedTileCapacity(int)}）。
+     *
+     * @param ref 瓦片引用
+     * @return 状态码
+     */
+    public int compressTile(long ref) {
+        TileSnapshot s = snapshot;
+        if (ref == 0 || s == null || copyOnWrite) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        int slot = decodePolyIdTile(ref);
+        if (slot >= maxTiles) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        MeshTile tile = s.tiles[slot];
+        if (tile == null || tile.salt != decodePolyIdSalt(ref)) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        if (tile.compressedData == null) {
+            compressTileData(tile);
+        }
+        return Status.DT_SUCCESS.getValue();
+    }
+    
+    /**
+     * 获取处于压缩状态的瓦片数量
+     * @return 压缩瓦片数量
+     */
+    public int getCompressedTileCount() {
+        TileSnapshot s = snapshot;
+        int n = 0;
+        for (int i = 0; s != null && i < maxTiles; i++) {
+            if (s.tiles[i] != null && s.tiles[i].compressedData != null) {
+                n++;
+            }
+        }
+        return n;
+    }
+    
+    /**
+     * 获取所有压缩瓦片数据的总字节数
+     * @return 字节数
+     */
+    public long getCompressedDataSize() {
+        TileSnapshot s = snapshot;
+        long size = 0;
+        for (int i = 0; s != null && i < maxTiles; i++) {
+            if (s.tiles[i] != null && s.tiles[i].compressedData != null) {
+                size += s.tiles[i].compressedData.length;
+            }
+        }
+        return size;
+    }
+    
+    /**
+     * 确保瓦片处于解码状态，并将其标记为最近使用
+     * @param tile 瓦片
+     */
+    private void touchTile(MeshTile tile) {
+        if (tile.compressedData != null) {
+            checkDecodeThread();
+            int status = DetourTileCompressor.decompress(tile.compressedData, tile);
+            if (Status.dtStatusFailed(status)) {
+                throw new IllegalStateException("压缩的瓦片数据已损坏: " + tile.index);
+            }
+            tile.compressedData = null;
+            if (decodedCapacity > 0) {
+                lruPushFront(tile.index);
+                decodedCount++;
+                trimDecodedTiles();
+            }
+        } else if (decodedCapacity > 0 && lruHead != tile.index) {
+            checkDecodeThread();
+            lruUnlink(tile.index);
+            lruPushFront(tile.index);
+        }
+    }
+    
+    /**
+     * 检查解码瓦片的线程，第一次调用的线程成为所有者
+     *
+     * 解码和LRU链表没有同步，其他线程同时访问会破坏瓦片数据，因此拒绝所有者以外的线程。
+     */
+    private void checkDecodeThread() {
+        Thread current = Thread.currentThread();
+        if (decodeThread.get() != current && !decodeThread.compareAndSet(null, current)) {
+            throw new IllegalStateException("存在压缩瓦片时只能在一个线程上访问导航网格");
+        }
+    }
+    
+    /**
+     * 暂停解码瓦片的淘汰
+     *
+     * 查询在一个步骤中持有已取得的瓦片并继续访问其他瓦片时调用。暂停期间访问的压缩瓦片照常解码，
+     * 但不会压缩其他瓦片，已取得的瓦片在{@link #releaseDecodedTiles()}之前保持解码状态。
+     * 必须与releaseDecodedTiles成对调用，可以嵌套。
+     */
+    void holdDecodedTiles() {
+        lruHoldDepth++;
+    }
+    
+    /**
+     * 恢复解码瓦片的淘汰，最外层恢复时压缩超出容量的瓦片
+     */
+    void releaseDecodedTiles() {
+        if (--lruHoldDepth == 0) {
+            trimDecodedTiles();
+        }
+    }
+    
+    /**
+     * 压缩瓦片的当前运行时数据（包括链接）并释放解码的数组
+     * @param tile 瓦片
+     */
+    private void compressTileData(MeshTile tile) {
+        byte[] data = DetourTileCompressor.compress(tile);
+        DetourTileCompressor.releaseTileData(tile);
+        tile.compressedData = data;
+        if (decodedCapacity > 0) {
+            lruUnlink(tile.index);
+            decodedCount--;
+        }
+    }
+    
+    /**
+     * 压缩最久未使用的瓦片，直到解码瓦片数量不超过容量
+     */
+    private void trimDecodedTiles() {
+        while (lruHoldDepth == 0 && decodedCount > decodedCapacity && lruTail != -1) {
+            compressTileData(snapshot.tiles[lruTail]);
+        }
+    }
+    
+    /**
+     * 将槽位插入LRU链表头部
+     * @param slot 瓦片槽位
+     */
+    private void lruPushFront(int slot) {
+        lruPrev[slot] = -1;
+        lruNext[slot] = lruHead;
+        if (lruHead != -1) {
+            lruPrev[lruHead] = slot;
+        } else {
+            lruTail = slot;
+        }
+        lruHead = slot;
+    }
+    
+    /**
+     * 将槽位从LRU链表中移除
+     * @param slot 瓦片槽位
+     */
+    private void lruUnlink(int slot) {
+        int prev = lruPrev[slot];
+        int next = lruNext[slot];
+        if (prev != -1) {
+            lruNext[prev] = next;
+        } else {
+            lruHead = next;
+        }
+        if (next != -1) {
+            lruPrev[next] = prev;
+        } else {
+            lruTail = prev;
+        }
+    }
+    
+    // ========== 多边形标志和区域 ==========
+    
+    /** 批量更新的字段：多边形标志 */
+    private static final int POLY_UPDATE_FLAGS = 0;
+    
+    /** 批量更新的字段：多边形区域 */
+    private static final int POLY_UPDATE_AREA = 1;
+    
+    /**
+     * 设置多边形标志
+     * @param ref 多边形引用
+     * @param flags 多边形标志
+     * @return 状态标志 (参见: Status)
+     */
+    public int setPolyFlags(long ref, int flags) {
+        if (getValidWriteTile(ref) == null) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        updatePolys(new long[] {ref}, 1, POLY_UPDATE_FLAGS, flags);
+        return Status.DT_SUCCESS.getValue();
+    }
+    
+    /**
+     * 获取多边形标志
+     * @param ref 多边形引用
+     * @param resultFlags 输出：多边形标志 [大小: >= 1]
+     * @return 状态标志 (参见: Status)
+     */
+    public int getPolyFlags(long ref, int[] resultFlags) {
+        MeshTile tile = getValidTile(ref);
+        if (tile == null) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        touchTile(tile);
+        resultFlags[0] = tile.polys[decodePolyIdPoly(ref)].flags;
+        return Status.DT_SUCCESS.getValue();
+    }
+    
+    /**
+     * 设置多边形区域
+     * @param ref 多边形引用
+     * @param area 区域id [限制: < DT_MAX_AREAS]
+     * @return 状态标志 (参见: Status)
+     */
+    public int setPolyArea(long ref, int area) {
+        if (!isValidArea(area) || getValidWriteTile(ref) == null) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        updatePolys(new long[] {ref}, 1, POLY_UPDATE_AREA, area);
+        return Status.DT_SUCCESS.getValue();
+    }
+    
+    /**
+     * 获取多边形区域
+     * @param ref 多边形引用
+     * @param resultArea 输出：区域id [大小: >= 1]
+     * @return 状态标志 (参见: Status)
+     */
+    public int getPolyArea(long ref, int[] resultArea) {
+        MeshTile tile = getValidTile(ref);
+        if (tile == null) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        touchTile(tile);
+        resultArea[0] = tile.polys[decodePolyIdPoly(ref)].area;
+        return Status.DT_SUCCESS.getValue();
+    }
+    
+    /**
+     * 批量设置多边形标志，无效的引用被跳过
+     * @param refs 多边形引用数组
+     * @param count 引用数量
+     * @param flags 多边形标志
+     * @return 标志发生变化的多边形数量
+     */
+    public int setPolyFlags(long[] refs, int count, int flags) {
+        return updatePolys(refs, count, POLY_UPDATE_FLAGS, flags);
+    }
+    
+    /**
+     * 批量设置多边形区域，无效的引用被跳过
+     * @param refs 多边形引用数组
+     * @param count 引用数量
+     * @param area 区域id [限制: < DT_MAX_AREAS]
+     * @return 区域发生变化的多边形数量，区域id超出范围时不修改任何多边形并返回0
+     */
+    public int setPolyArea(long[] refs, int count, int area) {
+        if (!isValidArea(area)) {
+            return 0;
+        }
+        return updatePolys(refs, count, POLY_UPDATE_AREA, area);
+    }
+    
+    /**
+     * 设置包围盒内所有地面多边形的标志
+     * @param bmin 包围盒最小点
+     * @param bmax 包围盒最大点
+     * @param flags 多边形标志
+     * @return 标志发生变化的多边形数量
+     */
+    public int setPolyFlagsInBounds(float[] bmin, float[] bmax, int flags) {
+        return updatePolysInBounds(bmin, bmax, POLY_UPDATE_FLAGS, flags);
+    }
+    
+    /**
+     * 设置包围盒内所有地面多边形的区域
+     * @param bmin 包围盒最小点
+     * @param bmax 包围盒最大点
+     * @param area 区域id [限制: < DT_MAX_AREAS]
+     * @return 区域发生变化的多边形数量，区域id超出范围时不修改任何多边形并返回0
+     */
+    public int setPolyAreaInBounds(float[] bmin, float[] bmax, int area) {
+        if (!isValidArea(area)) {
+            return 0;
+        }
+        return updatePolysInBounds(bmin, bmax, POLY_UPDATE_AREA, area);
+    }
+    
+    /**
+     * 设置集群中所有多边形的标志
+     * @param clusterRef 集群引用，与多边形引用使用相同的编码，多边形索引位为集群索引
+     * @param flags 多边形标志
+     * @return 标志发生变化的多边形数量
+     */
+    public int setPolyFlagsInCluster(long clusterRef, int flags) {
+        return updatePolysInCluster(clusterRef, POLY_UPDATE_FLAGS, flags);
+    }
+    
+    /**
+     * 设置集群中所有多边形的区域
+     * @param clusterRef 集群引用，与多边形引用使用相同的编码，多边形索引位为集群索引
+     * @param area 区域id [限制: < DT_MAX_AREAS]
+     * @return 区域发生变化的多边形数量，区域id超出范围时不修改任何多边形并返回0
+     */
+    public int setPolyAreaInCluster(long clusterRef, int area) {
+        if (!isValidArea(area)) {
+            return 0;
+        }
+        return updatePolysInCluster(clusterRef, POLY_UPDATE_AREA, area);
+    }
+    
+    /**
+     * 获取导航网格的当前状态版本
+     *
+     * 缓存在计算结果前记录状态版本，之后结果经过的瓦片版本大于记录值时结果需要重新计算。
+     *
+     * @return 状态版本
+     */
+    public long getStateVersion() {
+        return stateVersion;
+    }
+    
+    /**
+     * 获取导航网格的瓦片代数
+     *
+     * 缓存在计算结果前记录瓦片代数，代数改变说明瓦片被添加或移除，结果可能不再是最优的。
+     *
+     * @return 瓦片代数
+     */
+    public long getTileGeneration() {
+        return tileGeneration;
+    }
+    
+    /**
+     * 获取多边形所在瓦片的状态版本
+     * @param ref 多边形引用
+     * @return 状态版本，如果引用无效则返回-1
+     */
+    public long getTileVersion(long ref) {
+        MeshTile tile = getValidTile(ref);
+        return tile != null ? tile.version : -1;
+    }
+    
+    /**
+     * 按引用数组批量更新多边形
+     * @param refs 多边形引用数组
+     * @param count 引用数量
+     * @param field 更新的字段 (POLY_UPDATE_FLAGS, POLY_UPDATE_AREA)
+     * @param value 新值
+     * @return 发生变化的多边形数量
+     */
+    private int updatePolys(long[] refs, int count, int field, int value) {
+        beginWrite();
+        long version = stateVersion + 1;
+        int changed = 0;
+        for (int i = 0; i < count; i++) {
+            MeshTile tile = getValidWriteTile(refs[i]);
+            if (tile == null) {
+                continue;
+            }
+            touchTile(tile);
+            tile = writable(tile);
+            if (updatePoly(tile, tile.polys[decodePolyIdPoly(refs[i])], field, value, version)) {
+                changed++;
+            }
+        }
+        commitStateVersion(version, changed);
+        endWrite();
+        return changed;
+    }
+    
+    /**
+     * 更新包围盒内的所有地面多边形
+     * @param bmin 包围盒最小点
+     * @param bmax 包围盒最大点
+     * @param field 更新的字段 (POLY_UPDATE_FLAGS, POLY_UPDATE_AREA)
+     * @param value 新值
+     * @return 发生变化的多边形数量
+     */
+    private int updatePolysInBounds(float[] bmin, float[] bmax, int field, int value) {
+        if (snapshot == null) {
+            return 0;
+        }
+        int[] minx = new int[1];
+        int[] miny = new int[1];
+        int[] maxx = new int[1];
+        int[] maxy = new int[1];
+        calcTileLoc(bmin, minx, miny);
+        calcTileLoc(bmax, maxx, maxy);
+        
+        beginWrite();
+        long version = stateVersion + 1;
+        int changed = 0;
+        MeshTile[] neis = new MeshTile[DT_MAX_NEIS];
+        long[] polys = new long[0];
+        for (int y = miny[0]; y <= maxy[0]; y++) {
+            for (int x = minx[0]; x <= maxx[0]; x++) {
+                int nneis = getTilesAt(writableLookup(), x, y, neis, DT_MAX_NEIS);
+                for (int j = 0; j < nneis; j++) {
+                    if (polys.length < neis[j].header.polyCount) {
+                        polys = new long[neis[j].header.polyCount];
+                    }
+                    int n = queryPolygonsInTile(neis[j], bmin, bmax, polys, polys.length);
+                    if (n == 0) {
+                        continue;
+                    }
+                    MeshTile tile = writable(neis[j]);
+                    for (int k = 0; k < n; k++) {
+                        if (updatePoly(tile, tile.polys[decodePolyIdPoly(polys[k])], field, value, version)) {
+                            changed++;
+                        }
+                    }
+                }
+            }
+        }
+        commitStateVersion(version, changed);
+        endWrite();
+        return changed;
+    }
+    
+    /**
+     * 更新集群中的所有多边形
+     * @param clusterRef 集群引用
+     * @param field 更新的字段 (POLY_UPDATE_FLAGS, POLY_UPDATE_AREA)
+     * @param value 新值
+     * @return 发生变化的多边形数量
+     */
+    private int updatePolysInCluster(long clusterRef, int field, int value) {
+        if (clusterRef == 0 || snapshot == null) {
+            return 0;
+        }
+        MeshTile[] ts = writableTiles();
+        int it = decodePolyIdTile(clusterRef);
+        int ic = decodePolyIdPoly(clusterRef);
+        if (it >= maxTiles) {
+            return 0;
+        }
+        MeshTile tile = ts[it];
+        if (tile == null || tile.header == null || tile.salt != decodePolyIdSalt(clusterRef) ||
+            ic >= tile.header.clusterCount) {
+            return 0;
+        }
+        touchTile(tile);
+        if (tile.polyClusters == null) {
+            return 0;
+        }
+        
+        beginWrite();
+        long version = stateVersion + 1;
+        int changed = 0;
+        tile = writable(tile);
+        int n = Math.min(tile.header.polyCount, tile.polyClusters.length);
+        for (int i = 0; i < n; i++) {
+            if (tile.polyClusters[i] == ic && updatePoly(tile, tile.polys[i], field, value, version)) {
+                changed++;
+            }
+        }
+        commitStateVersion(version, changed);
+        endWrite();
+        return changed;
+    }
+    
+    /**
+     * 有多边形发生变化时发布本次写操作的状态版本，没有变化的写操作不改变状态版本
+     * @param version 本次写操作的状态版本
+     * @param changed 发生变化的多边形数量
+     */
+    private void commitStateVersion(long version, int changed) {
+        if (changed > 0) {
+            stateVersion = version;
+        }
+    }
+    
+    /**
+     * 检查区域id是否在有效范围内
+     * @param area 区域id
+     * @return true如果 0 <= area < DT_MAX_AREAS
+     */
+    private static boolean isValidArea(int area) {
+        return area >= 0 && area < DT_MAX_AREAS;
+    }
+    
+    /**
+     * 更新单个多边形，值发生变化时更新瓦片的状态版本
+     * @param tile 可以修改的瓦片
+     * @param poly 多边形
+     * @param field 更新的字段 (POLY_UPDATE_FLAGS, POLY_UPDATE_AREA)
+     * @param value 新值
+     * @param version 本次更新的状态版本
+     * @return true如果值发生变化
+     */
+    private static boolean updatePoly(MeshTile tile, Poly poly, int field, int value, long version) {
+        if (field == POLY_UPDATE_FLAGS) {
+            if (poly.flags == value) {
+                return false;
+            }
+            poly.flags = value;
+        } else {
+            if (poly.area == value && poly.getArea() == value) {
+                return false;
+            }
+            poly.area = value;
+            poly.setArea(value);
+        }
+        tile.version = version;
+        return true;
+    }
+    
+    // ========== 瓦片状态 ==========
+    
+    /** 瓦片状态头部大小 (magic, version, ref) */
+    private static final int DT_TILE_STATE_HEADER_SIZE = 4 + 4 + 8;
+    
+    /** 每个多边形状态的大小 (flags: u16, area: u8) */
+    private static final int DT_POLY_STATE_SIZE = 3;
+    
+    /**
+     * 获取保存瓦片状态需要的字节数
+     * @param tile 瓦片
+     * @return 字节数
+     */
+    public int getTileStateSize(MeshTile tile) {
+        if (tile == null || tile.header == null) {
+            return 0;
+        }
+        return DT_TILE_STATE_HEADER_SIZE + tile.header.polyCount * DT_POLY_STATE_SIZE +
+               (countOffMeshPolys(tile) + 7) / 8;
+    }
+    
+    /**
+     * 保存瓦片的非结构状态
+     *
+     * 状态包括每个多边形的标志和区域，以及每个离网多边形的启用标志（每个1位），
+     * 不包括几何和链接，可以用于保存和回滚门、桥等动态状态。
+     *
+     * @param tile 瓦片
+     * @param data 输出缓冲区
+     * @param maxDataSize 缓冲区可用的字节数
+     * @return 状态标志 (参见: Status)
+     */
+    public int storeTileState(MeshTile tile, byte[] data, int maxDataSize) {
+        int size = getTileStateSize(tile);
+        if (size == 0) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        if (maxDataSize < size || data.length < size) {
+            return Status.DT_FAILURE.getValue() | Status.DT_BUFFER_TOO_SMALL.getValue();
+        }
+        
+        ByteBuffer buf = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(DT_NAVMESH_STATE_MAGIC);
+        buf.putInt(DT_NAVMESH_STATE_VERSION);
+        buf.putLong(getTileRef(tile));
+        
+        for (int i = 0; i < tile.header.polyCount; i++) {
+            Poly poly = tile.polys[i];
+            buf.putShort((short) poly.flags);
+            buf.put((byte) poly.area);
+        }
+        
+        // 离网多边形的启用标志按多边形索引顺序打包
+        int bits = 0;
+        int nbits = 0;
+        for (int i = 0; i < tile.header.polyCount; i++) {
+            Poly poly = tile.polys[i];
+            if (poly.getType() == PolyTypes.DT_POLYTYPE_GROUND.getValue()) {
+                continue;
+            }
+            if (isOffMeshPolyEnabled(tile, poly)) {
+                bits |= 1 << nbits;
+            }
+            if (++nbits == 8) {
+                buf.put((byte) bits);
+                bits = 0;
+                nbits = 0;
+            }
+        }
+        if (nbits > 0) {
+            buf.put((byte) bits);
+        }
+        return Status.DT_SUCCESS.getValue();
+    }
+    
+    /**
+     * 恢复storeTileState保存的瓦片状态
+     *
+     * 状态只能恢复到保存时的同一个瓦片，瓦片被移除或替换后盐值改变，恢复会失败。
+     * 启用标志变化的离网多边形同时更新落点多边形上的链接。
+     *
+     * @param tile 瓦片
+     * @param data 状态数据
+     * @param maxDataSize 状态数据的字节数
+     * @return 状态标志 (参见: Status)
+     */
+    public int restoreTileState(MeshTile tile, byte[] data, int maxDataSize) {
+        int size = getTileStateSize(tile);
+        if (size == 0) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        if (maxDataSize < size || data.length < size) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        
+        ByteBuffer buf = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.getInt() != DT_NAVMESH_STATE_MAGIC) {
+            return Status.DT_FAILURE.getValue() | Status.DT_WRONG_MAGIC.getValue();
+        }
+        if (buf.getInt() != DT_NAVMESH_STATE_VERSION) {
+            return Status.DT_FAILURE.getValue() | Status.DT_WRONG_VERSION.getValue();
+        }
+        if (buf.getLong() != getTileRef(tile)) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        
+        beginWrite();
+        touchTile(tile);
+        MeshTile t = writable(tile);
+        t.version = ++stateVersion;
+        for (int i = 0; i < t.header.polyCount; i++) {
+            Poly poly = t.polys[i];
+            poly.flags = buf.getShort() & 0xffff;
+            poly.area = buf.get() & 0xff;
+            poly.setArea(poly.area);
+        }
+        
+        int bits = 0;
+        int nbits = 0;
+        for (int i = 0; i < t.header.polyCount; i++) {
+            Poly poly = t.polys[i];
+            if (poly.getType() == PolyTypes.DT_POLYTYPE_GROUND.getValue()) {
+                continue;
+            }
+            if (nbits == 0) {
+                bits = buf.get() & 0xff;
+            }
+            boolean enabled = (bits & (1 << nbits)) != 0;
+            if (enabled != isOffMeshPolyEnabled(t, poly)) {
+                setOffMeshPolyEnabled(t, i, enabled, t.version);
+            }
+            nbits = (nbits + 1) & 7;
+        }
+        endWrite();
+        return Status.DT_SUCCESS.getValue();
+    }
+    
+    /**
+     * 统计瓦片中的离网多边形数量
+     * @param tile 瓦片
+     * @return 离网多边形数量
+     */
+    private static int countOffMeshPolys(MeshTile tile) {
+        int n = 0;
+        for (int i = 0; i < tile.header.polyCount; i++) {
+            if (tile.polys[i].getType() != PolyTypes.DT_POLYTYPE_GROUND.getValue()) {
+                n++;
+            }
+        }
+        return n;
+    }
+    
+    /**
+     * 检查离网多边形是否启用，没有链接的离网多边形视为启用
+     * @param tile 瓦片
+     * @param poly 离网多边形
+     * @return true如果启用
+     */
+    private boolean isOffMeshPolyEnabled(MeshTile tile, Poly poly) {
+        long k = poly.firstLink;
+        return k == DT_NULL_LINK || (getLinkSide(tile, k) & DT_LINK_FLAG_OFFMESH_CON_ENABLED) != 0;
+    }
+    
+    // ========== 写时复制 ==========
+    
+    /**
+     * 启用或禁用写时复制模式
+     *
+     * 启用后添加、移除瓦片和切换离网连接不再修改已发布的瓦片：写操作先复制瓦片数组、
+     * 位置哈希表和需要修改的相邻瓦片，修改副本后一次性替换发布。查询线程通过一次volatile读取
+     * 取得瓦片数组和位置哈希表的快照，不需要加锁；查询中途发布的新瓦片通过盐值检查与旧引用区分，
+     * 已取得的旧瓦片对象在查询结束前保持不变。
+     *
+     * 写操作只能在一个线程上进行，每个查询线程需要使用自己的DetourNavMeshQuery。
+     * 压缩的瓦片在访问时会被原地解码，启用时解码所有瓦片并关闭解码瓦片缓存。
+     * 调用方直接修改瓦片或多边形字段（例如多边形标志）时不受保护。
+     *
+     * @param enabled 是否启用
+     */
+    public void setCopyOnWrite(boolean enabled) {
+        TileSnapshot s = snapshot;
+        if (enabled && s != null) {
+            setDecodedTileCapacity(0);
+            for (int i = 0; i < maxTiles; i++) {
+                if (s.tiles[i] != null) {
+                    touchTile(s.tiles[i]);
+                }
+            }
+        }
+        copyOnWrite = enabled;
+    }
+    
+    /**
+     * 检查是否启用了写时复制模式
+     * @return true如果启用
+     */
+    public boolean isCopyOnWrite() {
+        return copyOnWrite;
+    }
+    
+    /**
+     * 开始批量修改
+     *
+     * 写时复制模式下，beginUpdate和endUpdate之间的所有写操作（添加、移除瓦片，修改多边形标志等）
+     * 在endUpdate时一次性发布，查询线程不会看到中间状态，例如瓦片已被移除而替换它的瓦片尚未加入。
+     * 批量修改中后续的写操作可以看到先前写操作的结果。可以嵌套调用，最外层的endUpdate发布修改。
+     * 其他模式下写操作立即生效。
+     */
+    public void beginUpdate() {
+        beginWrite();
+    }
+    
+    /**
+     * 结束批量修改（参见{@link #beginUpdate()}）
+     */
+    public void endUpdate() {
+        if (writeDepth > 0) {
+            endWrite();
+        }
+    }
+    
+    /**
+     * 开始写操作，写时复制模式下复制瓦片数组和位置哈希表，嵌套的写操作共享同一副本
+     */
+    private void beginWrite() {
+        if (writeDepth++ == 0 && copyOnWrite) {
+            TileSnapshot s = snapshot;
+            writeTiles = s.tiles.clone();
+            writeLookup = s.posLookup.clone();
+        }
+    }
+    
+    /**
+     * 结束写操作，写时复制模式下将修改后的瓦片数组和位置哈希表作为一个快照发布
+     */
+    private void endWrite() {
+        if (--writeDepth > 0) {
+            return;
+        }
+        if (writeTiles != null) {
+            snapshot = new TileSnapshot(writeTiles, writeLookup);
+            writeTiles = null;
+            writeLookup = null;
+        }
+        tileAreaTable = null;
+        if (tilesChanged) {
+            tilesChanged = false;
+            tileGeneration++;
+        }
+    }
+    
+    /**
+     * 获取写操作可以修改的瓦片数组
+     * @return 瓦片数组
+     */
+    private MeshTile[] writableTiles() {
+        return writeTiles != null ? writeTiles : snapshot.tiles;
+    }
+    
+    /**
+     * 获取写操作可以修改的位置哈希表
+     * @return 位置哈希表
+     */
+    private MeshTile[][] writableLookup() {
+        return writeLookup != null ? writeLookup : snapshot.posLookup;
+    }
+    
+    /**
+     * 获取写操作可以修改的瓦片
+     *
+     * 写时复制模式下第一次修改已发布的瓦片时复制它，并在写操作的瓦片数组和位置哈希表中
+     * 用副本替换原瓦片；其他模式直接返回原瓦片。
+     *
+     * @param tile 已发布的瓦片
+     * @return 可以修改的瓦片
+     */
+    private MeshTile writable(MeshTile tile) {
+        if (writeTiles == null) {
+            return tile;
+        }
+        int slot = tile.index;
+        MeshTile cur = writeTiles[slot];
+        TileSnapshot published = snapshot;
+        if (cur == null || cur != published.tiles[slot]) {
+            // 本次写操作中已复制或新加入的瓦片
+            return cur != null ? cur : tile;
+        }
+        
+        MeshTile copy = copyTileForWrite(cur);
+        writeTiles[slot] = copy;
+        
+        int h = computeTileHash(cur.header.x, cur.header.y, tileLutMask);
+        MeshTile[] bucket = writeLookup[h];
+        if (bucket == published.posLookup[h]) {
+            bucket = bucket.clone();
+            writeLookup[h] = bucket;
+        }
+        for (int i = 0; i < bucket.length; i++) {
+            if (bucket[i] == cur) {
+                bucket[i] = copy;
+            }
+        }
+        return copy;
+    }
+    
+    /**
+     * 复制瓦片中写操作会修改的部分
+     *
+     * 多边形、链接和动态链接被深复制；离网连接端点捕捉会修改顶点，
+     * 有离网连接的瓦片同时复制顶点数组。几何、详细网格和BV树等只读数据与原瓦片共享。
+     *
+     * @param src 原瓦片
+     * @return 副本
+     */
+    private static MeshTile copyTileForWrite(MeshTile src) {
+        MeshTile t = new MeshTile();
+        t.salt = src.salt;
+        t.linksFreeList = src.linksFreeList;
+        t.header = src.header;
+        t.polys = new Poly[src.polys.length];
+        for (int i = 0; i < t.polys.length; i++) {
+            Poly sp = src.polys[i];
+            Poly p = new Poly();
+            p.firstLink = sp.firstLink;
+            p.index = sp.index;
+            p.area = sp.area;
+            p.flags = sp.flags;
+            p.vertCount = sp.vertCount;
+            p.areaAndtype = sp.areaAndtype;
+            t.polys[i] = p;
         }
-        return tiles[index];
+        t.polyVerts = src.polyVerts;
+        t.polyNeis = src.polyNeis;
+        boolean offMesh = src.header.offMeshConCount + src.header.offMeshSegConCount > 0;
+        t.verts = offMesh && src.verts != null ? src.verts.clone() : src.verts;
+        t.vertsF = offMesh && src.vertsF != null ? src.vertsF.clone() : src.vertsF;
+        t.vertsQ = offMesh && src.vertsQ != null ? src.vertsQ.clone() : src.vertsQ;
+        t.linkRefs = src.linkRefs.clone();
+        t.linkNext = src.linkNext.clone();
+        t.linkEdge = src.linkEdge.clone();
+        t.linkSide = src.linkSide.clone();
+        t.linkBmin = src.linkBmin.clone();
+        t.linkBmax = src.linkBmax.clone();
+        t.detailMeshes = src.detailMeshes;
+        t.detailVerts = src.detailVerts;
+        t.detailVertsF = src.detailVertsF;
+        t.detailVertsQ = src.detailVertsQ;
+        t.quantOrig = src.quantOrig;
+        t.quantScale = src.quantScale;
+        t.detailTris = src.detailTris;
+        t.bvBounds = src.bvBounds;
+        t.bvIndex = src.bvIndex;
+        t.offMeshCons = src.offMeshCons;
+        t.offMeshSeg = src.offMeshSeg;
+        t.clusters = src.clusters;
+        t.polyClusters = src.polyClusters;
+        t.data = src.data;
+        t.dataSize = src.dataSize;
+        t.flags = src.flags;
+        t.dynamicLinksO = src.dynamicLinksO.copy();
+        t.dynamicLinksC = src.dynamicLinksC.copy();
+        t.index = src.index;
+        t.polyAreaSums = src.polyAreaSums;
+        t.totalArea = src.totalArea;
+        t.version = src.version;
+        return t;
     }
-} 
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,507 @@
+package odin.detour.core;
+
+import odin.detour.core.DetourNavMesh.MeshHeader;
+import odin.detour.core.DetourNavMesh.MeshTile;
+import odin.detour.core.DetourNavMesh.NavMeshParams;
+import odin.detour.core.DetourNavMesh.Poly;
+import odin.detour.core.DetourNavMesh.PolyDetail;
+
+import java.util.Arrays;
+
+import static odin.detour.config.DetourConstants.*;
+import static odin.detour.config.DetourEnums.*;
+
+/**
+ * Detour瓦片构建
+ * 翻译自UE5 DetourNavMeshBuilder.cpp中的dtCreateNavMeshData
+ *
+ * 将Recast多边形网格（体素坐标）和可选的详细网格转换为可以加入{@link DetourNavMesh}的瓦片。
+ *
+ * 多分辨率（UE5扩展）：同一导航网格中的瓦片可以使用不同的单元格大小构建，例如开阔区域使用低分辨率、
+ * 室内使用高分辨率。所有分辨率的瓦片在世界空间中大小相同，瓦片边界边按几何重叠相互连接。
+ * BV树按1 / cs量化，导航网格的{@link NavMeshParams#resolutionParams}中对应分辨率的量化因子必须一致
+ * （参见{@link NavMeshParams#setResolutionCellSize}）。
+ *
+ * @author UE5NavMesh4J
+ */
+public final class DetourNavMeshBuilder {
+    
+    /** 私有构造函数防止实例化 */
+    private DetourNavMeshBuilder() {
+        throw new UnsupportedOperationException("工具类不能被实例化");
+    }
+    
+    /** Recast多边形网格中的空索引 */
+    private static final int MESH_NULL_IDX = 0xffff;
+    
+    /** Recast多边形网格中表示瓦片边界边的邻居标志 */
+    private static final int MESH_PORTAL_FLAG = 0x8000;
+    
+    /** Recast多边形网格中表示非门户边界边的方向值 */
+    private static final int MESH_PORTAL_NONE = 0xf;
+    
+    /**
+     * 瓦片构建参数
+     * 翻译自dtNavMeshCreateParams结构体
+     */
+    public static class CreateParams {
+        /** 多边形网格顶点，体素坐标 [(x, y, z) * vertCount] */
+        public int[] verts;
+        
+        /** 顶点数量 */
+        public int vertCount;
+        
+        /** 多边形顶点和邻居 [(verts[nvp], neis[nvp]) * polyCount] */
+        public int[] polys;
+        
+        /** 多边形标志 [大小: polyCount] */
+        public int[] polyFlags;
+        
+        /** 多边形区域id [大小: polyCount] */
+        public byte[] polyAreas;
+        
+        /** 多边形数量 */
+        public int polyCount;
+        
+        /** 每个多边形的最大顶点数 [限制: <= DT_VERTS_PER_POLYGON] */
+        public int nvp;
+        
+        /** 详细子网格 [(vertBase, vertCount, triBase, triCount) * polyCount] [可选] */
+        public int[] detailMeshes;
+        
+        /** 详细网格顶点，世界坐标 [(x, y, z) * detailVertsCount] [可选] */
+        public float[] detailVerts;
+        
+        /** 详细网格顶点数量 */
+        public int detailVertsCount;
+        
+        /** 详细网格三角形 [(vertA, vertB, vertC, flags) * detailTriCount] [可选] */
+        public byte[] detailTris;
+        
+        /** 详细网格三角形数量 */
+        public int detailTriCount;
+        
+        /** 瓦片的x坐标 */
+        public int tileX;
+        
+        /** 瓦片的y坐标 */
+        public int tileY;
+        
+        /** 瓦片的层 */
+        public int tileLayer;
+        
+        /** 瓦片的分辨率索引 [限制: < DT_RESOLUTION_COUNT]（UE5扩展） */
+        public int resolution;
+        
+        /** 瓦片的最小边界 [(x, y, z)] */
+        public float[] bmin = new float[3];
+        
+        /** 瓦片的最大边界 [(x, y, z)] */
+        public float[] bmax = new float[3];
+        
+        /** 单元格大小（xz平面） */
+        public float cs;
+        
+        /** 单元格高度（y轴） */
+        public float ch;
+        
+        /** 是否构建BV树 */
+        public boolean buildBvTree;
+        
+        /**
+         * 是否把没有门户标志、两个端点都位于瓦片边界上的无邻居边作为门户
+         *
+         * 只用于没有标记门户的多边形网格（例如在本项目的Recast流水线之外构建的网格）；
+         * 流水线构建的网格已经标记门户，启用后瓦片边界上真正的墙会被当作门户。
+         */
+        public boolean guessBorderPortals;
+        
+        /**
+         * 默认构造函数
+         */
+        public CreateParams() {
+            this.buildBvTree = true;
+        }
+    }
+    
+    /**
+     * 构建瓦片
+     *
+     * 多边形网格的边界边如果带有门户标志（0x8000 | 方向）则作为门户，其他没有邻居的边都是墙；
+     * 未标记门户的网格可以启用{@link CreateParams#guessBorderPortals}，按端点位置推断瓦片边界上的门户。
+     * 门户边按{@link odin.detour.config.DetourConstants#DT_MAX_PORTAL_CONNECTIONS}预留链接，使粗分辨率瓦片的长边可以连接
+     * 相邻细分辨率瓦片中的多个多边形。没有提供详细网格时按多边形生成三角扇。
+     *
+     * @param params 构建参数
+     * @param result 输出：瓦片
+     * @return 状态标志 (参见: Status)
+     */
+    public static int createTile(CreateParams params, MeshTile[] result) {
+        if (params == null || result == null || result.length == 0 ||
+            params.nvp > DT_VERTS_PER_POLYGON || params.nvp < 3 ||
+            params.vertCount <= 0 || params.vertCount >= 0xffff ||
+            params.polyCount <= 0 || params.cs <= 0.0f || params.ch <= 0.0f ||
+            params.resolution < 0 || params.resolution >= DT_RESOLUTION_COUNT) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        
+        int nvp = params.nvp;
+        int npolys = params.polyCount;
+        int gridW = Math.round((params.bmax[0] - params.bmin[0]) / params.cs);
+        int gridH = Math.round((params.bmax[2] - params.bmin[2]) / params.cs);
+        
+        MeshTile tile = new MeshTile();
+        MeshHeader header = new MeshHeader();
+        header.x = params.tileX;
+        header.y = params.tileY;
+        header.layer = params.tileLayer;
+        header.resolution = params.resolution;
+        header.polyCount = npolys;
+        header.vertCount = params.vertCount;
+        for (int k = 0; k < 3; k++) {
+            header.bmin[k] = params.bmin[k];
+            header.bmax[k] = params.bmax[k];
+        }
+        tile.header = header;
+        
+        // 顶点从体素坐标转换为世界坐标
+        tile.verts = new double[params.vertCount * 3];
+        for (int i = 0; i < params.vertCount; i++) {
+            int v = i * 3;
+            tile.verts[v] = params.bmin[0] + params.verts[v] * params.cs;
+            tile.verts[v + 1] = params.bmin[1] + params.verts[v + 1] * params.ch;
+            tile.verts[v + 2] = params.bmin[2] + params.verts[v + 2] * params.cs;
+        }
+        
+        // 多边形
+        tile.polys = new Poly[npolys];
+        tile.polyVerts = new short[npolys * DT_VERTS_PER_POLYGON];
+        tile.polyNeis = new short[npolys * DT_VERTS_PER_POLYGON];
+        int edgeCount = 0;
+        int portalCount = 0;
+        for (int i = 0; i < npolys; i++) {
+            int src = i * nvp * 2;
+            Poly poly = new Poly();
+            poly.index = i;
+            poly.flags = params.polyFlags != null ? params.polyFlags[i] : 0;
+            poly.area = params.polyAreas != null ? params.polyAreas[i] & 0x3f : 0;
+            poly.setArea(poly.area);
+            poly.setType(PolyTypes.DT_POLYTYPE_GROUND.getValue());
+            
+            int nv = 0;
+            while (nv < nvp && params.polys[src + nv] != MESH_NULL_IDX) {
+                nv++;
+            }
+            poly.vertCount = nv;
+            for (int j = 0; j < nv; j++) {
+                int va = params.polys[src + j];
+                int vb = params.polys[src + (j + 1) % nv];
+                int nei = convertNeighbour(params.polys[src + nvp + j], params.verts, va, vb, gridW, gridH,
+                                           params.guessBorderPortals);
+                tile.polyVerts[i * DT_VERTS_PER_POLYGON + j] = (short) va;
+                tile.polyNeis[i * DT_VERTS_PER_POLYGON + j] = (short) nei;
+                edgeCount++;
+                if ((nei & DT_EXT_LINK) != 0) {
+                    portalCount++;
+                }
+            }
+            tile.polys[i] = poly;
+        }
+        header.maxLinkCount = edgeCount + portalCount * DT_MAX_PORTAL_CONNECTIONS;
+        
+        createDetail(params, tile);
+        
+        if (params.buildBvTree) {
+            buildBVTree(tile, 1.0 / params.cs);
+        }
+        
+        result[0] = tile;
+        return Status.DT_SUCCESS.getValue();
+    }
+    
+    /**
+     * 为瓦片构建BV树
+     *
+     * 按地面多边形（有详细网格时包含详细顶点）的包围盒自顶向下沿最长轴对半划分，
+     * 节点相对瓦片最小边界按quantFactor量化为16位坐标。quantFactor必须与导航网格中
+     * 瓦片分辨率的{@link DetourNavMesh.NavMeshResParams#bvQuantFactor}相同。
+     *
+     * @param tile 瓦片
+     * @param quantFactor 量化因子，通常为1 / 单元格大小
+     * @return BV树节点数量
+     */
+    public static int buildBVTree(MeshTile tile, double quantFactor) {
+        MeshHeader header = tile.header;
+        int ground = PolyTypes.DT_POLYTYPE_GROUND.getValue();
+        int[] items = new int[header.polyCount];
+        int nitems = 0;
+        for (int i = 0; i < header.polyCount; i++) {
+            if (tile.polys[i].getType() == ground) {
+                items[nitems++] = i;
+            }
+        }
+        if (nitems == 0 || quantFactor <= 0.0) {
+            header.bvNodeCount = 0;
+            tile.bvBounds = null;
+            tile.bvIndex = null;
+            return 0;
+        }
+        
+        // 计算每个多边形的量化包围盒
+        short[] itemBounds = new short[nitems * 6];
+        float[] v = new float[3];
+        float[] bmin = new float[3];
+        float[] bmax = new float[3];
+        for (int n = 0; n < nitems; n++) {
+            Poly poly = tile.polys[items[n]];
+            Arrays.fill(bmin, Float.MAX_VALUE);
+            Arrays.fill(bmax, -Float.MAX_VALUE);
+            for (int j = 0; j < poly.vertCount; j++) {
+                tile.getVert(tile.getPolyVert(poly, j), v, 0);
+                expandBounds(v, bmin, bmax);
+            }
+            if (tile.detailMeshes != null && poly.index < header.detailMeshCount) {
+                PolyDetail pd = tile.detailMeshes[poly.index];
+                for (int j = 0; j < pd.vertCount; j++) {
+                    tile.getDetailVert(pd.vertBase + j, v, 0);
+                    expandBounds(v, bmin, bmax);
+                }
+            }
+            for (int k = 0; k < 3; k++) {
+                itemBounds[n * 6 + k] = quantizeBound(bmin[k] - header.bmin[k], quantFactor, false);
+                itemBounds[n * 6 + 3 + k] = quantizeBound(bmax[k] - header.bmin[k], quantFactor, true);
+            }
+        }
+        
+        int maxNodes = nitems * 2 - 1;
+        tile.bvBounds = new short[maxNodes * 6];
+        tile.bvIndex = new int[maxNodes];
+        int[] order = new int[nitems];
+        for (int i = 0; i < nitems; i++) {
+            order[i] = i;
+        }
+        long[] keys = new long[nitems];
+        int[] curNode = new int[1];
+        subdivide(tile, items, itemBounds, order, keys, 0, nitems, curNode);
+        header.bvNodeCount = curNode[0];
+        return curNode[0];
+    }
+    
+    /**
+     * 将Recast多边形网格的邻居编码转换为Detour编码
+     * @param nei Recast邻居编码
+     * @param verts 体素坐标顶点
+     * @param va 边起点索引
+     * @param vb 边终点索引
+     * @param gridW 瓦片沿x轴的单元格数量
+     * @param gridH 瓦片沿z轴的单元格数量
+     * @param guessBorderPortals 是否把瓦片边界上未标记的边作为门户
+     * @return Detour邻居编码（参见MeshTile::polyNeis）
+     */
+    private static int convertNeighbour(int nei, int[] verts, int va, int vb, int gridW, int gridH,
+                                        boolean guessBorderPortals) {
+        int dir;
+        if ((nei & MESH_PORTAL_FLAG) != 0 && nei != MESH_NULL_IDX) {
+            dir = nei & 0xf;
+            if (dir == MESH_PORTAL_NONE) {
+                return 0;
+            }
+        } else if (nei != MESH_NULL_IDX) {
+            return nei + 1;
+        } else if (!guessBorderPortals) {
+            return 0;
+        } else {
+            // 未标记的边按端点是否位于瓦片边界判断
+            int ax = verts[va * 3];
+            int az = verts[va * 3 + 2];
+            int bx = verts[vb * 3];
+            int bz = verts[vb * 3 + 2];
+            if (ax == 0 && bx == 0) {
+                dir = 0;
+            } else if (az == gridH && bz == gridH) {
+                dir = 1;
+            } else if (ax == gridW && bx == gridW) {
+                dir = 2;
+            } else if (az == 0 && bz == 0) {
+                dir = 3;
+            } else {
+                return 0;
+            }
+        }
+        switch (dir) {
+            case 0:
+                return DT_EXT_LINK | 4;
+            case 1:
+                return DT_EXT_LINK | 2;
+            case 2:
+                return DT_EXT_LINK;
+            case 3:
+                return DT_EXT_LINK | 6;
+            default:
+                return 0;
+        }
+    }
+    
+    /**
+     * 创建瓦片的详细网格
+     *
+     * 有详细网格时复制除多边形顶点以外的详细顶点和全部三角形；否则每个多边形生成一个三角扇。
+     *
+     * @param params 构建参数
+     * @param tile 瓦片
+     */
+    private static void createDetail(CreateParams params, MeshTile tile) {
+        MeshHeader header = tile.header;
+        int npolys = params.polyCount;
+        tile.detailMeshes = new PolyDetail[npolys];
+        
+        if (params.detailMeshes != null) {
+            int vertCount = 0;
+            for (int i = 0; i < npolys; i++) {
+                int ndv = params.detailMeshes[i * 4 + 1] - tile.polys[i].vertCount;
+                vertCount += Math.max(0, ndv);
+            }
+            tile.detailVerts = new double[vertCount * 3];
+            tile.detailTris = Arrays.copyOf(params.detailTris, params.detailTriCount * 4);
+            
+            int vbase = 0;
+            for (int i = 0; i < npolys; i++) {
+                int src = i * 4;
+                int nv = tile.polys[i].vertCount;
+                int ndv = Math.max(0, params.detailMeshes[src + 1] - nv);
+                PolyDetail pd = new PolyDetail();
+                pd.vertBase = vbase;
+                pd.vertCount = ndv;
+                pd.triBase = params.detailMeshes[src + 2];
+                pd.triCount = params.detailMeshes[src + 3];
+                for (int j = 0; j < ndv * 3; j++) {
+                    tile.detailVerts[vbase * 3 + j] = params.detailVerts[(params.detailMeshes[src] + nv) * 3 + j];
+                }
+                vbase += ndv;
+                tile.detailMeshes[i] = pd;
+            }
+            header.detailVertCount = vertCount;
+            header.detailTriCount = params.detailTriCount;
+        } else {
+            int triCount = 0;
+            for (int i = 0; i < npolys; i++) {
+                triCount += tile.polys[i].vertCount - 2;
+            }
+            tile.detailVerts = new double[0];
+            tile.detailTris = new byte[triCount * 4];
+            
+            int tbase = 0;
+            for (int i = 0; i < npolys; i++) {
+                int nv = tile.polys[i].vertCount;
+                PolyDetail pd = new PolyDetail();
+                pd.triBase = tbase;
+                pd.triCount = nv - 2;
+                for (int j = 2; j < nv; j++) {
+                    int t = tbase * 4;
+                    tile.detailTris[t] = 0;
+                    tile.detailTris[t + 1] = (byte) (j - 1);
+                    tile.detailTris[t + 2] = (byte) j;
+                    // 边界边标志：第二条边总在多边形边界上，第一个三角形的第一条边和最后一个三角形的第三条边也是
+                    int edgeFlags = 1 << 2;
+                    if (j == 2) {
+                        edgeFlags |= 1;
+                    }
+                    if (j == nv - 1) {
+                        edgeFlags |= 1 << 4;
+                    }
+                    tile.detailTris[t + 3] = (byte) edgeFlags;
+                    tbase++;
+                }
+                tile.detailMeshes[i] = pd;
+            }
+            header.detailVertCount = 0;
+            header.detailTriCount = triCount;
+        }
+        header.detailMeshCount = npolys;
+    }
+    
+    /**
+     * 递归构建BV树的子树
+     * @param tile 瓦片
+     * @param items 条目对应的多边形索引
+     * @param itemBounds 条目的量化包围盒 [(minx, miny, minz, maxx, maxy, maxz) * n]
+     * @param order 条目顺序，构建过程中按划分轴重新排序
+     * @param keys 排序用的临时数组
+     * @param imin 子树第一个条目在order中的位置
+     * @param imax 子树最后一个条目之后的位置
+     * @param curNode 输入输出：下一个节点的索引
+     */
+    private static void subdivide(MeshTile tile, int[] items, short[] itemBounds, int[] order, long[] keys,
+                                  int imin, int imax, int[] curNode) {
+        int inum = imax - imin;
+        int icur = curNode[0]++;
+        int b = icur * 6;
+        
+        if (inum == 1) {
+            // 叶节点
+            int item = order[imin];
+            System.arraycopy(itemBounds, item * 6, tile.bvBounds, b, 6);
+            tile.bvIndex[icur] = items[item];
+            return;
+        }
+        
+        // 计算子树的包围盒
+        int[] ext = {0xffff, 0xffff, 0xffff, 0, 0, 0};
+        for (int i = imin; i < imax; i++) {
+            int o = order[i] * 6;
+            for (int k = 0; k < 3; k++) {
+                ext[k] = Math.min(ext[k], itemBounds[o + k] & 0xffff);
+                ext[3 + k] = Math.max(ext[3 + k], itemBounds[o + 3 + k] & 0xffff);
+            }
+        }
+        for (int k = 0; k < 6; k++) {
+            tile.bvBounds[b + k] = (short) ext[k];
+        }
+        
+        // 沿最长轴按包围盒最小值排序后对半划分
+        int dx = ext[3] - ext[0];
+        int dy = ext[4] - ext[1];
+        int dz = ext[5] - ext[2];
+        int axis = dx >= dy && dx >= dz ? 0 : dy >= dz ? 1 : 2;
+        for (int i = imin; i < imax; i++) {
+            keys[i] = ((long) (itemBounds[order[i] * 6 + axis] & 0xffff) << 32) | order[i];
+        }
+        Arrays.sort(keys, imin, imax);
+        for (int i = imin; i < imax; i++) {
+            order[i] = (int) keys[i];
+        }
+        
+        int isplit = imin + inum / 2;
+        subdivide(tile, items, itemBounds, order, keys, imin, isplit, curNode);
+        subdivide(tile, items, itemBounds, order, keys, isplit, imax, curNode);
+        
+        // 内部节点存储转义索引的相反数
+        tile.bvIndex[icur] = -(curNode[0] - icur);
+    }
+    
+    /**
+     * 用点扩展包围盒
+     * @param v 点
+     * @param bmin 输入输出：最小边界
+     * @param bmax 输入输出：最大边界
+     */
+    private static void expandBounds(float[] v, float[] bmin, float[] bmax) {
+        for (int k = 0; k < 3; k++) {
+            bmin[k] = Math.min(bmin[k], v[k]);
+            bmax[k] = Math.max(bmax[k], v[k]);
+        }
+    }
+    
+    /**
+     * 量化包围盒的一个分量
+     * @param d 相对瓦片最小边界的坐标
+     * @param quantFactor 量化因子
+     * @param ceil 是否向上取整（最大边界）
+     * @return 限制在[0, 0xffff]内的量化值
+     */
+    private static short quantizeBound(double d, double quantFactor, boolean ceil) {
+        double q = d * quantFactor;
+        int i = (int) (ceil ? Math.ceil(q) : Math.floor(q));
+        return (short) Math.max(0, Math.min(0xffff, i));
+    }
+}
\ No newline at end of file
@@ -2,11 +2,16 @@ package odin.detour.core;
 
 import odin.detour.core.DetourNavMesh.*;
 import static odin.detour.config.DetourConstants.*;
+import static odin.detour.config.DetourEnums.*;
 import static odin.detour.utils.DetourCommon.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Arrays;
+import java.util.Map;
 
 /**
  * Detour导航网格查询引擎
@@ -71,6 +76,18 @@ public class DetourNavMeshQuery {
         }
     }
     
+    /**
+     * 随机数生成器
+     * 由调用者提供，以便使用足够快的伪随机数实现
+     */
+    public interface FRand {
+        /**
+         * 生成随机数
+         * @return [0, 1)范围内的随机数
+         */
+        float frand();
+    }
+    
     /** 导航网格节点 */
     private static class Node {
         public float[] pos = new float[3];  // 节点位置
@@ -80,6 +97,8 @@ public class DetourNavMeshQuery {
         public int state;                   // 节点状态
         public int flags;                   // 节点标志
         public long id;                     // 多边形引用id
+        public int index;                   // 节点在池中的索引
+        public int heapIndex;               // 节点在开放列表堆中的位置，不在堆中时为-1
         
         public Node() {
             this.cost = 0.0f;
@@ -88,6 +107,7 @@ public class DetourNavMeshQuery {
             this.state = 0;
             this.flags = 0;
             this.id = 0;
+            this.heapIndex = -1;
         }
     }
     
@@ -99,8 +119,14 @@ public class DetourNavMeshQuery {
     /** 最大节点数量 */
     private static final int DT_NODE_POOL_SIZE = 65536;
     
-    /** 最大开放节点数量 */
-    private static final int DT_MAX_OPEN_NODES = 4096;
+    /** 节点哈希链表的空索引 */
+    private static final int DT_NULL_IDX = -1;
+    
+    /** 随机点采样被过滤器拒绝时的默认最大采样次数 */
+    private static final int DT_RANDOM_POINT_MAX_ATTEMPTS = 16;
+    
+    /** 单个多边形可收集的最大邻居数量 */
+    private static final int DT_MAX_POLY_NEIGHBOURS = 64;
     
     /** 直线路径标志 */
     private static final int DT_STRAIGHTPATH_START = 0x01;
@@ -110,6 +136,8 @@ public class DetourNavMeshQuery {
     // 查询状态
     private DetourNavMesh navMesh;
     private Node[] nodePool;
+    private int[] nodeFirst;       // 哈希桶的首个节点索引 [大小: 2的幂]
+    private int[] nodeNext;        // 同一哈希桶中下一个节点的索引
     private Node[] openList;
     private int openListSize;
     private int nextFreeNode;
@@ -122,6 +150,17 @@ public class DetourNavMeshQuery {
     private DetourQueryFilter filter;
     private boolean requireNavigableEndLocation;
     private float costLimit;
+    private float heuristicScale;
+    private Node lastBestNode;
+    private float lastBestNodeCost;
+    private boolean nodePoolExhausted;
+    
+    // 邻居展开的临时缓冲，避免每次展开分配
+    private final long[] neighbourRefs = new long[DT_MAX_POLY_NEIGHBOURS];
+    private final MeshTile[] neighbourTileOut = new MeshTile[1];
+    private final Poly[] neighbourPolyOut = new Poly[1];
+    private final float[] portalLeft = new float[3];
+    private final float[] portalRight = new float[3];
     
     /**
      * 初始化查询引擎
@@ -137,10 +176,16 @@ public class DetourNavMeshQuery {
         this.nodePool = new Node[nodePoolSize];
         for (int i = 0; i < nodePoolSize; i++) {
             this.nodePool[i] = new Node();
+            this.nodePool[i].index = i;
         }
         
-        // 初始化开放列表
-        this.openList = new Node[DT_MAX_OPEN_NODES];
+        // 初始化节点哈希表
+        this.nodeFirst = new int[dtNextPow2(Math.max(1, nodePoolSize / 4))];
+        this.nodeNext = new int[nodePoolSize];
+        Arrays.fill(this.nodeFirst, DT_NULL_IDX);
+        
+        // 初始化开放列表（每个节点最多在开放列表中出现一次）
+        this.openList = new Node[nodePoolSize];
         this.openListSize = 0;
         this.nextFreeNode = 0;
         
@@ -151,6 +196,10 @@ public class DetourNavMeshQuery {
     
     /**
      * 查找最近的多边形
+     *
+     * 搜索范围内的多层瓦片（例如多层建筑的各个楼层）按与中心点的垂直距离由近到远检查，
+     * 不可能比已找到的多边形更近的层不再查询。
+     *
      * @param center 中心点
      * @param extents 搜索范围
      * @param filter 查询过滤器
@@ -177,17 +226,31 @@ public class DetourNavMeshQuery {
         List<MeshTile> tiles = new ArrayList<>();
         int ntiles = queryTiles(bmin, bmax, tiles, 32);
         
-        float nearestDistanceSqr = Float.MAX_VALUE;
-        
+        // 按垂直距离从近到远处理各层，瓦片内任意多边形的距离都不小于按步高扣除后的垂直距离，
+        // 该下界不小于当前最近距离时跳过剩余的层
+        float climb = navMesh.getParams() != null ? (float) navMesh.getParams().walkableClimb : 0.0f;
+        MeshTile[] order = new MeshTile[ntiles];
+        float[] lowerBound = new float[ntiles];
         for (int i = 0; i < ntiles; i++) {
-            QueryStatus status = findNearestPolyInTile(tiles.get(i), center, extents, filter,
-                                                      nearestRef, nearestPt);
-            if (status.isSuccess()) {
-                // 检查是否更近
-                float distSqr = dtVdistSqr(center, nearestPt);
-                if (distSqr < nearestDistanceSqr) {
-                    nearestDistanceSqr = distSqr;
-                }
+            MeshTile tile = tiles.get(i);
+            float dy = (float) Math.max(0.0, Math.max(tile.header.bmin[1] - center[1], center[1] - tile.header.bmax[1]));
+            float d = Math.max(dy - climb, 0.0f);
+            int j = i;
+            while (j > 0 && lowerBound[j - 1] > d * d) {
+                order[j] = order[j - 1];
+                lowerBound[j] = lowerBound[j - 1];
+                j--;
+            }
+            order[j] = tile;
+            lowerBound[j] = d * d;
+        }
+        
+        float[] distSqr = {Float.MAX_VALUE};
+        for (int i = 0; i < ntiles && lowerBound[i] < distSqr[0]; i++) {
+            // 收集的瓦片可能已在检查前面的层时被淘汰，按引用重新解码
+            MeshTile tile = navMesh.getTileByRef(navMesh.getTileRef(order[i]));
+            if (tile != null) {
+                findNearestPolyInTile(tile, center, bmin, bmax, filter, nearestRef, nearestPt, distSqr);
             }
         }
         
@@ -195,66 +258,55 @@ public class DetourNavMeshQuery {
     }
     
     /**
-     * 在指定瓦片中查找最近多边形
+     * 在指定瓦片中查找比当前结果更近的多边形
      * @param tile 瓦片
      * @param center 中心点
-     * @param extents 搜索范围
+     * @param bmin 搜索边界框最小点
+     * @param bmax 搜索边界框最大点
      * @param filter 过滤器
-     * @param nearestRef 输出：最近多边形引用
-     * @param nearestPt 输出：最近点
-     * @return 查询状态
+     * @param nearestRef 输入输出：最近多边形引用
+     * @param nearestPt 输入输出：最近点
+     * @param nearestDistSqr 输入输出：最近距离的平方
      */
-    private QueryStatus findNearestPolyInTile(MeshTile tile, float[] center, float[] extents,
-                                             DetourQueryFilter filter, long[] nearestRef, float[] nearestPt) {
-        float[] bmin = new float[3];
-        float[] bmax = new float[3];
-        dtVsub(bmin, center, extents);
-        dtVadd(bmax, center, extents);
-        
-        // 遍历瓦片中的多边形
-        for (int i = 0; i < tile.header.polyCount; i++) {
-            long ref = getPolyRefBase(tile) | (long) i;
-            
-            if (!filter.passFilter(ref, tile, tile.polys[i])) {
+    private void findNearestPolyInTile(MeshTile tile, float[] center, float[] bmin, float[] bmax,
+                                       DetourQueryFilter filter, long[] nearestRef, float[] nearestPt,
+                                       float[] nearestDistSqr) {
+        float climb = navMesh.getParams() != null ? (float) navMesh.getParams().walkableClimb : 0.0f;
+        float[] closest = new float[3];
+        long[] polys = new long[128];
+        int npolys = navMesh.queryPolygonsInTile(tile, bmin, bmax, polys, polys.length);
+        
+        // 遍历与搜索边界框重叠的地面多边形
+        for (int i = 0; i < npolys; i++) {
+            long ref = polys[i];
+            Poly poly = tile.polys[navMesh.decodePolyIdPoly(ref)];
+            if (poly.vertCount == 0 || !filter.passFilter(ref, tile, poly)) {
                 continue;
             }
             
-            // 获取多边形边界框
-            float[] polyBmin = new float[3];
-            float[] polyBmax = new float[3];
+            // 点在多边形正上方时只考虑高度差超出步高的部分
+            boolean posOverPoly = navMesh.closestPointOnPoly(tile, poly, center, closest);
+            float d;
+            if (posOverPoly) {
+                d = Math.max(Math.abs(center[1] - closest[1]) - climb, 0.0f);
+                d = d * d;
+            } else {
+                d = dtVdistSqr(center, closest);
+            }
             
-            // 简化实现：使用多边形的第一个顶点作为中心
-            if (tile.polys[i].vertCount > 0) {
-                int iv = tile.polys[i].verts[0] * 3;
-                polyBmin[0] = polyBmax[0] = (float) tile.verts[iv];
-                polyBmin[1] = polyBmax[1] = (float) tile.verts[iv + 1];
-                polyBmin[2] = polyBmax[2] = (float) tile.verts[iv + 2];
-                
-                // 计算所有顶点的边界框
-                for (int j = 1; j < tile.polys[i].vertCount; j++) {
-                    int jv = tile.polys[i].verts[j] * 3;
-                    polyBmin[0] = Math.min(polyBmin[0], (float) tile.verts[jv]);
-                    polyBmin[1] = Math.min(polyBmin[1], (float) tile.verts[jv + 1]);
-                    polyBmin[2] = Math.min(polyBmin[2], (float) tile.verts[jv + 2]);
-                    polyBmax[0] = Math.max(polyBmax[0], (float) tile.verts[jv]);
-                    polyBmax[1] = Math.max(polyBmax[1], (float) tile.verts[jv + 1]);
-                    polyBmax[2] = Math.max(polyBmax[2], (float) tile.verts[jv + 2]);
-                }
-                
-                // 检查边界框重叠
-                if (dtOverlapBounds(bmin, bmax, polyBmin, polyBmax)) {
-                    nearestRef[0] = ref;
-                    dtVcopy(nearestPt, center); // 简化：返回中心点
-                    return QueryStatus.SUCCESS;
-                }
+            if (d < nearestDistSqr[0]) {
+                dtVcopy(nearestPt, closest);
+                nearestDistSqr[0] = d;
+                nearestRef[0] = ref;
             }
         }
-        
-        return QueryStatus.FAILURE;
     }
     
     /**
      * 查询指定范围内的瓦片
+     *
+     * 通过导航网格的瓦片位置哈希表查找范围覆盖的瓦片位置上的所有层。
+     *
      * @param bmin 最小边界
      * @param bmax 最大边界
      * @param tiles 输出瓦片列表
@@ -262,9 +314,32 @@ public class DetourNavMeshQuery {
      * @return 找到的瓦片数量
      */
     private int queryTiles(float[] bmin, float[] bmax, List<MeshTile> tiles, int maxTiles) {
-        // 简化实现：返回所有瓦片（实际实现需要空间划分）
-        // TODO: 实现基于空间索引的瓦片查询
-        return 0;
+        int[] minx = new int[1];
+        int[] miny = new int[1];
+        int[] maxx = new int[1];
+        int[] maxy = new int[1];
+        navMesh.calcTileLoc(bmin, minx, miny);
+        navMesh.calcTileLoc(bmax, maxx, maxy);
+        
+        MeshTile[] neis = new MeshTile[32];
+        float[] tileBmin = new float[3];
+        float[] tileBmax = new float[3];
+        for (int y = miny[0]; y <= maxy[0]; y++) {
+            for (int x = minx[0]; x <= maxx[0]; x++) {
+                int nneis = navMesh.getTilesAt(x, y, neis, neis.length);
+                for (int j = 0; j < nneis && tiles.size() < maxTiles; j++) {
+                    MeshHeader header = neis[j].header;
+                    for (int k = 0; k < 3; k++) {
+                        tileBmin[k] = (float) header.bmin[k];
+                        tileBmax[k] = (float) header.bmax[k];
+                    }
+                    if (dtOverlapBounds(bmin, bmax, tileBmin, tileBmax)) {
+                        tiles.add(neis[j]);
+                    }
+                }
+            }
+        }
+        return tiles.size();
     }
     
     /**
@@ -273,8 +348,248 @@ public class DetourNavMeshQuery {
      * @return 引用基址
      */
     private long getPolyRefBase(MeshTile tile) {
-        // 简化实现：使用瓦片的盐值作为基址
-        return tile.salt << 20;
+        return navMesh.getPolyRefBase(tile);
+    }
+    
+    /**
+     * 在导航网格上按面积均匀地随机选取一个点（参见{@link #findRandomPoint(DetourQueryFilter, FRand, int, long[], float[])}）
+     * @param filter 查询过滤器
+     * @param frand 随机数生成器
+     * @param randomRef 输出：随机点所在的多边形引用
+     * @param randomPt 输出：随机点
+     * @return 查询状态
+     */
+    public QueryStatus findRandomPoint(DetourQueryFilter filter, FRand frand,
+                                       long[] randomRef, float[] randomPt) {
+        return findRandomPoint(filter, frand, DT_RANDOM_POINT_MAX_ATTEMPTS, randomRef, randomPt);
+    }
+    
+    /**
+     * 在导航网格上按面积均匀地随机选取一个点
+     * 
+     * 多边形按面积前缀和二分查找选取，每次采样为O(log n)；如果选中的多边形未通过过滤器则重新采样，
+     * 在通过过滤器的多边形中结果仍按面积均匀分布。重试次数用完时返回FAILURE而不扫描整个导航网格，
+     * 过滤器拒绝大部分面积时调用方可以增大重试次数，或使用findRandomPointAroundCircle在局部区域采样。
+     * 
+     * @param filter 查询过滤器
+     * @param frand 随机数生成器
+     * @param maxAttempts 最大采样次数
+     * @param randomRef 输出：随机点所在的多边形引用
+     * @param randomPt 输出：随机点
+     * @return 查询状态
+     */
+    public QueryStatus findRandomPoint(DetourQueryFilter filter, FRand frand, int maxAttempts,
+                                       long[] randomRef, float[] randomPt) {
+        randomRef[0] = 0;
+        
+        if (navMesh == null || filter == null || frand == null) {
+            return QueryStatus.FAILURE;
+        }
+        
+        MeshTile[] tileOut = new MeshTile[1];
+        Poly[] polyOut = new Poly[1];
+        
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            long ref = navMesh.samplePolyByArea(frand.frand());
+            if (ref == 0) {
+                return QueryStatus.FAILURE;
+            }
+            if (!navMesh.getTileAndPolyByRef(ref, tileOut, polyOut)) {
+                continue;
+            }
+            if (!filter.passFilter(ref, tileOut[0], polyOut[0])) {
+                continue;
+            }
+            
+            randomPointInPoly(tileOut[0], polyOut[0], frand, randomPt);
+            randomRef[0] = ref;
+            return QueryStatus.SUCCESS;
+        }
+        
+        return QueryStatus.FAILURE;
+    }
+    
+    /**
+     * 在指定圆形范围内可达的区域中按面积均匀地随机选取一个点
+     * 
+     * 从起始多边形出发做Dijkstra搜索，收集门户在圆内的多边形及其面积前缀和，
+     * 搜索结束后用一次二分查找选取多边形。返回的点可能略微超出圆的范围。
+     * 
+     * @param startRef 起始多边形引用
+     * @param centerPos 圆心
+     * @param maxRadius 搜索半径
+     * @param filter 查询过滤器
+     * @param frand 随机数生成器
+     * @param randomRef 输出：随机点所在的多边形引用
+     * @param randomPt 输出：随机点
+     * @return 查询状态
+     */
+    public QueryStatus findRandomPointAroundCircle(long startRef, float[] centerPos, float maxRadius,
+                                                   DetourQueryFilter filter, FRand frand,
+                                                   long[] randomRef, float[] randomPt) {
+        randomRef[0] = 0;
+        
+        if (navMesh == null || centerPos == null || filter == null || frand == null ||
+            !navMesh.isValidPolyRef(startRef) || maxRadius < 0.0f) {
+            return QueryStatus.FAILURE;
+        }
+        
+        MeshTile[] tileOut = new MeshTile[1];
+        Poly[] polyOut = new Poly[1];
+        navMesh.getTileAndPolyByRef(startRef, tileOut, polyOut);
+        if (!filter.passFilter(startRef, tileOut[0], polyOut[0])) {
+            return QueryStatus.FAILURE;
+        }
+        
+        resetQuery();
+        
+        Node startNode = getNode(startRef);
+        dtVcopy(startNode.pos, centerPos);
+        startNode.parentIndex = 0;
+        startNode.cost = 0.0f;
+        startNode.total = 0.0f;
+        startNode.flags = DT_NODE_OPEN;
+        pushOpen(startNode);
+        
+        float radiusSqr = maxRadius * maxRadius;
+        float[] va = new float[3];
+        float[] vb = new float[3];
+        long[] neis = new long[DT_MAX_POLY_NEIGHBOURS];
+        
+        // 已访问地面多边形及其面积前缀和
+        long[] visitedRefs = new long[64];
+        float[] visitedSums = new float[64];
+        int visitedCount = 0;
+        float areaSum = 0.0f;
+        
+        while (!isEmpty()) {
+            Node bestNode = popOpen();
+            bestNode.flags &= ~DT_NODE_OPEN;
+            bestNode.flags |= DT_NODE_CLOSED;
+            
+            // 当前和邻居瓦片在展开期间都需要保持解码
+            navMesh.holdDecodedTiles();
+            try {
+                long bestRef = bestNode.id;
+                navMesh.getTileAndPolyByRef(bestRef, tileOut, polyOut);
+                MeshTile bestTile = tileOut[0];
+                Poly bestPoly = polyOut[0];
+                
+                // 记录地面多边形的面积
+                if (bestPoly.getType() == PolyTypes.DT_POLYTYPE_GROUND.getValue()) {
+                    int ip = navMesh.decodePolyIdPoly(bestRef);
+                    float polyArea = bestTile.polyAreaSums[ip] - (ip > 0 ? bestTile.polyAreaSums[ip - 1] : 0.0f);
+                    if (polyArea > 0.0f) {
+                        if (visitedCount == visitedRefs.length) {
+                            visitedRefs = Arrays.copyOf(visitedRefs, visitedCount * 2);
+                            visitedSums = Arrays.copyOf(visitedSums, visitedCount * 2);
+                        }
+                        areaSum += polyArea;
+                        visitedRefs[visitedCount] = bestRef;
+                        visitedSums[visitedCount] = areaSum;
+                        visitedCount++;
+                    }
+                }
+                
+                Node parentNode = getNodeAtIndex(bestNode.parentIndex);
+                long parentRef = parentNode != null ? parentNode.id : 0;
+                
+                int neiCount = getPolyNeighbours(bestTile, bestPoly, filter, neis);
+                for (int i = 0; i < neiCount; i++) {
+                    long neighbourRef = neis[i];
+                    if (neighbourRef == parentRef) {
+                        continue;
+                    }
+                    
+                    if (!navMesh.getTileAndPolyByRef(neighbourRef, tileOut, polyOut)) {
+                        continue;
+                    }
+                    MeshTile neighbourTile = tileOut[0];
+                    Poly neighbourPoly = polyOut[0];
+                    
+                    if (!filter.passFilter(neighbourRef, neighbourTile, neighbourPoly)) {
+                        continue;
+                    }
+                    
+                    // 门户不在圆内时跳过
+                    if (!getPortalPoints(bestRef, bestPoly, bestTile, neighbourRef, neighbourPoly, neighbourTile, va, vb)) {
+                        continue;
+                    }
+                    if (dtDistancePtSegSqr2D(centerPos, va, vb, null) > radiusSqr) {
+                        continue;
+                    }
+                    
+                    Node neighbourNode = getNode(neighbourRef);
+                    if (neighbourNode == null || (neighbourNode.flags & DT_NODE_CLOSED) != 0) {
+                        continue;
+                    }
+                    
+                    // 节点首次访问时位置取门户中点
+                    if (neighbourNode.flags == 0) {
+                        neighbourNode.pos[0] = (va[0] + vb[0]) * 0.5f;
+                        neighbourNode.pos[1] = (va[1] + vb[1]) * 0.5f;
+                        neighbourNode.pos[2] = (va[2] + vb[2]) * 0.5f;
+                    }
+                    
+                    float total = bestNode.total + dtVdist(bestNode.pos, neighbourNode.pos);
+                    if ((neighbourNode.flags & DT_NODE_OPEN) != 0) {
+                        if (total >= neighbourNode.total) {
+                            continue;
+                        }
+                        neighbourNode.total = total;
+                        neighbourNode.parentIndex = getNodeIndex(bestNode);
+                        modifyOpen(neighbourNode);
+                    } else {
+                        neighbourNode.total = total;
+                        neighbourNode.parentIndex = getNodeIndex(bestNode);
+                        neighbourNode.flags = DT_NODE_OPEN;
+                        pushOpen(neighbourNode);
+                    }
+                }
+            } finally {
+                navMesh.releaseDecodedTiles();
+            }
+        }
+        
+        if (visitedCount == 0) {
+            return QueryStatus.FAILURE;
+        }
+        
+        // 按面积前缀和二分查找多边形
+        float target = frand.frand() * areaSum;
+        int lo = 0;
+        int hi = visitedCount - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (visitedSums[mid] > target) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        
+        long ref = visitedRefs[lo];
+        navMesh.getTileAndPolyByRef(ref, tileOut, polyOut);
+        randomPointInPoly(tileOut[0], polyOut[0], frand, randomPt);
+        randomRef[0] = ref;
+        return QueryStatus.SUCCESS;
+    }
+    
+    /**
+     * 在多边形内按面积均匀地生成随机点
+     * @param tile 多边形所在瓦片
+     * @param poly 多边形
+     * @param frand 随机数生成器
+     * @param pt 输出随机点
+     */
+    private void randomPointInPoly(MeshTile tile, Poly poly, FRand frand, float[] pt) {
+        float[] verts = new float[3 * DT_VERTS_PER_POLYGON];
+        float[] areas = new float[DT_VERTS_PER_POLYGON];
+        tile.getPolyVerts(poly, verts);
+        
+        float s = frand.frand();
+        float t = frand.frand();
+        dtRandomPointInConvexPoly(verts, poly.vertCount, areas, s, t, pt);
     }
     
     /**
@@ -289,8 +604,8 @@ public class DetourNavMeshQuery {
      * @param totalCost 输出总成本
      * @return 查询状态
      */
-    public QueryStatus findPath(long startRef, long endRef, float[] startPos, float[] endPos, 
-                               float costLimit, DetourQueryFilter filter, 
+    public QueryStatus findPath(long startRef, long endRef, float[] startPos, float[] endPos,
+                               float costLimit, DetourQueryFilter filter,
                                List<Long> path, float[] totalCost) {
         
         if (path != null) {
@@ -301,7 +616,7 @@ public class DetourNavMeshQuery {
         }
         
         // 验证输入
-        if (navMesh == null || startRef == 0 || endRef == 0 || 
+        if (navMesh == null || startRef == 0 || endRef == 0 ||
             startPos == null || endPos == null || filter == null) {
             return QueryStatus.FAILURE;
         }
@@ -316,30 +631,29 @@ public class DetourNavMeshQuery {
         
         // 初始化分片查询
         QueryStatus status = initSlicedFindPath(startRef, endRef, startPos, endPos, costLimit, true, filter);
-        if (!status.isSuccess()) {
+        if (status == QueryStatus.FAILURE) {
             return status;
         }
         
-        // 执行搜索
-        status = updateSlicedFindPath(1000, null);
-        if (status.isInProgress()) {
-            return QueryStatus.PARTIAL_RESULT;
+        // 执行完整搜索
+        status = updateSlicedFindPath(Integer.MAX_VALUE, null);
+        if (status == QueryStatus.FAILURE) {
+            return status;
         }
         
-        if (status.isSuccess()) {
-            // 完成路径查找
-            long[] pathArray = new long[256];
-            int[] pathCount = new int[1];
-            status = finalizeSlicedFindPath(pathArray, pathCount, 256);
-            
-            if (status.isSuccess() && path != null) {
-                for (int i = 0; i < pathCount[0]; i++) {
-                    path.add(pathArray[i]);
-                }
-            }
+        // 回溯路径（未到达终点时为到最接近终点节点的部分路径）
+        Node node = queryStatus == QueryStatus.SUCCESS ? findNode(endRef) : lastBestNode;
+        if (node == null) {
+            return QueryStatus.FAILURE;
+        }
+        if (totalCost != null && totalCost.length > 0) {
+            totalCost[0] = node.cost;
+        }
+        if (path != null) {
+            appendPathToNode(node, path);
         }
         
-        return status;
+        return queryStatus;
     }
     
     /**
@@ -370,26 +684,28 @@ public class DetourNavMeshQuery {
         this.costLimit = costLimit;
         
         // 验证输入
-        if (navMesh == null || startRef == 0 || endRef == 0 || filter == null) {
+        if (navMesh == null || filter == null ||
+            !navMesh.isValidPolyRef(startRef) || !navMesh.isValidPolyRef(endRef)) {
+            queryStatus = QueryStatus.FAILURE;
             return QueryStatus.FAILURE;
         }
         
+        this.heuristicScale = filter.getModifiedHeuristicScale();
+        
         // 初始化起始节点
         Node startNode = getNode(startRef);
-        if (startNode == null) {
-            return QueryStatus.FAILURE;
-        }
-        
         dtVcopy(startNode.pos, startPos);
         startNode.parentIndex = 0;
         startNode.cost = 0.0f;
-        startNode.total = dtVdist(startPos, endPos) * filter.getHeuristicScale();
-        startNode.id = startRef;
+        startNode.total = dtVdist(startPos, endPos) * heuristicScale;
         startNode.flags = DT_NODE_OPEN;
         
         // 添加到开放列表
         pushOpen(startNode);
         
+        lastBestNode = startNode;
+        lastBestNodeCost = startNode.total;
+        
         this.queryStatus = QueryStatus.IN_PROGRESS;
         
         return QueryStatus.IN_PROGRESS;
@@ -410,6 +726,12 @@ public class DetourNavMeshQuery {
             return queryStatus;
         }
         
+        // 查询期间瓦片可能被移除
+        if (!navMesh.isValidPolyRef(startRef) || !navMesh.isValidPolyRef(endRef)) {
+            queryStatus = QueryStatus.FAILURE;
+            return queryStatus;
+        }
+        
         int iter = 0;
         while (iter < maxIter && !isEmpty()) {
             iter++;
@@ -421,27 +743,22 @@ public class DetourNavMeshQuery {
             
             // 检查是否到达目标
             if (bestNode.id == endRef) {
+                lastBestNode = bestNode;
                 queryStatus = QueryStatus.SUCCESS;
                 break;
             }
             
             // 展开邻居节点
-            expandNeighbors(bestNode);
-            
-            // 检查成本限制
-            if (bestNode.total >= costLimit) {
-                queryStatus = QueryStatus.PARTIAL_RESULT;
-                break;
-            }
+            expandNeighbors(bestNode, endRef, endPos, heuristicScale, filter);
         }
         
         if (doneIters != null && doneIters.length > 0) {
             doneIters[0] = iter;
         }
         
-        // 如果开放列表为空且没有找到路径
-        if (isEmpty() && !queryStatus.isSuccess()) {
-            queryStatus = QueryStatus.FAILURE;
+        // 开放列表耗尽仍未到达终点：返回到最接近终点节点的部分结果
+        if (isEmpty() && queryStatus.isInProgress()) {
+            queryStatus = QueryStatus.PARTIAL_RESULT;
         }
         
         return queryStatus;
@@ -449,156 +766,164 @@ public class DetourNavMeshQuery {
     
     /**
      * 展开节点的邻居
+     *
+     * A*和Dijkstra搜索共用此方法；heuristicScale为0时即为Dijkstra。
+     *
      * @param bestNode 当前最优节点
+     * @param goalRef 目标多边形引用（没有单一目标时为0）
+     * @param goalPos 目标位置（没有单一目标时为null）
+     * @param heuristicScale 启发式比例
+     * @param filter 查询过滤器
      */
-    private void expandNeighbors(Node bestNode) {
-        MeshTile tile = null;
-        Poly poly = null;
-        
-        // 获取多边形和瓦片
-        // 简化实现：假设我们有方法获取瓦片和多边形
-        // TODO: 实现从多边形引用获取瓦片和多边形的方法
-        
-        if (tile == null || poly == null) {
-            return;
-        }
-        
-        // 遍历多边形的所有边
-        for (int i = 0; i < poly.vertCount; i++) {
-            // 获取邻居多边形引用
-            long neighbourRef = 0;
-            if (poly.neis[i] != 0) {
-                // 内部邻居
-                neighbourRef = getPolyRefBase(tile) | (long) poly.neis[i];
-            } else {
-                // 外部邻居（通过链接）
-                neighbourRef = getNeighbourThroughLink(tile, poly, i);
-            }
+    private void expandNeighbors(Node bestNode, long goalRef, float[] goalPos,
+                                 float heuristicScale, DetourQueryFilter filter) {
+        // 当前、父节点和邻居瓦片在展开期间都需要保持解码
+        navMesh.holdDecodedTiles();
+        try {
+            MeshTile[] tileOut = neighbourTileOut;
+            Poly[] polyOut = neighbourPolyOut;
             
-            if (neighbourRef == 0) {
-                continue;
+            long bestRef = bestNode.id;
+            if (!navMesh.getTileAndPolyByRef(bestRef, tileOut, polyOut)) {
+                return;
             }
+            MeshTile bestTile = tileOut[0];
+            Poly bestPoly = polyOut[0];
             
-            // 检查过滤器
-            MeshTile neighbourTile = null; // TODO: 获取邻居瓦片
-            Poly neighbourPoly = null;     // TODO: 获取邻居多边形
-            
-            if (neighbourTile == null || neighbourPoly == null || 
-                !filter.passFilter(neighbourRef, neighbourTile, neighbourPoly)) {
-                continue;
+            // 获取父节点
+            long parentRef = 0;
+            MeshTile parentTile = null;
+            Poly parentPoly = null;
+            Node parentNode = getNodeAtIndex(bestNode.parentIndex);
+            if (parentNode != null) {
+                parentRef = parentNode.id;
+                if (navMesh.getTileAndPolyByRef(parentRef, tileOut, polyOut)) {
+                    parentTile = tileOut[0];
+                    parentPoly = polyOut[0];
+                }
             }
             
-            // 计算邻居节点位置和成本
-            float[] neighbourPos = new float[3];
-            float cost = calculateMoveCost(bestNode.pos, neighbourPos, bestNode.id, neighbourRef,
-                                          tile, poly, neighbourTile, neighbourPoly);
-            cost += bestNode.cost;
-            
-            // 检查是否需要更新或创建节点
-            Node neighbourNode = getNode(neighbourRef);
-            if (neighbourNode == null) {
-                // 创建新节点
-                neighbourNode = getNode(neighbourRef);
-                if (neighbourNode != null) {
-                    dtVcopy(neighbourNode.pos, neighbourPos);
-                    neighbourNode.cost = cost;
-                    neighbourNode.total = cost + calculateHeuristic(neighbourPos, endPos);
-                    neighbourNode.id = neighbourRef;
-                    neighbourNode.flags = DT_NODE_OPEN;
-                    neighbourNode.parentIndex = getNodeIndex(bestNode);
-                    
-                    pushOpen(neighbourNode);
+            long[] neis = neighbourRefs;
+            int neiCount = getPolyNeighbours(bestTile, bestPoly, filter, neis);
+            for (int i = 0; i < neiCount; i++) {
+                long neighbourRef = neis[i];
+                
+                // 不回到父节点
+                if (neighbourRef == 0 || neighbourRef == parentRef) {
+                    continue;
                 }
-            } else if (cost < neighbourNode.cost) {
-                // 更新现有节点
-                neighbourNode.cost = cost;
-                neighbourNode.total = cost + calculateHeuristic(neighbourPos, endPos);
+                
+                if (!navMesh.getTileAndPolyByRef(neighbourRef, tileOut, polyOut)) {
+                    continue;
+                }
+                MeshTile neighbourTile = tileOut[0];
+                Poly neighbourPoly = polyOut[0];
+                
+                if (!filter.passFilter(neighbourRef, neighbourTile, neighbourPoly)) {
+                    continue;
+                }
+                
+                Node neighbourNode = getNode(neighbourRef);
+                if (neighbourNode == null) {
+                    nodePoolExhausted = true;
+                    continue;
+                }
+                
+                // 节点首次访问时位置取门户中点
+                if (neighbourNode.flags == 0) {
+                    if (!getEdgeMidPoint(bestRef, bestPoly, bestTile,
+                                         neighbourRef, neighbourPoly, neighbourTile, neighbourNode.pos)) {
+                        continue;
+                    }
+                }
+                
+                // 计算成本和启发式
+                float cost = bestNode.cost + filter.getCost(bestNode.pos, neighbourNode.pos,
+                                                            parentRef, parentTile, parentPoly,
+                                                            bestRef, bestTile, bestPoly,
+                                                            neighbourRef, neighbourTile, neighbourPoly);
+                float heuristic;
+                if (neighbourRef == goalRef) {
+                    // 到达目标多边形时加上到终点的成本
+                    cost += filter.getCost(neighbourNode.pos, goalPos,
+                                           bestRef, bestTile, bestPoly,
+                                           neighbourRef, neighbourTile, neighbourPoly,
+                                           0, null, null);
+                    heuristic = 0.0f;
+                } else {
+                    heuristic = goalPos != null ? dtVdist(neighbourNode.pos, goalPos) * heuristicScale : 0.0f;
+                }
+                
+                if (cost > costLimit) {
+                    continue;
+                }
+                
+                float total = cost + heuristic;
+                
+                // 已有更优的节点则跳过
+                if ((neighbourNode.flags & DT_NODE_OPEN) != 0 && total >= neighbourNode.total) {
+                    continue;
+                }
+                if ((neighbourNode.flags & DT_NODE_CLOSED) != 0 && total >= neighbourNode.total) {
+                    continue;
+                }
+                
+                // 添加或更新节点
                 neighbourNode.parentIndex = getNodeIndex(bestNode);
+                neighbourNode.flags &= ~DT_NODE_CLOSED;
+                neighbourNode.cost = cost;
+                neighbourNode.total = total;
                 
                 if ((neighbourNode.flags & DT_NODE_OPEN) != 0) {
-                    // 节点在开放列表中，需要重新排序
+                    // 节点已在开放列表中，恢复堆序
+                    modifyOpen(neighbourNode);
+                } else {
+                    neighbourNode.flags |= DT_NODE_OPEN;
                     pushOpen(neighbourNode);
                 }
+                
+                // 记录最接近目标的节点
+                if (heuristic < lastBestNodeCost) {
+                    lastBestNodeCost = heuristic;
+                    lastBestNode = neighbourNode;
+                }
             }
+        } finally {
+            navMesh.releaseDecodedTiles();
         }
     }
     
     /**
-     * 通过链接获取邻居
-     * @param tile 瓦片
-     * @param poly 多边形
-     * @param edge 边索引
-     * @return 邻居多边形引用
-     */
-    private long getNeighbourThroughLink(MeshTile tile, Poly poly, int edge) {
-        // 遍历多边形的链接
-        for (long linkIndex = poly.firstLink; linkIndex != DT_NULL_LINK; ) {
-            if (linkIndex >= tile.links.length) {
-                break;
-            }
-            
-            Link link = tile.links[(int) linkIndex];
-            if (link.edge == edge) {
-                return link.ref.value;
-            }
-            
-            linkIndex = link.next;
-        }
-        
-        return 0;
-    }
-    
-    /**
-     * 计算移动成本
-     * @param from 起始位置
-     * @param to 目标位置
-     * @param fromRef 起始多边形引用
-     * @param toRef 目标多边形引用
-     * @param fromTile 起始瓦片
+     * 获取两个多边形之间门户的中点
+     * @param from 起始多边形引用
      * @param fromPoly 起始多边形
-     * @param toTile 目标瓦片
+     * @param fromTile 起始瓦片
+     * @param to 目标多边形引用
      * @param toPoly 目标多边形
-     * @return 移动成本
+     * @param toTile 目标瓦片
+     * @param mid 输出中点
+     * @return true如果找到门户
      */
-    private float calculateMoveCost(float[] from, float[] to, 
-                                   long fromRef, long toRef,
-                                   MeshTile fromTile, Poly fromPoly,
-                                   MeshTile toTile, Poly toPoly) {
-        float cost = dtVdist(from, to);
-        
-        // 应用过滤器的成本修正
-        if (filter != null) {
-            cost *= filter.getCost(from, to, 
-                                  0, null, null,           // prevRef, prevTile, prevPoly (无前一个)
-                                  fromRef, fromTile, fromPoly,  // 当前
-                                  toRef, toTile, toPoly);       // 下一个
+    private boolean getEdgeMidPoint(long from, Poly fromPoly, MeshTile fromTile,
+                                    long to, Poly toPoly, MeshTile toTile, float[] mid) {
+        float[] left = portalLeft;
+        float[] right = portalRight;
+        if (!getPortalPoints(from, fromPoly, fromTile, to, toPoly, toTile, left, right)) {
+            return false;
         }
-        
-        return cost;
-    }
-    
-    /**
-     * 计算启发式成本
-     * @param from 起始位置
-     * @param to 目标位置
-     * @return 启发式成本
-     */
-    private float calculateHeuristic(float[] from, float[] to) {
-        return dtVdist(from, to) * (filter != null ? filter.getHeuristicScale() : 1.0f);
+        mid[0] = (left[0] + right[0]) * 0.5f;
+        mid[1] = (left[1] + right[1]) * 0.5f;
+        mid[2] = (left[2] + right[2]) * 0.5f;
+        return true;
     }
     
     /**
      * 获取节点在池中的索引
      * @param node 节点
-     * @return 节点索引
+     * @return 节点索引（从1开始，0表示无效）
      */
     private long getNodeIndex(Node node) {
-        for (int i = 0; i < nextFreeNode; i++) {
-            if (nodePool[i] == node) {
-                return i + 1; // 索引从1开始，0表示无效
-            }
-        }
-        return 0;
+        return node != null ? node.index + 1 : 0;
     }
     
     /**
@@ -611,352 +936,784 @@ public class DetourNavMeshQuery {
     public QueryStatus finalizeSlicedFindPath(long[] path, int[] pathCount, int maxPath) {
         pathCount[0] = 0;
         
-        if (!queryStatus.isSuccess()) {
-            return queryStatus;
+        if (queryStatus == QueryStatus.FAILURE || queryStatus.isInProgress()) {
+            QueryStatus status = queryStatus;
+            resetQuery();
+            return status == QueryStatus.FAILURE ? status : QueryStatus.FAILURE;
         }
         
-        // 查找终点节点
-        Node endNode = getNode(endRef);
+        // 查找终点节点（部分结果时为最接近终点的节点）
+        Node endNode = queryStatus == QueryStatus.SUCCESS ? findNode(endRef) : lastBestNode;
         if (endNode == null) {
             return QueryStatus.FAILURE;
         }
         
         // 回溯路径
         List<Long> pathList = new ArrayList<>();
-        Node node = endNode;
-        
-        do {
-            pathList.add(node.id);
-            node = getNodeAtIndex(node.parentIndex);
-        } while (node != null);
+        appendPathToNode(endNode, pathList);
         
-        // 反转路径（从起点到终点）
         int pathLen = Math.min(pathList.size(), maxPath);
         for (int i = 0; i < pathLen; i++) {
-            path[i] = pathList.get(pathLen - 1 - i);
+            path[i] = pathList.get(i);
         }
         
         pathCount[0] = pathLen;
         
-        return pathLen > 0 ? QueryStatus.SUCCESS : QueryStatus.FAILURE;
+        QueryStatus status = queryStatus;
+        queryStatus = QueryStatus.FAILURE;
+        return pathLen > 0 ? status : QueryStatus.FAILURE;
     }
     
     /**
-     * 查找直线路径
-     * @param startPos 起始位置
-     * @param endPos 终点位置
-     * @param path 多边形路径
-     * @param pathSize 路径长度
-     * @param straightPath 输出直线路径点
-     * @param straightPathFlags 输出路径标志
-     * @param straightPathRefs 输出多边形引用
-     * @param straightPathCount 输出直线路径点数量
-     * @param maxStraightPath 最大直线路径点数量
-     * @param options 选项标志
-     * @return 查询状态
+     * 从起点到指定节点的多边形路径追加到列表
+     * @param endNode 路径终点节点
+     * @param path 输出路径（从起点到终点）
      */
-    public QueryStatus findStraightPath(float[] startPos, float[] endPos, long[] path, int pathSize,
-                                       float[] straightPath, int[] straightPathFlags, long[] straightPathRefs,
-                                       int[] straightPathCount, int maxStraightPath, int options) {
+    private void appendPathToNode(Node endNode, List<Long> path) {
+        int start = path.size();
+        for (Node node = endNode; node != null; node = getNodeAtIndex(node.parentIndex)) {
+            path.add(node.id);
+        }
+        // 反转路径（从起点到终点）
+        for (int i = start, j = path.size() - 1; i < j; i++, j--) {
+            Long tmp = path.get(i);
+            path.set(i, path.get(j));
+            path.set(j, tmp);
+        }
+    }
+    
+    // ========== 一对多搜索 ==========
+    
+    /**
+     * 一对多搜索的单个目标结果
+     */
+    public static class TargetResult {
+        /** 目标在输入数组中的索引 */
+        public int targetIndex;
         
-        straightPathCount[0] = 0;
+        /** 目标多边形引用 */
+        public long ref;
         
-        if (navMesh == null || straightPath == null || path == null || pathSize <= 0) {
+        /** 从起点到目标的路径成本 */
+        public float cost;
+        
+        /** 从起点到目标的多边形路径 */
+        public List<Long> path = new ArrayList<>();
+    }
+    
+    /**
+     * 从起点出发一次性搜索到多个目标的路径
+     *
+     * 执行单次Dijkstra扩展，当所有目标（或最近的maxResults个目标）的成本确定后立即停止，
+     * 用于替代对每个目标分别调用findPath来挑选最近目标。结果按成本升序排列，
+     * 不可达的目标不会出现在结果中。
+     *
+     * @param startRef 起始多边形引用
+     * @param startPos 起始位置
+     * @param targetRefs 目标多边形引用 [大小: targetCount]
+     * @param targetPos 目标位置 [(x, y, z) * targetCount]，为null时成本只计算到目标多边形
+     * @param targetCount 目标数量
+     * @param maxResults 需要的最近目标数量，小于等于0时搜索所有目标
+     * @param costLimit 成本限制，超过此成本的多边形不再扩展
+     * @param filter 查询过滤器
+     * @param results 输出结果，按成本升序排列
+     * @return 查询状态；节点池耗尽时为部分结果
+     */
+    public QueryStatus findPathsToTargets(long startRef, float[] startPos,
+                                          long[] targetRefs, float[] targetPos, int targetCount,
+                                          int maxResults, float costLimit, DetourQueryFilter filter,
+                                          List<TargetResult> results) {
+        results.clear();
+        
+        if (navMesh == null || startPos == null || filter == null || targetRefs == null ||
+            !navMesh.isValidPolyRef(startRef) || targetCount <= 0) {
             return QueryStatus.FAILURE;
         }
         
-        // 添加起始点
-        int straightPathSize = 0;
-        if (straightPathSize < maxStraightPath) {
-            dtVcopy(Arrays.copyOfRange(straightPath, straightPathSize * 3, (straightPathSize + 1) * 3), startPos);
-            if (straightPathFlags != null) {
-                straightPathFlags[straightPathSize] = DT_STRAIGHTPATH_START;
+        int wanted = maxResults <= 0 ? targetCount : Math.min(maxResults, targetCount);
+        
+        // 按多边形索引目标，同一多边形上可以有多个目标
+        Map<Long, List<Integer>> targetsByPoly = new HashMap<>();
+        for (int i = 0; i < targetCount; i++) {
+            if (!navMesh.isValidPolyRef(targetRefs[i])) {
+                continue;
             }
-            if (straightPathRefs != null) {
-                straightPathRefs[straightPathSize] = path[0];
+            List<Integer> list = targetsByPoly.get(targetRefs[i]);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                targetsByPoly.put(targetRefs[i], list);
             }
-            straightPathSize++;
+            list.add(i);
+        }
+        if (targetsByPoly.isEmpty()) {
+            return QueryStatus.FAILURE;
         }
         
-        // 处理路径中的每一段
-        float[] portalApex = new float[3];
-        float[] portalLeft = new float[3];
-        float[] portalRight = new float[3];
+        resetQuery();
+        this.filter = filter;
+        this.costLimit = costLimit;
         
-        dtVcopy(portalApex, startPos);
-        dtVcopy(portalLeft, startPos);
-        dtVcopy(portalRight, startPos);
+        Node startNode = getNode(startRef);
+        dtVcopy(startNode.pos, startPos);
+        startNode.parentIndex = 0;
+        startNode.cost = 0.0f;
+        startNode.total = 0.0f;
+        startNode.flags = DT_NODE_OPEN;
+        pushOpen(startNode);
+        lastBestNodeCost = 0.0f;
         
-        int apexIndex = 0;
-        int leftIndex = 0;
-        int rightIndex = 0;
+        MeshTile[] tileOut = new MeshTile[1];
+        Poly[] polyOut = new Poly[1];
+        float[] goal = new float[3];
+        int settledPolys = 0;
         
-        for (int i = 0; i < pathSize && straightPathSize < maxStraightPath; i++) {
-            // 获取门户边
-            float[] left = new float[3];
-            float[] right = new float[3];
+        // 已得到结果的成本按升序保存；弹出节点的成本单调不减，resultsWithin只会向前移动
+        float[] resultCosts = new float[targetCount];
+        int resultCount = 0;
+        int resultsWithin = 0;
+        
+        while (!isEmpty()) {
+            Node bestNode = popOpen();
+            bestNode.flags &= ~DT_NODE_OPEN;
+            bestNode.flags |= DT_NODE_CLOSED;
             
-            if (i + 1 < pathSize) {
-                // 获取两个相邻多边形之间的门户
-                if (!getPortalPoints(path[i], path[i + 1], left, right)) {
-                    continue;
-                }
-            } else {
-                // 最后一段，直接到终点
-                dtVcopy(left, endPos);
-                dtVcopy(right, endPos);
+            // 所有未确定的目标成本都不低于当前节点成本，已有足够多更近的结果即可停止
+            while (resultsWithin < resultCount && resultCosts[resultsWithin] <= bestNode.cost) {
+                resultsWithin++;
+            }
+            if (resultsWithin >= wanted) {
+                break;
             }
             
-            // 更新漏斗
-            if (updateFunnel(portalApex, portalLeft, portalRight, left, right,
-                            apexIndex, leftIndex, rightIndex, i, 
-                            straightPath, straightPathFlags, straightPathRefs,
-                            straightPathSize, maxStraightPath, path)) {
-                straightPathSize++;
+            List<Integer> targets = targetsByPoly.get(bestNode.id);
+            if (targets != null) {
+                navMesh.getTileAndPolyByRef(bestNode.id, tileOut, polyOut);
+                for (int t : targets) {
+                    TargetResult result = new TargetResult();
+                    result.targetIndex = t;
+                    result.ref = bestNode.id;
+                    result.cost = bestNode.cost;
+                    if (targetPos != null) {
+                        goal[0] = targetPos[t * 3];
+                        goal[1] = targetPos[t * 3 + 1];
+                        goal[2] = targetPos[t * 3 + 2];
+                        result.cost += filter.getCost(bestNode.pos, goal,
+                                                      0, null, null,
+                                                      bestNode.id, tileOut[0], polyOut[0],
+                                                      0, null, null);
+                    }
+                    appendPathToNode(bestNode, result.path);
+                    results.add(result);
+                    resultCount = insertSortedCost(resultCosts, resultCount, result.cost);
+                }
+                
+                if (++settledPolys == targetsByPoly.size()) {
+                    break;
+                }
             }
+            
+            expandNeighbors(bestNode, 0, null, 0.0f, filter);
         }
         
-        // 添加终点
-        if (straightPathSize < maxStraightPath) {
-            dtVcopy(Arrays.copyOfRange(straightPath, straightPathSize * 3, (straightPathSize + 1) * 3), endPos);
-            if (straightPathFlags != null) {
-                straightPathFlags[straightPathSize] = DT_STRAIGHTPATH_END;
-            }
-            if (straightPathRefs != null) {
-                straightPathRefs[straightPathSize] = path[pathSize - 1];
+        Collections.sort(results, new Comparator<TargetResult>() {
+            @Override
+            public int compare(TargetResult a, TargetResult b) {
+                return Float.compare(a.cost, b.cost);
             }
-            straightPathSize++;
+        });
+        while (results.size() > wanted) {
+            results.remove(results.size() - 1);
         }
         
-        straightPathCount[0] = straightPathSize;
-        
-        return QueryStatus.SUCCESS;
+        if (results.isEmpty()) {
+            return QueryStatus.FAILURE;
+        }
+        return nodePoolExhausted && results.size() < wanted ? QueryStatus.PARTIAL_RESULT : QueryStatus.SUCCESS;
     }
     
     /**
-     * 获取两个多边形之间的门户点
-     * @param from 起始多边形引用
-     * @param to 目标多边形引用
-     * @param left 输出左门户点
-     * @param right 输出右门户点
-     * @return true如果找到门户
+     * 将成本插入升序数组，相同成本插入到已有元素之后
+     * @param costs 升序成本数组
+     * @param count 当前元素数量
+     * @param cost 插入的成本
+     * @return 插入后的元素数量
      */
-    private boolean getPortalPoints(long from, long to, float[] left, float[] right) {
-        // 获取多边形和瓦片
-        MeshTile fromTile = null;
-        Poly fromPoly = null;
-        MeshTile toTile = null;
-        Poly toPoly = null;
-        
-        // 从引用中获取瓦片和多边形
-        if (!getPolyAndTile(from, fromTile, fromPoly) || 
-            !getPolyAndTile(to, toTile, toPoly)) {
-            return false;
+    private static int insertSortedCost(float[] costs, int count, float cost) {
+        int i = count;
+        while (i > 0 && costs[i - 1] > cost) {
+            costs[i] = costs[i - 1];
+            i--;
+        }
+        costs[i] = cost;
+        return count + 1;
+    }
+    
+    /**
+     * 查找直线路径
+     *
+     * 在多边形路径的门户上执行漏斗算法。经过离网连接时，在连接起点输出带有
+     * DT_STRAIGHTPATH_OFFMESH_CONNECTION标志的路径点，之后从连接终点继续。
+     *
+     * @param startPos 起始位置
+     * @param endPos 终点位置
+     * @param path 多边形路径
+     * @param pathSize 路径长度
+     * @param straightPath 输出直线路径点
+     * @param straightPathFlags 输出路径标志
+     * @param straightPathRefs 输出多边形引用
+     * @param straightPathCount 输出直线路径点数量
+     * @param maxStraightPath 最大直线路径点数量
+     * @param options 选项标志 (参见: StraightPathOptions)
+     * @return 查询状态
+     */
+    public QueryStatus findStraightPath(float[] startPos, float[] endPos, long[] path, int pathSize,
+                                       float[] straightPath, int[] straightPathFlags, long[] straightPathRefs,
+                                       int[] straightPathCount, int maxStraightPath, int options) {
+        
+        straightPathCount[0] = 0;
+        
+        if (navMesh == null || startPos == null || endPos == null || straightPath == null ||
+            path == null || pathSize <= 0 || maxStraightPath <= 0) {
+            return QueryStatus.FAILURE;
         }
         
-        // 查找共享边
-        int fromEdge = -1;
-        int toEdge = -1;
+        float[] closestStartPos = new float[3];
+        if (!closestPointOnPolyBoundary(path[0], startPos, closestStartPos)) {
+            return QueryStatus.FAILURE;
+        }
+        float[] closestEndPos = new float[3];
+        if (!closestPointOnPolyBoundary(path[pathSize - 1], endPos, closestEndPos)) {
+            return QueryStatus.FAILURE;
+        }
+        
+        boolean appendCrossings = (options & (StraightPathOptions.DT_STRAIGHTPATH_AREA_CROSSINGS.getValue() |
+                                              StraightPathOptions.DT_STRAIGHTPATH_ALL_CROSSINGS.getValue())) != 0;
         
-        // 遍历from多边形的所有边
-        for (int i = 0; i < fromPoly.vertCount; i++) {
-            int j = (i + 1) % fromPoly.vertCount;
+        // 添加起始点
+        QueryStatus stat = appendVertex(closestStartPos, DT_STRAIGHTPATH_START, path[0],
+                                        straightPath, straightPathFlags, straightPathRefs,
+                                        straightPathCount, maxStraightPath);
+        if (stat != QueryStatus.IN_PROGRESS) {
+            return stat;
+        }
+        
+        if (pathSize > 1) {
+            float[] portalApex = new float[3];
+            float[] portalLeft = new float[3];
+            float[] portalRight = new float[3];
+            dtVcopy(portalApex, closestStartPos);
+            dtVcopy(portalLeft, portalApex);
+            dtVcopy(portalRight, portalApex);
+            int apexIndex = 0;
+            int leftIndex = 0;
+            int rightIndex = 0;
             
-            // 检查是否是共享边
-            if (fromPoly.neis[i] != 0) {
-                // 内部邻居
-                long neighbourRef = getPolyRefBase(fromTile) | (long) fromPoly.neis[i];
-                if (neighbourRef == to) {
-                    fromEdge = i;
-                    toEdge = -1;
-                    break;
-                }
-            } else {
-                // 外部邻居（通过链接）
-                for (long linkIndex = fromPoly.firstLink; linkIndex != DT_NULL_LINK; ) {
-                    if (linkIndex >= fromTile.links.length) {
-                        break;
+            int leftPolyType = PolyTypes.DT_POLYTYPE_GROUND.getValue();
+            int rightPolyType = PolyTypes.DT_POLYTYPE_GROUND.getValue();
+            long leftPolyRef = path[0];
+            long rightPolyRef = path[0];
+            
+            float[] left = new float[3];
+            float[] right = new float[3];
+            MeshTile[] tileOut = new MeshTile[1];
+            Poly[] polyOut = new Poly[1];
+            
+            for (int i = 0; i < pathSize; ++i) {
+                int toType;
+                
+                if (i + 1 < pathSize) {
+                    // 下一个门户
+                    boolean found = navMesh.getTileAndPolyByRef(path[i], tileOut, polyOut);
+                    MeshTile fromTile = tileOut[0];
+                    Poly fromPoly = polyOut[0];
+                    found = found && navMesh.getTileAndPolyByRef(path[i + 1], tileOut, polyOut);
+                    if (!found || !getPortalPoints(path[i], fromPoly, fromTile, path[i + 1], polyOut[0], tileOut[0], left, right)) {
+                        // path[i + 1]无效，将终点限制在path[i]上并返回部分路径
+                        if (!closestPointOnPolyBoundary(path[i], endPos, closestEndPos)) {
+                            return QueryStatus.FAILURE;
+                        }
+                        if (appendCrossings) {
+                            stat = appendPortals(apexIndex, i, closestEndPos, path, straightPath, straightPathFlags,
+                                                 straightPathRefs, straightPathCount, maxStraightPath, options);
+                            if (stat != QueryStatus.IN_PROGRESS) {
+                                return stat;
+                            }
+                        }
+                        appendVertex(closestEndPos, 0, path[i], straightPath, straightPathFlags, straightPathRefs,
+                                     straightPathCount, maxStraightPath);
+                        return QueryStatus.PARTIAL_RESULT;
                     }
+                    toType = polyOut[0].getType();
                     
-                    Link link = fromTile.links[(int) linkIndex];
-                    if (link.edge == i && link.ref.value == to) {
-                        fromEdge = i;
-                        toEdge = link.edge;
-                        break;
+                    // 起点非常接近第一个门户时直接前进
+                    if (i == 0 && dtDistancePtSegSqr2D(portalApex, left, right, null) < 0.001f * 0.001f) {
+                        continue;
                     }
-                    
-                    linkIndex = link.next;
+                } else {
+                    // 路径终点
+                    dtVcopy(left, closestEndPos);
+                    dtVcopy(right, closestEndPos);
+                    toType = PolyTypes.DT_POLYTYPE_GROUND.getValue();
                 }
                 
-                if (fromEdge != -1) {
-                    break;
+                // 右顶点
+                if (dtTriArea2D(portalApex, portalRight, right) <= 0.0f) {
+                    if (dtVequal(portalApex, portalRight) || dtTriArea2D(portalApex, portalLeft, right) > 0.0f) {
+                        dtVcopy(portalRight, right);
+                        rightPolyRef = (i + 1 < pathSize) ? path[i + 1] : 0;
+                        rightPolyType = toType;
+                        rightIndex = i;
+                    } else {
+                        if (appendCrossings) {
+                            stat = appendPortals(apexIndex, leftIndex, portalLeft, path, straightPath, straightPathFlags,
+                                                 straightPathRefs, straightPathCount, maxStraightPath, options);
+                            if (stat != QueryStatus.IN_PROGRESS) {
+                                return stat;
+                            }
+                        }
+                        
+                        dtVcopy(portalApex, portalLeft);
+                        apexIndex = leftIndex;
+                        
+                        stat = appendVertex(portalApex, getStraightPathFlags(leftPolyRef, leftPolyType), leftPolyRef,
+                                            straightPath, straightPathFlags, straightPathRefs,
+                                            straightPathCount, maxStraightPath);
+                        if (stat != QueryStatus.IN_PROGRESS) {
+                            return stat;
+                        }
+                        
+                        dtVcopy(portalLeft, portalApex);
+                        dtVcopy(portalRight, portalApex);
+                        leftIndex = apexIndex;
+                        rightIndex = apexIndex;
+                        
+                        // 从新的顶点重新开始
+                        i = apexIndex;
+                        continue;
+                    }
+                }
+                
+                // 左顶点
+                if (dtTriArea2D(portalApex, portalLeft, left) >= 0.0f) {
+                    if (dtVequal(portalApex, portalLeft) || dtTriArea2D(portalApex, portalRight, left) < 0.0f) {
+                        dtVcopy(portalLeft, left);
+                        leftPolyRef = (i + 1 < pathSize) ? path[i + 1] : 0;
+                        leftPolyType = toType;
+                        leftIndex = i;
+                    } else {
+                        if (appendCrossings) {
+                            stat = appendPortals(apexIndex, rightIndex, portalRight, path, straightPath, straightPathFlags,
+                                                 straightPathRefs, straightPathCount, maxStraightPath, options);
+                            if (stat != QueryStatus.IN_PROGRESS) {
+                                return stat;
+                            }
+                        }
+                        
+                        dtVcopy(portalApex, portalRight);
+                        apexIndex = rightIndex;
+                        
+                        stat = appendVertex(portalApex, getStraightPathFlags(rightPolyRef, rightPolyType), rightPolyRef,
+                                            straightPath, straightPathFlags, straightPathRefs,
+                                            straightPathCount, maxStraightPath);
+                        if (stat != QueryStatus.IN_PROGRESS) {
+                            return stat;
+                        }
+                        
+                        dtVcopy(portalLeft, portalApex);
+                        dtVcopy(portalRight, portalApex);
+                        leftIndex = apexIndex;
+                        rightIndex = apexIndex;
+                        
+                        // 从新的顶点重新开始
+                        i = apexIndex;
+                        continue;
+                    }
+                }
+            }
+            
+            if (appendCrossings) {
+                stat = appendPortals(apexIndex, pathSize - 1, closestEndPos, path, straightPath, straightPathFlags,
+                                     straightPathRefs, straightPathCount, maxStraightPath, options);
+                if (stat != QueryStatus.IN_PROGRESS) {
+                    return stat;
                 }
             }
         }
         
-        if (fromEdge == -1) {
-            return false;
-        }
-        
-        // 获取门户顶点
-        int fromVert = fromPoly.verts[fromEdge] * 3;
-        int fromNextVert = fromPoly.verts[(fromEdge + 1) % fromPoly.vertCount] * 3;
-        
-        // 创建临时数组用于存储顶点数据
-        float[] fromVertPos = new float[3];
-        float[] fromNextVertPos = new float[3];
+        // 添加终点
+        appendVertex(closestEndPos, DT_STRAIGHTPATH_END, 0, straightPath, straightPathFlags, straightPathRefs,
+                     straightPathCount, maxStraightPath);
         
-        // 转换顶点数据为float类型
-        for (int i = 0; i < 3; i++) {
-            fromVertPos[i] = (float) fromTile.verts[fromVert + i];
-            fromNextVertPos[i] = (float) fromTile.verts[fromNextVert + i];
+        return QueryStatus.SUCCESS;
+    }
+    
+    /**
+     * 获取漏斗顶点对应的直线路径标志
+     * @param ref 顶点之后的多边形引用（0表示路径终点）
+     * @param polyType 顶点之后的多边形类型
+     * @return 直线路径标志
+     */
+    private static int getStraightPathFlags(long ref, int polyType) {
+        if (ref == 0) {
+            return DT_STRAIGHTPATH_END;
         }
-        
-        if (toEdge == -1) {
-            // 内部邻居
-            dtVcopy(left, fromVertPos);
-            dtVcopy(right, fromNextVertPos);
+        if (polyType != PolyTypes.DT_POLYTYPE_GROUND.getValue()) {
+            return DT_STRAIGHTPATH_OFFMESH_CONNECTION;
+        }
+        return 0;
+    }
+    
+    /**
+     * 向直线路径追加顶点
+     * @param pos 顶点位置
+     * @param flags 顶点标志
+     * @param ref 顶点所在多边形引用
+     * @param straightPath 直线路径
+     * @param straightPathFlags 路径标志
+     * @param straightPathRefs 路径引用
+     * @param straightPathCount 当前路径点数量
+     * @param maxStraightPath 最大路径点数量
+     * @return 仍可继续追加时为IN_PROGRESS，路径已满或到达终点时为SUCCESS
+     */
+    private QueryStatus appendVertex(float[] pos, int flags, long ref,
+                                     float[] straightPath, int[] straightPathFlags, long[] straightPathRefs,
+                                     int[] straightPathCount, int maxStraightPath) {
+        int count = straightPathCount[0];
+        if (count > 0 && straightPath[(count - 1) * 3] == pos[0] &&
+            straightPath[(count - 1) * 3 + 1] == pos[1] && straightPath[(count - 1) * 3 + 2] == pos[2]) {
+            // 顶点相同，只更新标志和多边形
+            if (straightPathFlags != null) {
+                straightPathFlags[count - 1] = flags;
+            }
+            if (straightPathRefs != null) {
+                straightPathRefs[count - 1] = ref;
+            }
         } else {
-            // 外部邻居
-            int toVert = toPoly.verts[toEdge] * 3;
-            int toNextVert = toPoly.verts[(toEdge + 1) % toPoly.vertCount] * 3;
+            straightPath[count * 3] = pos[0];
+            straightPath[count * 3 + 1] = pos[1];
+            straightPath[count * 3 + 2] = pos[2];
+            if (straightPathFlags != null) {
+                straightPathFlags[count] = flags;
+            }
+            if (straightPathRefs != null) {
+                straightPathRefs[count] = ref;
+            }
+            straightPathCount[0] = ++count;
+            
+            if (count >= maxStraightPath || flags == DT_STRAIGHTPATH_END) {
+                return QueryStatus.SUCCESS;
+            }
+        }
+        return QueryStatus.IN_PROGRESS;
+    }
+    
+    /**
+     * 追加当前直线段与门户的交点
+     * @param startIdx 起始路径索引
+     * @param endIdx 结束路径索引
+     * @param endPos 直线段终点
+     * @param path 多边形路径
+     * @param straightPath 直线路径
+     * @param straightPathFlags 路径标志
+     * @param straightPathRefs 路径引用
+     * @param straightPathCount 当前路径点数量
+     * @param maxStraightPath 最大路径点数量
+     * @param options 选项标志
+     * @return 仍可继续追加时为IN_PROGRESS
+     */
+    private QueryStatus appendPortals(int startIdx, int endIdx, float[] endPos, long[] path,
+                                      float[] straightPath, int[] straightPathFlags, long[] straightPathRefs,
+                                      int[] straightPathCount, int maxStraightPath, int options) {
+        int last = (straightPathCount[0] - 1) * 3;
+        float[] startPos = {straightPath[last], straightPath[last + 1], straightPath[last + 2]};
+        float[] left = new float[3];
+        float[] right = new float[3];
+        float[] pt = new float[3];
+        float[] st = new float[2];
+        MeshTile[] tileOut = new MeshTile[1];
+        Poly[] polyOut = new Poly[1];
+        
+        for (int i = startIdx; i < endIdx; i++) {
+            if (!navMesh.getTileAndPolyByRef(path[i], tileOut, polyOut)) {
+                break;
+            }
+            MeshTile fromTile = tileOut[0];
+            Poly fromPoly = polyOut[0];
+            if (!navMesh.getTileAndPolyByRef(path[i + 1], tileOut, polyOut)) {
+                break;
+            }
+            MeshTile toTile = tileOut[0];
+            Poly toPoly = polyOut[0];
             
-            // 创建临时数组用于存储目标顶点数据
-            float[] toVertPos = new float[3];
-            float[] toNextVertPos = new float[3];
+            if (!getPortalPoints(path[i], fromPoly, fromTile, path[i + 1], toPoly, toTile, left, right)) {
+                break;
+            }
             
-            // 转换目标顶点数据为float类型
-            for (int i = 0; i < 3; i++) {
-                toVertPos[i] = (float) toTile.verts[toVert + i];
-                toNextVertPos[i] = (float) toTile.verts[toNextVert + i];
+            // 只需要区域变化处的交点
+            if ((options & StraightPathOptions.DT_STRAIGHTPATH_AREA_CROSSINGS.getValue()) != 0 &&
+                fromPoly.getArea() == toPoly.getArea()) {
+                continue;
             }
             
-            // 确保顶点顺序一致
-            if (dtVdistSqr(fromVertPos, toVertPos) < dtVdistSqr(fromVertPos, toNextVertPos)) {
-                dtVcopy(left, fromVertPos);
-                dtVcopy(right, fromNextVertPos);
-            } else {
-                dtVcopy(left, fromNextVertPos);
-                dtVcopy(right, fromVertPos);
+            if (dtIntersectSegSeg2D(startPos, endPos, left, right, st)) {
+                float t = st[1];
+                pt[0] = left[0] + (right[0] - left[0]) * t;
+                pt[1] = left[1] + (right[1] - left[1]) * t;
+                pt[2] = left[2] + (right[2] - left[2]) * t;
+                QueryStatus stat = appendVertex(pt, 0, path[i + 1], straightPath, straightPathFlags, straightPathRefs,
+                                                straightPathCount, maxStraightPath);
+                if (stat != QueryStatus.IN_PROGRESS) {
+                    return stat;
+                }
             }
         }
-        
-        return true;
+        return QueryStatus.IN_PROGRESS;
     }
     
     /**
-     * 从引用中获取多边形和瓦片
+     * 计算多边形边界上离指定点最近的点
+     *
+     * 点在多边形内（xz平面）时直接返回该点。
+     *
      * @param ref 多边形引用
-     * @param tile 输出瓦片
-     * @param poly 输出多边形
-     * @return true如果成功获取
+     * @param pos 查询点
+     * @param closest 输出最近点
+     * @return true如果引用有效
      */
-    private boolean getPolyAndTile(long ref, MeshTile tile, Poly poly) {
-        if (navMesh == null || ref == 0) {
+    private boolean closestPointOnPolyBoundary(long ref, float[] pos, float[] closest) {
+        MeshTile[] tileOut = new MeshTile[1];
+        Poly[] polyOut = new Poly[1];
+        if (!navMesh.getTileAndPolyByRef(ref, tileOut, polyOut)) {
             return false;
         }
+        MeshTile tile = tileOut[0];
+        Poly poly = polyOut[0];
+        
+        int nv = poly.vertCount;
+        float[] verts = new float[nv * 3];
+        tile.getPolyVerts(poly, verts);
+        
+        // 检查点是否在多边形内，同时记录最近的边
+        boolean inside = false;
+        float dmin = Float.MAX_VALUE;
+        int imin = 0;
+        float tmin = 0.0f;
+        float[] p = new float[3];
+        float[] q = new float[3];
+        float[] t = new float[1];
+        for (int i = 0, j = nv - 1; i < nv; j = i++) {
+            int vi = i * 3;
+            int vj = j * 3;
+            if (((verts[vi + 2] > pos[2]) != (verts[vj + 2] > pos[2])) &&
+                (pos[0] < (verts[vj] - verts[vi]) * (pos[2] - verts[vi + 2]) / (verts[vj + 2] - verts[vi + 2]) + verts[vi])) {
+                inside = !inside;
+            }
+            p[0] = verts[vj]; p[1] = verts[vj + 1]; p[2] = verts[vj + 2];
+            q[0] = verts[vi]; q[1] = verts[vi + 1]; q[2] = verts[vi + 2];
+            float d = dtDistancePtSegSqr2D(pos, p, q, t);
+            if (d < dmin) {
+                dmin = d;
+                imin = j;
+                tmin = t[0];
+            }
+        }
         
-        // 从引用中提取盐值、瓦片索引和多边形索引
-        int salt = (int) ((ref >> 20) & 0x3FF);
-        int tileIndex = (int) ((ref >> 12) & 0xFF);
-        int polyIndex = (int) (ref & 0x3FF);
+        if (inside) {
+            dtVcopy(closest, pos);
+        } else {
+            int va = imin * 3;
+            int vb = ((imin + 1) % nv) * 3;
+            closest[0] = verts[va] + (verts[vb] - verts[va]) * tmin;
+            closest[1] = verts[va + 1] + (verts[vb + 1] - verts[va + 1]) * tmin;
+            closest[2] = verts[va + 2] + (verts[vb + 2] - verts[va + 2]) * tmin;
+        }
+        return true;
+    }
+    
+    /**
+     * 计算两条线段在xz平面上的交点参数
+     * @param ap 线段A起点
+     * @param aq 线段A终点
+     * @param bp 线段B起点
+     * @param bq 线段B终点
+     * @param st 输出 [s, t]：交点在线段A和线段B上的参数
+     * @return true如果直线不平行
+     */
+    private static boolean dtIntersectSegSeg2D(float[] ap, float[] aq, float[] bp, float[] bq, float[] st) {
+        float ux = aq[0] - ap[0];
+        float uz = aq[2] - ap[2];
+        float vx = bq[0] - bp[0];
+        float vz = bq[2] - bp[2];
+        float wx = ap[0] - bp[0];
+        float wz = ap[2] - bp[2];
+        float d = ux * vz - uz * vx;
+        if (Math.abs(d) < 1e-6f) {
+            return false;
+        }
+        st[0] = (vx * wz - vz * wx) / d;
+        st[1] = (ux * wz - uz * wx) / d;
+        return true;
+    }
+    
+    /**
+     * 获取两个多边形之间的门户点
+     * @param from 起始多边形引用
+     * @param to 目标多边形引用
+     * @param left 输出左门户点
+     * @param right 输出右门户点
+     * @return true如果找到门户
+     */
+    private boolean getPortalPoints(long from, long to, float[] left, float[] right) {
+        MeshTile[] tileOut = new MeshTile[1];
+        Poly[] polyOut = new Poly[1];
         
-        // 获取瓦片
-        tile = navMesh.getTile(tileIndex);
-        if (tile == null || tile.salt != salt) {
+        if (!navMesh.getTileAndPolyByRef(from, tileOut, polyOut)) {
             return false;
         }
+        MeshTile fromTile = tileOut[0];
+        Poly fromPoly = polyOut[0];
         
-        // 获取多边形
-        if (polyIndex >= tile.header.polyCount) {
+        if (!navMesh.getTileAndPolyByRef(to, tileOut, polyOut)) {
             return false;
         }
-        poly = tile.polys[polyIndex];
         
-        return true;
+        return getPortalPoints(from, fromPoly, fromTile, to, polyOut[0], tileOut[0], left, right);
     }
     
     /**
-     * 更新漏斗算法
-     * @param apex 漏斗顶点
-     * @param left 左边界
-     * @param right 右边界
-     * @param newLeft 新左点
-     * @param newRight 新右点
-     * @param apexIndex 顶点索引
-     * @param leftIndex 左索引
-     * @param rightIndex 右索引
-     * @param currentIndex 当前索引
-     * @param straightPath 直线路径
-     * @param straightPathFlags 路径标志
-     * @param straightPathRefs 路径引用
-     * @param straightPathSize 当前路径大小
-     * @param maxStraightPath 最大路径大小
-     * @param path 原始路径
-     * @return true如果添加了新点
+     * 获取两个多边形之间的门户点
+     *
+     * 离网多边形与落点多边形之间的门户退化为离网连接在该侧的端点。
+     *
+     * @param from 起始多边形引用
+     * @param fromPoly 起始多边形
+     * @param fromTile 起始瓦片
+     * @param to 目标多边形引用
+     * @param toPoly 目标多边形
+     * @param toTile 目标瓦片
+     * @param left 输出左门户点
+     * @param right 输出右门户点
+     * @return true如果找到门户
      */
-    private boolean updateFunnel(float[] apex, float[] left, float[] right,
-                                float[] newLeft, float[] newRight,
-                                int apexIndex, int leftIndex, int rightIndex, int currentIndex,
-                                float[] straightPath, int[] straightPathFlags, long[] straightPathRefs,
-                                int straightPathSize, int maxStraightPath, long[] path) {
-        // 检查新左点是否在左边界内
-        if (dtTriArea2D(apex, left, newLeft) <= 0.0f) {
-            if (dtVequal(apex, left) || dtTriArea2D(apex, right, newLeft) > 0.0f) {
-                // 更新左边界
-                dtVcopy(left, newLeft);
-                leftIndex = currentIndex;
-            } else {
-                // 添加顶点
-                dtVcopy(apex, right);
-                apexIndex = rightIndex;
-                
-                // 添加路径点
-                if (straightPathSize < maxStraightPath) {
-                    float[] pos = Arrays.copyOfRange(straightPath, straightPathSize * 3, (straightPathSize + 1) * 3);
-                    dtVcopy(pos, apex);
-                    if (straightPathFlags != null) {
-                        straightPathFlags[straightPathSize] = 0;
-                    }
-                    if (straightPathRefs != null) {
-                        straightPathRefs[straightPathSize] = path[apexIndex];
-                    }
-                    straightPathSize++;
-                    return true;
-                }
+    boolean getPortalPoints(long from, Poly fromPoly, MeshTile fromTile,
+                            long to, Poly toPoly, MeshTile toTile,
+                            float[] left, float[] right) {
+        int ground = PolyTypes.DT_POLYTYPE_GROUND.getValue();
+        
+        // 从离网多边形出发：门户为连接在目标一侧的端点
+        if (fromPoly.getType() != ground) {
+            return getOffMeshEndpoint(fromTile, fromPoly, to, left, right);
+        }
+        
+        // 进入离网多边形：门户为连接在起始一侧的端点
+        if (toPoly.getType() != ground) {
+            return getOffMeshEndpoint(toTile, toPoly, from, left, right);
+        }
+        
+        // 查找连接两个多边形的链接
+        long link = DT_NULL_LINK;
+        for (long k = fromPoly.firstLink; k != DT_NULL_LINK; k = navMesh.getLinkNext(fromTile, k)) {
+            if (navMesh.getLinkRef(fromTile, k) == to) {
+                link = k;
+                break;
             }
         }
         
-        // 检查新右点是否在右边界内
-        if (dtTriArea2D(apex, right, newRight) >= 0.0f) {
-            if (dtVequal(apex, right) || dtTriArea2D(apex, left, newRight) < 0.0f) {
-                // 更新右边界
-                dtVcopy(right, newRight);
-                rightIndex = currentIndex;
-            } else {
-                // 添加顶点
-                dtVcopy(apex, left);
-                apexIndex = leftIndex;
-                
-                // 添加路径点
-                if (straightPathSize < maxStraightPath) {
-                    float[] pos = Arrays.copyOfRange(straightPath, straightPathSize * 3, (straightPathSize + 1) * 3);
-                    dtVcopy(pos, apex);
-                    if (straightPathFlags != null) {
-                        straightPathFlags[straightPathSize] = 0;
-                    }
-                    if (straightPathRefs != null) {
-                        straightPathRefs[straightPathSize] = path[apexIndex];
-                    }
-                    straightPathSize++;
-                    return true;
-                }
+        if (link == DT_NULL_LINK) {
+            return false;
+        }
+        
+        int edge = navMesh.getLinkEdge(fromTile, link);
+        
+        fromTile.getVert(fromTile.getPolyVert(fromPoly, edge), left, 0);
+        fromTile.getVert(fromTile.getPolyVert(fromPoly, (edge + 1) % fromPoly.vertCount), right, 0);
+        
+        // 瓦片边界链接只覆盖边的一部分
+        int side = navMesh.getLinkSide(fromTile, link);
+        int lmin = navMesh.getLinkBmin(fromTile, link);
+        int lmax = navMesh.getLinkBmax(fromTile, link);
+        if (side != 0xff && (lmin != 0 || lmax != 255)) {
+            float s = 1.0f / 255.0f;
+            float tmin = lmin * s;
+            float tmax = lmax * s;
+            for (int i = 0; i < 3; i++) {
+                float a = left[i];
+                float b = right[i];
+                left[i] = a + (b - a) * tmin;
+                right[i] = a + (b - a) * tmax;
             }
         }
         
+        return true;
+    }
+    
+    /**
+     * 获取离网多边形连接到指定落点多边形的端点
+     * @param tile 离网多边形所在瓦片
+     * @param poly 离网多边形
+     * @param landRef 落点多边形引用
+     * @param left 输出端点
+     * @param right 输出端点
+     * @return true如果离网多边形链接到落点多边形
+     */
+    private boolean getOffMeshEndpoint(MeshTile tile, Poly poly, long landRef, float[] left, float[] right) {
+        for (long k = poly.firstLink; k != DT_NULL_LINK; k = navMesh.getLinkNext(tile, k)) {
+            if (navMesh.getLinkRef(tile, k) == landRef) {
+                tile.getVert(tile.getPolyVert(poly, navMesh.getLinkEdge(tile, k)), left, 0);
+                dtVcopy(right, left);
+                return true;
+            }
+        }
         return false;
     }
     
+    /**
+     * 收集多边形的所有可通行邻居引用
+     *
+     * 瓦片内邻居、跨瓦片邻居和离网连接都通过多边形的链接表示。
+     * 已禁用的离网连接链接以及过滤器不接受的链接方向会被跳过。
+     *
+     * @param tile 多边形所在瓦片
+     * @param poly 多边形
+     * @param filter 查询过滤器
+     * @param neis 输出邻居引用
+     * @return 邻居数量
+     */
+    int getPolyNeighbours(MeshTile tile, Poly poly, DetourQueryFilter filter, long[] neis) {
+        return getPolyNeighbours(tile, poly, filter, filter.getIsBacktracking(), neis);
+    }
+    
+    /**
+     * 按指定的搜索方向收集多边形的所有可通行邻居引用
+     *
+     * 反向搜索（例如流场）沿链接的反方向行走，需要使用回溯方向的离网连接链接，
+     * 而不必修改调用方的过滤器。
+     *
+     * @param tile 多边形所在瓦片
+     * @param poly 多边形
+     * @param filter 查询过滤器
+     * @param backtracking 是否按回溯方向选择离网连接链接
+     * @param neis 输出邻居引用
+     * @return 邻居数量
+     */
+    int getPolyNeighbours(MeshTile tile, Poly poly, DetourQueryFilter filter, boolean backtracking, long[] neis) {
+        int n = 0;
+        for (long k = poly.firstLink; k != DT_NULL_LINK && n < neis.length; k = navMesh.getLinkNext(tile, k)) {
+            long ref = navMesh.getLinkRef(tile, k);
+            if (ref == 0) {
+                continue;
+            }
+            int side = navMesh.getLinkSide(tile, k);
+            if (side != 0xff && (side & DT_LINK_FLAG_OFFMESH_CON) != 0 &&
+                ((side & DT_LINK_FLAG_OFFMESH_CON_ENABLED) == 0 || !filter.isValidLinkSide(side, backtracking))) {
+                continue;
+            }
+            neis[n++] = ref;
+        }
+        
+        return n;
+    }
+    
     /**
      * 计算2D三角形面积
      * @param a 点A
@@ -990,16 +1747,12 @@ public class DetourNavMeshQuery {
     private void resetQuery() {
         openListSize = 0;
         nextFreeNode = 0;
+        lastBestNode = null;
+        lastBestNodeCost = Float.MAX_VALUE;
+        nodePoolExhausted = false;
         
-        // 清空节点池
-        for (int i = 0; i < nodePool.length; i++) {
-            nodePool[i].parentIndex = 0;
-            nodePool[i].cost = 0.0f;
-            nodePool[i].total = 0.0f;
-            nodePool[i].state = 0;
-            nodePool[i].flags = 0;
-            nodePool[i].id = 0;
-        }
+        // 只清空哈希桶，节点在分配时重新初始化
+        Arrays.fill(nodeFirst, DT_NULL_IDX);
         
         queryStatus = QueryStatus.SUCCESS;
     }
@@ -1011,7 +1764,8 @@ public class DetourNavMeshQuery {
      */
     private Node getNode(long id) {
         // 首先检查是否已存在
-        for (int i = 0; i < nextFreeNode; i++) {
+        int bucket = hashRef(id) & (nodeFirst.length - 1);
+        for (int i = nodeFirst[bucket]; i != DT_NULL_IDX; i = nodeNext[i]) {
             if (nodePool[i].id == id) {
                 return nodePool[i];
             }
@@ -1022,11 +1776,52 @@ public class DetourNavMeshQuery {
             return null;
         }
         
-        Node node = nodePool[nextFreeNode++];
+        int i = nextFreeNode++;
+        Node node = nodePool[i];
         node.id = id;
+        node.parentIndex = 0;
+        node.cost = 0.0f;
+        node.total = 0.0f;
+        node.state = 0;
+        node.flags = 0;
+        node.heapIndex = -1;
+        
+        nodeNext[i] = nodeFirst[bucket];
+        nodeFirst[bucket] = i;
         return node;
     }
     
+    /**
+     * 查找已访问的节点
+     * @param id 多边形引用ID
+     * @return 节点实例，如果本次查询未访问过则返回null
+     */
+    private Node findNode(long id) {
+        int bucket = hashRef(id) & (nodeFirst.length - 1);
+        for (int i = nodeFirst[bucket]; i != DT_NULL_IDX; i = nodeNext[i]) {
+            if (nodePool[i].id == id) {
+                return nodePool[i];
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * 多边形引用的哈希函数
+     * @param ref 多边形引用
+     * @return 哈希值
+     */
+    private static int hashRef(long ref) {
+        long a = ref;
+        a += ~(a << 31);
+        a ^= (a >>> 20);
+        a += (a << 6);
+        a ^= (a >>> 12);
+        a += ~(a << 22);
+        a ^= (a >>> 32);
+        return (int) a;
+    }
+    
     /**
      * 根据索引获取节点
      * @param index 节点索引
@@ -1048,21 +1843,21 @@ public class DetourNavMeshQuery {
             return;
         }
         
-        openList[openListSize++] = node;
-        
-        // 向上调整堆
-        int hole = openListSize - 1;
-        while (hole > 0) {
-            int parent = (hole - 1) / 2;
-            if (openList[parent].total <= openList[hole].total) {
-                break;
-            }
-            
-            Node temp = openList[hole];
-            openList[hole] = openList[parent];
-            openList[parent] = temp;
-            hole = parent;
+        openListSize++;
+        bubbleUp(openListSize - 1, node);
+    }
+    
+    /**
+     * 在节点成本降低后恢复开放列表的堆序
+     * 参考Detour dtNodeQueue::modify，从节点记录的堆位置向上调整，不搜索整个开放列表
+     * @param node 已在开放列表中的节点
+     */
+    private void modifyOpen(Node node) {
+        int i = node.heapIndex;
+        if (i < 0 || i >= openListSize || openList[i] != node) {
+            return;
         }
+        bubbleUp(i, node);
     }
     
     /**
@@ -1075,39 +1870,57 @@ public class DetourNavMeshQuery {
         }
         
         Node result = openList[0];
+        result.heapIndex = -1;
         openListSize--;
         
         if (openListSize > 0) {
-            openList[0] = openList[openListSize];
-            
-            // 向下调整堆
-            int hole = 0;
-            while (true) {
-                int left = hole * 2 + 1;
-                int right = hole * 2 + 2;
-                int smallest = hole;
-                
-                if (left < openListSize && openList[left].total < openList[smallest].total) {
-                    smallest = left;
-                }
-                if (right < openListSize && openList[right].total < openList[smallest].total) {
-                    smallest = right;
-                }
-                
-                if (smallest == hole) {
-                    break;
-                }
-                
-                Node temp = openList[hole];
-                openList[hole] = openList[smallest];
-                openList[smallest] = temp;
-                hole = smallest;
-            }
+            trickleDown(0, openList[openListSize]);
         }
+        openList[openListSize] = null;
         
         return result;
     }
     
+    /**
+     * 把节点放入堆位置i并向上调整
+     * @param i 空出的堆位置
+     * @param node 节点
+     */
+    private void bubbleUp(int i, Node node) {
+        int parent = (i - 1) / 2;
+        while (i > 0 && openList[parent].total > node.total) {
+            openList[i] = openList[parent];
+            openList[i].heapIndex = i;
+            i = parent;
+            parent = (i - 1) / 2;
+        }
+        openList[i] = node;
+        node.heapIndex = i;
+    }
+    
+    /**
+     * 把节点放入堆位置i并向下调整
+     * @param i 空出的堆位置
+     * @param node 节点
+     */
+    private void trickleDown(int i, Node node) {
+        int child = i * 2 + 1;
+        while (child < openListSize) {
+            if (child + 1 < openListSize && openList[child + 1].total < openList[child].total) {
+                child++;
+            }
+            if (openList[child].total >= node.total) {
+                break;
+            }
+            openList[i] = openList[child];
+            openList[i].heapIndex = i;
+            i = child;
+            child = i * 2 + 1;
+        }
+        openList[i] = node;
+        node.heapIndex = i;
+    }
+    
     /**
      * 检查开放列表是否为空
      * @return true如果为空
@@ -0,0 +1,364 @@
+package odin.detour.core;
+
+import odin.detour.core.DetourNavMeshQuery.QueryStatus;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Detour路径缓存
+ *
+ * 位于{@link DetourNavMeshQuery#findPath}之前的LRU缓存，按(起始多边形, 目标多边形, 过滤器)
+ * 缓存多边形路径，重复的查询只需一次哈希查找。
+ *
+ * 过滤器按类型、虚拟调用模式、数据值（参见{@link DetourQueryFilter#equals(DetourQueryFilter)}）
+ * 和子类附加状态的指纹（参见{@link DetourQueryFilter#getStateFingerprint()}）比较，
+ * 缓存键保存过滤器数据的副本，因此调用方之后修改过滤器不会影响已缓存的条目。
+ * 没有提供指纹的子类可能持有影响结果的其他状态，这类过滤器的查询不被缓存。
+ *
+ * 条目记录路径经过的每个瓦片的盐值和状态版本，经过的瓦片被替换、移除或修改了多边形标志、区域、
+ * 离网连接状态时条目在命中时失效；其他瓦片的变化不影响条目，因此瓦片流式加载和远处的状态修改
+ * 不会清空整个缓存。路径之外的变化（例如新的捷径或打开的门）可能使缓存的路径不再最优，
+ * 需要这类保证时调用{@link #setInvalidateOnAnyChange(boolean)}，任何瓦片或多边形状态的变化都会使条目失效。
+ *
+ * 起点和终点位置不参与缓存键，命中时返回的总成本是缓存时的成本。
+ * 只缓存完整路径，部分路径和失败结果总是重新查询。
+ *
+ * @author UE5NavMesh4J
+ */
+public class DetourPathCache {
+    
+    /** 缓存键 */
+    private static class Key {
+        final long startRef;
+        final long endRef;
+        final Class<?> filterClass;
+        final boolean filterVirtual;
+        final DetourQueryFilter filter;
+        final Object fingerprint;
+        final int hash;
+        
+        Key(long startRef, long endRef, Class<?> filterClass, boolean filterVirtual,
+            DetourQueryFilter filter, Object fingerprint) {
+            this.startRef = startRef;
+            this.endRef = endRef;
+            this.filterClass = filterClass;
+            this.filterVirtual = filterVirtual;
+            this.filter = filter;
+            this.fingerprint = fingerprint;
+            int h = Long.hashCode(startRef);
+            h = 31 * h + Long.hashCode(endRef);
+            h = 31 * h + filterClass.hashCode();
+            h = 31 * h + (filterVirtual ? 1 : 0);
+            h = 31 * h + filter.hashCode();
+            h = 31 * h + fingerprint.hashCode();
+            this.hash = h;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return startRef == k.startRef && endRef == k.endRef &&
+                   filterClass == k.filterClass && filterVirtual == k.filterVirtual &&
+                   filter.equals(k.filter) && fingerprint.equals(k.fingerprint);
+        }
+        
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+    
+    /** 缓存条目 */
+    private static class CachedPath {
+        final long[] path;
+        final float cost;
+        /** 路径经过的每个瓦片中的一个多边形引用，用于检查瓦片的盐值 */
+        final long[] tileRefs;
+        /** 缓存时各瓦片的状态版本 */
+        final long[] tileVersions;
+        final long tileGeneration;
+        final long version;
+        
+        CachedPath(long[] path, float cost, long[] tileRefs, long[] tileVersions,
+                   long tileGeneration, long version) {
+            this.path = path;
+            this.cost = cost;
+            this.tileRefs = tileRefs;
+            this.tileVersions = tileVersions;
+            this.tileGeneration = tileGeneration;
+            this.version = version;
+        }
+    }
+    
+    /** 查询对象 */
+    private final DetourNavMeshQuery query;
+    
+    /** 导航网格 */
+    private final DetourNavMesh navMesh;
+    
+    /** 最大条目数量 */
+    private final int capacity;
+    
+    /** 按访问顺序排列的缓存 */
+    private final LinkedHashMap<Key, CachedPath> entries;
+    
+    /** 复用的查找键过滤器，命中时不需要分配过滤器副本 */
+    private final DetourQueryFilter lookupFilter = new DetourQueryFilter(false);
+    
+    /** 是否在任何瓦片或多边形状态变化时使条目失效 */
+    private boolean invalidateOnAnyChange;
+    
+    // 统计
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+    
+    /**
+     * 构造函数
+     * @param query 查询对象
+     * @param navMesh 导航网格
+     * @param capacity 最大条目数量
+     */
+    public DetourPathCache(DetourNavMeshQuery query, DetourNavMesh navMesh, int capacity) {
+        this.query = query;
+        this.navMesh = navMesh;
+        this.capacity = Math.max(1, capacity);
+        this.entries = new LinkedHashMap<Key, CachedPath>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedPath> eldest) {
+                if (size() > DetourPathCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+    
+    /**
+     * 查找路径，优先使用缓存
+     * @param startRef 起始多边形引用
+     * @param endRef 目标多边形引用
+     * @param startPos 起始位置
+     * @param endPos 目标位置
+     * @param costLimit 成本限制
+     * @param filter 查询过滤器
+     * @param path 输出路径
+     * @param totalCost 输出总成本
+     * @return 查询状态
+     */
+    public QueryStatus findPath(long startRef, long endRef, float[] startPos, float[] endPos,
+                                float costLimit, DetourQueryFilter filter,
+                                List<Long> path, float[] totalCost) {
+        if (filter == null) {
+            return QueryStatus.FAILURE;
+        }
+        
+        // 没有指纹的过滤器子类可能持有影响结果的其他状态，不能复用其他实例的结果
+        Object fingerprint = filter.getStateFingerprint();
+        if (fingerprint == null) {
+            misses++;
+            return query.findPath(startRef, endRef, startPos, endPos, costLimit, filter, path, totalCost);
+        }
+        
+        lookupFilter.copyFrom(filter);
+        Key lookup = new Key(startRef, endRef, filter.getClass(), filter.getIsVirtual(), lookupFilter, fingerprint);
+        CachedPath entry = entries.get(lookup);
+        
+        if (entry != null) {
+            boolean valid = isValid(entry);
+            if (valid && entry.cost <= costLimit) {
+                hits++;
+                if (path != null) {
+                    path.clear();
+                    for (long ref : entry.path) {
+                        path.add(ref);
+                    }
+                }
+                if (totalCost != null && totalCost.length > 0) {
+                    totalCost[0] = entry.cost;
+                }
+                return QueryStatus.SUCCESS;
+            }
+            if (!valid) {
+                entries.remove(lookup);
+                invalidations++;
+            }
+        }
+        
+        misses++;
+        
+        long tileGeneration = navMesh.getTileGeneration();
+        long version = navMesh.getStateVersion();
+        float[] cost = totalCost != null && totalCost.length > 0 ? totalCost : new float[1];
+        QueryStatus status = query.findPath(startRef, endRef, startPos, endPos, costLimit, filter, path, cost);
+        if (status == QueryStatus.SUCCESS && path != null && !path.isEmpty()) {
+            long[] refs = new long[path.size()];
+            for (int i = 0; i < refs.length; i++) {
+                refs[i] = path.get(i);
+            }
+            
+            // 记录路径经过的每个瓦片的状态版本
+            long[] tileRefs = new long[refs.length];
+            int tileCount = 0;
+            for (long ref : refs) {
+                int it = navMesh.decodePolyIdTile(ref);
+                int k = 0;
+                while (k < tileCount && navMesh.decodePolyIdTile(tileRefs[k]) != it) {
+                    k++;
+                }
+                if (k == tileCount) {
+                    tileRefs[tileCount++] = ref;
+                }
+            }
+            tileRefs = Arrays.copyOf(tileRefs, tileCount);
+            long[] tileVersions = new long[tileCount];
+            for (int i = 0; i < tileCount; i++) {
+                tileVersions[i] = navMesh.getTileVersion(tileRefs[i]);
+            }
+            
+            DetourQueryFilter keyFilter = new DetourQueryFilter(false);
+            keyFilter.copyFrom(filter);
+            entries.put(new Key(startRef, endRef, filter.getClass(), filter.getIsVirtual(), keyFilter, fingerprint),
+                        new CachedPath(refs, cost[0], tileRefs, tileVersions, tileGeneration, version));
+        }
+        return status;
+    }
+    
+    /**
+     * 移除所有经过指定瓦片的条目
+     *
+     * 路径经过的瓦片被替换、移除或通过导航网格修改了多边形状态时条目会在命中时自动失效；
+     * 调用方直接修改多边形字段时需要显式调用，或调用{@link #clear()}清空整个缓存。
+     *
+     * @param tileIndex 瓦片索引
+     * @return 移除的条目数量
+     */
+    public int invalidateTile(int tileIndex) {
+        int removed = 0;
+        for (Iterator<CachedPath> it = entries.values().iterator(); it.hasNext(); ) {
+            CachedPath entry = it.next();
+            for (long ref : entry.path) {
+                if (navMesh.decodePolyIdTile(ref) == tileIndex) {
+                    it.remove();
+                    removed++;
+                    break;
+                }
+            }
+        }
+        invalidations += removed;
+        return removed;
+    }
+    
+    /**
+     * 设置是否在任何瓦片或多边形状态变化时使条目失效
+     *
+     * 默认只检查路径经过的瓦片。启用后瓦片的添加、移除以及任何位置的多边形标志、区域、离网连接状态修改
+     * 都会使条目失效，缓存的路径总是当前最优的，但瓦片频繁变化时命中率会显著下降。
+     *
+     * @param enabled 是否启用
+     */
+    public void setInvalidateOnAnyChange(boolean enabled) {
+        this.invalidateOnAnyChange = enabled;
+    }
+    
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        entries.clear();
+    }
+    
+    /**
+     * 重置统计数据
+     */
+    public void resetStats() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+        invalidations = 0;
+    }
+    
+    /**
+     * 获取当前条目数量
+     * @return 条目数量
+     */
+    public int size() {
+        return entries.size();
+    }
+    
+    /**
+     * 获取最大条目数量
+     * @return 最大条目数量
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * 获取命中次数
+     * @return 命中次数
+     */
+    public long getHits() {
+        return hits;
+    }
+    
+    /**
+     * 获取未命中次数
+     * @return 未命中次数
+     */
+    public long getMisses() {
+        return misses;
+    }
+    
+    /**
+     * 获取因容量不足被淘汰的条目数量
+     * @return 淘汰次数
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+    
+    /**
+     * 获取因瓦片变化失效的条目数量
+     * @return 失效次数
+     */
+    public long getInvalidations() {
+        return invalidations;
+    }
+    
+    /**
+     * 获取命中率
+     * @return 命中率 [0, 1]
+     */
+    public float getHitRate() {
+        long total = hits + misses;
+        return total > 0 ? (float) hits / total : 0.0f;
+    }
+    
+    /**
+     * 检查缓存的路径是否仍然有效
+     * @param entry 缓存条目
+     * @return true如果路径经过的瓦片都没有被替换、移除或修改多边形状态
+     */
+    private boolean isValid(CachedPath entry) {
+        if (invalidateOnAnyChange &&
+            (navMesh.getTileGeneration() != entry.tileGeneration || navMesh.getStateVersion() != entry.version)) {
+            return false;
+        }
+        for (int i = 0; i < entry.tileRefs.length; i++) {
+            if (navMesh.getTileVersion(entry.tileRefs[i]) != entry.tileVersions[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
\ No newline at end of file
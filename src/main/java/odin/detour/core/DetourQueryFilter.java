@@ -13,6 +13,9 @@ import static odin.detour.utils.DetourCommon.*;
  */
 public class DetourQueryFilter {
     
+    /** 没有附加状态的过滤器的指纹（参见{@link #getStateFingerprint()}） */
+    public static final Object NO_EXTRA_STATE = new Object();
+    
     /** 每个区域类型的成本 */
     private float[] areaCost = new float[DT_MAX_AREAS];
     
@@ -230,10 +233,20 @@ public class DetourQueryFilter {
      * @return 是否应接受此边的链接
      */
     public boolean isValidLinkSide(int side) {
+        return isValidLinkSide(side, isBacktracking);
+    }
+    
+    /**
+     * 按指定的搜索方向验证链接边是否有效
+     * @param side 边标志
+     * @param backtracking 是否为回溯方向
+     * @return 是否应接受此边的链接
+     */
+    public boolean isValidLinkSide(int side, boolean backtracking) {
         return (side & DT_LINK_FLAG_OFFMESH_CON) == 0 || 
                (side & DT_LINK_FLAG_OFFMESH_CON_BIDIR) != 0 ||
-               (isBacktracking ? (side & DT_LINK_FLAG_OFFMESH_CON_BACKTRACKER) != 0
-                               : (side & DT_LINK_FLAG_OFFMESH_CON_BACKTRACKER) == 0);
+               (backtracking ? (side & DT_LINK_FLAG_OFFMESH_CON_BACKTRACKER) != 0
+                             : (side & DT_LINK_FLAG_OFFMESH_CON_BACKTRACKER) == 0);
     }
     
     /**
@@ -318,6 +331,24 @@ public class DetourQueryFilter {
                java.util.Arrays.equals(areaFixedCost, other.areaFixedCost);
     }
     
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof DetourQueryFilter && equals((DetourQueryFilter) other);
+    }
+    
+    @Override
+    public int hashCode() {
+        int h = Float.floatToIntBits(heuristicScale);
+        h = 31 * h + Float.floatToIntBits(lowestAreaCost);
+        h = 31 * h + includeFlags;
+        h = 31 * h + excludeFlags;
+        h = 31 * h + (isBacktracking ? 1 : 0);
+        h = 31 * h + (shouldIgnoreClosedNodes ? 1 : 0);
+        h = 31 * h + java.util.Arrays.hashCode(areaCost);
+        h = 31 * h + java.util.Arrays.hashCode(areaFixedCost);
+        return h;
+    }
+    
     /**
      * 从源过滤器复制数据值
      * @param other 源过滤器
@@ -336,6 +367,19 @@ public class DetourQueryFilter {
         System.arraycopy(other.areaFixedCost, 0, this.areaFixedCost, 0, DT_MAX_AREAS);
     }
     
+    /**
+     * 获取子类附加状态的指纹
+     *
+     * 路径缓存等按过滤器复用结果的场合用它区分基类数据字段以外的状态，例如子类中排除的多边形或动态成本。
+     * 基类的数据字段已经通过{@link #equals(DetourQueryFilter)}比较，子类只需要返回附加状态的指纹，
+     * 返回的对象按equals和hashCode比较，之后不能再被修改；没有附加状态的子类返回{@link #NO_EXTRA_STATE}。
+     *
+     * @return 附加状态的指纹；null表示结果不能按过滤器复用，未覆盖此方法的子类总是返回null
+     */
+    public Object getStateFingerprint() {
+        return getClass() == DetourQueryFilter.class ? NO_EXTRA_STATE : null;
+    }
+    
     /**
      * 获取是否为虚拟过滤器
      * @return 是否为虚拟过滤器
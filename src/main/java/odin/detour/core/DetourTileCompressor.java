@@ -0,0 +1,838 @@
+package odin.detour.core;
+
+import odin.detour.core.DetourNavMesh.Cluster;
+import odin.detour.core.DetourNavMesh.MeshTile;
+import odin.detour.core.DetourNavMesh.OffMeshConnection;
+import odin.detour.core.DetourNavMesh.OffMeshSegmentConnection;
+import odin.detour.core.DetourNavMesh.Poly;
+import odin.detour.core.DetourNavMesh.PolyDetail;
+
+import java.util.Arrays;
+
+import static odin.detour.config.DetourConstants.*;
+import static odin.detour.config.DetourEnums.*;
+
+/**
+ * Detour瓦片压缩
+ *
+ * 将瓦片的运行时数据（多边形、顶点、链接、详细网格、BV树、离网连接、集群）编码为紧凑的字节数组，
+ * 用于导航网格中很少访问的冷瓦片。瓦片头、盐值和动态链接不参与压缩，始终保留在瓦片中。
+ *
+ * 编码分两步：
+ * 1. 字段编码：整数使用zigzag变长编码；量化顶点、多边形顶点索引和BV包围盒按分量做差分；
+ *    链接的下一个索引相对自身索引编码，链接引用相对前一个引用编码。
+ * 2. 块压缩：对字段编码结果做LZ77风格的压缩（4字节哈希匹配，变长的字面量长度、匹配长度和距离）。
+ *
+ * 压缩后的数据与瓦片头一起才能解码，不是独立的文件格式；持久化瓦片请使用{@link odin.detour.io.DetourTileSerializer}。
+ *
+ * @author UE5NavMesh4J
+ */
+public final class DetourTileCompressor {
+    
+    /** 私有构造函数防止实例化 */
+    private DetourTileCompressor() {
+        throw new UnsupportedOperationException("工具类不能被实例化");
+    }
+    
+    /** 最短匹配长度 */
+    private static final int LZ_MIN_MATCH = 4;
+    
+    /** 匹配哈希表大小的位数 */
+    private static final int LZ_HASH_BITS = 14;
+    
+    /** 最大匹配距离 */
+    private static final int LZ_MAX_DISTANCE = 1 << 16;
+    
+    /**
+     * 压缩瓦片的运行时数据
+     * @param tile 瓦片（必须处于解码状态）
+     * @return 压缩数据
+     */
+    public static byte[] compress(MeshTile tile) {
+        ByteWriter w = new ByteWriter(4096);
+        
+        // 顶点
+        w.writeVarInt(tile.getVertStorage());
+        writeFloats(w, tile.quantOrig);
+        writeFloats(w, tile.quantScale);
+        writeDoubles(w, tile.verts);
+        writeFloats(w, tile.vertsF);
+        writeShortsDelta(w, tile.vertsQ, 3);
+        
+        // 多边形
+        writeShortsDelta(w, tile.polyVerts, 1);
+        writeShorts(w, tile.polyNeis);
+        if (writeLength(w, tile.polys == null ? -1 : tile.polys.length)) {
+            for (Poly p : tile.polys) {
+                w.writeZigZag((int) p.firstLink);
+                w.writeZigZag(p.flags);
+                w.writeZigZag(p.vertCount);
+                w.writeZigZag(p.areaAndtype);
+                w.writeZigZag(p.area);
+            }
+        }
+        
+        // 链接
+        w.writeZigZag((int) tile.linksFreeList);
+        if (writeLength(w, tile.linkRefs == null ? -1 : tile.linkRefs.length)) {
+            long prev = 0;
+            for (long ref : tile.linkRefs) {
+                w.writeZigZagLong(ref - prev);
+                prev = ref;
+            }
+        }
+        if (writeLength(w, tile.linkNext == null ? -1 : tile.linkNext.length)) {
+            for (int i = 0; i < tile.linkNext.length; i++) {
+                w.writeZigZag(tile.linkNext[i] - i);
+            }
+        }
+        writeBytes(w, tile.linkEdge);
+        writeBytes(w, tile.linkSide);
+        writeBytes(w, tile.linkBmin);
+        writeBytes(w, tile.linkBmax);
+        
+        // 详细网格
+        if (writeLength(w, tile.detailMeshes == null ? -1 : tile.detailMeshes.length)) {
+            for (PolyDetail d : tile.detailMeshes) {
+                w.writeZigZag(d.vertBase);
+                w.writeZigZag(d.triBase);
+                w.writeZigZag(d.vertCount);
+                w.writeZigZag(d.triCount);
+            }
+        }
+        writeDoubles(w, tile.detailVerts);
+        writeFloats(w, tile.detailVertsF);
+        writeShortsDelta(w, tile.detailVertsQ, 3);
+        writeBytes(w, tile.detailTris);
+        
+        // BV树
+        writeShortsDelta(w, tile.bvBounds, 6);
+        writeInts(w, tile.bvIndex);
+        
+        // 离网连接
+        if (writeLength(w, tile.offMeshCons == null ? -1 : tile.offMeshCons.length)) {
+            for (OffMeshConnection con : tile.offMeshCons) {
+                for (int j = 0; j < 6; j++) {
+                    w.writeDouble(con.pos[j]);
+                }
+                w.writeDouble(con.rad);
+                w.writeDouble(con.height);
+                w.writeZigZagLong(con.userId);
+                w.writeZigZag(con.poly);
+                w.writeZigZag(con.side);
+                w.writeZigZag(con.flags);
+            }
+        }
+        if (writeLength(w, tile.offMeshSeg == null ? -1 : tile.offMeshSeg.length)) {
+            for (OffMeshSegmentConnection seg : tile.offMeshSeg) {
+                for (int j = 0; j < 3; j++) {
+                    w.writeDouble(seg.startA[j]);
+                    w.writeDouble(seg.endA[j]);
+                    w.writeDouble(seg.startB[j]);
+                    w.writeDouble(seg.endB[j]);
+                }
+                w.writeDouble(seg.rad);
+                w.writeZigZagLong(seg.userId);
+                w.writeZigZag(seg.firstPoly);
+                w.writeZigZag(seg.npolys);
+                w.writeZigZag(seg.flags);
+            }
+        }
+        
+        // 集群
+        if (writeLength(w, tile.clusters == null ? -1 : tile.clusters.length)) {
+            for (Cluster c : tile.clusters) {
+                for (int j = 0; j < 3; j++) {
+                    w.writeDouble(c.center[j]);
+                }
+                w.writeZigZagLong(c.firstLink);
+                w.writeZigZagLong(c.numLinks);
+            }
+        }
+        writeInts(w, tile.polyClusters);
+        
+        return lzCompress(w.buf, w.len);
+    }
+    
+    /**
+     * 将压缩数据解码到瓦片中
+     *
+     * 瓦片头必须是压缩时的瓦片头。解码成功后瓦片的运行时数据与压缩前相同。
+     *
+     * @param data 压缩数据
+     * @param tile 目标瓦片
+     * @return 状态标志 (参见: Status)
+     */
+    public static int decompress(byte[] data, MeshTile tile) {
+        if (data == null || tile == null || tile.header == null) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        byte[] raw = lzDecompress(data);
+        if (raw == null) {
+            return Status.DT_FAILURE.getValue() | Status.DT_WRONG_MAGIC.getValue();
+        }
+        
+        try {
+            ByteReader r = new ByteReader(raw);
+            
+            // 顶点
+            int storage = r.readVarInt();
+            float[] quantOrig = readFloats(r);
+            float[] quantScale = readFloats(r);
+            double[] verts = readDoubles(r);
+            float[] vertsF = readFloats(r);
+            short[] vertsQ = readShortsDelta(r, 3);
+            
+            // 多边形
+            short[] polyVerts = readShortsDelta(r, 1);
+            short[] polyNeis = readShorts(r);
+            Poly[] polys = null;
+            int npolys = r.readLength();
+            if (npolys >= 0) {
+                polys = new Poly[npolys];
+                for (int i = 0; i < npolys; i++) {
+                    Poly p = new Poly();
+                    p.index = i;
+                    p.firstLink = r.readZigZag() & 0xffffffffL;
+                    p.flags = r.readZigZag();
+                    p.vertCount = r.readZigZag();
+                    p.areaAndtype = r.readZigZag();
+                    p.area = r.readZigZag();
+                    polys[i] = p;
+                }
+            }
+            
+            // 链接
+            long linksFreeList = r.readZigZag() & 0xffffffffL;
+            long[] linkRefs = null;
+            int nlinks = r.readLength();
+            if (nlinks >= 0) {
+                linkRefs = new long[nlinks];
+                long prev = 0;
+                for (int i = 0; i < nlinks; i++) {
+                    prev += r.readZigZagLong();
+                    linkRefs[i] = prev;
+                }
+            }
+            int[] linkNext = null;
+            nlinks = r.readLength();
+            if (nlinks >= 0) {
+                linkNext = new int[nlinks];
+                for (int i = 0; i < nlinks; i++) {
+                    linkNext[i] = r.readZigZag() + i;
+                }
+            }
+            byte[] linkEdge = readBytes(r);
+            byte[] linkSide = readBytes(r);
+            byte[] linkBmin = readBytes(r);
+            byte[] linkBmax = readBytes(r);
+            
+            // 详细网格
+            PolyDetail[] detailMeshes = null;
+            int ndetail = r.readLength();
+            if (ndetail >= 0) {
+                detailMeshes = new PolyDetail[ndetail];
+                for (int i = 0; i < ndetail; i++) {
+                    PolyDetail d = new PolyDetail();
+                    d.vertBase = r.readZigZag();
+                    d.triBase = r.readZigZag();
+                    d.vertCount = r.readZigZag();
+                    d.triCount = r.readZigZag();
+                    detailMeshes[i] = d;
+                }
+            }
+            double[] detailVerts = readDoubles(r);
+            float[] detailVertsF = readFloats(r);
+            short[] detailVertsQ = readShortsDelta(r, 3);
+            byte[] detailTris = readBytes(r);
+            
+            // BV树
+            short[] bvBounds = readShortsDelta(r, 6);
+            int[] bvIndex = readInts(r);
+            
+            // 离网连接
+            OffMeshConnection[] offMeshCons = null;
+            int ncons = r.readLength();
+            if (ncons >= 0) {
+                offMeshCons = new OffMeshConnection[ncons];
+                for (int i = 0; i < ncons; i++) {
+                    OffMeshConnection con = new OffMeshConnection();
+                    for (int j = 0; j < 6; j++) {
+                        con.pos[j] = r.readDouble();
+                    }
+                    con.rad = r.readDouble();
+                    con.height = r.readDouble();
+                    con.userId = r.readZigZagLong();
+                    con.poly = r.readZigZag();
+                    con.side = r.readZigZag();
+                    con.flags = r.readZigZag();
+                    offMeshCons[i] = con;
+                }
+            }
+            OffMeshSegmentConnection[] offMeshSeg = null;
+            int nsegs = r.readLength();
+            if (nsegs >= 0) {
+                offMeshSeg = new OffMeshSegmentConnection[nsegs];
+                for (int i = 0; i < nsegs; i++) {
+                    OffMeshSegmentConnection seg = new OffMeshSegmentConnection();
+                    for (int j = 0; j < 3; j++) {
+                        seg.startA[j] = r.readDouble();
+                        seg.endA[j] = r.readDouble();
+                        seg.startB[j] = r.readDouble();
+                        seg.endB[j] = r.readDouble();
+                    }
+                    seg.rad = r.readDouble();
+                    seg.userId = r.readZigZagLong();
+                    seg.firstPoly = r.readZigZag();
+                    seg.npolys = r.readZigZag();
+                    seg.flags = r.readZigZag();
+                    offMeshSeg[i] = seg;
+                }
+            }
+            
+            // 集群
+            Cluster[] clusters = null;
+            int nclusters = r.readLength();
+            if (nclusters >= 0) {
+                clusters = new Cluster[nclusters];
+                for (int i = 0; i < nclusters; i++) {
+                    Cluster c = new Cluster();
+                    for (int j = 0; j < 3; j++) {
+                        c.center[j] = r.readDouble();
+                    }
+                    c.firstLink = r.readZigZagLong();
+                    c.numLinks = r.readZigZagLong();
+                    clusters[i] = c;
+                }
+            }
+            int[] polyClusters = readInts(r);
+            
+            if (r.pos != raw.length || storage != storageOf(verts, vertsF, vertsQ)) {
+                return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+            }
+            
+            // 全部解码成功后再写入瓦片
+            tile.quantOrig = quantOrig;
+            tile.quantScale = quantScale;
+            tile.verts = verts;
+            tile.vertsF = vertsF;
+            tile.vertsQ = vertsQ;
+            tile.polyVerts = polyVerts;
+            tile.polyNeis = polyNeis;
+            tile.polys = polys;
+            tile.linksFreeList = linksFreeList;
+            tile.linkRefs = linkRefs;
+            tile.linkNext = linkNext;
+            tile.linkEdge = linkEdge;
+            tile.linkSide = linkSide;
+            tile.linkBmin = linkBmin;
+            tile.linkBmax = linkBmax;
+            tile.detailMeshes = detailMeshes;
+            tile.detailVerts = detailVerts;
+            tile.detailVertsF = detailVertsF;
+            tile.detailVertsQ = detailVertsQ;
+            tile.detailTris = detailTris;
+            tile.bvBounds = bvBounds;
+            tile.bvIndex = bvIndex;
+            tile.offMeshCons = offMeshCons;
+            tile.offMeshSeg = offMeshSeg;
+            tile.clusters = clusters;
+            tile.polyClusters = polyClusters;
+            return Status.DT_SUCCESS.getValue();
+        } catch (ArrayIndexOutOfBoundsException | NegativeArraySizeException e) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+    }
+    
+    /**
+     * 释放瓦片的运行时数据，只保留瓦片头、盐值、动态链接和面积总和
+     * @param tile 瓦片
+     */
+    public static void releaseTileData(MeshTile tile) {
+        tile.quantOrig = null;
+        tile.quantScale = null;
+        tile.verts = null;
+        tile.vertsF = null;
+        tile.vertsQ = null;
+        tile.polyVerts = null;
+        tile.polyNeis = null;
+        tile.polys = null;
+        tile.linkRefs = null;
+        tile.linkNext = null;
+        tile.linkEdge = null;
+        tile.linkSide = null;
+        tile.linkBmin = null;
+        tile.linkBmax = null;
+        tile.detailMeshes = null;
+        tile.detailVerts = null;
+        tile.detailVertsF = null;
+        tile.detailVertsQ = null;
+        tile.detailTris = null;
+        tile.bvBounds = null;
+        tile.bvIndex = null;
+        tile.offMeshCons = null;
+        tile.offMeshSeg = null;
+        tile.clusters = null;
+        tile.polyClusters = null;
+        tile.data = null;
+        tile.dataSize = 0;
+    }
+    
+    /**
+     * 根据非空的顶点数组确定存储方式
+     * @param verts 双精度顶点
+     * @param vertsF 单精度顶点
+     * @param vertsQ 量化顶点
+     * @return 存储方式 (参见: VertStorage)
+     */
+    private static int storageOf(double[] verts, float[] vertsF, short[] vertsQ) {
+        if (vertsF != null) {
+            return VertStorage.DT_VERTS_FLOAT.getValue();
+        }
+        if (vertsQ != null) {
+            return VertStorage.DT_VERTS_QUANTIZED.getValue();
+        }
+        return VertStorage.DT_VERTS_DOUBLE.getValue();
+    }
+    
+    // ========== 字段编码 ==========
+    
+    /**
+     * 写入数组长度
+     * @param w 输出
+     * @param n 数组长度，-1表示null
+     * @return true如果数组非空，需要继续写入元素
+     */
+    private static boolean writeLength(ByteWriter w, int n) {
+        w.writeVarInt(n + 1);
+        return n >= 0;
+    }
+    
+    /**
+     * 写入双精度数组（原始位）
+     * @param w 输出
+     * @param a 数组 [可为null]
+     */
+    private static void writeDoubles(ByteWriter w, double[] a) {
+        if (writeLength(w, a == null ? -1 : a.length)) {
+            for (double v : a) {
+                w.writeDouble(v);
+            }
+        }
+    }
+    
+    /**
+     * 写入单精度数组（原始位）
+     * @param w 输出
+     * @param a 数组 [可为null]
+     */
+    private static void writeFloats(ByteWriter w, float[] a) {
+        if (writeLength(w, a == null ? -1 : a.length)) {
+            for (float v : a) {
+                w.writeInt(Float.floatToRawIntBits(v));
+            }
+        }
+    }
+    
+    /**
+     * 写入无符号短整数数组（变长编码）
+     * @param w 输出
+     * @param a 数组 [可为null]
+     */
+    private static void writeShorts(ByteWriter w, short[] a) {
+        if (writeLength(w, a == null ? -1 : a.length)) {
+            for (short v : a) {
+                w.writeVarInt(v & 0xffff);
+            }
+        }
+    }
+    
+    /**
+     * 按分量差分写入无符号短整数数组
+     * @param w 输出
+     * @param a 数组 [可为null]
+     * @param stride 分量数量，每个分量与前一个元素的同一分量做差
+     */
+    private static void writeShortsDelta(ByteWriter w, short[] a, int stride) {
+        if (writeLength(w, a == null ? -1 : a.length)) {
+            int[] prev = new int[stride];
+            for (int i = 0; i < a.length; i++) {
+                int k = i % stride;
+                int v = a[i] & 0xffff;
+                w.writeZigZag(v - prev[k]);
+                prev[k] = v;
+            }
+        }
+    }
+    
+    /**
+     * 写入整数数组（zigzag变长编码）
+     * @param w 输出
+     * @param a 数组 [可为null]
+     */
+    private static void writeInts(ByteWriter w, int[] a) {
+        if (writeLength(w, a == null ? -1 : a.length)) {
+            for (int v : a) {
+                w.writeZigZag(v);
+            }
+        }
+    }
+    
+    /**
+     * 写入字节数组
+     * @param w 输出
+     * @param a 数组 [可为null]
+     */
+    private static void writeBytes(ByteWriter w, byte[] a) {
+        if (writeLength(w, a == null ? -1 : a.length)) {
+            w.writeBytes(a, 0, a.length);
+        }
+    }
+    
+    /**
+     * 读取writeDoubles写入的数组
+     * @param r 输入
+     * @return 数组，可能为null
+     */
+    private static double[] readDoubles(ByteReader r) {
+        int n = r.readLength();
+        if (n < 0) {
+            return null;
+        }
+        double[] a = new double[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = r.readDouble();
+        }
+        return a;
+    }
+    
+    /**
+     * 读取writeFloats写入的数组
+     * @param r 输入
+     * @return 数组，可能为null
+     */
+    private static float[] readFloats(ByteReader r) {
+        int n = r.readLength();
+        if (n < 0) {
+            return null;
+        }
+        float[] a = new float[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = Float.intBitsToFloat(r.readInt());
+        }
+        return a;
+    }
+    
+    /**
+     * 读取writeShorts写入的数组
+     * @param r 输入
+     * @return 数组，可能为null
+     */
+    private static short[] readShorts(ByteReader r) {
+        int n = r.readLength();
+        if (n < 0) {
+            return null;
+        }
+        short[] a = new short[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = (short) r.readVarInt();
+        }
+        return a;
+    }
+    
+    /**
+     * 读取writeShortsDelta写入的数组
+     * @param r 输入
+     * @param stride 分量数量
+     * @return 数组，可能为null
+     */
+    private static short[] readShortsDelta(ByteReader r, int stride) {
+        int n = r.readLength();
+        if (n < 0) {
+            return null;
+        }
+        short[] a = new short[n];
+        int[] prev = new int[stride];
+        for (int i = 0; i < n; i++) {
+            int k = i % stride;
+            prev[k] += r.readZigZag();
+            a[i] = (short) prev[k];
+        }
+        return a;
+    }
+    
+    /**
+     * 读取writeInts写入的数组
+     * @param r 输入
+     * @return 数组，可能为null
+     */
+    private static int[] readInts(ByteReader r) {
+        int n = r.readLength();
+        if (n < 0) {
+            return null;
+        }
+        int[] a = new int[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = r.readZigZag();
+        }
+        return a;
+    }
+    
+    /**
+     * 读取writeBytes写入的数组
+     * @param r 输入
+     * @return 数组，可能为null
+     */
+    private static byte[] readBytes(ByteReader r) {
+        int n = r.readLength();
+        if (n < 0) {
+            return null;
+        }
+        byte[] a = new byte[n];
+        r.readBytes(a, 0, n);
+        return a;
+    }
+    
+    // ========== 块压缩 ==========
+    
+    /**
+     * LZ77风格压缩
+     *
+     * 输出为魔数、原始长度，以及一系列 (字面量长度, 字面量, 匹配长度, 匹配距离) 序列；
+     * 最后一个序列只有字面量。匹配通过4字节哈希表查找最近一次出现的位置。
+     *
+     * @param src 输入
+     * @param len 输入长度
+     * @return 压缩数据
+     */
+    static byte[] lzCompress(byte[] src, int len) {
+        ByteWriter w = new ByteWriter(len / 2 + 16);
+        w.writeInt(DT_TILE_COMPRESSED_MAGIC);
+        w.writeVarInt(len);
+        
+        int[] table = new int[1 << LZ_HASH_BITS];
+        Arrays.fill(table, -1);
+        int anchor = 0;
+        int i = 0;
+        while (i + LZ_MIN_MATCH <= len) {
+            int h = lzHash(src, i);
+            int cand = table[h];
+            table[h] = i;
+            if (cand < 0 || i - cand > LZ_MAX_DISTANCE ||
+                src[cand] != src[i] || src[cand + 1] != src[i + 1] ||
+                src[cand + 2] != src[i + 2] || src[cand + 3] != src[i + 3]) {
+                i++;
+                continue;
+            }
+            
+            int m = LZ_MIN_MATCH;
+            while (i + m < len && src[cand + m] == src[i + m]) {
+                m++;
+            }
+            w.writeVarInt(i - anchor);
+            w.writeBytes(src, anchor, i - anchor);
+            w.writeVarInt(m - LZ_MIN_MATCH);
+            w.writeVarInt(i - cand);
+            
+            // 把匹配内部的位置也加入哈希表，提高后续匹配率
+            int end = i + m;
+            for (int k = i + 1; k + LZ_MIN_MATCH <= len && k < end; k++) {
+                table[lzHash(src, k)] = k;
+            }
+            i = end;
+            anchor = end;
+        }
+        
+        w.writeVarInt(len - anchor);
+        w.writeBytes(src, anchor, len - anchor);
+        return Arrays.copyOf(w.buf, w.len);
+    }
+    
+    /**
+     * 解压LZ77风格的压缩数据
+     * @param data 压缩数据
+     * @return 原始数据，如果数据无效则返回null
+     */
+    static byte[] lzDecompress(byte[] data) {
+        try {
+            ByteReader r = new ByteReader(data);
+            if (r.readInt() != DT_TILE_COMPRESSED_MAGIC) {
+                return null;
+            }
+            int len = r.readVarInt();
+            byte[] out = new byte[len];
+            int o = 0;
+            while (true) {
+                int lit = r.readVarInt();
+                r.readBytes(out, o, lit);
+                o += lit;
+                if (o == len) {
+                    break;
+                }
+                int m = r.readVarInt() + LZ_MIN_MATCH;
+                int dist = r.readVarInt();
+                if (dist <= 0 || dist > o || o + m > len) {
+                    return null;
+                }
+                // 匹配可能与输出重叠，逐字节复制
+                for (int k = 0; k < m; k++) {
+                    out[o + k] = out[o - dist + k];
+                }
+                o += m;
+            }
+            return r.pos == data.length ? out : null;
+        } catch (ArrayIndexOutOfBoundsException | NegativeArraySizeException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * 计算4字节序列的哈希值
+     * @param b 数据
+     * @param i 位置
+     * @return 哈希值
+     */
+    private static int lzHash(byte[] b, int i) {
+        int v = (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+        return (v * 0x9e3779b1) >>> (32 - LZ_HASH_BITS);
+    }
+    
+    /**
+     * 可增长的小端字节输出
+     */
+    private static class ByteWriter {
+        byte[] buf;
+        int len;
+        
+        ByteWriter(int capacity) {
+            buf = new byte[Math.max(16, capacity)];
+        }
+        
+        void ensure(int n) {
+            if (len + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+            }
+        }
+        
+        void writeVarInt(int v) {
+            ensure(5);
+            while ((v & ~0x7f) != 0) {
+                buf[len++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            buf[len++] = (byte) v;
+        }
+        
+        void writeVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7fL) != 0) {
+                buf[len++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            buf[len++] = (byte) v;
+        }
+        
+        void writeZigZag(int v) {
+            writeVarInt((v << 1) ^ (v >> 31));
+        }
+        
+        void writeZigZagLong(long v) {
+            writeVarLong((v << 1) ^ (v >> 63));
+        }
+        
+        void writeInt(int v) {
+            ensure(4);
+            buf[len++] = (byte) v;
+            buf[len++] = (byte) (v >>> 8);
+            buf[len++] = (byte) (v >>> 16);
+            buf[len++] = (byte) (v >>> 24);
+        }
+        
+        void writeDouble(double d) {
+            long v = Double.doubleToRawLongBits(d);
+            writeInt((int) v);
+            writeInt((int) (v >>> 32));
+        }
+        
+        void writeBytes(byte[] b, int off, int n) {
+            ensure(n);
+            System.arraycopy(b, off, buf, len, n);
+            len += n;
+        }
+    }
+    
+    /**
+     * 小端字节输入，越界时抛出ArrayIndexOutOfBoundsException
+     */
+    private static class ByteReader {
+        final byte[] buf;
+        int pos;
+        
+        ByteReader(byte[] buf) {
+            this.buf = buf;
+        }
+        
+        int readVarInt() {
+            int v = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = buf[pos++];
+                v |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return v;
+                }
+            }
+            throw new ArrayIndexOutOfBoundsException("变长整数过长");
+        }
+        
+        long readVarLong() {
+            long v = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                byte b = buf[pos++];
+                v |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return v;
+                }
+            }
+            throw new ArrayIndexOutOfBoundsException("变长整数过长");
+        }
+        
+        int readZigZag() {
+            int v = readVarInt();
+            return (v >>> 1) ^ -(v & 1);
+        }
+        
+        long readZigZagLong() {
+            long v = readVarLong();
+            return (v >>> 1) ^ -(v & 1);
+        }
+        
+        /**
+         * 读取writeLength写入的数组长度
+         * @return 数组长度，null数组返回-1
+         */
+        int readLength() {
+            return readVarInt() - 1;
+        }
+        
+        int readInt() {
+            int v = (buf[pos] & 0xff) | (buf[pos + 1] & 0xff) << 8 |
+                    (buf[pos + 2] & 0xff) << 16 | (buf[pos + 3] & 0xff) << 24;
+            pos += 4;
+            return v;
+        }
+        
+        double readDouble() {
+            long lo = readInt() & 0xffffffffL;
+            long hi = readInt() & 0xffffffffL;
+            return Double.longBitsToDouble(lo | hi << 32);
+        }
+        
+        void readBytes(byte[] dst, int off, int n) {
+            if (n < 0 || pos + n > buf.length) {
+                throw new ArrayIndexOutOfBoundsException(pos + n);
+            }
+            System.arraycopy(buf, pos, dst, off, n);
+            pos += n;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,517 @@
+package odin.detour.io;
+
+import odin.detour.core.DetourNavMesh;
+import odin.detour.core.DetourNavMesh.MeshTile;
+import odin.detour.core.DetourNavMesh.NavMeshParams;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static odin.detour.config.DetourConstants.*;
+import static odin.detour.config.DetourEnums.*;
+
+/**
+ * 内存映射的导航网格存档
+ *
+ * 存档由头部（导航网格参数）、按(y, x, layer)排序的瓦片索引和瓦片数据块
+ * （参见{@link DetourTileSerializer}）组成。打开存档只映射文件，不读取瓦片；
+ * 瓦片在第一次访问时才从映射缓冲区解码为MeshTile，未访问区域的页面不会被载入内存。
+ * 索引有序，按瓦片坐标查找使用二分查找，打开时不需要建立额外的查找表。
+ *
+ * 超过2GB的存档按1GB分段映射，每段额外覆盖一个最大数据块的长度，
+ * 因此任何数据块都完整地位于其起始偏移所在的段内。
+ *
+ * 存档实例不是线程安全的。
+ *
+ * @author UE5NavMesh4J
+ */
+public class DetourNavMeshArchive implements Closeable {
+    
+    /** 存档头部大小 */
+    private static final int HEADER_SIZE = 6 * 4 + 11 * 8;
+    
+    /** 每个索引项的字节数 (x, y, layer, size, offset) */
+    private static final int INDEX_ENTRY_SIZE = 4 * 4 + 8;
+    
+    /** 映射段的大小 */
+    private static final long SEGMENT_SIZE = 1L << 30;
+    
+    /** 文件通道 */
+    private final FileChannel channel;
+    
+    /** 文件大小 */
+    private final long fileSize;
+    
+    /** 导航网格参数 */
+    private final NavMeshParams params;
+    
+    /** 瓦片数量 */
+    private final int tileCount;
+    
+    /** 最大瓦片数据块大小 */
+    private final int maxBlobSize;
+    
+    /** 映射的瓦片索引 */
+    private final ByteBuffer index;
+    
+    /** 按需映射的数据段 */
+    private final MappedByteBuffer[] segments;
+    
+    /** 已解码的瓦片 [大小: tileCount] */
+    private final MeshTile[] decoded;
+    
+    /** 已解码的瓦片数量 */
+    private int decodedCount;
+    
+    /**
+     * 构造函数
+     * @param channel 文件通道
+     * @param header 映射的存档头部
+     * @param index 映射的瓦片索引
+     */
+    private DetourNavMeshArchive(FileChannel channel, ByteBuffer header, ByteBuffer index) throws IOException {
+        this.channel = channel;
+        this.fileSize = channel.size();
+        this.tileCount = header.getInt(8);
+        this.maxBlobSize = header.getInt(12);
+        
+        NavMeshParams p = new NavMeshParams();
+        p.maxTiles = header.getInt(16);
+        p.maxPolys = header.getInt(20);
+        int o = 24;
+        for (int i = 0; i < 3; i++) {
+            p.orig[i] = header.getDouble(o + i * 8);
+        }
+        p.tileWidth = header.getDouble(o + 24);
+        p.tileHeight = header.getDouble(o + 32);
+        p.walkableHeight = header.getDouble(o + 40);
+        p.walkableRadius = header.getDouble(o + 48);
+        p.walkableClimb = header.getDouble(o + 56);
+        for (int i = 0; i < DT_RESOLUTION_COUNT; i++) {
+            p.resolutionParams[i].bvQuantFactor = header.getDouble(o + 64 + i * 8);
+        }
+        this.params = p;
+        
+        this.index = index;
+        this.segments = new MappedByteBuffer[(int) ((fileSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+        this.decoded = new MeshTile[tileCount];
+    }
+    
+    // ========== 写入 ==========
+    
+    /**
+     * 将瓦片写入存档文件
+     * @param file 文件路径
+     * @param params 导航网格参数
+     * @param tiles 瓦片列表
+     * @throws IOException 写入失败
+     */
+    public static void write(Path file, NavMeshParams params, List<MeshTile> tiles) throws IOException {
+        List<MeshTile> sorted = new ArrayList<>(tiles);
+        Collections.sort(sorted, new Comparator<MeshTile>() {
+            @Override
+            public int compare(MeshTile a, MeshTile b) {
+                return compareLoc(a.header.x, a.header.y, a.header.layer, b.header.x, b.header.y, b.header.layer);
+            }
+        });
+        
+        int n = sorted.size();
+        int maxBlob = 0;
+        int[] sizes = new int[n];
+        for (int i = 0; i < n; i++) {
+            sizes[i] = DetourTileSerializer.getTileDataSize(sorted.get(i));
+            maxBlob = Math.max(maxBlob, sizes[i]);
+        }
+        
+        // 头部和索引
+        long dataStart = align(HEADER_SIZE + (long) n * INDEX_ENTRY_SIZE);
+        ByteBuffer head = ByteBuffer.allocate((int) dataStart).order(ByteOrder.LITTLE_ENDIAN);
+        head.putInt(DT_NAVMESH_ARCHIVE_MAGIC);
+        head.putInt(DT_NAVMESH_ARCHIVE_VERSION);
+        head.putInt(n);
+        head.putInt(maxBlob);
+        head.putInt(params.maxTiles);
+        head.putInt(params.maxPolys);
+        for (int i = 0; i < 3; i++) {
+            head.putDouble(params.orig[i]);
+        }
+        head.putDouble(params.tileWidth);
+        head.putDouble(params.tileHeight);
+        head.putDouble(params.walkableHeight);
+        head.putDouble(params.walkableRadius);
+        head.putDouble(params.walkableClimb);
+        for (int i = 0; i < DT_RESOLUTION_COUNT; i++) {
+            head.putDouble(params.resolutionParams[i].bvQuantFactor);
+        }
+        
+        long offset = dataStart;
+        for (int i = 0; i < n; i++) {
+            MeshTile tile = sorted.get(i);
+            head.putInt(tile.header.x);
+            head.putInt(tile.header.y);
+            head.putInt(tile.header.layer);
+            head.putInt(sizes[i]);
+            head.putLong(offset);
+            offset += sizes[i];
+        }
+        ((Buffer) head).clear();
+        
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(out, head);
+            ByteBuffer blob = ByteBuffer.allocate(maxBlob);
+            for (int i = 0; i < n; i++) {
+                ((Buffer) blob).clear();
+                DetourTileSerializer.writeTile(sorted.get(i), blob);
+                ((Buffer) blob).flip();
+                writeFully(out, blob);
+            }
+        }
+    }
+    
+    /**
+     * 将缓冲区的剩余内容全部写入通道
+     * @param out 输出通道
+     * @param buf 缓冲区
+     * @throws IOException 写入失败
+     */
+    private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+    
+    // ========== 读取 ==========
+    
+    /**
+     * 打开存档文件
+     *
+     * 只映射并校验头部和索引，瓦片数据在访问时才映射和解码。
+     *
+     * @param file 文件路径
+     * @return 存档
+     * @throws IOException 文件无法读取或不是有效的存档
+     */
+    public static DetourNavMeshArchive open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("导航网格存档太小: " + file);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE)
+                                       .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) != DT_NAVMESH_ARCHIVE_MAGIC) {
+                throw new IOException("导航网格存档魔数错误: " + file);
+            }
+            if (header.getInt(4) != DT_NAVMESH_ARCHIVE_VERSION) {
+                throw new IOException("导航网格存档版本错误: " + file);
+            }
+            int n = header.getInt(8);
+            long indexSize = (long) n * INDEX_ENTRY_SIZE;
+            if (n < 0 || HEADER_SIZE + indexSize > size) {
+                throw new IOException("导航网格存档索引损坏: " + file);
+            }
+            ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, indexSize)
+                                      .order(ByteOrder.LITTLE_ENDIAN);
+            return new DetourNavMeshArchive(channel, header, index);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * 获取导航网格参数
+     * @return 导航网格参数
+     */
+    public NavMeshParams getParams() {
+        return params;
+    }
+    
+    /**
+     * 获取存档中的瓦片数量
+     * @return 瓦片数量
+     */
+    public int getTileCount() {
+        return tileCount;
+    }
+    
+    /**
+     * 获取已解码的瓦片数量
+     * @return 已解码的瓦片数量
+     */
+    public int getDecodedCount() {
+        return decodedCount;
+    }
+    
+    /**
+     * 获取瓦片的x坐标
+     * @param i 瓦片在存档中的索引
+     * @return 瓦片x坐标
+     */
+    public int getTileX(int i) {
+        return index.getInt(i * INDEX_ENTRY_SIZE);
+    }
+    
+    /**
+     * 获取瓦片的y坐标
+     * @param i 瓦片在存档中的索引
+     * @return 瓦片y坐标
+     */
+    public int getTileY(int i) {
+        return index.getInt(i * INDEX_ENTRY_SIZE + 4);
+    }
+    
+    /**
+     * 获取瓦片的层
+     * @param i 瓦片在存档中的索引
+     * @return 瓦片层
+     */
+    public int getTileLayer(int i) {
+        return index.getInt(i * INDEX_ENTRY_SIZE + 8);
+    }
+    
+    /**
+     * 按瓦片坐标查找瓦片在存档中的索引
+     * @param x 瓦片x坐标
+     * @param y 瓦片y坐标
+     * @param layer 瓦片层
+     * @return 索引，如果不存在则返回-1
+     */
+    public int findTile(int x, int y, int layer) {
+        int lo = lowerBound(x, y, layer);
+        if (lo < tileCount && getTileX(lo) == x && getTileY(lo) == y && getTileLayer(lo) == layer) {
+            return lo;
+        }
+        return -1;
+    }
+    
+    /**
+     * 获取指定位置所有层的瓦片在存档中的索引
+     * @param x 瓦片x坐标
+     * @param y 瓦片y坐标
+     * @param indices 输出：索引数组
+     * @param maxIndices 最大索引数量
+     * @return 找到的索引数量
+     */
+    public int getTilesAt(int x, int y, int[] indices, int maxIndices) {
+        int n = 0;
+        for (int i = lowerBound(x, y, Integer.MIN_VALUE); i < tileCount && n < maxIndices; i++) {
+            if (getTileX(i) != x || getTileY(i) != y) {
+                break;
+            }
+            indices[n++] = i;
+        }
+        return n;
+    }
+    
+    /**
+     * 获取瓦片数据块的只读视图，不解码瓦片
+     * @param i 瓦片在存档中的索引
+     * @return 数据块视图，位置为0，界限为数据块大小
+     * @throws IOException 映射失败
+     */
+    public ByteBuffer getTileData(int i) throws IOException {
+        int e = i * INDEX_ENTRY_SIZE;
+        int size = index.getInt(e + 12);
+        long offset = index.getLong(e + 16);
+        if (size < 0 || offset < 0 || offset + size > fileSize) {
+            throw new IOException("导航网格存档瓦片数据越界: " + i);
+        }
+        
+        int seg = (int) (offset / SEGMENT_SIZE);
+        MappedByteBuffer mapped = segments[seg];
+        if (mapped == null) {
+            long start = seg * SEGMENT_SIZE;
+            long length = Math.min(fileSize - start, SEGMENT_SIZE + maxBlobSize);
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            segments[seg] = mapped;
+        }
+        
+        ByteBuffer view = mapped.duplicate();
+        int pos = (int) (offset - seg * SEGMENT_SIZE);
+        ((Buffer) view).limit(pos + size);
+        ((Buffer) view).position(pos);
+        return view.slice();
+    }
+    
+    /**
+     * 获取瓦片，第一次访问时从映射缓冲区解码
+     * @param i 瓦片在存档中的索引
+     * @param result 输出：瓦片 [大小: >= 1]
+     * @return 状态标志 (参见: Status)
+     * @throws IOException 映射失败
+     */
+    public int getTile(int i, MeshTile[] result) throws IOException {
+        if (i < 0 || i >= tileCount) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        if (decoded[i] == null) {
+            int status = DetourTileSerializer.readTile(getTileData(i), result);
+            if (Status.dtStatusFailed(status)) {
+                return status;
+            }
+            decoded[i] = result[0];
+            decodedCount++;
+        }
+        result[0] = decoded[i];
+        return Status.DT_SUCCESS.getValue();
+    }
+    
+    /**
+     * 检查瓦片是否已解码
+     * @param i 瓦片在存档中的索引
+     * @return true如果已解码
+     */
+    public boolean isTileDecoded(int i) {
+        return decoded[i] != null;
+    }
+    
+    /**
+     * 释放已解码的瓦片，下次访问时重新解码
+     *
+     * 调用方需要先从导航网格中移除该瓦片。
+     *
+     * @param i 瓦片在存档中的索引
+     */
+    public void releaseTile(int i) {
+        if (decoded[i] != null) {
+            decoded[i] = null;
+            decodedCount--;
+        }
+    }
+    
+    /**
+     * 解码瓦片并加入导航网格，已在导航网格中的瓦片不会重复加入
+     * @param navMesh 导航网格
+     * @param i 瓦片在存档中的索引
+     * @param result 输出：瓦片引用 [可选]
+     * @return 状态标志 (参见: Status)
+     * @throws IOException 映射失败
+     */
+    public int loadTile(DetourNavMesh navMesh, int i, long[] result) throws IOException {
+        MeshTile[] tile = new MeshTile[1];
+        int status = getTile(i, tile);
+        if (Status.dtStatusFailed(status)) {
+            return status;
+        }
+        // 写时复制模式下导航网格中的瓦片可能是副本，副本与原瓦片共享瓦片头
+        MeshTile existing = navMesh.getTileAt(tile[0].header.x, tile[0].header.y, tile[0].header.layer);
+        if (existing != null && existing.header == tile[0].header) {
+            if (result != null && result.length > 0) {
+                result[0] = navMesh.getTileRef(existing);
+            }
+            return Status.DT_SUCCESS.getValue();
+        }
+        return navMesh.addTile(tile[0], result);
+    }
+    
+    /**
+     * 加载与包围盒重叠的所有瓦片位置上的所有层
+     * @param navMesh 导航网格
+     * @param bmin 包围盒最小点
+     * @param bmax 包围盒最大点
+     * @return 新加入导航网格的瓦片数量
+     * @throws IOException 映射失败
+     */
+    public int loadTilesInBounds(DetourNavMesh navMesh, float[] bmin, float[] bmax) throws IOException {
+        int[] minx = new int[1];
+        int[] miny = new int[1];
+        int[] maxx = new int[1];
+        int[] maxy = new int[1];
+        navMesh.calcTileLoc(bmin, minx, miny);
+        navMesh.calcTileLoc(bmax, maxx, maxy);
+        
+        int loaded = 0;
+        for (int y = miny[0]; y <= maxy[0]; y++) {
+            // 索引按(y, x, layer)排序，同一行的瓦片连续存放
+            for (int i = lowerBound(minx[0], y, Integer.MIN_VALUE); i < tileCount; i++) {
+                int x = getTileX(i);
+                if (getTileY(i) != y || x > maxx[0]) {
+                    break;
+                }
+                if (navMesh.getTileAt(x, y, getTileLayer(i)) != null) {
+                    continue;
+                }
+                if (Status.dtStatusSucceed(loadTile(navMesh, i, null))) {
+                    loaded++;
+                }
+            }
+        }
+        return loaded;
+    }
+    
+    /**
+     * 关闭存档
+     *
+     * 已解码的瓦片不依赖映射缓冲区，关闭后仍然可以使用。
+     *
+     * @throws IOException 关闭失败
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+    
+    /**
+     * 查找第一个不小于指定坐标的索引项
+     * @param x 瓦片x坐标
+     * @param y 瓦片y坐标
+     * @param layer 瓦片层
+     * @return 索引项位置
+     */
+    private int lowerBound(int x, int y, int layer) {
+        int lo = 0;
+        int hi = tileCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareLoc(getTileX(mid), getTileY(mid), getTileLayer(mid), x, y, layer) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+    
+    /**
+     * 按(y, x, layer)比较瓦片坐标
+     * @param ax 瓦片A的x坐标
+     * @param ay 瓦片A的y坐标
+     * @param alayer 瓦片A的层
+     * @param bx 瓦片B的x坐标
+     * @param by 瓦片B的y坐标
+     * @param blayer 瓦片B的层
+     * @return 比较结果
+     */
+    private static int compareLoc(int ax, int ay, int alayer, int bx, int by, int blayer) {
+        if (ay != by) {
+            return Integer.compare(ay, by);
+        }
+        if (ax != bx) {
+            return Integer.compare(ax, bx);
+        }
+        return Integer.compare(alayer, blayer);
+    }
+    
+    /**
+     * 向上对齐到8字节
+     * @param v 偏移
+     * @return 对齐后的偏移
+     */
+    private static long align(long v) {
+        return (v + 7) & ~7L;
+    }
+}
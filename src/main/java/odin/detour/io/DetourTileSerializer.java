@@ -0,0 +1,612 @@
+package odin.detour.io;
+
+import odin.detour.core.DetourNavMesh.Cluster;
+import odin.detour.core.DetourNavMesh.MeshHeader;
+import odin.detour.core.DetourNavMesh.MeshTile;
+import odin.detour.core.DetourNavMesh.OffMeshConnection;
+import odin.detour.core.DetourNavMesh.OffMeshSegmentConnection;
+import odin.detour.core.DetourNavMesh.Poly;
+import odin.detour.core.DetourNavMesh.PolyDetail;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import static odin.detour.config.DetourConstants.*;
+import static odin.detour.config.DetourEnums.*;
+
+/**
+ * Detour瓦片二进制序列化
+ *
+ * 瓦片数据块为小端字节序，由定长的头部和按以下顺序排列的数据段组成：
+ * 顶点、多边形顶点索引、多边形邻居、多边形属性、链接、详细子网格、详细顶点、详细三角形、
+ * BV树、离网连接、段类型离网连接、集群、多边形集群Id。每个数据段的起始偏移按8字节对齐，
+ * 数据段的大小完全由头部的计数决定，因此读取时不需要解析分隔符。
+ *
+ * 瓦片的扁平数组（顶点、多边形顶点索引和邻居、链接、BV树）与数据段一一对应，
+ * 通过ByteBuffer的类型视图整段批量读取，不逐字段解析；对象数组只在批量读取后从int数组构造。
+ * 读取的输入可以是堆内数组，也可以是直接缓冲区或内存映射缓冲区。
+ * 顶点和详细顶点按瓦片的存储方式（双精度、单精度或16位量化）写入，读取后保持相同的存储方式。
+ *
+ * @author UE5NavMesh4J
+ */
+public final class DetourTileSerializer {
+    
+    /** 私有构造函数防止实例化 */
+    private DetourTileSerializer() {
+        throw new UnsupportedOperationException("工具类不能被实例化");
+    }
+    
+    /** 头部int字段数量 */
+    private static final int HEADER_INTS = 23;
+    
+    /** 量化原点和步长在头部中的偏移 */
+    private static final int HEADER_QUANT = HEADER_INTS * 4;
+    
+    /** bmin/bmax在头部中的偏移 */
+    private static final int HEADER_BOUNDS = align(HEADER_QUANT + 6 * 4);
+    
+    /** 头部大小（int字段 + 量化原点和步长 + bmin/bmax） */
+    public static final int HEADER_SIZE = HEADER_BOUNDS + 6 * 8;
+    
+    /** 每个多边形属性的int数量（firstLink, flags, vertCount, areaAndtype, area） */
+    private static final int POLY_INTS = 5;
+    
+    /** 每个详细子网格的int数量 */
+    private static final int DETAIL_MESH_INTS = 4;
+    
+    /** 每个离网连接的字节数 */
+    private static final int OFFMESH_CON_SIZE = 8 * 8 + 8 + 4 * 4;
+    
+    /** 每个段类型离网连接的字节数 */
+    private static final int OFFMESH_SEG_SIZE = 13 * 8 + 8 + 4 * 4;
+    
+    /** 每个集群的字节数 */
+    private static final int CLUSTER_SIZE = 5 * 8;
+    
+    /**
+     * 数据段偏移
+     */
+    private static class Layout {
+        int verts;
+        int polyVerts;
+        int polyNeis;
+        int polys;
+        int linkRefs;
+        int linkNext;
+        int linkBytes;
+        int detailMeshes;
+        int detailVerts;
+        int detailTris;
+        int bvBounds;
+        int bvIndex;
+        int offMeshCons;
+        int offMeshSeg;
+        int clusters;
+        int polyClusters;
+        int size;
+        
+        /**
+         * 根据头部计数计算数据段偏移
+         * @param h 瓦片头
+         * @param vertStorage 顶点存储方式 (参见: VertStorage)
+         * @param detailTriBytes 详细三角形数组的字节数
+         * @param polyClusterCount 多边形集群Id数量
+         */
+        Layout(MeshHeader h, int vertStorage, int detailTriBytes, int polyClusterCount) {
+            int vertSize = vertStorage == VertStorage.DT_VERTS_FLOAT.getValue() ? 4 :
+                           vertStorage == VertStorage.DT_VERTS_QUANTIZED.getValue() ? 2 : 8;
+            int off = HEADER_SIZE;
+            verts = off = align(off);
+            off += h.vertCount * 3 * vertSize;
+            polyVerts = off = align(off);
+            off += h.polyCount * DT_VERTS_PER_POLYGON * 2;
+            polyNeis = off = align(off);
+            off += h.polyCount * DT_VERTS_PER_POLYGON * 2;
+            polys = off = align(off);
+            off += h.polyCount * POLY_INTS * 4;
+            linkRefs = off = align(off);
+            off += h.maxLinkCount * 8;
+            linkNext = off;
+            off += h.maxLinkCount * 4;
+            // edge, side, bmin, bmax各一个字节
+            linkBytes = off;
+            off += h.maxLinkCount * 4;
+            detailMeshes = off = align(off);
+            off += h.detailMeshCount * DETAIL_MESH_INTS * 4;
+            detailVerts = off = align(off);
+            off += h.detailVertCount * 3 * vertSize;
+            detailTris = off;
+            off += detailTriBytes;
+            bvBounds = off = align(off);
+            off += h.bvNodeCount * 6 * 2;
+            bvIndex = off = align(off);
+            off += h.bvNodeCount * 4;
+            offMeshCons = off = align(off);
+            off += h.offMeshConCount * OFFMESH_CON_SIZE;
+            offMeshSeg = off;
+            off += h.offMeshSegConCount * OFFMESH_SEG_SIZE;
+            clusters = off;
+            off += h.clusterCount * CLUSTER_SIZE;
+            polyClusters = off;
+            off += polyClusterCount * 4;
+            size = align(off);
+        }
+    }
+    
+    /**
+     * 向上对齐到8字节
+     * @param v 偏移
+     * @return 对齐后的偏移
+     */
+    private static int align(int v) {
+        return (v + 7) & ~7;
+    }
+    
+    /**
+     * 计算瓦片序列化后的字节数
+     * @param tile 瓦片
+     * @return 字节数
+     */
+    public static int getTileDataSize(MeshTile tile) {
+        return layoutOf(tile).size;
+    }
+    
+    /**
+     * 将瓦片序列化为新的字节数组
+     * @param tile 瓦片
+     * @return 瓦片数据块
+     */
+    public static byte[] writeTile(MeshTile tile) {
+        byte[] data = new byte[getTileDataSize(tile)];
+        writeTile(tile, ByteBuffer.wrap(data));
+        return data;
+    }
+    
+    /**
+     * 将瓦片序列化到缓冲区的当前位置，写入后缓冲区位置前进数据块的大小
+     * @param tile 瓦片
+     * @param out 输出缓冲区
+     * @return 状态标志 (参见: Status)
+     */
+    public static int writeTile(MeshTile tile, ByteBuffer out) {
+        if (tile == null || tile.header == null || out == null) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        Layout layout = layoutOf(tile);
+        if (out.remaining() < layout.size) {
+            return Status.DT_FAILURE.getValue() | Status.DT_BUFFER_TOO_SMALL.getValue();
+        }
+        
+        MeshHeader h = tile.header;
+        int vertStorage = tile.getVertStorage();
+        int base = out.position();
+        ByteBuffer b = out.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        
+        // 头部
+        int[] hdr = {
+            DT_NAVMESH_MAGIC, h.version, h.x, h.y, h.layer, h.polyCount, h.vertCount, h.maxLinkCount,
+            h.detailMeshCount, h.detailVertCount, h.detailTriCount, h.bvNodeCount,
+            h.offMeshConCount, h.offMeshBase, h.offMeshSegConCount, h.offMeshSegPolyBase,
+            h.offMeshSegVertBase, h.clusterCount, h.resolution,
+            tile.detailTris != null ? tile.detailTris.length : 0,
+            tile.polyClusters != null ? tile.polyClusters.length : 0,
+            vertStorage, layout.size
+        };
+        view(b, base).asIntBuffer().put(hdr);
+        for (int i = 0; i < 3; i++) {
+            b.putFloat(base + HEADER_QUANT + i * 4, tile.quantOrig != null ? tile.quantOrig[i] : 0.0f);
+            b.putFloat(base + HEADER_QUANT + 12 + i * 4, tile.quantScale != null ? tile.quantScale[i] : 0.0f);
+            b.putDouble(base + HEADER_BOUNDS + i * 8, h.bmin[i]);
+            b.putDouble(base + HEADER_BOUNDS + 24 + i * 8, h.bmax[i]);
+        }
+        
+        // 顶点
+        int nverts = h.vertCount * 3;
+        if (nverts > 0) {
+            if (tile.vertsF != null) {
+                view(b, base + layout.verts).asFloatBuffer().put(tile.vertsF, 0, nverts);
+            } else if (tile.vertsQ != null) {
+                view(b, base + layout.verts).asShortBuffer().put(tile.vertsQ, 0, nverts);
+            } else {
+                view(b, base + layout.verts).asDoubleBuffer().put(tile.verts, 0, nverts);
+            }
+        }
+        
+        // 多边形
+        int polyShorts = h.polyCount * DT_VERTS_PER_POLYGON;
+        if (polyShorts > 0) {
+            view(b, base + layout.polyVerts).asShortBuffer().put(tile.polyVerts, 0, polyShorts);
+            view(b, base + layout.polyNeis).asShortBuffer().put(tile.polyNeis, 0, polyShorts);
+        }
+        int[] polyData = new int[h.polyCount * POLY_INTS];
+        for (int i = 0; i < h.polyCount; i++) {
+            Poly p = tile.polys[i];
+            int o = i * POLY_INTS;
+            polyData[o] = (int) p.firstLink;
+            polyData[o + 1] = p.flags;
+            polyData[o + 2] = p.vertCount;
+            polyData[o + 3] = p.areaAndtype;
+            polyData[o + 4] = p.area;
+        }
+        view(b, base + layout.polys).asIntBuffer().put(polyData);
+        
+        // 链接
+        int maxLinkCount = h.maxLinkCount;
+        long[] linkRefs = tile.linkRefs;
+        int[] linkNext = tile.linkNext;
+        byte[] linkEdge = tile.linkEdge;
+        byte[] linkSide = tile.linkSide;
+        byte[] linkBmin = tile.linkBmin;
+        byte[] linkBmax = tile.linkBmax;
+        if (linkRefs == null) {
+            // 尚未加入导航网格的瓦片没有链接，写入空链接
+            linkRefs = new long[maxLinkCount];
+            linkNext = new int[maxLinkCount];
+            Arrays.fill(linkNext, (int) DT_NULL_LINK);
+            linkEdge = linkSide = linkBmin = linkBmax = new byte[maxLinkCount];
+        }
+        if (maxLinkCount > 0) {
+            view(b, base + layout.linkRefs).asLongBuffer().put(linkRefs, 0, maxLinkCount);
+            view(b, base + layout.linkNext).asIntBuffer().put(linkNext, 0, maxLinkCount);
+            ByteBuffer lb = view(b, base + layout.linkBytes);
+            lb.put(linkEdge, 0, maxLinkCount);
+            lb.put(linkSide, 0, maxLinkCount);
+            lb.put(linkBmin, 0, maxLinkCount);
+            lb.put(linkBmax, 0, maxLinkCount);
+        }
+        
+        // 详细网格
+        int[] detailData = new int[h.detailMeshCount * DETAIL_MESH_INTS];
+        for (int i = 0; i < h.detailMeshCount; i++) {
+            PolyDetail d = tile.detailMeshes[i];
+            int o = i * DETAIL_MESH_INTS;
+            detailData[o] = d.vertBase;
+            detailData[o + 1] = d.triBase;
+            detailData[o + 2] = d.vertCount;
+            detailData[o + 3] = d.triCount;
+        }
+        view(b, base + layout.detailMeshes).asIntBuffer().put(detailData);
+        int ndverts = h.detailVertCount * 3;
+        if (ndverts > 0) {
+            if (tile.detailVertsF != null) {
+                view(b, base + layout.detailVerts).asFloatBuffer().put(tile.detailVertsF, 0, ndverts);
+            } else if (tile.detailVertsQ != null) {
+                view(b, base + layout.detailVerts).asShortBuffer().put(tile.detailVertsQ, 0, ndverts);
+            } else {
+                view(b, base + layout.detailVerts).asDoubleBuffer().put(tile.detailVerts, 0, ndverts);
+            }
+        }
+        if (tile.detailTris != null) {
+            view(b, base + layout.detailTris).put(tile.detailTris);
+        }
+        
+        // BV树
+        if (h.bvNodeCount > 0) {
+            view(b, base + layout.bvBounds).asShortBuffer().put(tile.bvBounds, 0, h.bvNodeCount * 6);
+            view(b, base + layout.bvIndex).asIntBuffer().put(tile.bvIndex, 0, h.bvNodeCount);
+        }
+        
+        // 离网连接
+        for (int i = 0; i < h.offMeshConCount; i++) {
+            OffMeshConnection con = tile.offMeshCons[i];
+            int o = base + layout.offMeshCons + i * OFFMESH_CON_SIZE;
+            for (int j = 0; j < 6; j++) {
+                b.putDouble(o + j * 8, con.pos[j]);
+            }
+            b.putDouble(o + 48, con.rad);
+            b.putDouble(o + 56, con.height);
+            b.putLong(o + 64, con.userId);
+            b.putInt(o + 72, con.poly);
+            b.putInt(o + 76, con.side);
+            b.putInt(o + 80, con.flags);
+        }
+        for (int i = 0; i < h.offMeshSegConCount; i++) {
+            OffMeshSegmentConnection seg = tile.offMeshSeg[i];
+            int o = base + layout.offMeshSeg + i * OFFMESH_SEG_SIZE;
+            for (int j = 0; j < 3; j++) {
+                b.putDouble(o + j * 8, seg.startA[j]);
+                b.putDouble(o + 24 + j * 8, seg.endA[j]);
+                b.putDouble(o + 48 + j * 8, seg.startB[j]);
+                b.putDouble(o + 72 + j * 8, seg.endB[j]);
+            }
+            b.putDouble(o + 96, seg.rad);
+            b.putLong(o + 104, seg.userId);
+            b.putInt(o + 112, seg.firstPoly);
+            b.putInt(o + 116, seg.npolys);
+            b.putInt(o + 120, seg.flags);
+        }
+        
+        // 集群
+        for (int i = 0; i < h.clusterCount; i++) {
+            Cluster c = tile.clusters[i];
+            int o = base + layout.clusters + i * CLUSTER_SIZE;
+            for (int j = 0; j < 3; j++) {
+                b.putDouble(o + j * 8, c.center[j]);
+            }
+            b.putLong(o + 24, c.firstLink);
+            b.putLong(o + 32, c.numLinks);
+        }
+        if (tile.polyClusters != null) {
+            view(b, base + layout.polyClusters).asIntBuffer().put(tile.polyClusters);
+        }
+        
+        ((Buffer) out).position(base + layout.size);
+        return Status.DT_SUCCESS.getValue();
+    }
+    
+    /**
+     * 从字节数组读取瓦片，数据块保存在MeshTile::data中
+     * @param data 瓦片数据块
+     * @param result 输出：瓦片 [大小: >= 1]
+     * @return 状态标志 (参见: Status)
+     */
+    public static int readTile(byte[] data, MeshTile[] result) {
+        if (data == null) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        int status = readTile(ByteBuffer.wrap(data), result);
+        if (Status.dtStatusSucceed(status)) {
+            result[0].data = data;
+            result[0].dataSize = data.length;
+        }
+        return status;
+    }
+    
+    /**
+     * 从缓冲区的当前位置读取瓦片，读取后缓冲区位置前进数据块的大小
+     * @param data 输入缓冲区（堆内、直接或内存映射缓冲区）
+     * @param result 输出：瓦片 [大小: >= 1]
+     * @return 状态标志 (参见: Status)
+     */
+    public static int readTile(ByteBuffer data, MeshTile[] result) {
+        if (data == null || result == null || result.length == 0) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        if (data.remaining() < HEADER_SIZE) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        
+        int base = data.position();
+        ByteBuffer b = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        
+        // 头部
+        int[] hdr = new int[HEADER_INTS];
+        view(b, base).asIntBuffer().get(hdr);
+        if (hdr[0] != DT_NAVMESH_MAGIC) {
+            return Status.DT_FAILURE.getValue() | Status.DT_WRONG_MAGIC.getValue();
+        }
+        if (hdr[1] != DT_NAVMESH_VERSION) {
+            return Status.DT_FAILURE.getValue() | Status.DT_WRONG_VERSION.getValue();
+        }
+        // 瓦片坐标和层可以为负数，其余计数不能为负数
+        for (int i = 5; i < HEADER_INTS; i++) {
+            if (hdr[i] < 0) {
+                return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+            }
+        }
+        
+        MeshHeader h = new MeshHeader();
+        h.version = hdr[1];
+        h.x = hdr[2];
+        h.y = hdr[3];
+        h.layer = hdr[4];
+        h.polyCount = hdr[5];
+        h.vertCount = hdr[6];
+        h.maxLinkCount = hdr[7];
+        h.detailMeshCount = hdr[8];
+        h.detailVertCount = hdr[9];
+        h.detailTriCount = hdr[10];
+        h.bvNodeCount = hdr[11];
+        h.offMeshConCount = hdr[12];
+        h.offMeshBase = hdr[13];
+        h.offMeshSegConCount = hdr[14];
+        h.offMeshSegPolyBase = hdr[15];
+        h.offMeshSegVertBase = hdr[16];
+        h.clusterCount = hdr[17];
+        h.resolution = hdr[18];
+        int detailTriBytes = hdr[19];
+        int polyClusterCount = hdr[20];
+        int vertStorage = hdr[21];
+        int dataSize = hdr[22];
+        for (int i = 0; i < 3; i++) {
+            h.bmin[i] = b.getDouble(base + HEADER_BOUNDS + i * 8);
+            h.bmax[i] = b.getDouble(base + HEADER_BOUNDS + 24 + i * 8);
+        }
+        boolean isFloat = vertStorage == VertStorage.DT_VERTS_FLOAT.getValue();
+        boolean isQuantized = vertStorage == VertStorage.DT_VERTS_QUANTIZED.getValue();
+        if (!isFloat && !isQuantized && vertStorage != VertStorage.DT_VERTS_DOUBLE.getValue()) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        
+        // 头部计数决定的大小必须与记录的大小一致，并且数据完整
+        Layout layout = new Layout(h, vertStorage, detailTriBytes, polyClusterCount);
+        if (layout.size != dataSize || data.remaining() < dataSize) {
+            return Status.DT_FAILURE.getValue() | Status.DT_INVALID_PARAM.getValue();
+        }
+        
+        MeshTile tile = new MeshTile();
+        tile.header = h;
+        
+        // 顶点
+        if (isFloat) {
+            tile.vertsF = new float[h.vertCount * 3];
+            view(b, base + layout.verts).asFloatBuffer().get(tile.vertsF);
+        } else if (isQuantized) {
+            tile.quantOrig = new float[3];
+            tile.quantScale = new float[3];
+            for (int i = 0; i < 3; i++) {
+                tile.quantOrig[i] = b.getFloat(base + HEADER_QUANT + i * 4);
+                tile.quantScale[i] = b.getFloat(base + HEADER_QUANT + 12 + i * 4);
+            }
+            tile.vertsQ = new short[h.vertCount * 3];
+            view(b, base + layout.verts).asShortBuffer().get(tile.vertsQ);
+        } else {
+            tile.verts = new double[h.vertCount * 3];
+            view(b, base + layout.verts).asDoubleBuffer().get(tile.verts);
+        }
+        
+        // 多边形
+        tile.polyVerts = new short[h.polyCount * DT_VERTS_PER_POLYGON];
+        tile.polyNeis = new short[h.polyCount * DT_VERTS_PER_POLYGON];
+        view(b, base + layout.polyVerts).asShortBuffer().get(tile.polyVerts);
+        view(b, base + layout.polyNeis).asShortBuffer().get(tile.polyNeis);
+        int[] polyData = new int[h.polyCount * POLY_INTS];
+        view(b, base + layout.polys).asIntBuffer().get(polyData);
+        tile.polys = new Poly[h.polyCount];
+        for (int i = 0; i < h.polyCount; i++) {
+            Poly p = new Poly();
+            int o = i * POLY_INTS;
+            p.index = i;
+            p.firstLink = polyData[o] & 0xffffffffL;
+            p.flags = polyData[o + 1];
+            p.vertCount = polyData[o + 2];
+            p.areaAndtype = polyData[o + 3];
+            p.area = polyData[o + 4];
+            tile.polys[i] = p;
+        }
+        
+        // 链接
+        int maxLinkCount = h.maxLinkCount;
+        tile.linkRefs = new long[maxLinkCount];
+        tile.linkNext = new int[maxLinkCount];
+        tile.linkEdge = new byte[maxLinkCount];
+        tile.linkSide = new byte[maxLinkCount];
+        tile.linkBmin = new byte[maxLinkCount];
+        tile.linkBmax = new byte[maxLinkCount];
+        view(b, base + layout.linkRefs).asLongBuffer().get(tile.linkRefs);
+        view(b, base + layout.linkNext).asIntBuffer().get(tile.linkNext);
+        ByteBuffer lb = view(b, base + layout.linkBytes);
+        lb.get(tile.linkEdge);
+        lb.get(tile.linkSide);
+        lb.get(tile.linkBmin);
+        lb.get(tile.linkBmax);
+        
+        // 详细网格
+        int[] detailData = new int[h.detailMeshCount * DETAIL_MESH_INTS];
+        view(b, base + layout.detailMeshes).asIntBuffer().get(detailData);
+        tile.detailMeshes = new PolyDetail[h.detailMeshCount];
+        for (int i = 0; i < h.detailMeshCount; i++) {
+            PolyDetail d = new PolyDetail();
+            int o = i * DETAIL_MESH_INTS;
+            d.vertBase = detailData[o];
+            d.triBase = detailData[o + 1];
+            d.vertCount = detailData[o + 2];
+            d.triCount = detailData[o + 3];
+            tile.detailMeshes[i] = d;
+        }
+        if (isFloat) {
+            tile.detailVertsF = new float[h.detailVertCount * 3];
+            view(b, base + layout.detailVerts).asFloatBuffer().get(tile.detailVertsF);
+        } else if (isQuantized) {
+            tile.detailVertsQ = new short[h.detailVertCount * 3];
+            view(b, base + layout.detailVerts).asShortBuffer().get(tile.detailVertsQ);
+        } else {
+            tile.detailVerts = new double[h.detailVertCount * 3];
+            view(b, base + layout.detailVerts).asDoubleBuffer().get(tile.detailVerts);
+        }
+        tile.detailTris = new byte[detailTriBytes];
+        view(b, base + layout.detailTris).get(tile.detailTris);
+        
+        // BV树
+        tile.bvBounds = new short[h.bvNodeCount * 6];
+        tile.bvIndex = new int[h.bvNodeCount];
+        view(b, base + layout.bvBounds).asShortBuffer().get(tile.bvBounds);
+        view(b, base + layout.bvIndex).asIntBuffer().get(tile.bvIndex);
+        
+        // 离网连接
+        tile.offMeshCons = new OffMeshConnection[h.offMeshConCount];
+        for (int i = 0; i < h.offMeshConCount; i++) {
+            OffMeshConnection con = new OffMeshConnection();
+            int o = base + layout.offMeshCons + i * OFFMESH_CON_SIZE;
+            for (int j = 0; j < 6; j++) {
+                con.pos[j] = b.getDouble(o + j * 8);
+            }
+            con.rad = b.getDouble(o + 48);
+            con.height = b.getDouble(o + 56);
+            con.userId = b.getLong(o + 64);
+            con.poly = b.getInt(o + 72);
+            con.side = b.getInt(o + 76);
+            con.flags = b.getInt(o + 80);
+            tile.offMeshCons[i] = con;
+        }
+        tile.offMeshSeg = new OffMeshSegmentConnection[h.offMeshSegConCount];
+        for (int i = 0; i < h.offMeshSegConCount; i++) {
+            OffMeshSegmentConnection seg = new OffMeshSegmentConnection();
+            int o = base + layout.offMeshSeg + i * OFFMESH_SEG_SIZE;
+            for (int j = 0; j < 3; j++) {
+                seg.startA[j] = b.getDouble(o + j * 8);
+                seg.endA[j] = b.getDouble(o + 24 + j * 8);
+                seg.startB[j] = b.getDouble(o + 48 + j * 8);
+                seg.endB[j] = b.getDouble(o + 72 + j * 8);
+            }
+            seg.rad = b.getDouble(o + 96);
+            seg.userId = b.getLong(o + 104);
+            seg.firstPoly = b.getInt(o + 112);
+            seg.npolys = b.getInt(o + 116);
+            seg.flags = b.getInt(o + 120);
+            tile.offMeshSeg[i] = seg;
+        }
+        
+        // 集群
+        tile.clusters = new Cluster[h.clusterCount];
+        for (int i = 0; i < h.clusterCount; i++) {
+            Cluster c = new Cluster();
+            int o = base + layout.clusters + i * CLUSTER_SIZE;
+            for (int j = 0; j < 3; j++) {
+                c.center[j] = b.getDouble(o + j * 8);
+            }
+            c.firstLink = b.getLong(o + 24);
+            c.numLinks = b.getLong(o + 32);
+            tile.clusters[i] = c;
+        }
+        tile.polyClusters = new int[polyClusterCount];
+        view(b, base + layout.polyClusters).asIntBuffer().get(tile.polyClusters);
+        
+        tile.dataSize = dataSize;
+        ((Buffer) data).position(base + dataSize);
+        result[0] = tile;
+        return Status.DT_SUCCESS.getValue();
+    }
+    
+    /**
+     * 读取数据块头部记录的大小，不解析数据段
+     * @param data 输入缓冲区，位置指向数据块开头
+     * @return 数据块字节数，如果不是有效的瓦片数据块则返回-1
+     */
+    public static int peekTileDataSize(ByteBuffer data) {
+        if (data == null || data.remaining() < HEADER_SIZE) {
+            return -1;
+        }
+        IntBuffer hdr = view(data.duplicate(), data.position()).asIntBuffer();
+        if (hdr.get(0) != DT_NAVMESH_MAGIC || hdr.get(1) != DT_NAVMESH_VERSION) {
+            return -1;
+        }
+        return hdr.get(HEADER_INTS - 1);
+    }
+    
+    /**
+     * 计算瓦片的数据段偏移
+     * @param tile 瓦片
+     * @return 数据段偏移
+     */
+    private static Layout layoutOf(MeshTile tile) {
+        return new Layout(tile.header, tile.getVertStorage(),
+                          tile.detailTris != null ? tile.detailTris.length : 0,
+                          tile.polyClusters != null ? tile.polyClusters.length : 0);
+    }
+    
+    /**
+     * 创建从指定偏移开始的小端字节序视图
+     * @param b 缓冲区
+     * @param offset 绝对偏移
+     * @return 视图缓冲区
+     */
+    private static ByteBuffer view(ByteBuffer b, int offset) {
+        ByteBuffer dup = b.duplicate();
+        ((Buffer) dup).position(offset);
+        return dup.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,445 @@
+package odin.detour.io;
+
+import odin.detour.core.DetourNavMesh;
+import odin.detour.core.DetourNavMesh.MeshTile;
+import odin.detour.core.DetourNavMesh.NavMeshParams;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static odin.detour.config.DetourEnums.*;
+
+/**
+ * 导航网格瓦片流式加载器
+ *
+ * 根据兴趣点（例如玩家位置）从{@link DetourNavMeshArchive}中加载周围的瓦片，并移除远离所有兴趣点的瓦片。
+ * 瓦片数据块在后台线程上解码，解码完成的瓦片在拥有导航网格的线程调用{@link #update()}时
+ * 分批加入导航网格，每次更新加入和移除的瓦片数量受{@link #setMaxCommitsPerTick(int)}限制，
+ * 因此流式加载不会阻塞同一线程上的查询。
+ *
+ * 待加载的瓦片按到最近兴趣点的距离排序，近处的瓦片先提交解码。
+ * 卸载半径大于加载半径，兴趣点在瓦片边界附近移动时瓦片不会被反复加载和卸载。
+ * 加载器只移除自己加入的瓦片，已由其他途径加入导航网格的瓦片不受影响。
+ *
+ * 除后台解码任务外，所有方法都必须在拥有导航网格的线程上调用。
+ *
+ * @author UE5NavMesh4J
+ */
+public class DetourTileStreamer {
+    
+    /** 瓦片状态：未加载 */
+    private static final byte TILE_IDLE = 0;
+    
+    /** 瓦片状态：本次更新的加载候选 */
+    private static final byte TILE_CANDIDATE = 1;
+    
+    /** 瓦片状态：正在后台解码 */
+    private static final byte TILE_DECODING = 2;
+    
+    /** 瓦片状态：已加入导航网格 */
+    private static final byte TILE_LOADED = 3;
+    
+    /** 同一位置最多处理的层数 */
+    private static final int MAX_LAYERS = 32;
+    
+    /** 后台解码的结果 */
+    private static class DecodeResult {
+        /** 瓦片在存档中的索引 */
+        final int index;
+        /** 解码的瓦片 */
+        final MeshTile tile;
+        /** 解码状态 */
+        final int status;
+        
+        DecodeResult(int index, MeshTile tile, int status) {
+            this.index = index;
+            this.tile = tile;
+            this.status = status;
+        }
+    }
+    
+    /** 导航网格 */
+    private final DetourNavMesh navMesh;
+    
+    /** 瓦片存档 */
+    private final DetourNavMeshArchive archive;
+    
+    /** 执行解码任务的线程池 */
+    private final Executor executor;
+    
+    /** 存档的导航网格参数 */
+    private final NavMeshParams params;
+    
+    /** 后台解码完成、等待提交的瓦片 */
+    private final ConcurrentLinkedQueue<DecodeResult> completed = new ConcurrentLinkedQueue<>();
+    
+    /** 瓦片状态 [大小: tileCount] */
+    private final byte[] tileStates;
+    
+    /** 已加入导航网格的瓦片引用 [大小: tileCount] */
+    private final long[] tileRefs;
+    
+    /** 已加入导航网格的瓦片索引 [大小: tileCount] */
+    private final int[] loaded;
+    
+    /** 瓦片在loaded中的位置 [大小: tileCount] */
+    private final int[] loadedPos;
+    
+    /** 已加入导航网格的瓦片数量 */
+    private int loadedCount;
+    
+    /** 兴趣点坐标 (x, y, z) */
+    private float[] points = new float[3 * 4];
+    
+    /** 兴趣点数量 */
+    private int pointCount;
+    
+    /** 加载半径 */
+    private float loadRadius;
+    
+    /** 卸载半径 */
+    private float unloadRadius;
+    
+    /** 每次更新最多加入和移除的瓦片数量 */
+    private int maxCommitsPerTick = 4;
+    
+    /** 同时在后台解码的最大瓦片数量 */
+    private int maxDecoding = 8;
+    
+    /** 正在后台解码的瓦片数量 */
+    private int decodingCount;
+    
+    /** 加载候选，高32位为距离的位模式，低32位为瓦片索引 */
+    private long[] candidates = new long[64];
+    
+    /** 同一位置的瓦片索引 */
+    private final int[] layerIndices = new int[MAX_LAYERS];
+    
+    // 统计
+    private long loads;
+    private long unloads;
+    private long discarded;
+    
+    /**
+     * 构造函数
+     * @param navMesh 导航网格
+     * @param archive 瓦片存档
+     * @param executor 执行解码任务的线程池
+     * @param loadRadius 加载半径
+     * @param unloadRadius 卸载半径，小于加载半径时使用加载半径
+     */
+    public DetourTileStreamer(DetourNavMesh navMesh, DetourNavMeshArchive archive, Executor executor,
+                              float loadRadius, float unloadRadius) {
+        this.navMesh = navMesh;
+        this.archive = archive;
+        this.executor = executor;
+        this.params = archive.getParams();
+        int tileCount = archive.getTileCount();
+        this.tileStates = new byte[tileCount];
+        this.tileRefs = new long[tileCount];
+        this.loaded = new int[tileCount];
+        this.loadedPos = new int[tileCount];
+        setRadius(loadRadius, unloadRadius);
+    }
+    
+    /**
+     * 设置加载和卸载半径
+     * @param loadRadius 加载半径
+     * @param unloadRadius 卸载半径，小于加载半径时使用加载半径
+     */
+    public void setRadius(float loadRadius, float unloadRadius) {
+        this.loadRadius = Math.max(0.0f, loadRadius);
+        this.unloadRadius = Math.max(this.loadRadius, unloadRadius);
+    }
+    
+    /**
+     * 设置每次更新最多加入和移除的瓦片数量
+     * @param maxCommitsPerTick 最大数量，至少为1
+     */
+    public void setMaxCommitsPerTick(int maxCommitsPerTick) {
+        this.maxCommitsPerTick = Math.max(1, maxCommitsPerTick);
+    }
+    
+    /**
+     * 设置同时在后台解码的最大瓦片数量
+     * @param maxDecoding 最大数量，至少为1
+     */
+    public void setMaxDecoding(int maxDecoding) {
+        this.maxDecoding = Math.max(1, maxDecoding);
+    }
+    
+    /**
+     * 清除所有兴趣点
+     */
+    public void clearInterestPoints() {
+        pointCount = 0;
+    }
+    
+    /**
+     * 添加兴趣点，每次更新前重新设置所有兴趣点
+     * @param pos 兴趣点位置
+     */
+    public void addInterestPoint(float[] pos) {
+        if (pointCount * 3 + 3 > points.length) {
+            points = Arrays.copyOf(points, points.length * 2);
+        }
+        points[pointCount * 3] = pos[0];
+        points[pointCount * 3 + 1] = pos[1];
+        points[pointCount * 3 + 2] = pos[2];
+        pointCount++;
+    }
+    
+    /**
+     * 更新流式加载，在拥有导航网格的线程上每帧调用
+     *
+     * 依次提交解码完成的瓦片、移除超出卸载半径的瓦片，再按距离提交新的解码任务。
+     * 不再需要的解码结果被丢弃，不占用提交数量。
+     *
+     * @return 本次加入和移除的瓦片数量
+     * @throws IOException 映射瓦片数据失败
+     */
+    public int update() throws IOException {
+        int budget = maxCommitsPerTick;
+        
+        // 提交解码完成的瓦片
+        DecodeResult result;
+        while (budget > 0 && (result = completed.poll()) != null) {
+            decodingCount--;
+            if (commitTile(result)) {
+                budget--;
+            }
+        }
+        
+        // 移除远离所有兴趣点的瓦片
+        for (int i = loadedCount - 1; i >= 0 && budget > 0; i--) {
+            int index = loaded[i];
+            if (calcTileDist(index) > unloadRadius) {
+                unloadTile(index);
+                budget--;
+            }
+        }
+        
+        scheduleDecodes();
+        
+        return maxCommitsPerTick - budget;
+    }
+    
+    /**
+     * 移除加载器加入的所有瓦片并清除兴趣点
+     *
+     * 正在解码的瓦片在之后的更新中被丢弃。
+     *
+     * @return 移除的瓦片数量
+     */
+    public int unloadAll() {
+        int n = loadedCount;
+        while (loadedCount > 0) {
+            unloadTile(loaded[loadedCount - 1]);
+        }
+        pointCount = 0;
+        return n;
+    }
+    
+    /**
+     * 检查瓦片是否由加载器加入了导航网格
+     * @param i 瓦片在存档中的索引
+     * @return true如果已加入
+     */
+    public boolean isTileLoaded(int i) {
+        return tileStates[i] == TILE_LOADED;
+    }
+    
+    /**
+     * 获取加载器加入导航网格的瓦片数量
+     * @return 瓦片数量
+     */
+    public int getLoadedCount() {
+        return loadedCount;
+    }
+    
+    /**
+     * 获取正在后台解码的瓦片数量
+     * @return 瓦片数量
+     */
+    public int getDecodingCount() {
+        return decodingCount;
+    }
+    
+    /**
+     * 获取加入导航网格的瓦片总数
+     * @return 加载次数
+     */
+    public long getLoads() {
+        return loads;
+    }
+    
+    /**
+     * 获取移除的瓦片总数
+     * @return 卸载次数
+     */
+    public long getUnloads() {
+        return unloads;
+    }
+    
+    /**
+     * 获取解码完成但不再需要或解码失败而被丢弃的瓦片数量
+     * @return 丢弃次数
+     */
+    public long getDiscarded() {
+        return discarded;
+    }
+    
+    /**
+     * 将解码完成的瓦片加入导航网格
+     * @param result 解码结果
+     * @return true如果瓦片加入了导航网格
+     */
+    private boolean commitTile(DecodeResult result) {
+        int index = result.index;
+        tileStates[index] = TILE_IDLE;
+        if (Status.dtStatusFailed(result.status) || calcTileDist(index) > unloadRadius) {
+            discarded++;
+            return false;
+        }
+        long[] ref = new long[1];
+        if (Status.dtStatusFailed(navMesh.addTile(result.tile, ref))) {
+            discarded++;
+            return false;
+        }
+        tileStates[index] = TILE_LOADED;
+        tileRefs[index] = ref[0];
+        loadedPos[index] = loadedCount;
+        loaded[loadedCount++] = index;
+        loads++;
+        return true;
+    }
+    
+    /**
+     * 从导航网格中移除瓦片
+     * @param index 瓦片在存档中的索引
+     */
+    private void unloadTile(int index) {
+        navMesh.removeTile(tileRefs[index], null);
+        tileStates[index] = TILE_IDLE;
+        tileRefs[index] = 0;
+        
+        int pos = loadedPos[index];
+        int last = loaded[--loadedCount];
+        loaded[pos] = last;
+        loadedPos[last] = pos;
+        unloads++;
+    }
+    
+    /**
+     * 收集加载半径内未加载的瓦片，按距离从近到远提交解码任务
+     * @throws IOException 映射瓦片数据失败
+     */
+    private void scheduleDecodes() throws IOException {
+        if (decodingCount >= maxDecoding || pointCount == 0) {
+            return;
+        }
+        
+        int n = 0;
+        int[] tx = new int[1];
+        int[] ty = new int[1];
+        float[] p = new float[3];
+        for (int ip = 0; ip < pointCount; ip++) {
+            p[0] = points[ip * 3] - loadRadius;
+            p[2] = points[ip * 3 + 2] - loadRadius;
+            navMesh.calcTileLoc(p, tx, ty);
+            int minx = tx[0];
+            int miny = ty[0];
+            p[0] = points[ip * 3] + loadRadius;
+            p[2] = points[ip * 3 + 2] + loadRadius;
+            navMesh.calcTileLoc(p, tx, ty);
+            int maxx = tx[0];
+            int maxy = ty[0];
+            
+            for (int y = miny; y <= maxy; y++) {
+                for (int x = minx; x <= maxx; x++) {
+                    int nl = archive.getTilesAt(x, y, layerIndices, MAX_LAYERS);
+                    for (int j = 0; j < nl; j++) {
+                        int index = layerIndices[j];
+                        if (tileStates[index] != TILE_IDLE ||
+                            navMesh.getTileRefAt(x, y, archive.getTileLayer(index)) != 0) {
+                            continue;
+                        }
+                        float dist = calcTileDist(index);
+                        if (dist > loadRadius) {
+                            continue;
+                        }
+                        if (n == candidates.length) {
+                            candidates = Arrays.copyOf(candidates, n * 2);
+                        }
+                        // 非负浮点数的位模式与数值顺序一致
+                        candidates[n++] = ((long) Float.floatToIntBits(dist) << 32) | index;
+                        tileStates[index] = TILE_CANDIDATE;
+                    }
+                }
+            }
+        }
+        
+        Arrays.sort(candidates, 0, n);
+        for (int i = 0; i < n; i++) {
+            int index = (int) candidates[i];
+            tileStates[index] = TILE_IDLE;
+            if (decodingCount < maxDecoding) {
+                submitDecode(index);
+            }
+        }
+    }
+    
+    /**
+     * 提交后台解码任务
+     * @param index 瓦片在存档中的索引
+     * @throws IOException 映射瓦片数据失败
+     */
+    private void submitDecode(final int index) throws IOException {
+        final ByteBuffer data = archive.getTileData(index);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    MeshTile[] tile = new MeshTile[1];
+                    int status;
+                    try {
+                        status = DetourTileSerializer.readTile(data, tile);
+                    } catch (RuntimeException e) {
+                        status = Status.DT_FAILURE.getValue();
+                    }
+                    completed.add(new DecodeResult(index, tile[0], status));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return;
+        }
+        tileStates[index] = TILE_DECODING;
+        decodingCount++;
+    }
+    
+    /**
+     * 计算瓦片在xz平面上到最近兴趣点的距离
+     * @param index 瓦片在存档中的索引
+     * @return 距离，没有兴趣点时返回Float.MAX_VALUE
+     */
+    private float calcTileDist(int index) {
+        float minx = (float) (params.orig[0] + archive.getTileX(index) * params.tileWidth);
+        float minz = (float) (params.orig[2] + archive.getTileY(index) * params.tileHeight);
+        float maxx = minx + (float) params.tileWidth;
+        float maxz = minz + (float) params.tileHeight;
+        
+        float best = Float.MAX_VALUE;
+        for (int i = 0; i < pointCount; i++) {
+            float px = points[i * 3];
+            float pz = points[i * 3 + 2];
+            float dx = Math.max(0.0f, Math.max(minx - px, px - maxx));
+            float dz = Math.max(0.0f, Math.max(minz - pz, pz - maxz));
+            best = Math.min(best, dx * dx + dz * dz);
+        }
+        return best == Float.MAX_VALUE ? best : (float) Math.sqrt(best);
+    }
+}
\ No newline at end of file
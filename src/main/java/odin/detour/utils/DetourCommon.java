@@ -594,4 +594,87 @@ public final class DetourCommon {
     public static int dtAlign(int x) {
         return (x + 3) & ~3;
     }
-} 
\ No newline at end of file
+    
+    /**
+     * 计算点到线段在xz平面上距离的平方
+     * @param pt 要测试的点 [(x, y, z)]
+     * @param p 线段起点 [(x, y, z)]
+     * @param q 线段终点 [(x, y, z)]
+     * @param t 输出：最近点在线段上的参数位置 [可选]
+     * @return xz平面上距离的平方
+     */
+    public static float dtDistancePtSegSqr2D(float[] pt, float[] p, float[] q, float[] t) {
+        float pqx = q[0] - p[0];
+        float pqz = q[2] - p[2];
+        float dx = pt[0] - p[0];
+        float dz = pt[2] - p[2];
+        float d = pqx * pqx + pqz * pqz;
+        float s = pqx * dx + pqz * dz;
+        if (d > 0) {
+            s /= d;
+        }
+        if (s < 0) {
+            s = 0;
+        } else if (s > 1) {
+            s = 1;
+        }
+        if (t != null) {
+            t[0] = s;
+        }
+        dx = p[0] + s * pqx - pt[0];
+        dz = p[2] + s * pqz - pt[2];
+        return dx * dx + dz * dz;
+    }
+    
+    /**
+     * 在凸多边形内按面积均匀地生成随机点
+     * @param pts 多边形顶点 [(x, y, z) * npts]
+     * @param npts 顶点数量
+     * @param areas 临时缓冲区 [大小: >= npts]
+     * @param s 用于选择三角形的随机数 [0, 1)
+     * @param t 用于选择三角形内位置的随机数 [0, 1)
+     * @param out 输出随机点 [(x, y, z)]
+     */
+    public static void dtRandomPointInConvexPoly(float[] pts, int npts, float[] areas,
+                                                 float s, float t, float[] out) {
+        // 计算三角扇的面积
+        float areasum = 0.0f;
+        for (int i = 2; i < npts; i++) {
+            int a = 0;
+            int b = (i - 1) * 3;
+            int c = i * 3;
+            float abx = pts[b] - pts[a];
+            float abz = pts[b + 2] - pts[a + 2];
+            float acx = pts[c] - pts[a];
+            float acz = pts[c + 2] - pts[a + 2];
+            areas[i] = Math.max(0.001f, Math.abs(acx * abz - abx * acz));
+            areasum += areas[i];
+        }
+        
+        // 按面积选择三角形
+        float thr = s * areasum;
+        float acc = 0.0f;
+        float u = 1.0f;
+        int tri = npts - 1;
+        for (int i = 2; i < npts; i++) {
+            float dacc = areas[i];
+            if (thr >= acc && thr < (acc + dacc)) {
+                u = (thr - acc) / dacc;
+                tri = i;
+                break;
+            }
+            acc += dacc;
+        }
+        
+        // 在三角形内均匀采样
+        float v = (float) Math.sqrt(t);
+        float a = 1 - v;
+        float b = (1 - u) * v;
+        float c = u * v;
+        int pb = (tri - 1) * 3;
+        int pc = tri * 3;
+        out[0] = a * pts[0] + b * pts[pb] + c * pts[pc];
+        out[1] = a * pts[1] + b * pts[pb + 1] + c * pts[pc + 1];
+        out[2] = a * pts[2] + b * pts[pb + 2] + c * pts[pc + 2];
+    }
+}
\ No newline at end of file
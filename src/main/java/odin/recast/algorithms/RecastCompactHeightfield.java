@@ -4,11 +4,11 @@ import odin.recast.core.RecastHeightfield.Heightfield;
 import odin.recast.core.RecastHeightfield.CompactHeightfield;
 import odin.recast.core.RecastHeightfield.CompactCell;
 import odin.recast.core.RecastHeightfield.CompactSpan;
-import odin.recast.core.RecastSpan.Span;
 import odin.recast.config.RecastEnums.TimerLabel;
 
 import static odin.recast.utils.RecastMath.*;
 import static odin.recast.config.RecastConstants.*;
+import static odin.recast.core.RecastHeightfield.Heightfield.NULL_SPAN;
 import static odin.recast.algorithms.RecastUtils.*;
 
 /**
@@ -106,28 +106,29 @@ public final class RecastCompactHeightfield {
         int idx = 0;
         for (int y = 0; y < h; y++) {
             for (int x = 0; x < w; x++) {
-                Span s = hf.getSpan(x, y);
+                int s = hf.getSpan(x, y);
                 
                 // 如果此单元格没有span，保持数据为index=0, count=0
-                if (s == null) continue;
+                if (s == NULL_SPAN) continue;
                 
                 CompactCell c = chf.cells[x + y * w];
                 c.index = idx;
                 c.count = 0;
                 
-                while (s != null) {
-                    if (s.data.area != RC_NULL_AREA) {
-                        int bot = s.data.smax;
-                        int top = s.next != null ? s.next.data.smin : RC_SPAN_MAX_HEIGHT;
+                while (s != NULL_SPAN) {
+                    int ns = hf.next[s];
+                    if (hf.area[s] != RC_NULL_AREA) {
+                        int bot = hf.smax[s];
+                        int top = ns != NULL_SPAN ? hf.smin[ns] : RC_SPAN_MAX_HEIGHT;
                         
                         chf.spans[idx].y = rcClamp(bot, 0, 0xffff);
                         chf.spans[idx].h = rcClamp(top - bot, 0, 0xff);
-                        chf.areas[idx] = (byte)s.data.area;
+                        chf.areas[idx] = (byte)hf.area[s];
                         
                         idx++;
                         c.count++;
                     }
-                    s = s.next;
+                    s = ns;
                 }
             }
         }
@@ -274,7 +275,8 @@ public final class RecastCompactHeightfield {
         }
         
         // 计算距离字段
-        calculateDistanceField(chf);
+        int[] src = new int[chf.spanCount];
+        chf.maxDistance = calculateDistanceField(chf, src);
         
         if (ctx != null) {
             ctx.stopTimer(TimerLabel.RC_TIMER_BUILD_DISTANCEFIELD_DIST);
@@ -282,7 +284,7 @@ public final class RecastCompactHeightfield {
         }
         
         // 模糊距离字段
-        blurDistanceField(chf);
+        boxBlur(chf, 1, src, chf.dist);
         
         if (ctx != null) {
             ctx.stopTimer(TimerLabel.RC_TIMER_BUILD_DISTANCEFIELD_BLUR);
@@ -292,88 +294,222 @@ public final class RecastCompactHeightfield {
         return true;
     }
     
+    /**
+     * 按智能体半径腐蚀可行走区域
+     *
+     * 将距离不可行走区域或高度字段边缘小于radius个单元格的span标记为{@link odin.recast.config.RecastConstants#RC_NULL_AREA}，
+     * 使生成的多边形与墙壁保持智能体半径的距离。需要在构建距离字段和区域之前调用。
+     *
+     * @param ctx 构建上下文
+     * @param radius 腐蚀半径 [单位: 单元格]
+     * @param chf 紧凑高度字段
+     * @return true如果成功腐蚀
+     */
+    public static boolean erodeWalkableArea(RecastContext ctx, int radius, CompactHeightfield chf) {
+        if (ctx != null) {
+            ctx.startTimer(TimerLabel.RC_TIMER_ERODE_AREA);
+        }
+        
+        int w = chf.width;
+        int h = chf.height;
+        int[] dist = new int[chf.spanCount];
+        
+        // 不可行走的span和与不可行走区域相邻或缺少邻居的span距离为0
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                CompactCell c = chf.cells[x + y * w];
+                for (int i = c.index, ni = c.index + c.count; i < ni; i++) {
+                    if (chf.areas[i] == RC_NULL_AREA) {
+                        continue;
+                    }
+                    CompactSpan s = chf.spans[i];
+                    
+                    int nc = 0;
+                    for (int dir = 0; dir < 4; dir++) {
+                        if (getConnection(s, dir) != RC_NOT_CONNECTED) {
+                            int ai = chf.cells[(x + getDirOffsetX(dir)) + (y + getDirOffsetY(dir)) * w].index +
+                                     getConnection(s, dir);
+                            if (chf.areas[ai] != RC_NULL_AREA) {
+                                nc++;
+                            }
+                        }
+                    }
+                    if (nc == 4) {
+                        dist[i] = 0xffff;
+                    }
+                }
+            }
+        }
+        
+        propagateDistance(chf, dist);
+        
+        // 距离以半个单元格为单位
+        int thr = radius * 2;
+        for (int i = 0; i < chf.spanCount; i++) {
+            if (dist[i] < thr) {
+                chf.areas[i] = (byte) RC_NULL_AREA;
+            }
+        }
+        
+        if (ctx != null) {
+            ctx.stopTimer(TimerLabel.RC_TIMER_ERODE_AREA);
+        }
+        return true;
+    }
+    
     /**
      * 计算距离字段
+     *
+     * 与不同区域相邻或缺少邻居的span距离为0，其余span按两遍扫描的倒角距离传播
+     * （正交方向距离2，对角方向距离3）。
+     *
      * @param chf 紧凑高度字段
+     * @param src 输出距离 [大小: spanCount]
+     * @return 最大距离
      */
-    private static void calculateDistanceField(CompactHeightfield chf) {
+    private static int calculateDistanceField(CompactHeightfield chf, int[] src) {
         int w = chf.width;
         int h = chf.height;
         
         // 初始化距离
         for (int i = 0; i < chf.spanCount; i++) {
-            chf.dist[i] = 0xffff;
+            src[i] = 0xffff;
         }
         
-        // 标记边界距离为0
+        // 标记边界span
         for (int y = 0; y < h; y++) {
             for (int x = 0; x < w; x++) {
                 CompactCell c = chf.cells[x + y * w];
                 for (int i = c.index, ni = c.index + c.count; i < ni; i++) {
                     CompactSpan s = chf.spans[i];
-                    int area = chf.areas[i] & 0xFF;
+                    int area = chf.areas[i];
                     
-                    int neighborCount = 0;
+                    int nc = 0;
                     for (int dir = 0; dir < 4; dir++) {
                         if (getConnection(s, dir) != RC_NOT_CONNECTED) {
-                            neighborCount++;
+                            int ai = chf.cells[(x + getDirOffsetX(dir)) + (y + getDirOffsetY(dir)) * w].index +
+                                     getConnection(s, dir);
+                            if (area == chf.areas[ai]) {
+                                nc++;
+                            }
                         }
                     }
-                    
-                    if (neighborCount != 4) {
-                        chf.dist[i] = 0;
-                    } else if (area == RC_NULL_AREA) {
-                        chf.dist[i] = 0;
+                    if (nc != 4) {
+                        src[i] = 0;
                     }
                 }
             }
         }
         
-        // 传播距离
-        int[] queue = new int[chf.spanCount];
-        int queueHead = 0;
-        int queueTail = 0;
+        propagateDistance(chf, src);
         
-        // 将边界添加到队列
+        int maxDist = 0;
         for (int i = 0; i < chf.spanCount; i++) {
-            if (chf.dist[i] == 0) {
-                queue[queueTail++] = i;
-            }
+            maxDist = rcMax(src[i], maxDist);
         }
+        return maxDist;
+    }
+    
+    /**
+     * 从距离为0的span开始，用两遍扫描传播倒角距离
+     *
+     * 正交方向距离2，对角方向距离3。
+     *
+     * @param chf 紧凑高度字段
+     * @param src 距离，进入时边界span为0、其余为较大值 [大小: spanCount]
+     */
+    private static void propagateDistance(CompactHeightfield chf, int[] src) {
+        int w = chf.width;
+        int h = chf.height;
         
-        while (queueHead < queueTail) {
-            int idx = queue[queueHead++];
-            
-            // 找到这个span的坐标
-            int x = -1, y = -1;
-            for (int cy = 0; cy < h && y == -1; cy++) {
-                for (int cx = 0; cx < w && x == -1; cx++) {
-                    CompactCell c = chf.cells[cx + cy * w];
-                    if (idx >= c.index && idx < c.index + c.count) {
-                        x = cx;
-                        y = cy;
-                        break;
+        // 第一遍：(-1,0)、(-1,-1)、(0,-1)、(1,-1)
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                CompactCell c = chf.cells[x + y * w];
+                for (int i = c.index, ni = c.index + c.count; i < ni; i++) {
+                    CompactSpan s = chf.spans[i];
+                    
+                    if (getConnection(s, 0) != RC_NOT_CONNECTED) {
+                        int ax = x + getDirOffsetX(0);
+                        int ay = y + getDirOffsetY(0);
+                        int ai = chf.cells[ax + ay * w].index + getConnection(s, 0);
+                        CompactSpan as = chf.spans[ai];
+                        if (src[ai] + 2 < src[i]) {
+                            src[i] = src[ai] + 2;
+                        }
+                        
+                        if (getConnection(as, 3) != RC_NOT_CONNECTED) {
+                            int aai = chf.cells[(ax + getDirOffsetX(3)) + (ay + getDirOffsetY(3)) * w].index +
+                                      getConnection(as, 3);
+                            if (src[aai] + 3 < src[i]) {
+                                src[i] = src[aai] + 3;
+                            }
+                        }
+                    }
+                    
+                    if (getConnection(s, 3) != RC_NOT_CONNECTED) {
+                        int ax = x + getDirOffsetX(3);
+                        int ay = y + getDirOffsetY(3);
+                        int ai = chf.cells[ax + ay * w].index + getConnection(s, 3);
+                        CompactSpan as = chf.spans[ai];
+                        if (src[ai] + 2 < src[i]) {
+                            src[i] = src[ai] + 2;
+                        }
+                        
+                        if (getConnection(as, 2) != RC_NOT_CONNECTED) {
+                            int aai = chf.cells[(ax + getDirOffsetX(2)) + (ay + getDirOffsetY(2)) * w].index +
+                                      getConnection(as, 2);
+                            if (src[aai] + 3 < src[i]) {
+                                src[i] = src[aai] + 3;
+                            }
+                        }
                     }
                 }
             }
-            
-            if (x == -1 || y == -1) continue;
-            
-            CompactCell c = chf.cells[x + y * w];
-            int spanIndex = idx - c.index;
-            CompactSpan s = chf.spans[idx];
-            
-            for (int dir = 0; dir < 4; dir++) {
-                if (getConnection(s, dir) == RC_NOT_CONNECTED) continue;
-                
-                int nx = x + getDirOffsetX(dir);
-                int ny = y + getDirOffsetY(dir);
-                CompactCell nc = chf.cells[nx + ny * w];
-                int nni = nc.index + getConnection(s, dir);
-                
-                if (chf.dist[nni] > chf.dist[idx] + 2) {
-                    chf.dist[nni] = chf.dist[idx] + 2;
-                    queue[queueTail++] = nni;
+        }
+        
+        // 第二遍：(1,0)、(1,1)、(0,1)、(-1,1)
+        for (int y = h - 1; y >= 0; y--) {
+            for (int x = w - 1; x >= 0; x--) {
+                CompactCell c = chf.cells[x + y * w];
+                for (int i = c.index, ni = c.index + c.count; i < ni; i++) {
+                    CompactSpan s = chf.spans[i];
+                    
+                    if (getConnection(s, 2) != RC_NOT_CONNECTED) {
+                        int ax = x + getDirOffsetX(2);
+                        int ay = y + getDirOffsetY(2);
+                        int ai = chf.cells[ax + ay * w].index + getConnection(s, 2);
+                        CompactSpan as = chf.spans[ai];
+                        if (src[ai] + 2 < src[i]) {
+                            src[i] = src[ai] + 2;
+                        }
+                        
+                        if (getConnection(as, 1) != RC_NOT_CONNECTED) {
+                            int aai = chf.cells[(ax + getDirOffsetX(1)) + (ay + getDirOffsetY(1)) * w].index +
+                                      getConnection(as, 1);
+                            if (src[aai] + 3 < src[i]) {
+                                src[i] = src[aai] + 3;
+                            }
+                        }
+                    }
+                    
+                    if (getConnection(s, 1) != RC_NOT_CONNECTED) {
+                        int ax = x + getDirOffsetX(1);
+                        int ay = y + getDirOffsetY(1);
+                        int ai = chf.cells[ax + ay * w].index + getConnection(s, 1);
+                        CompactSpan as = chf.spans[ai];
+                        if (src[ai] + 2 < src[i]) {
+                            src[i] = src[ai] + 2;
+                        }
+                        
+                        if (getConnection(as, 0) != RC_NOT_CONNECTED) {
+                            int aai = chf.cells[(ax + getDirOffsetX(0)) + (ay + getDirOffsetY(0)) * w].index +
+                                      getConnection(as, 0);
+                            if (src[aai] + 3 < src[i]) {
+                                src[i] = src[aai] + 3;
+                            }
+                        }
+                    }
                 }
             }
         }
@@ -381,37 +517,53 @@ public final class RecastCompactHeightfield {
     
     /**
      * 模糊距离字段
+     *
+     * 对距离大于阈值的span取3x3邻域的平均值，缺少的邻居用中心值代替。
+     *
      * @param chf 紧凑高度字段
+     * @param thr 阈值，距离不大于2 * thr的span保持不变
+     * @param src 源距离
+     * @param dst 输出距离
      */
-    private static void blurDistanceField(CompactHeightfield chf) {
+    private static void boxBlur(CompactHeightfield chf, int thr, int[] src, int[] dst) {
         int w = chf.width;
         int h = chf.height;
         
-        int[] tmp = new int[chf.spanCount];
-        System.arraycopy(chf.dist, 0, tmp, 0, chf.spanCount);
+        thr *= 2;
         
         for (int y = 0; y < h; y++) {
             for (int x = 0; x < w; x++) {
                 CompactCell c = chf.cells[x + y * w];
                 for (int i = c.index, ni = c.index + c.count; i < ni; i++) {
                     CompactSpan s = chf.spans[i];
+                    int cd = src[i];
+                    if (cd <= thr) {
+                        dst[i] = cd;
+                        continue;
+                    }
                     
-                    int totalDist = tmp[i];
-                    int totalWeight = 1;
-                    
+                    int d = cd;
                     for (int dir = 0; dir < 4; dir++) {
-                        if (getConnection(s, dir) == RC_NOT_CONNECTED) continue;
-                        
-                        int nx = x + getDirOffsetX(dir);
-                        int ny = y + getDirOffsetY(dir);
-                        CompactCell nc = chf.cells[nx + ny * w];
-                        int nni = nc.index + getConnection(s, dir);
-                        
-                        totalDist += tmp[nni];
-                        totalWeight++;
+                        if (getConnection(s, dir) != RC_NOT_CONNECTED) {
+                            int ax = x + getDirOffsetX(dir);
+                            int ay = y + getDirOffsetY(dir);
+                            int ai = chf.cells[ax + ay * w].index + getConnection(s, dir);
+                            d += src[ai];
+                            
+                            CompactSpan as = chf.spans[ai];
+                            int dir2 = (dir + 1) & 0x3;
+                            if (getConnection(as, dir2) != RC_NOT_CONNECTED) {
+                                int ai2 = chf.cells[(ax + getDirOffsetX(dir2)) + (ay + getDirOffsetY(dir2)) * w].index +
+                                          getConnection(as, dir2);
+                                d += src[ai2];
+                            } else {
+                                d += cd;
+                            }
+                        } else {
+                            d += cd * 2;
+                        }
                     }
-                    
-                    chf.dist[i] = (totalDist + totalWeight / 2) / totalWeight;
+                    dst[i] = (d + 5) / 9;
                 }
             }
         }
@@ -5,6 +5,7 @@ import odin.recast.core.RecastHeightfield.CompactCell;
 import odin.recast.core.RecastHeightfield.CompactSpan;
 import odin.recast.core.RecastContour.Contour;
 import odin.recast.core.RecastContour.ContourSet;
+import odin.recast.config.RecastConfig.BorderSize;
 import odin.recast.config.RecastEnums.TimerLabel;
 import odin.recast.config.RecastEnums.ContourBuildFlags;
 
@@ -508,7 +509,18 @@ public final class RecastContour {
         
         int w = chf.width;
         int h = chf.height;
-        int borderSize = chf.borderSize != null ? chf.borderSize.low : 0;
+        BorderSize chfBorder = chf.borderSize != null ? chf.borderSize : new BorderSize();
+        int borderSize = chfBorder.low;
+        
+        // 输出不包含边界的区域
+        cset.setBounds(chf.bmin, chf.bmax, chf.cs, chf.ch);
+        if (chfBorder.low > 0 || chfBorder.high > 0) {
+            cset.bmin[0] += chfBorder.low * chf.cs;
+            cset.bmin[2] += chfBorder.low * chf.cs;
+            cset.bmax[0] -= chfBorder.high * chf.cs;
+            cset.bmax[2] -= chfBorder.high * chf.cs;
+        }
+        cset.setGridSize(w - chfBorder.low - chfBorder.high, h - chfBorder.low - chfBorder.high, chfBorder);
         
         try {
             // 分配标志数组
@@ -560,7 +572,11 @@ public final class RecastContour {
                 for (int x = 0; x < w; x++) {
                     CompactCell c = chf.cells[x + y * w];
                     for (int i = c.index, ni = c.index + c.count; i < ni; i++) {
-                        if (flags[i] == 0 || chf.spans[i].reg == 0 || (chf.spans[i].reg & RC_BORDER_REG) != 0) {
+                        if (flags[i] == 0 || flags[i] == 0xf) {
+                            flags[i] = 0;
+                            continue;
+                        }
+                        if (chf.spans[i].reg == 0 || (chf.spans[i].reg & RC_BORDER_REG) != 0) {
                             continue;
                         }
                         
@@ -578,11 +594,10 @@ public final class RecastContour {
                         // 存储轮廓
                         if (simplified.size() / 4 >= 3) {
                             Contour cont = new Contour();
-                            cont.verts = new int[simplified.size()];
-                            for (int j = 0; j < simplified.size(); j++) {
-                                cont.verts[j] = simplified.get(j);
-                            }
                             cont.nverts = simplified.size() / 4;
+                            cont.verts = toContourVerts(simplified, borderSize);
+                            cont.nrverts = points.size() / 4;
+                            cont.rverts = toContourVerts(points, borderSize);
                             cont.reg = reg;
                             cont.area = area;
                             contours.add(cont);
@@ -595,13 +610,44 @@ public final class RecastContour {
             cset.conts = contours.toArray(new Contour[0]);
             cset.nconts = contours.size();
             
-            if (borderSize > 0) {
-                // 如果网格在瓦片边界上，有些轮廓将沿着边界
-                // 移除这些边界顶点
-                for (int i = 0; i < cset.nconts; i++) {
-                    Contour cont = cset.conts[i];
-                    removeBorderVertices(cont, borderSize, w, h);
+            // 将洞合并到包含它的轮廓中
+            for (int i = 0; i < cset.nconts; i++) {
+                Contour cont = cset.conts[i];
+                // 面积为负的轮廓是洞
+                if (calcAreaOfPolygon2D(cont.verts, cont.nverts) >= 0) {
+                    continue;
+                }
+                int mergeIdx = -1;
+                for (int j = 0; j < cset.nconts; j++) {
+                    if (i == j) {
+                        continue;
+                    }
+                    Contour other = cset.conts[j];
+                    if (other.nverts > 0 && other.reg == cont.reg
+                        && calcAreaOfPolygon2D(other.verts, other.nverts) > 0) {
+                        mergeIdx = j;
+                        break;
+                    }
                 }
+                if (mergeIdx == -1) {
+                    if (ctx != null) {
+                        ctx.log(odin.recast.config.RecastEnums.LogCategory.RC_LOG_WARNING,
+                               "buildContours: 找不到洞所属的轮廓，区域 " + cont.reg);
+                    }
+                    continue;
+                }
+                Contour mcont = cset.conts[mergeIdx];
+                int[] ia = new int[1];
+                int[] ib = new int[1];
+                getClosestIndices(mcont.verts, mcont.nverts, cont.verts, cont.nverts, ia, ib);
+                if (ia[0] == -1 || ib[0] == -1) {
+                    if (ctx != null) {
+                        ctx.log(odin.recast.config.RecastEnums.LogCategory.RC_LOG_WARNING,
+                               "buildContours: 无法找到合并洞的连接点，区域 " + cont.reg);
+                    }
+                    continue;
+                }
+                mergeContours(mcont, cont, ia[0], ib[0]);
             }
             
             if (ctx != null) {
@@ -624,14 +670,113 @@ public final class RecastContour {
     }
     
     /**
-     * 移除边界顶点
-     * @param cont 轮廓
+     * 将点列表复制为轮廓顶点数组，并去掉边界偏移
+     * @param points 点列表 [(x, y, z, r) * n]
      * @param borderSize 边界大小
-     * @param w 宽度
-     * @param h 高度
+     * @return 顶点数组
+     */
+    private static int[] toContourVerts(List<Integer> points, int borderSize) {
+        int[] verts = new int[points.size()];
+        for (int j = 0; j < verts.length; j += 4) {
+            verts[j] = points.get(j) - borderSize;
+            verts[j + 1] = points.get(j + 1);
+            verts[j + 2] = points.get(j + 2) - borderSize;
+            verts[j + 3] = points.get(j + 3);
+        }
+        return verts;
+    }
+    
+    /**
+     * 计算轮廓在xz平面上的有向面积
+     * @param verts 轮廓顶点 [(x, y, z, r) * nverts]
+     * @param nverts 顶点数量
+     * @return 有向面积，洞为负
+     */
+    private static int calcAreaOfPolygon2D(int[] verts, int nverts) {
+        int area = 0;
+        for (int i = 0, j = nverts - 1; i < nverts; j = i++) {
+            int vi = i * 4;
+            int vj = j * 4;
+            area += verts[vi] * verts[vj + 2] - verts[vj] * verts[vi + 2];
+        }
+        return (area + 1) / 2;
+    }
+    
+    /**
+     * 检查点c是否在有向线段ab的左侧（含共线）
+     * @param va 顶点数组a
+     * @param a 点a的偏移
+     * @param vb 顶点数组b
+     * @param b 点b的偏移
+     * @param vc 顶点数组c
+     * @param c 点c的偏移
+     * @return true如果在左侧
+     */
+    private static boolean ileft(int[] va, int a, int[] vb, int b, int[] vc, int c) {
+        return (vb[b] - va[a]) * (vc[c + 2] - va[a + 2]) - (vc[c] - va[a]) * (vb[b + 2] - va[a + 2]) <= 0;
+    }
+    
+    /**
+     * 查找轮廓a与洞b之间距离最近且位于a的顶点锥内的一对顶点
+     * @param vertsa 轮廓a的顶点
+     * @param nvertsa 轮廓a的顶点数量
+     * @param vertsb 洞b的顶点
+     * @param nvertsb 洞b的顶点数量
+     * @param ia 输出：轮廓a中的顶点索引，找不到时为-1
+     * @param ib 输出：洞b中的顶点索引，找不到时为-1
+     */
+    private static void getClosestIndices(int[] vertsa, int nvertsa, int[] vertsb, int nvertsb,
+                                          int[] ia, int[] ib) {
+        int closestDist = 0xfffffff;
+        ia[0] = -1;
+        ib[0] = -1;
+        for (int i = 0; i < nvertsa; i++) {
+            int in = ((i + 1) % nvertsa) * 4;
+            int ip = ((i + nvertsa - 1) % nvertsa) * 4;
+            int va = i * 4;
+            for (int j = 0; j < nvertsb; j++) {
+                int vb = j * 4;
+                // vb必须在va的"前方"
+                if (ileft(vertsa, ip, vertsa, va, vertsb, vb) && ileft(vertsa, va, vertsa, in, vertsb, vb)) {
+                    int dx = vertsb[vb] - vertsa[va];
+                    int dz = vertsb[vb + 2] - vertsa[va + 2];
+                    int d = dx * dx + dz * dz;
+                    if (d < closestDist) {
+                        ia[0] = i;
+                        ib[0] = j;
+                        closestDist = d;
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * 通过连接顶点ia和ib将洞cb合并到轮廓ca中，合并后cb被清空
+     * @param ca 轮廓
+     * @param cb 洞
+     * @param ia 轮廓中的连接顶点
+     * @param ib 洞中的连接顶点
      */
-    private static void removeBorderVertices(Contour cont, int borderSize, int w, int h) {
-        // TODO: 实现边界顶点移除逻辑
+    private static void mergeContours(Contour ca, Contour cb, int ia, int ib) {
+        int[] verts = new int[(ca.nverts + cb.nverts + 2) * 4];
+        int nv = 0;
+        
+        // 复制轮廓a，连接顶点出现两次
+        for (int i = 0; i <= ca.nverts; i++) {
+            System.arraycopy(ca.verts, ((ia + i) % ca.nverts) * 4, verts, nv * 4, 4);
+            nv++;
+        }
+        // 复制洞b
+        for (int i = 0; i <= cb.nverts; i++) {
+            System.arraycopy(cb.verts, ((ib + i) % cb.nverts) * 4, verts, nv * 4, 4);
+            nv++;
+        }
+        
+        ca.verts = verts;
+        ca.nverts = nv;
+        cb.verts = null;
+        cb.nverts = 0;
     }
     
     /**
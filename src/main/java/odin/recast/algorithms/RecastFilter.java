@@ -1,13 +1,13 @@
 package odin.recast.algorithms;
 
 import odin.recast.core.RecastHeightfield.Heightfield;
-import odin.recast.core.RecastSpan.Span;
 import odin.recast.config.RecastEnums.TimerLabel;
 import odin.recast.config.RecastEnums.NeighborSlopeFilterMode;
 
 import static odin.recast.utils.RecastMath.*;
 import static odin.recast.config.RecastConstants.*;
 import static odin.recast.algorithms.RecastUtils.*;
+import static odin.recast.core.RecastHeightfield.Heightfield.NULL_SPAN;
 
 /**
  * Recast过滤算法
@@ -44,31 +44,32 @@ public final class RecastFilter {
         
         int w = solid.width;
         int h = solid.height;
+        int[] smax = solid.smax;
+        int[] area = solid.area;
+        int[] next = solid.next;
         
         for (int y = 0; y < h; y++) {
             for (int x = 0; x < w; x++) {
-                Span ps = null;
+                int ps = NULL_SPAN;
                 boolean previousWalkable = false;
                 int previousArea = RC_NULL_AREA;
                 
-                Span s = solid.getSpan(x, y);
-                while (s != null) {
-                    boolean walkable = s.data.area != RC_NULL_AREA;
+                for (int s = solid.getSpan(x, y); s != NULL_SPAN; s = next[s]) {
+                    boolean walkable = area[s] != RC_NULL_AREA;
                     
                     // 如果当前span不可行走，但下方有可行走的span，
                     // 并且高度差在可攀爬范围内，则标记为可行走
                     if (!walkable && previousWalkable) {
-                        if (rcAbs(s.data.smax - ps.data.smax) <= walkableClimb) {
-                            s.data.area = previousArea;
+                        if (rcAbs(smax[s] - smax[ps]) <= walkableClimb) {
+                            area[s] = previousArea;
                         }
                     }
                     
                     // 复制可行走标志，避免传播到多个不可行走对象之外
                     previousWalkable = walkable;
-                    previousArea = s.data.area;
+                    previousArea = area[s];
                     
                     ps = s;
-                    s = s.next;
                 }
             }
         }
@@ -102,27 +103,30 @@ public final class RecastFilter {
         int h = solid.height;
         int MAX_HEIGHT = RC_SPAN_MAX_HEIGHT;
         
+        int[] smin = solid.smin;
+        int[] smax = solid.smax;
+        int[] area = solid.area;
+        int[] next = solid.next;
+        
         int maxStepFor2CellsVx = (int)rcCeil(2 * maxStepFromWalkableSlope / ch);
         
         // 标记边界span
         for (int x = 0; x < w; x++) {
-            Span s = solid.getSpan(x, filterLedgeSpansAtY);
-            while (s != null) {
+            for (int s = solid.getSpan(x, filterLedgeSpansAtY); s != NULL_SPAN; s = next[s]) {
                 // 跳过不可行走的span
-                if (s.data.area == RC_NULL_AREA) {
-                    s = s.next;
+                if (area[s] == RC_NULL_AREA) {
                     continue;
                 }
                 
-                int bot = s.data.smax;
-                int top = s.next != null ? s.next.data.smin : MAX_HEIGHT;
+                int bot = smax[s];
+                int top = next[s] != NULL_SPAN ? smin[next[s]] : MAX_HEIGHT;
                 
                 // 寻找邻居的最小高度
                 int minh = MAX_HEIGHT;
                 
                 // 可访问邻居的最小和最大高度
-                int asmin = s.data.smax;
-                int asmax = s.data.smax;
+                int asmin = smax[s];
+                int asmax = smax[s];
                 
                 for (int dir = 0; dir < 4; dir++) {
                     int dx = x + getDirOffsetX(dir);
@@ -135,9 +139,9 @@ public final class RecastFilter {
                     }
                     
                     // 从负无穷到第一个span
-                    Span ns = solid.getSpan(dx, dy);
+                    int ns = solid.getSpan(dx, dy);
                     int nbot = -walkableClimb;
-                    int ntop = ns != null ? ns.data.smin : MAX_HEIGHT;
+                    int ntop = ns != NULL_SPAN ? smin[ns] : MAX_HEIGHT;
                     
                     // 如果span之间的间隙太小，跳过邻居
                     if (rcMin(top, ntop) - rcMax(bot, nbot) > walkableHeight) {
@@ -145,9 +149,9 @@ public final class RecastFilter {
                     }
                     
                     // 其余的span
-                    while (ns != null) {
-                        nbot = ns.data.smax;
-                        ntop = ns.next != null ? ns.next.data.smin : MAX_HEIGHT;
+                    for (; ns != NULL_SPAN; ns = next[ns]) {
+                        nbot = smax[ns];
+                        ntop = next[ns] != NULL_SPAN ? smin[next[ns]] : MAX_HEIGHT;
                         
                         // 如果span之间的间隙太小，跳过邻居
                         if (rcMin(top, ntop) - rcMax(bot, nbot) > walkableHeight) {
@@ -160,26 +164,23 @@ public final class RecastFilter {
                                 if (nbot > asmax) asmax = nbot;
                             }
                         }
-                        ns = ns.next;
                     }
                 }
                 
                 // 如果到任何邻居span的跌落小于walkableClimb，当前span接近边缘
                 if (minh < -walkableClimb) {
-                    s.data.area = RC_NULL_AREA;
+                    area[s] = RC_NULL_AREA;
                 }
                 // 如果所有邻居之间的差异太大，我们处于陡坡，标记span为边缘
                 else if (neighborSlopeFilterMode == NeighborSlopeFilterMode.RC_SLOPE_FILTER_RECAST && 
                          (asmax - asmin) > walkableClimb) {
-                    s.data.area = RC_NULL_AREA;
+                    area[s] = RC_NULL_AREA;
                 }
                 // 比较最小值和最大值之间的步高与2个span的均匀坡度的最大步高
                 else if (neighborSlopeFilterMode == NeighborSlopeFilterMode.RC_SLOPE_FILTER_USE_HEIGHT_FROM_WALKABLE_SLOPE && 
                          (asmax - asmin) > maxStepFor2CellsVx) {
-                    s.data.area = RC_NULL_AREA;
+                    area[s] = RC_NULL_AREA;
                 }
-                
-                s = s.next;
             }
         }
     }
@@ -283,20 +284,21 @@ public final class RecastFilter {
         int w = solid.width;
         int h = solid.height;
         int MAX_HEIGHT = RC_SPAN_MAX_HEIGHT;
+        int[] smin = solid.smin;
+        int[] smax = solid.smax;
+        int[] area = solid.area;
+        int[] next = solid.next;
         
         // 移除没有足够空间让代理站立的span的可行走标志
         for (int y = 0; y < h; y++) {
             for (int x = 0; x < w; x++) {
-                Span s = solid.getSpan(x, y);
-                while (s != null) {
-                    int bot = s.data.smax;
-                    int top = s.next != null ? s.next.data.smin : MAX_HEIGHT;
+                for (int s = solid.getSpan(x, y); s != NULL_SPAN; s = next[s]) {
+                    int bot = smax[s];
+                    int top = next[s] != NULL_SPAN ? smin[next[s]] : MAX_HEIGHT;
                     
                     if ((top - bot) < walkableHeight) {
-                        s.data.area = RC_NULL_AREA;
+                        area[s] = RC_NULL_AREA;
                     }
-                    
-                    s = s.next;
                 }
             }
         }
@@ -338,17 +340,17 @@ public final class RecastFilter {
             for (int x = 0; x < w; x++) {
                 // 构建紧凑span列表，需要从上到下迭代
                 int numSpans = 0;
-                Span s = solid.getSpan(x, y);
-                while (s != null && numSpans < MAX_SPANS) {
-                    int bot = s.data.smax;
-                    int top = s.next != null ? s.next.data.smin : RC_SPAN_MAX_HEIGHT;
+                int s = solid.getSpan(x, y);
+                while (s != NULL_SPAN && numSpans < MAX_SPANS) {
+                    int bot = solid.smax[s];
+                    int top = solid.next[s] != NULL_SPAN ? solid.smin[solid.next[s]] : RC_SPAN_MAX_HEIGHT;
                     
                     spanList[numSpans].y = rcClamp(bot, 0, RC_SPAN_MAX_HEIGHT);
                     spanList[numSpans].h = rcClamp(top - bot, 0, 0xff);
-                    spanList[numSpans].reg = s.data.area;
+                    spanList[numSpans].reg = solid.area[s];
                     
                     numSpans++;
-                    s = s.next;
+                    s = solid.next[s];
                 }
                 
                 int nextAllowedBase = RC_SPAN_MAX_HEIGHT;
@@ -367,10 +369,10 @@ public final class RecastFilter {
                 // 将结果写回span
                 int spanIdx = 0;
                 s = solid.getSpan(x, y);
-                while (s != null && spanIdx < MAX_SPANS) {
-                    s.data.area = spanList[spanIdx].reg;
+                while (s != NULL_SPAN && spanIdx < MAX_SPANS) {
+                    solid.area[s] = spanList[spanIdx].reg;
                     spanIdx++;
-                    s = s.next;
+                    s = solid.next[s];
                 }
             }
         }
@@ -404,23 +404,152 @@ public final class RecastMesh {
         return ntris;
     }
     
+    /**
+     * 检查点c是否严格在有向线段ab的左侧
+     * @param verts 顶点数组 [(x, y, z) * nverts]
+     * @param a 顶点a的索引
+     * @param b 顶点b的索引
+     * @param c 顶点c的索引
+     * @return true如果在左侧
+     */
+    private static boolean uleft(int[] verts, int a, int b, int c) {
+        int va = a * 3;
+        int vb = b * 3;
+        int vc = c * 3;
+        return (verts[vb] - verts[va]) * (verts[vc + 2] - verts[va + 2])
+             - (verts[vc] - verts[va]) * (verts[vb + 2] - verts[va + 2]) < 0;
+    }
+    
     /**
      * 计算多边形顶点数量
-     * @param p 多边形数组
+     * @param polys 多边形数组
+     * @param p 多边形的起始偏移
      * @param nvp 每个多边形的最大顶点数
      * @return 实际顶点数量
      */
-    private static int countPolyVerts(int[] p, int nvp) {
+    private static int countPolyVerts(int[] polys, int p, int nvp) {
         for (int i = 0; i < nvp; i++) {
-            if (p[i] == RC_MESH_NULL_IDX) {
+            if (polys[p + i] == RC_MESH_NULL_IDX) {
                 return i;
             }
         }
         return nvp;
     }
     
+    /**
+     * 计算合并两个多边形的价值
+     *
+     * 两个多边形必须共享一条边，合并后顶点数不超过nvp且仍为凸多边形。
+     *
+     * @param polys 多边形数组
+     * @param pa 多边形a的起始偏移
+     * @param pb 多边形b的起始偏移
+     * @param verts 顶点数组
+     * @param edges 输出：[多边形a中的共享边, 多边形b中的共享边]
+     * @param nvp 每个多边形的最大顶点数
+     * @return 共享边长度的平方，不能合并时返回-1
+     */
+    private static int getPolyMergeValue(int[] polys, int pa, int pb, int[] verts, int[] edges, int nvp) {
+        int na = countPolyVerts(polys, pa, nvp);
+        int nb = countPolyVerts(polys, pb, nvp);
+        
+        // 合并后的多边形过大则跳过
+        if (na + nb - 2 > nvp) {
+            return -1;
+        }
+        
+        // 检查多边形是否有共享边
+        int ea = -1;
+        int eb = -1;
+        for (int i = 0; i < na && ea == -1; i++) {
+            int va0 = polys[pa + i];
+            int va1 = polys[pa + (i + 1) % na];
+            if (va0 > va1) {
+                int tmp = va0;
+                va0 = va1;
+                va1 = tmp;
+            }
+            for (int j = 0; j < nb; j++) {
+                int vb0 = polys[pb + j];
+                int vb1 = polys[pb + (j + 1) % nb];
+                if (vb0 > vb1) {
+                    int tmp = vb0;
+                    vb0 = vb1;
+                    vb1 = tmp;
+                }
+                if (va0 == vb0 && va1 == vb1) {
+                    ea = i;
+                    eb = j;
+                    break;
+                }
+            }
+        }
+        
+        // 没有共享边
+        if (ea == -1 || eb == -1) {
+            return -1;
+        }
+        
+        // 检查合并后的多边形是否为凸多边形
+        int va = polys[pa + (ea + na - 1) % na];
+        int vb = polys[pa + ea];
+        int vc = polys[pb + (eb + 2) % nb];
+        if (!uleft(verts, va, vb, vc)) {
+            return -1;
+        }
+        
+        va = polys[pb + (eb + nb - 1) % nb];
+        vb = polys[pb + eb];
+        vc = polys[pa + (ea + 2) % na];
+        if (!uleft(verts, va, vb, vc)) {
+            return -1;
+        }
+        
+        va = polys[pa + ea];
+        vb = polys[pa + (ea + 1) % na];
+        int dx = verts[va * 3] - verts[vb * 3];
+        int dy = verts[va * 3 + 2] - verts[vb * 3 + 2];
+        
+        edges[0] = ea;
+        edges[1] = eb;
+        return dx * dx + dy * dy;
+    }
+    
+    /**
+     * 沿共享边合并两个多边形，结果写入多边形a
+     * @param polys 多边形数组
+     * @param pa 多边形a的起始偏移
+     * @param pb 多边形b的起始偏移
+     * @param ea 多边形a中的共享边
+     * @param eb 多边形b中的共享边
+     * @param tmp 临时数组 [nvp]
+     * @param nvp 每个多边形的最大顶点数
+     */
+    private static void mergePolys(int[] polys, int pa, int pb, int ea, int eb, int[] tmp, int nvp) {
+        int na = countPolyVerts(polys, pa, nvp);
+        int nb = countPolyVerts(polys, pb, nvp);
+        
+        Arrays.fill(tmp, RC_MESH_NULL_IDX);
+        int n = 0;
+        // 添加pa，从共享边之后开始
+        for (int i = 0; i < na - 1; i++) {
+            tmp[n++] = polys[pa + (ea + 1 + i) % na];
+        }
+        // 添加pb，从共享边之后开始
+        for (int i = 0; i < nb - 1; i++) {
+            tmp[n++] = polys[pb + (eb + 1 + i) % nb];
+        }
+        
+        System.arraycopy(tmp, 0, polys, pa, nvp);
+    }
+    
     /**
      * 构建多边形网格
+     *
+     * 逐个三角化轮廓，合并重复顶点后将三角形贪心合并为最多nvp个顶点的凸多边形，并构建邻接关系。
+     * 轮廓集带有边界时，位于瓦片边缘的开放边被标记为门户（0x8000 | 方向）。
+     * 网格顶点以体素为单位，相对于轮廓集（不含边界）的最小点。
+     *
      * @param ctx 构建上下文
      * @param cset 轮廓集
      * @param nvp 每个多边形的最大顶点数
@@ -433,6 +562,9 @@ public final class RecastMesh {
         }
         
         try {
+            mesh.setBounds(cset.bmin, cset.bmax, cset.cs, cset.ch);
+            mesh.setBorderSize(cset.borderSize != null ? cset.borderSize : new odin.recast.config.RecastConfig.BorderSize());
+            
             int maxVertices = 0;
             int maxTris = 0;
             int maxVertsPerCont = 0;
@@ -450,23 +582,29 @@ public final class RecastMesh {
                 if (ctx != null) {
                     ctx.log(odin.recast.config.RecastEnums.LogCategory.RC_LOG_ERROR, 
                            "buildPolyMesh: 顶点过多 %d (max: %d)", maxVertices, 0xfffe);
+                    ctx.stopTimer(TimerLabel.RC_TIMER_BUILD_POLYMESH);
                 }
                 return false;
             }
             
             int[] verts = new int[maxVertices * 3];
-            int[] polys = new int[maxTris * nvp];
+            int[] meshPolys = new int[maxTris * nvp * 2];
             int[] regs = new int[maxTris];
-            int[] areas = new int[maxTris];
-            
-            Arrays.fill(polys, RC_MESH_NULL_IDX);
+            byte[] areas = new byte[maxTris];
+            Arrays.fill(meshPolys, RC_MESH_NULL_IDX);
             
             int[] firstVert = new int[VERTEX_BUCKET_COUNT];
             Arrays.fill(firstVert, -1);
             int[] nextVert = new int[maxVertices];
             
+            int[] indices = new int[maxVertsPerCont];
+            int[] tris = new int[maxVertsPerCont * 3];
+            int[] polys = new int[(maxVertsPerCont + 1) * nvp];
+            int[] tmpPoly = new int[nvp];
+            int[] edges = new int[2];
+            
             IntRef nverts = new IntRef(0);
-            int npolys = 0;
+            int npolysTotal = 0;
             
             for (int i = 0; i < cset.nconts; i++) {
                 Contour cont = cset.conts[i];
@@ -476,98 +614,155 @@ public final class RecastMesh {
                 
                 // 三角化轮廓
                 for (int j = 0; j < cont.nverts; j++) {
-                    int[] v = {cont.verts[j * 4], cont.verts[j * 4 + 1], cont.verts[j * 4 + 2]};
-                    verts[nverts.value * 3] = v[0];
-                    verts[nverts.value * 3 + 1] = v[1];
-                    verts[nverts.value * 3 + 2] = v[2];
-                    nverts.value++;
-                }
-                
-                int[] indices = new int[maxVertsPerCont];
-                int[] tris = new int[maxVertsPerCont * 3];
-                
-                for (int j = 0; j < cont.nverts; j++) {
-                    indices[j] = nverts.value - cont.nverts + j;
+                    indices[j] = j;
                 }
                 
-                int ntris = triangulate(cont.nverts, verts, indices, tris);
+                int ntris = triangulate(cont.nverts, cont.verts, indices, tris);
                 if (ntris <= 0) {
-                    // Bad triangulation, skip.
+                    // 三角化失败，保留已经生成的三角形
                     if (ctx != null) {
                         ctx.log(odin.recast.config.RecastEnums.LogCategory.RC_LOG_WARNING, 
                                "buildPolyMesh: 坏的三角化，contour %d.", i);
                     }
-                    continue;
+                    ntris = -ntris;
                 }
                 
                 // 添加并合并顶点
+                for (int j = 0; j < cont.nverts; j++) {
+                    int v = j * 4;
+                    indices[j] = addVertex(cont.verts[v], cont.verts[v + 1], cont.verts[v + 2],
+                                           verts, firstVert, nextVert, nverts);
+                }
+                
+                // 构建初始多边形
+                int npolys = 0;
+                Arrays.fill(polys, RC_MESH_NULL_IDX);
                 for (int j = 0; j < ntris; j++) {
-                    int[] t = new int[nvp];
-                    for (int k = 0; k < 3; k++) {
-                        int v = tris[j * 3 + k];
-                        int[] vert = {verts[v * 3], verts[v * 3 + 1], verts[v * 3 + 2]};
-                        t[k] = addVertex(vert[0], vert[1], vert[2], verts, firstVert, nextVert, nverts);
+                    int a = indices[tris[j * 3]];
+                    int b = indices[tris[j * 3 + 1]];
+                    int c = indices[tris[j * 3 + 2]];
+                    if (a != b && a != c && b != c) {
+                        polys[npolys * nvp] = a;
+                        polys[npolys * nvp + 1] = b;
+                        polys[npolys * nvp + 2] = c;
+                        npolys++;
+                    }
+                }
+                if (npolys == 0) {
+                    continue;
+                }
+                
+                // 合并多边形
+                if (nvp > 3) {
+                    for (;;) {
+                        // 找到共享边最长的一对多边形
+                        int bestMergeVal = 0;
+                        int bestPa = 0;
+                        int bestPb = 0;
+                        int bestEa = 0;
+                        int bestEb = 0;
+                        
+                        for (int j = 0; j < npolys - 1; j++) {
+                            for (int k = j + 1; k < npolys; k++) {
+                                int v = getPolyMergeValue(polys, j * nvp, k * nvp, verts, edges, nvp);
+                                if (v > bestMergeVal) {
+                                    bestMergeVal = v;
+                                    bestPa = j;
+                                    bestPb = k;
+                                    bestEa = edges[0];
+                                    bestEb = edges[1];
+                                }
+                            }
+                        }
+                        
+                        if (bestMergeVal <= 0) {
+                            // 没有可以合并的多边形
+                            break;
+                        }
+                        
+                        int pa = bestPa * nvp;
+                        int pb = bestPb * nvp;
+                        mergePolys(polys, pa, pb, bestEa, bestEb, tmpPoly, nvp);
+                        int last = (npolys - 1) * nvp;
+                        if (pb != last) {
+                            System.arraycopy(polys, last, polys, pb, nvp);
+                        }
+                        Arrays.fill(polys, last, last + nvp, RC_MESH_NULL_IDX);
+                        npolys--;
                     }
-                    
-                    System.arraycopy(t, 0, polys, npolys * nvp, nvp);
-                    regs[npolys] = cont.reg;
-                    areas[npolys] = cont.area;
-                    npolys++;
+                }
+                
+                // 存储多边形
+                for (int j = 0; j < npolys; j++) {
+                    if (npolysTotal >= maxTris) {
+                        if (ctx != null) {
+                            ctx.log(odin.recast.config.RecastEnums.LogCategory.RC_LOG_ERROR,
+                                   "buildPolyMesh: 多边形过多 %d (max: %d)", npolysTotal, maxTris);
+                            ctx.stopTimer(TimerLabel.RC_TIMER_BUILD_POLYMESH);
+                        }
+                        return false;
+                    }
+                    System.arraycopy(polys, j * nvp, meshPolys, npolysTotal * nvp * 2, nvp);
+                    regs[npolysTotal] = cont.reg;
+                    areas[npolysTotal] = (byte) cont.area;
+                    npolysTotal++;
                 }
             }
             
-            // 移除不需要的三角形
-            // TODO: 实现三角形过滤逻辑
-            
             // 构建网格邻接关系
-            if (!buildMeshAdjacency(polys, npolys, nverts.value, nvp)) {
+            if (!buildMeshAdjacency(meshPolys, npolysTotal, nverts.value, nvp)) {
                 if (ctx != null) {
                     ctx.log(odin.recast.config.RecastEnums.LogCategory.RC_LOG_ERROR, 
                            "buildPolyMesh: 无法构建网格邻接关系");
+                    ctx.stopTimer(TimerLabel.RC_TIMER_BUILD_POLYMESH);
                 }
                 return false;
             }
             
+            // 标记瓦片边缘上的门户
+            if (mesh.borderSize.low > 0 || mesh.borderSize.high > 0) {
+                int w = cset.width;
+                int h = cset.height;
+                for (int i = 0; i < npolysTotal; i++) {
+                    int p = i * nvp * 2;
+                    for (int j = 0; j < nvp; j++) {
+                        if (meshPolys[p + j] == RC_MESH_NULL_IDX) break;
+                        // 跳过已连接的边
+                        if (meshPolys[p + nvp + j] != RC_MESH_NULL_IDX) continue;
+                        int nj = j + 1;
+                        if (nj >= nvp || meshPolys[p + nj] == RC_MESH_NULL_IDX) nj = 0;
+                        int va = meshPolys[p + j] * 3;
+                        int vb = meshPolys[p + nj] * 3;
+                        
+                        if (verts[va] == 0 && verts[vb] == 0) {
+                            meshPolys[p + nvp + j] = 0x8000 | 0;
+                        } else if (verts[va + 2] == h && verts[vb + 2] == h) {
+                            meshPolys[p + nvp + j] = 0x8000 | 1;
+                        } else if (verts[va] == w && verts[vb] == w) {
+                            meshPolys[p + nvp + j] = 0x8000 | 2;
+                        } else if (verts[va + 2] == 0 && verts[vb + 2] == 0) {
+                            meshPolys[p + nvp + j] = 0x8000 | 3;
+                        }
+                    }
+                }
+            }
+            
             // 设置输出
             mesh.nverts = nverts.value;
-            mesh.npolys = npolys;
-            mesh.maxpolys = maxTris;
+            mesh.npolys = npolysTotal;
+            mesh.maxpolys = npolysTotal;
             mesh.nvp = nvp;
-            
-            mesh.verts = new int[nverts.value * 3];
-            System.arraycopy(verts, 0, mesh.verts, 0, nverts.value * 3);
-            
-            mesh.polys = new int[npolys * nvp * 2];
-            System.arraycopy(polys, 0, mesh.polys, 0, npolys * nvp);
-            
-            mesh.regs = new int[npolys];
-            System.arraycopy(regs, 0, mesh.regs, 0, npolys);
-            
-            mesh.areas = new byte[npolys];
-            for (int i = 0; i < npolys; i++) {
-                mesh.areas[i] = (byte) areas[i];
-            }
-
-            // 设置边界框
-            if (nverts.value > 0) {
-                mesh.bmin[0] = mesh.bmax[0] = verts[0];
-                mesh.bmin[1] = mesh.bmax[1] = verts[1];
-                mesh.bmin[2] = mesh.bmax[2] = verts[2];
-                
-                for (int i = 1; i < nverts.value; i++) {
-                    mesh.bmin[0] = rcMin(mesh.bmin[0], verts[i * 3]);
-                    mesh.bmax[0] = rcMax(mesh.bmax[0], verts[i * 3]);
-                    mesh.bmin[1] = rcMin(mesh.bmin[1], verts[i * 3 + 1]);
-                    mesh.bmax[1] = rcMax(mesh.bmax[1], verts[i * 3 + 1]);
-                    mesh.bmin[2] = rcMin(mesh.bmin[2], verts[i * 3 + 2]);
-                    mesh.bmax[2] = rcMax(mesh.bmax[2], verts[i * 3 + 2]);
-                }
-            }
+            mesh.verts = Arrays.copyOf(verts, nverts.value * 3);
+            mesh.polys = Arrays.copyOf(meshPolys, npolysTotal * nvp * 2);
+            mesh.regs = Arrays.copyOf(regs, npolysTotal);
+            mesh.areas = Arrays.copyOf(areas, npolysTotal);
+            mesh.flags = new int[npolysTotal];
             
         } catch (OutOfMemoryError e) {
             if (ctx != null) {
                 ctx.log(odin.recast.config.RecastEnums.LogCategory.RC_LOG_ERROR, 
                        "buildPolyMesh: 内存不足");
+                ctx.stopTimer(TimerLabel.RC_TIMER_BUILD_POLYMESH);
             }
             return false;
         }
@@ -1,15 +1,16 @@
 package odin.recast.algorithms;
 
+import odin.recast.core.RecastChunkyTriMesh;
 import odin.recast.core.RecastHeightfield.Heightfield;
-import odin.recast.core.RecastSpan.Span;
-import odin.recast.core.RecastSpan.SpanPool;
 import odin.recast.core.RecastSpan.SpanCache;
+import odin.recast.core.RecastSpan.SpanData;
 import odin.recast.config.RecastEnums.TimerLabel;
 import odin.recast.config.RecastEnums.RasterizationFlags;
 
 import static odin.recast.utils.RecastMath.*;
 import static odin.recast.config.RecastConstants.*;
 import static odin.recast.algorithms.RecastUtils.*;
+import static odin.recast.core.RecastHeightfield.Heightfield.NULL_SPAN;
 
 /**
  * Recast光栅化算法
@@ -27,50 +28,7 @@ public final class RecastRasterization {
     }
     
     /**
-     * 从高度字段中分配一个span
-     * @param hf 高度字段
-     * @return 分配的span，如果内存不足则返回null
-     */
-    private static Span allocSpan(Heightfield hf) {
-        // 如果空闲列表为空，分配新的span池
-        if (hf.freelist == null) {
-            // 创建新的span池
-            SpanPool pool = new SpanPool();
-            
-            // 将池添加到链表中
-            pool.next = hf.pools;
-            hf.pools = pool;
-            
-            // 将新span添加到空闲列表
-            Span freelist = hf.freelist;
-            for (int i = RC_SPANS_PER_POOL - 1; i >= 0; i--) {
-                pool.items[i].next = freelist;
-                freelist = pool.items[i];
-            }
-            hf.freelist = freelist;
-        }
-        
-        // 从空闲列表头部取出一个span
-        Span span = hf.freelist;
-        hf.freelist = hf.freelist.next;
-        return span;
-    }
-    
-    /**
-     * 释放span到空闲列表
-     * @param hf 高度字段
-     * @param span 要释放的span
-     */
-    private static void freeSpan(Heightfield hf, Span span) {
-        if (span == null) return;
-        
-        // 将span添加到空闲列表头部
-        span.next = hf.freelist;
-        hf.freelist = span;
-    }
-    
-    /**
-     * 添加span到高度字段
+     * 添加span到高度字段，与列中重叠的span合并
      * @param hf 高度字段
      * @param x X坐标
      * @param y Y坐标
@@ -83,82 +41,97 @@ public final class RecastRasterization {
                                int smin, int smax,
                                int area, int flagMergeThr) {
         
-        // 分配新span
-        Span s = allocSpan(hf);
-        if (s == null) return;
-        
-        s.data.smin = smin;
-        s.data.smax = smax;
-        s.data.area = area;
-        s.next = null;
-        
-        // 如果单元格为空，直接添加第一个span
-        Span[] spans = hf.spans[y * hf.width + x];
-        if (spans == null || spans.length == 0) {
-            hf.spans[y * hf.width + x] = new Span[]{s};
-            return;
-        }
-        
-        Span prev = null;
-        Span cur = spans[0];
+        int idx = y * hf.width + x;
+        int prev = NULL_SPAN;
+        int cur = hf.spans[idx];
         
         // 插入并合并span
-        while (cur != null) {
-            if (cur.data.smin > s.data.smax) {
+        while (cur != NULL_SPAN) {
+            int cmin = hf.smin[cur];
+            int cmax = hf.smax[cur];
+            if (cmin > smax) {
                 // 当前span在新span上方，跳出循环
                 break;
-            } else if (cur.data.smax < s.data.smin) {
+            } else if (cmax < smin) {
                 // 当前span在新span下方，继续向上
                 prev = cur;
-                cur = cur.next;
+                cur = hf.next[cur];
             } else {
                 // 重叠，需要合并
                 
                 // 对于高度接近的span，优先选择可行走区域
-                if (rcAbs(s.data.smax - cur.data.smax) <= flagMergeThr) {
-                    s.data.area = rcMax(s.data.area, cur.data.area);
+                if (rcAbs(smax - cmax) <= flagMergeThr) {
+                    area = rcMax(area, hf.area[cur]);
                 } else {
                     // 如果当前span会成为顶部，使用其区域
-                    if (cur.data.smax > s.data.smax) {
-                        s.data.area = cur.data.area;
+                    if (cmax > smax) {
+                        area = hf.area[cur];
                     }
                 }
                 
                 // 合并高度区间
-                if (cur.data.smin < s.data.smin) {
-                    s.data.smin = cur.data.smin;
+                if (cmin < smin) {
+                    smin = cmin;
                 }
-                if (cur.data.smax > s.data.smax) {
-                    s.data.smax = cur.data.smax;
+                if (cmax > smax) {
+                    smax = cmax;
                 }
                 
                 // 移除当前span
-                Span next = cur.next;
-                freeSpan(hf, cur);
-                if (prev != null) {
-                    prev.next = next;
+                int next = hf.next[cur];
+                hf.freeSpan(cur);
+                if (prev != NULL_SPAN) {
+                    hf.next[prev] = next;
                 } else {
-                    spans[0] = next;
+                    hf.spans[idx] = next;
                 }
                 cur = next;
             }
         }
         
-        // 插入新span
-        if (prev != null) {
-            s.next = prev.next;
-            prev.next = s;
+        // 分配并插入新span，合并释放的span会被立即复用
+        int s = hf.allocSpan();
+        hf.smin[s] = smin;
+        hf.smax[s] = smax;
+        hf.area[s] = area;
+        if (prev != NULL_SPAN) {
+            hf.next[s] = hf.next[prev];
+            hf.next[prev] = s;
         } else {
-            s.next = spans[0];
-            spans[0] = s;
+            hf.next[s] = hf.spans[idx];
+            hf.spans[idx] = s;
         }
     }
     
+    /**
+     * 光栅化使用的临时缓冲区
+     * 每次光栅化调用只创建一次，由所有三角形复用，三角形循环中不产生分配
+     */
+    private static final class RasterBuffers {
+        /** 裁剪的输入多边形，也用于保存裁剪到单元格的结果 [(x, y, z) * 7] */
+        final float[] in = new float[7 * 3];
+        
+        /** 裁剪的中间结果 [(x, y, z) * 7] */
+        final float[] out = new float[7 * 3];
+        
+        /** 裁剪到行的多边形 [(x, y, z) * 7] */
+        final float[] inrow = new float[7 * 3];
+        
+        /** 顶点到裁剪平面的距离 [12] */
+        final float[] dist = new float[12];
+    }
+    
     /**
      * 光栅化单个三角形
-     * @param v0 三角形顶点0 [3]
-     * @param v1 三角形顶点1 [3]
-     * @param v2 三角形顶点2 [3]
+     *
+     * 顶点直接从数组中按偏移读取，批量光栅化时不需要为每个三角形复制顶点。
+     *
+     * @param va 顶点0所在的数组
+     * @param ia 顶点0在va中的偏移
+     * @param vb 顶点1所在的数组
+     * @param ib 顶点1在vb中的偏移
+     * @param vc 顶点2所在的数组
+     * @param ic 顶点2在vc中的偏移
      * @param area 区域id
      * @param hf 高度字段
      * @param bmin 边界框最小值 [3]
@@ -167,41 +140,43 @@ public final class RecastRasterization {
      * @param ics 单元格大小的倒数
      * @param ich 单元格高度的倒数
      * @param flagMergeThr 合并阈值
-     * @param rasterizationFlags 光栅化标志
-     * @param rasterizationMasks 光栅化掩码
+     * @param projectToBottom 是否设置了投影到底部的光栅化标志
+     * @param rasterizationMasks 光栅化掩码 [可选] [width*height]
+     * @param buf 临时缓冲区
      */
-    private static void rasterizeTriangle(float[] v0, float[] v1, float[] v2,
+    private static void rasterizeTriangle(float[] va, int ia, float[] vb, int ib, float[] vc, int ic,
                                         int area, Heightfield hf,
                                         float[] bmin, float[] bmax,
                                         float cs, float ics, float ich,
                                         int flagMergeThr,
-                                        int rasterizationFlags,
-                                        int[] rasterizationMasks) {
+                                        boolean projectToBottom,
+                                        int[] rasterizationMasks,
+                                        RasterBuffers buf) {
         
         int w = hf.width;
         int h = hf.height;
-        float[] tmin = new float[3];
-        float[] tmax = new float[3];
         float by = bmax[1] - bmin[1];
         
         // 计算三角形的边界框
-        System.arraycopy(v0, 0, tmin, 0, 3);
-        System.arraycopy(v0, 0, tmax, 0, 3);
-        rcVmin(tmin, v1);
-        rcVmin(tmin, v2);
-        rcVmax(tmax, v1);
-        rcVmax(tmax, v2);
+        float tminx = rcMin(va[ia], rcMin(vb[ib], vc[ic]));
+        float tminy = rcMin(va[ia + 1], rcMin(vb[ib + 1], vc[ic + 1]));
+        float tminz = rcMin(va[ia + 2], rcMin(vb[ib + 2], vc[ic + 2]));
+        float tmaxx = rcMax(va[ia], rcMax(vb[ib], vc[ic]));
+        float tmaxy = rcMax(va[ia + 1], rcMax(vb[ib + 1], vc[ic + 1]));
+        float tmaxz = rcMax(va[ia + 2], rcMax(vb[ib + 2], vc[ic + 2]));
         
         // 检查三角形是否与高度字段边界框重叠
-        if (!overlapBounds(bmin, bmax, tmin, tmax)) {
+        if (tminx > bmax[0] || tmaxx < bmin[0]
+            || tminy > bmax[1] || tmaxy < bmin[1]
+            || tminz > bmax[2] || tmaxz < bmin[2]) {
             return;
         }
         
         // 计算三角形在网格上的足迹
-        int x0 = (int)((tmin[0] - bmin[0]) * ics);
-        int y0 = (int)((tmin[2] - bmin[2]) * ics);
-        int x1 = (int)((tmax[0] - bmin[0]) * ics);
-        int y1 = (int)((tmax[2] - bmin[2]) * ics);
+        int x0 = (int)((tminx - bmin[0]) * ics);
+        int y0 = (int)((tminz - bmin[2]) * ics);
+        int x1 = (int)((tmaxx - bmin[0]) * ics);
+        int y1 = (int)((tmaxz - bmin[2]) * ics);
         
         x0 = rcClamp(x0, 0, w - 1);
         y0 = rcClamp(y0, 0, h - 1);
@@ -209,30 +184,37 @@ public final class RecastRasterization {
         y1 = rcClamp(y1, 0, h - 1);
         
         // 将三角形裁剪到所有接触的网格单元格中
-        float[] in = new float[7 * 3];
-        float[] out = new float[7 * 3];
-        float[] inrow = new float[7 * 3];
+        float[] in = buf.in;
+        float[] out = buf.out;
+        float[] inrow = buf.inrow;
+        float[] dist = buf.dist;
         
         for (int y = y0; y <= y1; y++) {
             // 将多边形裁剪到行
-            rcVcopy(in, 0, v0, 0, 3);
-            rcVcopy(in, 3, v1, 0, 3);
-            rcVcopy(in, 6, v2, 0, 3);
+            in[0] = va[ia];
+            in[1] = va[ia + 1];
+            in[2] = va[ia + 2];
+            in[3] = vb[ib];
+            in[4] = vb[ib + 1];
+            in[5] = vb[ib + 2];
+            in[6] = vc[ic];
+            in[7] = vc[ic + 1];
+            in[8] = vc[ic + 2];
             int nvrow = 3;
             
             float cz = bmin[2] + y * cs;
-            nvrow = clipPoly(in, nvrow, out, 0, 1, -cz);
+            nvrow = clipPoly(in, nvrow, out, 0, 1, -cz, dist);
             if (nvrow < 3) continue;
-            nvrow = clipPoly(out, nvrow, inrow, 0, -1, cz + cs);
+            nvrow = clipPoly(out, nvrow, inrow, 0, -1, cz + cs, dist);
             if (nvrow < 3) continue;
             
             for (int x = x0; x <= x1; x++) {
                 // 将多边形裁剪到列
                 int nv = nvrow;
                 float cx = bmin[0] + x * cs;
-                nv = clipPoly(inrow, nv, out, 1, 0, -cx);
+                nv = clipPoly(inrow, nv, out, 1, 0, -cx, dist);
                 if (nv < 3) continue;
-                nv = clipPoly(out, nv, in, -1, 0, cx + cs);
+                nv = clipPoly(out, nv, in, -1, 0, cx + cs, dist);
                 if (nv < 3) continue;
                 
                 // 计算span的最小值和最大值
@@ -258,12 +240,7 @@ public final class RecastRasterization {
                 int ismax = rcClamp((int)rcCeil(smax * ich), ismin + 1, RC_SPAN_MAX_HEIGHT);
                 
                 // 检查是否需要投影到底部
-                boolean projectToBottom = (rasterizationFlags & RasterizationFlags.RC_PROJECT_TO_BOTTOM.getValue()) != 0;
-                if (rasterizationMasks != null) {
-                    projectToBottom = projectToBottom && (rasterizationMasks[x + y * w] != 0);
-                }
-                
-                if (projectToBottom) {
+                if (projectToBottom && (rasterizationMasks == null || rasterizationMasks[x + y * w] != 0)) {
                     ismin = 0;
                 }
                 
@@ -273,15 +250,12 @@ public final class RecastRasterization {
     }
     
     /**
-     * 向数组复制向量
-     * @param dst 目标数组
-     * @param dstOffset 目标偏移
-     * @param src 源数组
-     * @param srcOffset 源偏移
-     * @param length 复制长度
+     * 检查光栅化标志中是否设置了投影到底部
+     * @param rasterizationFlags 光栅化标志
+     * @return true如果设置了投影到底部
      */
-    private static void rcVcopy(float[] dst, int dstOffset, float[] src, int srcOffset, int length) {
-        System.arraycopy(src, srcOffset, dst, dstOffset, length);
+    private static boolean isProjectToBottom(int rasterizationFlags) {
+        return (rasterizationFlags & RasterizationFlags.RC_PROJECT_TO_BOTTOM.getValue()) != 0;
     }
     
     /**
@@ -343,9 +317,9 @@ public final class RecastRasterization {
         float ics = 1.0f / solid.cs;
         float ich = 1.0f / solid.ch;
         
-        rasterizeTriangle(v0, v1, v2, area, solid, solid.bmin, solid.bmax,
-                         solid.cs, ics, ich, flagMergeThr, 
-                         rasterizationFlags, rasterizationMasks);
+        rasterizeTriangle(v0, 0, v1, 0, v2, 0, area, solid, solid.bmin, solid.bmax,
+                         solid.cs, ics, ich, flagMergeThr,
+                         isProjectToBottom(rasterizationFlags), rasterizationMasks, new RasterBuffers());
         
         if (ctx != null) {
             ctx.stopTimer(TimerLabel.RC_TIMER_RASTERIZE_TRIANGLES);
@@ -380,25 +354,19 @@ public final class RecastRasterization {
         float ics = 1.0f / solid.cs;
         float ich = 1.0f / solid.ch;
         
+        boolean projectToBottom = isProjectToBottom(rasterizationFlags);
+        RasterBuffers buf = new RasterBuffers();
+        
         // 光栅化三角形
         for (int i = 0; i < nt; i++) {
-            int triOffset = i * 3;
-            float[] v0 = {verts[tris[triOffset] * 3], 
-                         verts[tris[triOffset] * 3 + 1], 
-                         verts[tris[triOffset] * 3 + 2]};
-            float[] v1 = {verts[tris[triOffset + 1] * 3], 
-                         verts[tris[triOffset + 1] * 3 + 1], 
-                         verts[tris[triOffset + 1] * 3 + 2]};
-            float[] v2 = {verts[tris[triOffset + 2] * 3], 
-                         verts[tris[triOffset + 2] * 3 + 1], 
-                         verts[tris[triOffset + 2] * 3 + 2]};
-            
             // 跳过空区域的三角形
             if (areas[i] == RC_NULL_AREA) continue;
             
-            rasterizeTriangle(v0, v1, v2, areas[i], solid, solid.bmin, solid.bmax,
+            int triOffset = i * 3;
+            rasterizeTriangle(verts, tris[triOffset] * 3, verts, tris[triOffset + 1] * 3, verts, tris[triOffset + 2] * 3,
+                             areas[i], solid, solid.bmin, solid.bmax,
                              solid.cs, ics, ich, flagMergeThr,
-                             rasterizationFlags, rasterizationMasks);
+                             projectToBottom, rasterizationMasks, buf);
         }
         
         if (ctx != null) {
@@ -434,25 +402,19 @@ public final class RecastRasterization {
         float ics = 1.0f / solid.cs;
         float ich = 1.0f / solid.ch;
         
+        boolean projectToBottom = isProjectToBottom(rasterizationFlags);
+        RasterBuffers buf = new RasterBuffers();
+        
         // 光栅化三角形
         for (int i = 0; i < nt; i++) {
-            int triOffset = i * 3;
-            float[] v0 = {verts[tris[triOffset] * 3], 
-                         verts[tris[triOffset] * 3 + 1], 
-                         verts[tris[triOffset] * 3 + 2]};
-            float[] v1 = {verts[tris[triOffset + 1] * 3], 
-                         verts[tris[triOffset + 1] * 3 + 1], 
-                         verts[tris[triOffset + 1] * 3 + 2]};
-            float[] v2 = {verts[tris[triOffset + 2] * 3], 
-                         verts[tris[triOffset + 2] * 3 + 1], 
-                         verts[tris[triOffset + 2] * 3 + 2]};
-            
             // 跳过空区域的三角形
             if (areas[i] == RC_NULL_AREA) continue;
             
-            rasterizeTriangle(v0, v1, v2, areas[i], solid, solid.bmin, solid.bmax,
+            int triOffset = i * 3;
+            rasterizeTriangle(verts, (tris[triOffset] & 0xffff) * 3, verts, (tris[triOffset + 1] & 0xffff) * 3, verts, (tris[triOffset + 2] & 0xffff) * 3,
+                             areas[i], solid, solid.bmin, solid.bmax,
                              solid.cs, ics, ich, flagMergeThr,
-                             rasterizationFlags, rasterizationMasks);
+                             projectToBottom, rasterizationMasks, buf);
         }
         
         if (ctx != null) {
@@ -460,6 +422,72 @@ public final class RecastRasterization {
         }
     }
     
+    /**
+     * 光栅化分块三角形网格中与高度字段重叠的三角形
+     *
+     * 只访问xz包围盒与高度字段边界重叠的块，瓦片化构建时每个瓦片不再遍历整个关卡的三角形。
+     * 区域按三角形在输入网格中的原始顺序存放，通过{@link RecastChunkyTriMesh#triIds}查找。
+     *
+     * @param ctx 构建上下文
+     * @param verts 顶点数组 [(x, y, z) * nv]
+     * @param nv 顶点数量
+     * @param chunkyMesh 由同一顶点数组构建的分块三角形网格
+     * @param areas 区域id数组，按原始三角形顺序 [nt]
+     * @param solid 高度字段
+     * @param flagMergeThr 合并阈值
+     * @param rasterizationFlags 光栅化标志
+     * @param rasterizationMasks 光栅化掩码
+     * @return 光栅化的三角形数量（不含空区域的三角形）
+     */
+    public static int rasterizeTriangles(RecastContext ctx,
+                                         float[] verts, int nv,
+                                         RecastChunkyTriMesh chunkyMesh, byte[] areas,
+                                         Heightfield solid,
+                                         int flagMergeThr,
+                                         int rasterizationFlags,
+                                         int[] rasterizationMasks) {
+        
+        if (ctx != null) {
+            ctx.startTimer(TimerLabel.RC_TIMER_RASTERIZE_TRIANGLES);
+        }
+        
+        float ics = 1.0f / solid.cs;
+        float ich = 1.0f / solid.ch;
+        
+        float[] rmin = {solid.bmin[0], solid.bmin[2]};
+        float[] rmax = {solid.bmax[0], solid.bmax[2]};
+        int[] cid = new int[chunkyMesh.getChunkCount()];
+        int ncid = chunkyMesh.getChunksOverlappingRect(rmin, rmax, cid, cid.length);
+        
+        boolean projectToBottom = isProjectToBottom(rasterizationFlags);
+        RasterBuffers buf = new RasterBuffers();
+        
+        int[] tris = chunkyMesh.tris;
+        int count = 0;
+        for (int c = 0; c < ncid; c++) {
+            int start = chunkyMesh.getChunkTriStart(cid[c]);
+            int end = start + chunkyMesh.getChunkTriCount(cid[c]);
+            for (int i = start; i < end; i++) {
+                byte area = areas[chunkyMesh.triIds[i]];
+                
+                // 跳过空区域的三角形
+                if (area == RC_NULL_AREA) continue;
+                
+                int triOffset = i * 3;
+                rasterizeTriangle(verts, tris[triOffset] * 3, verts, tris[triOffset + 1] * 3,
+                                 verts, tris[triOffset + 2] * 3, area, solid, solid.bmin, solid.bmax,
+                                 solid.cs, ics, ich, flagMergeThr,
+                                 projectToBottom, rasterizationMasks, buf);
+                count++;
+            }
+        }
+        
+        if (ctx != null) {
+            ctx.stopTimer(TimerLabel.RC_TIMER_RASTERIZE_TRIANGLES);
+        }
+        return count;
+    }
+    
     /**
      * 计算高度字段中的span数量
      * @param ctx 构建上下文
@@ -471,19 +499,7 @@ public final class RecastRasterization {
             return 0;
         }
         
-        int numSpans = 0;
-        
-        // 计算已分配的span数量
-        for (SpanPool pool = hf.pools; pool != null; pool = pool.next) {
-            numSpans += RC_SPANS_PER_POOL;
-        }
-        
-        // 减去空闲span数量
-        for (Span s = hf.freelist; s != null; s = s.next) {
-            numSpans--;
-        }
-        
-        return numSpans;
+        return hf.getSpanCount();
     }
     
     /**
@@ -497,16 +513,14 @@ public final class RecastRasterization {
         
         for (int iz = 0; iz < hf.height; iz++) {
             for (int ix = 0; ix < hf.width; ix++) {
-                Span s = hf.getSpan(ix, iz);
-                while (s != null) {
+                for (int s = hf.getSpan(ix, iz); s != NULL_SPAN; s = hf.next[s]) {
                     if (cachedIndex < cachedSpans.length) {
                         cachedSpans[cachedIndex] = new SpanCache();
                         cachedSpans[cachedIndex].x = ix;
                         cachedSpans[cachedIndex].y = iz;
-                        cachedSpans[cachedIndex].data = s.data;
+                        cachedSpans[cachedIndex].data = new SpanData(hf.smin[s], hf.smax[s], hf.area[s]);
                         cachedIndex++;
                     }
-                    s = s.next;
                 }
             }
         }
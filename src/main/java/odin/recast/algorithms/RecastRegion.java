@@ -55,193 +55,249 @@ public final class RecastRegion {
         }
     }
     
+    /** 每个方向的x偏移 */
+    private static final int[] DIR_OFFSET_X = {-1, 0, 1, 0};
+    
+    /** 每个方向的y偏移 */
+    private static final int[] DIR_OFFSET_Y = {0, 1, 0, -1};
+    
+    /** 每个水位扩展区域的最大迭代次数 */
+    private static final int EXPAND_ITERS = 8;
+    
     /**
-     * 计算距离字段（改进版）
+     * 可增长的int数组
+     * 翻译自rcIntArray
+     */
+    private static final class IntArray {
+        int[] data = new int[64];
+        int size;
+        
+        /**
+         * 追加元素
+         * @param v 元素
+         */
+        void push(int v) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = v;
+        }
+        
+        /**
+         * 移除并返回最后一个元素
+         * @return 最后一个元素
+         */
+        int pop() {
+            return data[--size];
+        }
+    }
+    
+    /**
+     * 构建区域（分水岭算法）
+     *
+     * 需要先调用{@link RecastCompactHeightfield#buildDistanceField}。
+     * 从距离字段的最高水位开始逐级下降，每一级先扩展已有区域，再从剩余的span中洪填新区域；
+     * 最后合并过小的区域并移除孤立的小区域。borderSize大于0时，高度字段四周的边界带被标记为
+     * 边界区域（RC_BORDER_REG），用于瓦片化构建。
+     * 结果写入{@link CompactHeightfield#regs}和每个span的reg字段。
+     *
+     * @param ctx 构建上下文
      * @param chf 紧凑高度字段
-     * @param src 源距离数组
-     * @return 最大距离
+     * @param borderSize 边界大小
+     * @param minRegionArea 最小区域面积
+     * @param mergeRegionArea 合并区域面积
+     * @return true如果成功构建
      */
-    private static int calculateDistanceField(CompactHeightfield chf, int[] src) {
+    public static boolean buildRegions(RecastContext ctx, CompactHeightfield chf,
+                                     BorderSize borderSize, int minRegionArea, int mergeRegionArea) {
+        
+        if (ctx != null) {
+            ctx.startTimer(TimerLabel.RC_TIMER_BUILD_REGIONS);
+        }
+        
         int w = chf.width;
         int h = chf.height;
+        int spanCount = chf.spanCount;
         
-        // 初始化距离
-        Arrays.fill(src, 0xffff);
-        
-        // 标记边界单元格
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                CompactCell c = chf.cells[x + y * w];
-                for (int i = c.index, ni = c.index + c.count; i < ni; i++) {
-                    CompactSpan s = chf.spans[i];
-                    int area = chf.areas[i] & 0xFF;
-                    
-                    int nc = 0;
-                    for (int dir = 0; dir < 4; dir++) {
-                        if (getConnection(s, dir) != RC_NOT_CONNECTED) {
-                            int ax = x + getDirOffsetX(dir);
-                            int ay = y + getDirOffsetY(dir);
-                            int ai = chf.cells[ax + ay * w].index + getConnection(s, dir);
-                            if (area == (chf.areas[ai] & 0xFF)) {
-                                nc++;
-                            }
-                        }
-                    }
-                    if (nc != 4) {
-                        src[i] = 0;
-                    }
-                }
+        if (chf.dist == null) {
+            if (ctx != null) {
+                ctx.log(odin.recast.config.RecastEnums.LogCategory.RC_LOG_ERROR,
+                       "buildRegions: 缺少距离字段");
+                ctx.stopTimer(TimerLabel.RC_TIMER_BUILD_REGIONS);
             }
+            return false;
         }
         
-        // 第一遍扫描（从左上到右下）
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                CompactCell c = chf.cells[x + y * w];
-                for (int i = c.index, ni = c.index + c.count; i < ni; i++) {
-                    CompactSpan s = chf.spans[i];
-                    
-                    // 检查左邻居 (-1,0)
-                    if (getConnection(s, 0) != RC_NOT_CONNECTED) {
-                        int ax = x + getDirOffsetX(0);
-                        int ay = y + getDirOffsetY(0);
-                        int ai = chf.cells[ax + ay * w].index + getConnection(s, 0);
-                        if (src[ai] + 2 < src[i]) {
-                            src[i] = src[ai] + 2;
-                        }
-                    }
-                    
-                    // 检查上邻居 (0,-1)
-                    if (getConnection(s, 3) != RC_NOT_CONNECTED) {
-                        int ax = x + getDirOffsetX(3);
-                        int ay = y + getDirOffsetY(3);
-                        int ai = chf.cells[ax + ay * w].index + getConnection(s, 3);
-                        if (src[ai] + 2 < src[i]) {
-                            src[i] = src[ai] + 2;
-                        }
-                    }
-                }
+        try {
+            int[] srcReg = new int[spanCount];
+            int[] srcDist = new int[spanCount];
+            int[] dstReg = new int[spanCount];
+            int[] dstDist = new int[spanCount];
+            IntArray stack = new IntArray();
+            
+            if (ctx != null) {
+                ctx.startTimer(TimerLabel.RC_TIMER_BUILD_REGIONS_WATERSHED);
             }
-        }
-        
-        // 第二遍扫描（从右下到左上）
-        for (int y = h - 1; y >= 0; y--) {
-            for (int x = w - 1; x >= 0; x--) {
-                CompactCell c = chf.cells[x + y * w];
-                for (int i = c.index, ni = c.index + c.count; i < ni; i++) {
-                    CompactSpan s = chf.spans[i];
-                    
-                    // 检查右邻居 (1,0)
-                    if (getConnection(s, 2) != RC_NOT_CONNECTED) {
-                        int ax = x + getDirOffsetX(2);
-                        int ay = y + getDirOffsetY(2);
-                        int ai = chf.cells[ax + ay * w].index + getConnection(s, 2);
-                        if (src[ai] + 2 < src[i]) {
-                            src[i] = src[ai] + 2;
-                        }
-                    }
-                    
-                    // 检查下邻居 (0,1)
-                    if (getConnection(s, 1) != RC_NOT_CONNECTED) {
-                        int ax = x + getDirOffsetX(1);
-                        int ay = y + getDirOffsetY(1);
-                        int ai = chf.cells[ax + ay * w].index + getConnection(s, 1);
-                        if (src[ai] + 2 < src[i]) {
-                            src[i] = src[ai] + 2;
+            
+            int regionId = 1;
+            int level = (chf.maxDistance + 1) & ~1;
+            
+            // 标记边界区域
+            int bl = borderSize != null ? borderSize.low : 0;
+            int bh = borderSize != null ? borderSize.high : 0;
+            if (bl > 0 || bh > 0) {
+                int lw = rcMin(w, bl);
+                int hw = rcMin(w, bh);
+                int lh = rcMin(h, bl);
+                int hh = rcMin(h, bh);
+                paintRectRegion(0, lw, 0, h, regionId | RC_BORDER_REG, chf, srcReg);
+                regionId++;
+                paintRectRegion(w - hw, w, 0, h, regionId | RC_BORDER_REG, chf, srcReg);
+                regionId++;
+                paintRectRegion(0, w, 0, lh, regionId | RC_BORDER_REG, chf, srcReg);
+                regionId++;
+                paintRectRegion(0, w, h - hh, h, regionId | RC_BORDER_REG, chf, srcReg);
+                regionId++;
+            }
+            chf.borderSize = new BorderSize(bl, bh);
+            
+            while (level > 0) {
+                level = level >= 2 ? level - 2 : 0;
+                
+                if (ctx != null) {
+                    ctx.startTimer(TimerLabel.RC_TIMER_BUILD_REGIONS_EXPAND);
+                }
+                
+                // 扩展已有区域，直到没有可连接的空span
+                expandRegions(EXPAND_ITERS, level, chf, srcReg, srcDist, dstReg, dstDist, stack);
+                
+                if (ctx != null) {
+                    ctx.stopTimer(TimerLabel.RC_TIMER_BUILD_REGIONS_EXPAND);
+                    ctx.startTimer(TimerLabel.RC_TIMER_BUILD_REGIONS_FLOOD);
+                }
+                
+                // 标记新区域
+                for (int y = 0; y < h; y++) {
+                    for (int x = 0; x < w; x++) {
+                        CompactCell c = chf.cells[x + y * w];
+                        for (int i = c.index, ni = c.index + c.count; i < ni; i++) {
+                            if (chf.dist[i] < level || srcReg[i] != 0 || chf.areas[i] == RC_NULL_AREA) {
+                                continue;
+                            }
+                            if (floodRegion(x, y, i, level, regionId, chf, srcReg, srcDist, stack)) {
+                                regionId++;
+                            }
                         }
                     }
                 }
+                
+                if (ctx != null) {
+                    ctx.stopTimer(TimerLabel.RC_TIMER_BUILD_REGIONS_FLOOD);
+                }
+            }
+            
+            // 扩展剩余的空span
+            expandRegions(EXPAND_ITERS * 8, 0, chf, srcReg, srcDist, dstReg, dstDist, stack);
+            
+            if (ctx != null) {
+                ctx.stopTimer(TimerLabel.RC_TIMER_BUILD_REGIONS_WATERSHED);
+                ctx.startTimer(TimerLabel.RC_TIMER_BUILD_REGIONS_FILTER);
+            }
+            
+            // 合并并过滤小区域
+            int[] maxRegionId = {regionId};
+            mergeAndFilterRegions(minRegionArea, mergeRegionArea, maxRegionId, chf, srcReg);
+            chf.maxRegions = maxRegionId[0];
+            
+            if (ctx != null) {
+                ctx.stopTimer(TimerLabel.RC_TIMER_BUILD_REGIONS_FILTER);
+            }
+            
+            // 写出结果
+            chf.regs = srcReg;
+            for (int i = 0; i < spanCount; i++) {
+                chf.spans[i].reg = srcReg[i];
+            }
+            
+        } catch (OutOfMemoryError e) {
+            if (ctx != null) {
+                ctx.log(odin.recast.config.RecastEnums.LogCategory.RC_LOG_ERROR, 
+                       "buildRegions: 内存不足");
+                ctx.stopTimer(TimerLabel.RC_TIMER_BUILD_REGIONS);
             }
+            return false;
         }
         
-        // 计算最大距离
-        int maxDist = 0;
-        for (int i = 0; i < chf.spanCount; i++) {
-            maxDist = rcMax(src[i], maxDist);
+        if (ctx != null) {
+            ctx.stopTimer(TimerLabel.RC_TIMER_BUILD_REGIONS);
         }
         
-        return maxDist;
+        return true;
     }
     
     /**
-     * 盒式模糊
+     * 将矩形内所有可行走的span标记为指定区域
+     * @param minx 最小x（包含）
+     * @param maxx 最大x（不包含）
+     * @param miny 最小y（包含）
+     * @param maxy 最大y（不包含）
+     * @param regId 区域id
      * @param chf 紧凑高度字段
-     * @param thr 阈值
-     * @param src 源数组
-     * @param dst 目标数组
-     * @return 目标数组
+     * @param srcReg 区域数组
      */
-    private static int[] boxBlur(CompactHeightfield chf, int thr, int[] src, int[] dst) {
+    private static void paintRectRegion(int minx, int maxx, int miny, int maxy, int regId,
+                                        CompactHeightfield chf, int[] srcReg) {
         int w = chf.width;
-        int h = chf.height;
-        
-        thr *= 2;
-        
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
+        for (int y = miny; y < maxy; y++) {
+            for (int x = minx; x < maxx; x++) {
                 CompactCell c = chf.cells[x + y * w];
                 for (int i = c.index, ni = c.index + c.count; i < ni; i++) {
-                    CompactSpan s = chf.spans[i];
-                    int cd = src[i];
-                    
-                    if (cd <= thr) {
-                        dst[i] = cd;
-                        continue;
+                    if (chf.areas[i] != RC_NULL_AREA) {
+                        srcReg[i] = regId;
                     }
-                    
-                    int d = cd;
-                    for (int dir = 0; dir < 4; dir++) {
-                        if (getConnection(s, dir) != RC_NOT_CONNECTED) {
-                            int ax = x + getDirOffsetX(dir);
-                            int ay = y + getDirOffsetY(dir);
-                            int ai = chf.cells[ax + ay * w].index + getConnection(s, dir);
-                            d += src[ai];
-                        } else {
-                            d += cd;
-                        }
-                    }
-                    dst[i] = (d + 2) / 5;
                 }
             }
         }
-        
-        return dst;
     }
     
     /**
      * 洪填区域
-     * @param x X坐标
-     * @param y Y坐标
-     * @param i span索引
+     *
+     * 从种子span开始填充距离不小于level - 2且尚未分配区域的span；
+     * 与其他区域（含对角方向）相邻的span不被填充，使区域之间保持分隔。
+     *
+     * @param x 种子X坐标
+     * @param y 种子Y坐标
+     * @param i 种子span索引
      * @param level 水位
      * @param r 区域ID
      * @param chf 紧凑高度字段
-     * @param srcReg 源区域数组
-     * @param srcDist 源距离数组
-     * @param stack 栈
-     * @return 是否成功
+     * @param srcReg 区域数组
+     * @param srcDist 区域距离数组
+     * @param stack 工作栈
+     * @return true如果至少填充了一个span
      */
     private static boolean floodRegion(int x, int y, int i, int level, int r,
                                      CompactHeightfield chf, int[] srcReg, int[] srcDist,
-                                     List<Integer> stack) {
+                                     IntArray stack) {
         int w = chf.width;
-        int area = chf.areas[i] & 0xFF;
+        byte area = chf.areas[i];
         
         // 洪填标记区域
-        stack.clear();
-        stack.add(x);
-        stack.add(y);
-        stack.add(i);
+        stack.size = 0;
+        stack.push(x);
+        stack.push(y);
+        stack.push(i);
         srcReg[i] = r;
         srcDist[i] = 0;
         
         int lev = level >= 2 ? level - 2 : 0;
         int count = 0;
         
-        while (!stack.isEmpty()) {
-            int ci = stack.remove(stack.size() - 1);
-            int cy = stack.remove(stack.size() - 1);
-            int cx = stack.remove(stack.size() - 1);
+        while (stack.size > 0) {
+            int ci = stack.pop();
+            int cy = stack.pop();
+            int cx = stack.pop();
             
             CompactSpan cs = chf.spans[ci];
             
@@ -249,20 +305,39 @@ public final class RecastRegion {
             int ar = 0;
             for (int dir = 0; dir < 4; dir++) {
                 if (getConnection(cs, dir) != RC_NOT_CONNECTED) {
-                    int ax = cx + getDirOffsetX(dir);
-                    int ay = cy + getDirOffsetY(dir);
+                    int ax = cx + DIR_OFFSET_X[dir];
+                    int ay = cy + DIR_OFFSET_Y[dir];
                     int ai = chf.cells[ax + ay * w].index + getConnection(cs, dir);
-                    
-                    if ((chf.areas[ai] & 0xFF) != area) continue;
-                    
+                    if (chf.areas[ai] != area) {
+                        continue;
+                    }
                     int nr = srcReg[ai];
-                    if ((nr & RC_BORDER_REG) != 0) continue; // 不考虑边界
+                    if ((nr & RC_BORDER_REG) != 0) {
+                        // 不考虑边界
+                        continue;
+                    }
                     if (nr != 0 && nr != r) {
                         ar = nr;
+                        break;
+                    }
+                    
+                    CompactSpan as = chf.spans[ai];
+                    int dir2 = (dir + 1) & 0x3;
+                    if (getConnection(as, dir2) != RC_NOT_CONNECTED) {
+                        int ax2 = ax + DIR_OFFSET_X[dir2];
+                        int ay2 = ay + DIR_OFFSET_Y[dir2];
+                        int ai2 = chf.cells[ax2 + ay2 * w].index + getConnection(as, dir2);
+                        if (chf.areas[ai2] != area) {
+                            continue;
+                        }
+                        int nr2 = srcReg[ai2];
+                        if (nr2 != 0 && nr2 != r) {
+                            ar = nr2;
+                            break;
+                        }
                     }
                 }
             }
-            
             if (ar != 0) {
                 srcReg[ci] = 0;
                 continue;
@@ -273,18 +348,18 @@ public final class RecastRegion {
             // 扩展邻居
             for (int dir = 0; dir < 4; dir++) {
                 if (getConnection(cs, dir) != RC_NOT_CONNECTED) {
-                    int ax = cx + getDirOffsetX(dir);
-                    int ay = cy + getDirOffsetY(dir);
+                    int ax = cx + DIR_OFFSET_X[dir];
+                    int ay = cy + DIR_OFFSET_Y[dir];
                     int ai = chf.cells[ax + ay * w].index + getConnection(cs, dir);
-                    
-                    if ((chf.areas[ai] & 0xFF) != area) continue;
-                    
+                    if (chf.areas[ai] != area) {
+                        continue;
+                    }
                     if (chf.dist[ai] >= lev && srcReg[ai] == 0) {
                         srcReg[ai] = r;
                         srcDist[ai] = 0;
-                        stack.add(ax);
-                        stack.add(ay);
-                        stack.add(ai);
+                        stack.push(ax);
+                        stack.push(ay);
+                        stack.push(ai);
                     }
                 }
             }
@@ -293,162 +368,54 @@ public final class RecastRegion {
         return count > 0;
     }
     
-    /**
-     * 构建区域（分水岭算法）
-     * @param ctx 构建上下文
-     * @param chf 紧凑高度字段
-     * @param borderSize 边界大小
-     * @param minRegionArea 最小区域面积
-     * @param mergeRegionArea 合并区域面积
-     * @return true如果成功构建
-     */
-    public static boolean buildRegions(RecastContext ctx, CompactHeightfield chf,
-                                     BorderSize borderSize, int minRegionArea, int mergeRegionArea) {
-        
-        if (ctx != null) {
-            ctx.startTimer(TimerLabel.RC_TIMER_BUILD_REGIONS);
-        }
-        
-        int w = chf.width;
-        int h = chf.height;
-        
-        try {
-            // 分配工作数组
-            int[] buf = new int[chf.spanCount * 4];
-            
-            int[] src = Arrays.copyOfRange(buf, 0, chf.spanCount);
-            int[] srcReg = Arrays.copyOfRange(buf, chf.spanCount, chf.spanCount * 2);
-            int[] srcDist = Arrays.copyOfRange(buf, chf.spanCount * 2, chf.spanCount * 3);
-            int[] dstReg = Arrays.copyOfRange(buf, chf.spanCount * 3, chf.spanCount * 4);
-            
-            if (ctx != null) {
-                ctx.startTimer(TimerLabel.RC_TIMER_BUILD_REGIONS_WATERSHED);
-            }
-            
-            // 计算距离字段
-            int maxDist = calculateDistanceField(chf, src);
-            
-            // 模糊距离字段
-            int[] tmp = new int[chf.spanCount];
-            boxBlur(chf, 1, src, tmp);
-            System.arraycopy(tmp, 0, src, 0, chf.spanCount);
-            
-            // 分水岭分割
-            int regionId = 1;
-            int level = (maxDist + 1) & ~1;
-            List<Integer> stack = new ArrayList<>();
-            
-            // 初始化区域数组
-            Arrays.fill(srcReg, 0);
-            Arrays.fill(srcDist, 0);
-            
-            while (level > 0) {
-                level = level >= 2 ? level - 2 : 0;
-                
-                if (ctx != null) {
-                    ctx.startTimer(TimerLabel.RC_TIMER_BUILD_REGIONS_EXPAND);
-                }
-                
-                // 寻找新的区域种子
-                for (int y = 0; y < h; y++) {
-                    for (int x = 0; x < w; x++) {
-                        CompactCell c = chf.cells[x + y * w];
-                        for (int i = c.index, ni = c.index + c.count; i < ni; i++) {
-                            if (chf.dist[i] >= level && srcReg[i] == 0 && 
-                                (chf.areas[i] & 0xFF) != RC_NULL_AREA) {
-                                
-                                if (floodRegion(x, y, i, level, regionId, chf, srcReg, srcDist, stack)) {
-                                    regionId++;
-                                }
-                            }
-                        }
-                    }
-                }
-                
-                if (ctx != null) {
-                    ctx.stopTimer(TimerLabel.RC_TIMER_BUILD_REGIONS_EXPAND);
-                }
-            }
-            
-            // 扩展区域
-            expandRegions(3, chf, srcReg, srcDist, dstReg, stack);
-            
-            // 复制结果到chf.regs
-            chf.regs = new int[chf.spanCount];
-            System.arraycopy(srcReg, 0, chf.regs, 0, chf.spanCount);
-            chf.maxRegions = regionId;
-            
-            if (ctx != null) {
-                ctx.stopTimer(TimerLabel.RC_TIMER_BUILD_REGIONS_WATERSHED);
-            }
-            
-            // 过滤小区域
-            if (ctx != null) {
-                ctx.startTimer(TimerLabel.RC_TIMER_BUILD_REGIONS_FILTER);
-            }
-            
-            filterSmallRegions(ctx, minRegionArea, mergeRegionArea, chf);
-            
-            if (ctx != null) {
-                ctx.stopTimer(TimerLabel.RC_TIMER_BUILD_REGIONS_FILTER);
-            }
-            
-        } catch (OutOfMemoryError e) {
-            if (ctx != null) {
-                ctx.log(odin.recast.config.RecastEnums.LogCategory.RC_LOG_ERROR, 
-                       "buildRegions: 内存不足");
-            }
-            return false;
-        }
-        
-        if (ctx != null) {
-            ctx.stopTimer(TimerLabel.RC_TIMER_BUILD_REGIONS);
-        }
-        
-        return true;
-    }
-    
     /**
      * 扩展区域
+     *
+     * 将距离不小于level的空span分配给距离最近的相邻区域，重复直到没有变化或达到迭代次数
+     * （level为0时不限制迭代次数）。结果原地写回srcReg和srcDist。
+     *
      * @param maxIter 最大迭代次数
+     * @param level 水位
      * @param chf 紧凑高度字段
-     * @param srcReg 源区域数组
-     * @param srcDist 源距离数组
-     * @param dstReg 目标区域数组
-     * @param stack 栈
+     * @param srcReg 输入输出：区域数组
+     * @param srcDist 输入输出：区域距离数组
+     * @param dstReg 临时区域数组
+     * @param dstDist 临时区域距离数组
+     * @param stack 工作栈
      */
-    private static void expandRegions(int maxIter, CompactHeightfield chf,
-                                    int[] srcReg, int[] srcDist, int[] dstReg,
-                                    List<Integer> stack) {
+    private static void expandRegions(int maxIter, int level, CompactHeightfield chf,
+                                    int[] srcReg, int[] srcDist, int[] dstReg, int[] dstDist,
+                                    IntArray stack) {
         int w = chf.width;
         int h = chf.height;
         
-        // 寻找候选单元格
-        stack.clear();
+        // 寻找水位上升后露出的span
+        stack.size = 0;
         for (int y = 0; y < h; y++) {
             for (int x = 0; x < w; x++) {
                 CompactCell c = chf.cells[x + y * w];
                 for (int i = c.index, ni = c.index + c.count; i < ni; i++) {
-                    if (srcReg[i] == 0 && (chf.areas[i] & 0xFF) != RC_NULL_AREA) {
-                        stack.add(x);
-                        stack.add(y);
-                        stack.add(i);
+                    if (chf.dist[i] >= level && srcReg[i] == 0 && chf.areas[i] != RC_NULL_AREA) {
+                        stack.push(x);
+                        stack.push(y);
+                        stack.push(i);
                     }
                 }
             }
         }
         
         int iter = 0;
-        while (!stack.isEmpty() && iter < maxIter) {
+        while (stack.size > 0) {
             int failed = 0;
             
             System.arraycopy(srcReg, 0, dstReg, 0, chf.spanCount);
+            System.arraycopy(srcDist, 0, dstDist, 0, chf.spanCount);
             
-            for (int j = 0; j < stack.size(); j += 3) {
-                int x = stack.get(j);
-                int y = stack.get(j + 1);
-                int i = stack.get(j + 2);
-                
+            int[] st = stack.data;
+            for (int j = 0; j < stack.size; j += 3) {
+                int x = st[j];
+                int y = st[j + 1];
+                int i = st[j + 2];
                 if (i < 0) {
                     failed++;
                     continue;
@@ -456,18 +423,18 @@ public final class RecastRegion {
                 
                 int r = srcReg[i];
                 int d2 = 0xffff;
-                int area = chf.areas[i] & 0xFF;
+                byte area = chf.areas[i];
                 CompactSpan s = chf.spans[i];
-                
                 for (int dir = 0; dir < 4; dir++) {
-                    if (getConnection(s, dir) == RC_NOT_CONNECTED) continue;
-                    
-                    int ax = x + getDirOffsetX(dir);
-                    int ay = y + getDirOffsetY(dir);
+                    if (getConnection(s, dir) == RC_NOT_CONNECTED) {
+                        continue;
+                    }
+                    int ax = x + DIR_OFFSET_X[dir];
+                    int ay = y + DIR_OFFSET_Y[dir];
                     int ai = chf.cells[ax + ay * w].index + getConnection(s, dir);
-                    
-                    if ((chf.areas[ai] & 0xFF) != area) continue;
-                    
+                    if (chf.areas[ai] != area) {
+                        continue;
+                    }
                     if (srcReg[ai] > 0 && (srcReg[ai] & RC_BORDER_REG) == 0) {
                         if (srcDist[ai] + 2 < d2) {
                             r = srcReg[ai];
@@ -475,75 +442,481 @@ public final class RecastRegion {
                         }
                     }
                 }
-                
                 if (r != 0) {
-                    stack.set(j + 2, -1); // 标记为已使用
+                    // 标记为已处理
+                    st[j + 2] = -1;
                     dstReg[i] = r;
-                    if (srcDist.length > i) {
-                        srcDist[i] = d2;
-                    }
+                    dstDist[i] = d2;
                 } else {
                     failed++;
                 }
             }
             
-            // 交换源和目标
-            int[] tmp = srcReg;
-            srcReg = dstReg;
-            dstReg = tmp;
+            System.arraycopy(dstReg, 0, srcReg, 0, chf.spanCount);
+            System.arraycopy(dstDist, 0, srcDist, 0, chf.spanCount);
             
-            if (failed * 3 == stack.size()) break;
+            if (failed * 3 == stack.size) {
+                break;
+            }
             
-            iter++;
+            if (level > 0) {
+                iter++;
+                if (iter >= maxIter) {
+                    break;
+                }
+            }
         }
     }
     
     /**
-     * 过滤小区域
-     * @param ctx 构建上下文
-     * @param minRegionArea 最小区域面积
-     * @param mergeRegionArea 合并区域面积
-     * @param chf 紧凑高度字段
+     * 移除连接列表中相邻的重复项
+     * @param reg 区域
      */
-    private static void filterSmallRegions(RecastContext ctx, int minRegionArea, 
-                                         int mergeRegionArea, CompactHeightfield chf) {
-        // 计算区域大小
-        int[] regionAreas = new int[chf.maxRegions];
-        
-        // 计算每个区域的大小
-        for (int i = 0; i < chf.spanCount; i++) {
-            int r = chf.regs[i];
-            if ((r & RC_BORDER_REG) == 0 && r != 0) {
-                regionAreas[r]++;
+    private static void removeAdjacentNeighbours(Region reg) {
+        List<Integer> con = reg.connections;
+        for (int i = 0; i < con.size() && con.size() > 1; ) {
+            int ni = (i + 1) % con.size();
+            if (con.get(i).intValue() == con.get(ni).intValue()) {
+                con.remove(i);
+            } else {
+                i++;
             }
         }
-        
-        // 标记小区域
-        for (int i = 0; i < chf.spanCount; i++) {
-            int r = chf.regs[i];
-            if ((r & RC_BORDER_REG) == 0 && r != 0 && regionAreas[r] < minRegionArea) {
-                chf.regs[i] = 0;
+    }
+    
+    /**
+     * 将区域的邻居和楼层中的旧id替换为新id
+     * @param reg 区域
+     * @param oldId 旧id
+     * @param newId 新id
+     */
+    private static void replaceNeighbour(Region reg, int oldId, int newId) {
+        boolean neiChanged = false;
+        for (int i = 0; i < reg.connections.size(); i++) {
+            if (reg.connections.get(i) == oldId) {
+                reg.connections.set(i, newId);
+                neiChanged = true;
+            }
+        }
+        for (int i = 0; i < reg.floors.size(); i++) {
+            if (reg.floors.get(i) == oldId) {
+                reg.floors.set(i, newId);
             }
         }
+        if (neiChanged) {
+            removeAdjacentNeighbours(reg);
+        }
     }
     
     /**
-     * 获取方向偏移X
-     * @param dir 方向
-     * @return X偏移
+     * 检查区域a能否合并区域b
+     *
+     * 两个区域类型相同、只有一段公共边界且不互相重叠（不是彼此的楼层）时才能合并，
+     * 保证合并后的区域不产生洞。
+     *
+     * @param rega 区域a
+     * @param regb 区域b
+     * @return true如果可以合并
      */
-    private static int getDirOffsetX(int dir) {
-        int[] offset = {-1, 0, 1, 0};
-        return offset[dir & 0x3];
+    private static boolean canMergeWithRegion(Region rega, Region regb) {
+        if (rega.areaType != regb.areaType) {
+            return false;
+        }
+        int n = 0;
+        for (int i = 0; i < rega.connections.size(); i++) {
+            if (rega.connections.get(i) == regb.id) {
+                n++;
+            }
+        }
+        if (n > 1) {
+            return false;
+        }
+        for (int i = 0; i < rega.floors.size(); i++) {
+            if (rega.floors.get(i) == regb.id) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * 添加不重复的楼层区域
+     * @param reg 区域
+     * @param n 楼层区域id
+     */
+    private static void addUniqueFloorRegion(Region reg, int n) {
+        if (!reg.floors.contains(n)) {
+            reg.floors.add(n);
+        }
     }
     
     /**
-     * 获取方向偏移Y  
+     * 将区域b合并到区域a
+     * @param rega 区域a
+     * @param regb 区域b
+     * @return true如果合并成功
+     */
+    private static boolean mergeRegions(Region rega, Region regb) {
+        int aid = rega.id;
+        int bid = regb.id;
+        
+        // 复制当前邻居
+        List<Integer> acon = new ArrayList<>(rega.connections);
+        List<Integer> bcon = regb.connections;
+        
+        // 在a和b中找到插入点
+        int insa = acon.indexOf(bid);
+        if (insa == -1) {
+            return false;
+        }
+        int insb = bcon.indexOf(aid);
+        if (insb == -1) {
+            return false;
+        }
+        
+        // 合并邻居
+        rega.connections.clear();
+        for (int i = 0, ni = acon.size(); i < ni - 1; i++) {
+            rega.connections.add(acon.get((insa + 1 + i) % ni));
+        }
+        for (int i = 0, ni = bcon.size(); i < ni - 1; i++) {
+            rega.connections.add(bcon.get((insb + 1 + i) % ni));
+        }
+        removeAdjacentNeighbours(rega);
+        
+        for (int j = 0; j < regb.floors.size(); j++) {
+            addUniqueFloorRegion(rega, regb.floors.get(j));
+        }
+        rega.spanCount += regb.spanCount;
+        regb.spanCount = 0;
+        regb.connections.clear();
+        
+        return true;
+    }
+    
+    /**
+     * 检查区域是否与空区域（不可行走）相邻
+     * @param reg 区域
+     * @return true如果有空邻居
+     */
+    private static boolean isRegionConnectedToBorder(Region reg) {
+        return reg.connections.contains(0);
+    }
+    
+    /**
+     * 检查span在指定方向上的边是否为区域边界
+     * @param chf 紧凑高度字段
+     * @param srcReg 区域数组
+     * @param x X坐标
+     * @param y Y坐标
+     * @param i span索引
      * @param dir 方向
-     * @return Y偏移
+     * @return true如果相邻span属于其他区域或不存在
+     */
+    private static boolean isSolidEdge(CompactHeightfield chf, int[] srcReg, int x, int y, int i, int dir) {
+        CompactSpan s = chf.spans[i];
+        int r = 0;
+        if (getConnection(s, dir) != RC_NOT_CONNECTED) {
+            int ax = x + DIR_OFFSET_X[dir];
+            int ay = y + DIR_OFFSET_Y[dir];
+            int ai = chf.cells[ax + ay * chf.width].index + getConnection(s, dir);
+            r = srcReg[ai];
+        }
+        return r != srcReg[i];
+    }
+    
+    /**
+     * 沿区域边界行走，按顺序收集相邻区域
+     * @param x 起始X坐标
+     * @param y 起始Y坐标
+     * @param i 起始span索引
+     * @param dir 起始方向
+     * @param chf 紧凑高度字段
+     * @param srcReg 区域数组
+     * @param cont 输出相邻区域id列表
+     */
+    private static void walkContour(int x, int y, int i, int dir, CompactHeightfield chf,
+                                    int[] srcReg, List<Integer> cont) {
+        int startDir = dir;
+        int starti = i;
+        
+        CompactSpan ss = chf.spans[i];
+        int curReg = 0;
+        if (getConnection(ss, dir) != RC_NOT_CONNECTED) {
+            int ax = x + DIR_OFFSET_X[dir];
+            int ay = y + DIR_OFFSET_Y[dir];
+            int ai = chf.cells[ax + ay * chf.width].index + getConnection(ss, dir);
+            curReg = srcReg[ai];
+        }
+        cont.add(curReg);
+        
+        int iter = 0;
+        while (++iter < 40000) {
+            CompactSpan s = chf.spans[i];
+            
+            if (isSolidEdge(chf, srcReg, x, y, i, dir)) {
+                // 选择边角
+                int r = 0;
+                if (getConnection(s, dir) != RC_NOT_CONNECTED) {
+                    int ax = x + DIR_OFFSET_X[dir];
+                    int ay = y + DIR_OFFSET_Y[dir];
+                    int ai = chf.cells[ax + ay * chf.width].index + getConnection(s, dir);
+                    r = srcReg[ai];
+                }
+                if (r != curReg) {
+                    curReg = r;
+                    cont.add(curReg);
+                }
+                // 顺时针旋转
+                dir = (dir + 1) & 0x3;
+            } else {
+                int ni = -1;
+                int nx = x + DIR_OFFSET_X[dir];
+                int ny = y + DIR_OFFSET_Y[dir];
+                if (getConnection(s, dir) != RC_NOT_CONNECTED) {
+                    CompactCell nc = chf.cells[nx + ny * chf.width];
+                    ni = nc.index + getConnection(s, dir);
+                }
+                if (ni == -1) {
+                    // 不应该发生
+                    return;
+                }
+                x = nx;
+                y = ny;
+                i = ni;
+                // 逆时针旋转
+                dir = (dir + 3) & 0x3;
+            }
+            
+            if (starti == i && startDir == dir) {
+                break;
+            }
+        }
+        
+        // 移除相邻的重复项
+        if (cont.size() > 1) {
+            for (int j = 0; j < cont.size(); ) {
+                int nj = (j + 1) % cont.size();
+                if (cont.get(j).intValue() == cont.get(nj).intValue()) {
+                    cont.remove(j);
+                } else {
+                    j++;
+                }
+            }
+        }
+    }
+    
+    /**
+     * 合并并过滤区域
+     *
+     * 移除与瓦片边界不相连且连通后总面积小于minRegionArea的区域，
+     * 将面积不超过mergeRegionArea的区域合并到可合并的最小邻居，最后压缩区域id。
+     *
+     * @param minRegionArea 最小区域面积
+     * @param mergeRegionSize 合并区域面积
+     * @param maxRegionId 输入输出：最大区域id
+     * @param chf 紧凑高度字段
+     * @param srcReg 输入输出：区域数组
      */
-    private static int getDirOffsetY(int dir) {
-        int[] offset = {0, 1, 0, -1};
-        return offset[dir & 0x3];
+    private static void mergeAndFilterRegions(int minRegionArea, int mergeRegionSize, int[] maxRegionId,
+                                              CompactHeightfield chf, int[] srcReg) {
+        int w = chf.width;
+        int h = chf.height;
+        
+        int nreg = maxRegionId[0] + 1;
+        Region[] regions = new Region[nreg];
+        for (int i = 0; i < nreg; i++) {
+            regions[i] = new Region(i);
+        }
+        
+        // 找到区域的边界并沿轮廓收集相邻区域
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                CompactCell c = chf.cells[x + y * w];
+                for (int i = c.index, ni = c.index + c.count; i < ni; i++) {
+                    int r = srcReg[i];
+                    if (r == 0 || r >= nreg) {
+                        continue;
+                    }
+                    
+                    Region reg = regions[r];
+                    reg.spanCount++;
+                    
+                    // 更新楼层
+                    for (int j = c.index; j < ni; j++) {
+                        if (i == j) {
+                            continue;
+                        }
+                        int floorId = srcReg[j];
+                        if (floorId == 0 || floorId >= nreg) {
+                            continue;
+                        }
+                        addUniqueFloorRegion(reg, floorId);
+                    }
+                    
+                    // 已经找到轮廓
+                    if (!reg.connections.isEmpty()) {
+                        continue;
+                    }
+                    
+                    reg.areaType = chf.areas[i];
+                    
+                    // 检查该span是否位于区域边界
+                    int ndir = -1;
+                    for (int dir = 0; dir < 4; dir++) {
+                        if (isSolidEdge(chf, srcReg, x, y, i, dir)) {
+                            ndir = dir;
+                            break;
+                        }
+                    }
+                    if (ndir != -1) {
+                        // 沿轮廓行走找到所有邻居
+                        walkContour(x, y, i, ndir, chf, srcReg, reg.connections);
+                    }
+                }
+            }
+        }
+        
+        // 移除过小的区域
+        IntArray stack = new IntArray();
+        IntArray trace = new IntArray();
+        for (int i = 0; i < nreg; i++) {
+            Region reg = regions[i];
+            if (reg.id == 0 || (reg.id & RC_BORDER_REG) != 0) {
+                continue;
+            }
+            if (reg.spanCount == 0 || reg.visited) {
+                continue;
+            }
+            
+            // 统计所有连通区域的总面积，同时记录是否与瓦片边界相连
+            boolean connectsToBorder = false;
+            int spanCount = 0;
+            stack.size = 0;
+            trace.size = 0;
+            
+            reg.visited = true;
+            stack.push(i);
+            
+            while (stack.size > 0) {
+                int ri = stack.pop();
+                Region creg = regions[ri];
+                
+                spanCount += creg.spanCount;
+                trace.push(ri);
+                
+                for (int j = 0; j < creg.connections.size(); j++) {
+                    int cid = creg.connections.get(j);
+                    if ((cid & RC_BORDER_REG) != 0) {
+                        connectsToBorder = true;
+                        continue;
+                    }
+                    Region neireg = regions[cid];
+                    if (neireg.visited) {
+                        continue;
+                    }
+                    if (neireg.id == 0 || (neireg.id & RC_BORDER_REG) != 0) {
+                        continue;
+                    }
+                    stack.push(neireg.id);
+                    neireg.visited = true;
+                }
+            }
+            
+            // 总面积过小则移除，与瓦片边界相连的区域无法正确估计面积，不移除
+            if (spanCount < minRegionArea && !connectsToBorder) {
+                for (int j = 0; j < trace.size; j++) {
+                    regions[trace.data[j]].spanCount = 0;
+                    regions[trace.data[j]].id = 0;
+                }
+            }
+        }
+        
+        // 将过小的区域合并到邻居区域
+        int mergeCount;
+        do {
+            mergeCount = 0;
+            for (int i = 0; i < nreg; i++) {
+                Region reg = regions[i];
+                if (reg.id == 0 || (reg.id & RC_BORDER_REG) != 0) {
+                    continue;
+                }
+                if (reg.spanCount == 0) {
+                    continue;
+                }
+                
+                // 检查区域是否需要合并
+                if (reg.spanCount > mergeRegionSize && isRegionConnectedToBorder(reg)) {
+                    continue;
+                }
+                
+                // 找到可合并的最小邻居区域
+                int smallest = 0xfffffff;
+                int mergeId = reg.id;
+                for (int j = 0; j < reg.connections.size(); j++) {
+                    int cid = reg.connections.get(j);
+                    if ((cid & RC_BORDER_REG) != 0) {
+                        continue;
+                    }
+                    Region mreg = regions[cid];
+                    if (mreg.id == 0 || (mreg.id & RC_BORDER_REG) != 0) {
+                        continue;
+                    }
+                    if (mreg.spanCount < smallest &&
+                        canMergeWithRegion(reg, mreg) &&
+                        canMergeWithRegion(mreg, reg)) {
+                        smallest = mreg.spanCount;
+                        mergeId = mreg.id;
+                    }
+                }
+                
+                if (mergeId != reg.id) {
+                    int oldId = reg.id;
+                    Region target = regions[mergeId];
+                    
+                    if (mergeRegions(target, reg)) {
+                        // 修正指向当前区域的区域
+                        for (int j = 0; j < nreg; j++) {
+                            if (regions[j].id == 0 || (regions[j].id & RC_BORDER_REG) != 0) {
+                                continue;
+                            }
+                            // 之前已经合并到当前区域的区域也改为新id
+                            if (regions[j].id == oldId) {
+                                regions[j].id = mergeId;
+                            }
+                            replaceNeighbour(regions[j], oldId, mergeId);
+                        }
+                        mergeCount++;
+                    }
+                }
+            }
+        } while (mergeCount > 0);
+        
+        // 压缩区域id
+        for (int i = 0; i < nreg; i++) {
+            regions[i].remap = regions[i].id != 0 && (regions[i].id & RC_BORDER_REG) == 0;
+        }
+        int regIdGen = 0;
+        for (int i = 0; i < nreg; i++) {
+            if (!regions[i].remap) {
+                continue;
+            }
+            int oldId = regions[i].id;
+            int newId = ++regIdGen;
+            for (int j = i; j < nreg; j++) {
+                if (regions[j].id == oldId) {
+                    regions[j].id = newId;
+                    regions[j].remap = false;
+                }
+            }
+        }
+        maxRegionId[0] = regIdGen;
+        
+        // 重新映射区域
+        for (int i = 0; i < chf.spanCount; i++) {
+            if ((srcReg[i] & RC_BORDER_REG) == 0) {
+                srcReg[i] = regions[srcReg[i]].id;
+            }
+        }
     }
 } 
\ No newline at end of file
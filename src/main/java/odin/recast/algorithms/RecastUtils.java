@@ -2,12 +2,11 @@ package odin.recast.algorithms;
 
 import odin.recast.core.RecastHeightfield.Heightfield;
 import odin.recast.core.RecastHeightfield.CompactHeightfield;
-import odin.recast.core.RecastSpan.Span;
-import odin.recast.core.RecastSpan.SpanPool;
 import odin.recast.config.RecastConstants;
 
 import static odin.recast.utils.RecastMath.*;
 import static odin.recast.config.RecastConstants.*;
+import static odin.recast.core.RecastHeightfield.Heightfield.NULL_SPAN;
 
 /**
  * Recast基础工具类
@@ -157,15 +156,7 @@ public final class RecastUtils {
      * @param hf 高度字段
      */
     public static void resetHeightfield(Heightfield hf) {
-        if (hf.spans != null) {
-            for (int i = 0; i < hf.width * hf.height; i++) {
-                hf.spans[i] = null;
-            }
-        }
-        
-        // 重置span池
-        hf.freelist = null;
-        hf.pools = null;
+        hf.reset();
     }
     
     /**
@@ -266,12 +257,10 @@ public final class RecastUtils {
         
         for (int y = 0; y < h; y++) {
             for (int x = 0; x < w; x++) {
-                Span s = hf.getSpan(x, y);
-                while (s != null) {
-                    if (s.data.area != RC_NULL_AREA) {
+                for (int s = hf.getSpan(x, y); s != NULL_SPAN; s = hf.next[s]) {
+                    if (hf.area[s] != RC_NULL_AREA) {
                         spanCount++;
                     }
-                    s = s.next;
                 }
             }
         }
@@ -317,8 +306,22 @@ public final class RecastUtils {
      */
     public static int clipPoly(float[] in, int n, float[] out, 
                               float pnx, float pnz, float pd) {
-        float[] d = new float[12];
-        
+        return clipPoly(in, n, out, pnx, pnz, pd, new float[12]);
+    }
+    
+    /**
+     * 使用调用者提供的距离缓冲区裁剪多边形，循环中重复裁剪时不产生分配
+     * @param in 输入多边形顶点 [(x, y, z) * n]
+     * @param n 顶点数量
+     * @param out 输出多边形顶点 [(x, y, z) * 最大12个]
+     * @param pnx 裁剪平面法线X
+     * @param pnz 裁剪平面法线Z
+     * @param pd 裁剪平面距离
+     * @param d 顶点到裁剪平面距离的临时缓冲区 [大小: >= n]
+     * @return 输出顶点数量
+     */
+    public static int clipPoly(float[] in, int n, float[] out,
+                               float pnx, float pnz, float pd, float[] d) {
         for (int i = 0; i < n; i++) {
             d[i] = pnx * in[i * 3] + pnz * in[i * 3 + 2] + pd;
         }
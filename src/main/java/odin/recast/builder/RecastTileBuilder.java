@@ -0,0 +1,259 @@
+package odin.recast.builder;
+
+import odin.detour.core.DetourNavMesh.MeshTile;
+import odin.detour.core.DetourNavMeshBuilder;
+import odin.detour.core.DetourNavMeshBuilder.CreateParams;
+import odin.detour.config.DetourEnums.Status;
+import odin.recast.algorithms.RecastCompactHeightfield;
+import odin.recast.algorithms.RecastContext;
+import odin.recast.algorithms.RecastContour;
+import odin.recast.algorithms.RecastFilter;
+import odin.recast.algorithms.RecastMesh;
+import odin.recast.algorithms.RecastRasterization;
+import odin.recast.algorithms.RecastRegion;
+import odin.recast.algorithms.RecastUtils;
+import odin.recast.config.RecastConfig;
+import odin.recast.config.RecastEnums.ContourBuildFlags;
+import odin.recast.config.RecastEnums.LogCategory;
+import odin.recast.config.RecastEnums.NeighborSlopeFilterMode;
+import odin.recast.core.RecastChunkyTriMesh;
+import odin.recast.core.RecastContour.ContourSet;
+import odin.recast.core.RecastHeightfield.CompactHeightfield;
+import odin.recast.core.RecastHeightfield.Heightfield;
+import odin.recast.core.RecastPolyMesh.PolyMesh;
+
+import static odin.recast.config.RecastConstants.*;
+
+/**
+ * 单个瓦片的构建流水线
+ * 参考RecastDemo Sample_TileMesh.cpp中的buildTileMesh
+ *
+ * 按顺序执行光栅化、过滤、紧凑高度字段、可行走区域腐蚀、距离字段、区域、轮廓和多边形网格，
+ * 再转换为可以加入{@link odin.detour.core.DetourNavMesh}的瓦片。
+ * 瓦片的高度字段在四周各扩展borderSize个单元格，使相邻瓦片在公共边界上得到一致的结果。
+ *
+ * 构建器持有自己的{@link RecastContext}和可复用的高度字段，不是线程安全的；
+ * 并行构建时每个线程使用一个构建器（参见{@link RecastTiledNavMeshBuilder}）。
+ *
+ * @author UE5NavMesh4J
+ */
+public class RecastTileBuilder {
+    
+    /** 可行走多边形的默认标志，与{@link odin.detour.core.DetourQueryFilter}默认的包含标志匹配 */
+    public static final int POLY_FLAG_WALK = 0x01;
+    
+    /** 瓦片构建配置 */
+    private final RecastConfig cfg;
+    
+    /** 构建上下文 */
+    private final RecastContext ctx;
+    
+    /** 可复用的高度字段，尺寸不变时只清空span */
+    private final Heightfield solid = new Heightfield();
+    
+    /** 高度字段是否已经分配 */
+    private boolean solidAllocated;
+    
+    /** 瓦片（含边界）的最小边界 */
+    private final float[] tileBmin = new float[3];
+    
+    /** 瓦片（含边界）的最大边界 */
+    private final float[] tileBmax = new float[3];
+    
+    /**
+     * 构造函数
+     * @param cfg 构建配置，bmin/bmax为整个导航网格的边界，tileSize必须大于0
+     * @param ctx 构建上下文 [可选]
+     */
+    public RecastTileBuilder(RecastConfig cfg, RecastContext ctx) {
+        this.cfg = cfg;
+        this.ctx = ctx;
+    }
+    
+    /**
+     * 获取构建上下文
+     * @return 构建上下文，可能为null
+     */
+    public RecastContext getContext() {
+        return ctx;
+    }
+    
+    /**
+     * 计算瓦片（不含边界）的世界空间边界
+     * @param cfg 构建配置
+     * @param tx 瓦片x坐标
+     * @param ty 瓦片y坐标
+     * @param bmin 输出：最小边界 [(x, y, z)]
+     * @param bmax 输出：最大边界 [(x, y, z)]
+     */
+    public static void calcTileBounds(RecastConfig cfg, int tx, int ty, float[] bmin, float[] bmax) {
+        float tcs = cfg.tileSize * cfg.cs;
+        bmin[0] = cfg.bmin[0] + tx * tcs;
+        bmin[1] = cfg.bmin[1];
+        bmin[2] = cfg.bmin[2] + ty * tcs;
+        bmax[0] = cfg.bmin[0] + (tx + 1) * tcs;
+        bmax[1] = cfg.bmax[1];
+        bmax[2] = cfg.bmin[2] + (ty + 1) * tcs;
+    }
+    
+    /**
+     * 构建瓦片的多边形网格
+     * @param verts 输入网格顶点 [(x, y, z) * nverts]
+     * @param nverts 顶点数量
+     * @param chunkyMesh 由输入网格构建的分块三角形网格
+     * @param areas 三角形区域id，按原始三角形顺序 [ntris]
+     * @param tx 瓦片x坐标
+     * @param ty 瓦片y坐标
+     * @return 多边形网格，瓦片中没有可行走区域或构建失败时返回null
+     */
+    public PolyMesh buildPolyMesh(float[] verts, int nverts, RecastChunkyTriMesh chunkyMesh, byte[] areas,
+                                  int tx, int ty) {
+        RecastConfig.BorderSize border = cfg.borderSize;
+        int width = cfg.tileSize + border.low + border.high;
+        int height = cfg.tileSize + border.low + border.high;
+        
+        // 瓦片边界向外扩展边界大小
+        calcTileBounds(cfg, tx, ty, tileBmin, tileBmax);
+        tileBmin[0] -= border.low * cfg.cs;
+        tileBmin[2] -= border.low * cfg.cs;
+        tileBmax[0] += border.high * cfg.cs;
+        tileBmax[2] += border.high * cfg.cs;
+        
+        // 光栅化
+        if (solidAllocated && solid.width == width && solid.height == height) {
+            RecastUtils.resetHeightfield(solid);
+            System.arraycopy(tileBmin, 0, solid.bmin, 0, 3);
+            System.arraycopy(tileBmax, 0, solid.bmax, 0, 3);
+        } else if (RecastUtils.createHeightfield(ctx, solid, width, height, tileBmin, tileBmax, cfg.cs, cfg.ch)) {
+            solidAllocated = true;
+        } else {
+            return null;
+        }
+        
+        int nrasterized = RecastRasterization.rasterizeTriangles(ctx, verts, nverts, chunkyMesh, areas, solid,
+                                                                 cfg.walkableClimb, 0, null);
+        if (nrasterized == 0) {
+            return null;
+        }
+        
+        // 过滤不可行走的span
+        RecastFilter.filterLowHangingWalkableObstacles(ctx, cfg.walkableClimb, solid);
+        RecastFilter.filterLedgeSpans(ctx, cfg.walkableHeight, cfg.walkableClimb,
+                                      NeighborSlopeFilterMode.RC_SLOPE_FILTER_RECAST,
+                                      cfg.maxStepFromWalkableSlope, cfg.ch, solid);
+        RecastFilter.filterWalkableLowHeightSpans(ctx, cfg.walkableHeight, solid);
+        
+        // 过滤后没有可行走span的瓦片（空旷或被完全阻挡）是正常的空瓦片，不记录错误
+        if (RecastUtils.getHeightFieldSpanCount(ctx, solid) == 0) {
+            return null;
+        }
+        
+        // 紧凑高度字段和区域
+        CompactHeightfield chf = new CompactHeightfield();
+        if (!RecastCompactHeightfield.buildCompactHeightfield(ctx, cfg.walkableHeight, cfg.walkableClimb, solid, chf)) {
+            log("瓦片 (%d, %d): 无法构建紧凑高度字段", tx, ty);
+            return null;
+        }
+        if (cfg.walkableRadius > 0 && !RecastCompactHeightfield.erodeWalkableArea(ctx, cfg.walkableRadius, chf)) {
+            log("瓦片 (%d, %d): 无法腐蚀可行走区域", tx, ty);
+            return null;
+        }
+        if (!RecastCompactHeightfield.buildDistanceField(ctx, chf)) {
+            log("瓦片 (%d, %d): 无法构建距离字段", tx, ty);
+            return null;
+        }
+        if (!RecastRegion.buildRegions(ctx, chf, border, cfg.minRegionArea, cfg.mergeRegionArea)) {
+            log("瓦片 (%d, %d): 无法构建区域", tx, ty);
+            return null;
+        }
+        
+        // 轮廓和多边形网格
+        ContourSet cset = new ContourSet();
+        if (!RecastContour.buildContours(ctx, chf, cfg.maxSimplificationError, cfg.maxEdgeLen, cset,
+                                         ContourBuildFlags.RC_CONTOUR_TESS_WALL_EDGES.getValue())) {
+            log("瓦片 (%d, %d): 无法构建轮廓", tx, ty);
+            return null;
+        }
+        if (cset.nconts == 0) {
+            return null;
+        }
+        
+        PolyMesh pmesh = new PolyMesh();
+        if (!RecastMesh.buildPolyMesh(ctx, cset, cfg.maxVertsPerPoly, pmesh)) {
+            log("瓦片 (%d, %d): 无法构建多边形网格", tx, ty);
+            return null;
+        }
+        if (pmesh.npolys == 0) {
+            return null;
+        }
+        
+        for (int i = 0; i < pmesh.npolys; i++) {
+            pmesh.flags[i] = pmesh.areas[i] != RC_NULL_AREA ? POLY_FLAG_WALK : 0;
+        }
+        return pmesh;
+    }
+    
+    /**
+     * 构建瓦片
+     * @param verts 输入网格顶点 [(x, y, z) * nverts]
+     * @param nverts 顶点数量
+     * @param chunkyMesh 由输入网格构建的分块三角形网格
+     * @param areas 三角形区域id，按原始三角形顺序 [ntris]
+     * @param tx 瓦片x坐标
+     * @param ty 瓦片y坐标
+     * @return 瓦片，瓦片中没有可行走区域或构建失败时返回null
+     */
+    public MeshTile buildTile(float[] verts, int nverts, RecastChunkyTriMesh chunkyMesh, byte[] areas,
+                              int tx, int ty) {
+        PolyMesh pmesh = buildPolyMesh(verts, nverts, chunkyMesh, areas, tx, ty);
+        if (pmesh == null) {
+            return null;
+        }
+        
+        MeshTile[] result = new MeshTile[1];
+        int status = DetourNavMeshBuilder.createTile(createParams(pmesh, tx, ty), result);
+        if (Status.dtStatusFailed(status)) {
+            log("瓦片 (%d, %d): 无法创建Detour瓦片", tx, ty);
+            return null;
+        }
+        return result[0];
+    }
+    
+    /**
+     * 由多边形网格创建Detour瓦片构建参数
+     * @param pmesh 多边形网格
+     * @param tx 瓦片x坐标
+     * @param ty 瓦片y坐标
+     * @return 瓦片构建参数
+     */
+    public static CreateParams createParams(PolyMesh pmesh, int tx, int ty) {
+        CreateParams params = new CreateParams();
+        params.verts = pmesh.verts;
+        params.vertCount = pmesh.nverts;
+        params.polys = pmesh.polys;
+        params.polyFlags = pmesh.flags;
+        params.polyAreas = pmesh.areas;
+        params.polyCount = pmesh.npolys;
+        params.nvp = pmesh.nvp;
+        params.tileX = tx;
+        params.tileY = ty;
+        System.arraycopy(pmesh.bmin, 0, params.bmin, 0, 3);
+        System.arraycopy(pmesh.bmax, 0, params.bmax, 0, 3);
+        params.cs = pmesh.cs;
+        params.ch = pmesh.ch;
+        params.buildBvTree = true;
+        return params;
+    }
+    
+    /**
+     * 记录错误日志
+     * @param format 格式字符串
+     * @param tx 瓦片x坐标
+     * @param ty 瓦片y坐标
+     */
+    private void log(String format, int tx, int ty) {
+        if (ctx != null) {
+            ctx.log(LogCategory.RC_LOG_ERROR, format, tx, ty);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,326 @@
+package odin.recast.builder;
+
+import odin.detour.core.DetourNavMesh.MeshTile;
+import odin.detour.config.DetourEnums.Status;
+import odin.detour.io.DetourTileSerializer;
+import odin.recast.config.RecastConfig;
+import odin.recast.core.RecastChunkyTriMesh;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static odin.recast.config.RecastConstants.*;
+
+/**
+ * 瓦片构建缓存
+ *
+ * 以瓦片输入内容的哈希为键，把构建好的瓦片按{@link DetourTileSerializer}的格式保存在本地目录中。
+ * 键由与瓦片（含边界）重叠的三角形及其区域id、瓦片坐标和影响构建结果的配置字段计算
+ * （参见{@link #computeKey}），输入没有变化的瓦片在之后的构建中直接从缓存读取，跳过整个构建流水线。
+ * 没有可行走区域的瓦片也会被缓存，命中时结果为null。
+ *
+ * 每个键对应目录中的一个文件，文件先写入临时文件再原子地移动到目标位置，
+ * 多个线程或进程可以同时读写同一个缓存目录。无法解析的缓存文件视为未命中。
+ * 缓存只保存最终的Detour瓦片，不保存紧凑高度字段等中间结果。
+ *
+ * @author UE5NavMesh4J
+ */
+public class RecastTileCache {
+    
+    /** 缓存文件魔数 'RTCE' */
+    private static final int CACHE_MAGIC = ('R' << 24) | ('T' << 16) | ('C' << 8) | 'E';
+    
+    /** 缓存文件版本，瓦片格式或构建流水线的结果变化时递增 */
+    private static final int CACHE_VERSION = 1;
+    
+    /** 缓存文件头部大小 (magic, version, tileLength) */
+    private static final int HEADER_SIZE = 3 * 4;
+    
+    /** 缓存文件扩展名 */
+    private static final String FILE_SUFFIX = ".tile";
+    
+    /** 查找重叠块时的初始块数组大小 */
+    private static final int INITIAL_CHUNK_IDS = 512;
+    
+    /** 缓存目录 */
+    private final Path directory;
+    
+    /** 命中次数 */
+    private final AtomicLong hits = new AtomicLong();
+    
+    /** 未命中次数 */
+    private final AtomicLong misses = new AtomicLong();
+    
+    /**
+     * 构造函数，目录不存在时创建目录
+     * @param directory 缓存目录
+     * @throws IOException 无法创建目录时抛出
+     */
+    public RecastTileCache(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+    
+    /**
+     * 获取缓存目录
+     * @return 缓存目录
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+    
+    /**
+     * 获取命中次数
+     * @return 命中次数
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+    
+    /**
+     * 获取未命中次数
+     * @return 未命中次数
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+    
+    /**
+     * 读取缓存的瓦片
+     * @param key 缓存键（参见{@link #computeKey}）
+     * @param result 输出：瓦片，缓存的是空瓦片时为null [大小: 1]
+     * @return true如果命中
+     * @throws IOException 读取缓存文件失败时抛出
+     */
+    public boolean get(String key, MeshTile[] result) throws IOException {
+        result[0] = null;
+        byte[] data;
+        try {
+            data = Files.readAllBytes(resolve(key));
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            return false;
+        }
+        
+        ByteBuffer buf = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        if (data.length < HEADER_SIZE || buf.getInt(0) != CACHE_MAGIC || buf.getInt(4) != CACHE_VERSION
+            || buf.getInt(8) != data.length - HEADER_SIZE) {
+            misses.incrementAndGet();
+            return false;
+        }
+        
+        if (data.length > HEADER_SIZE) {
+            byte[] tileData = Arrays.copyOfRange(data, HEADER_SIZE, data.length);
+            if (Status.dtStatusFailed(DetourTileSerializer.readTile(tileData, result))) {
+                result[0] = null;
+                misses.incrementAndGet();
+                return false;
+            }
+        }
+        hits.incrementAndGet();
+        return true;
+    }
+    
+    /**
+     * 写入瓦片到缓存，已有的同键文件被替换
+     * @param key 缓存键（参见{@link #computeKey}）
+     * @param tile 瓦片，null表示没有可行走区域的空瓦片
+     * @throws IOException 写入缓存文件失败时抛出
+     */
+    public void put(String key, MeshTile tile) throws IOException {
+        byte[] tileData = tile != null ? DetourTileSerializer.writeTile(tile) : new byte[0];
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + tileData.length).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(CACHE_MAGIC);
+        buf.putInt(CACHE_VERSION);
+        buf.putInt(tileData.length);
+        buf.put(tileData);
+        
+        Path target = resolve(key);
+        Path tmp = Files.createTempFile(directory, key, ".tmp");
+        try {
+            Files.write(tmp, buf.array());
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+    
+    /**
+     * 删除缓存目录中的所有缓存文件
+     * @throws IOException 删除失败时抛出
+     */
+    public void clear() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+    
+    /**
+     * 获取缓存键对应的文件
+     * @param key 缓存键
+     * @return 缓存文件路径
+     */
+    private Path resolve(String key) {
+        return directory.resolve(key + FILE_SUFFIX);
+    }
+    
+    /**
+     * 计算瓦片的缓存键
+     *
+     * 收集与瓦片（含边界）xz包围盒重叠的非空区域三角形，每个三角形的顶点坐标和区域id哈希为64位，
+     * 排序后与瓦片坐标、瓦片边界和配置字段一起计算SHA-256。三角形在输入网格中的顺序和索引
+     * 以及瓦片外的几何不影响键。
+     *
+     * @param cfg 构建配置，bmin/bmax为整个导航网格的边界
+     * @param verts 输入网格顶点 [(x, y, z) * nverts]
+     * @param chunkyMesh 由输入网格构建的分块三角形网格
+     * @param areas 三角形区域id，按原始三角形顺序 [ntris]
+     * @param tx 瓦片x坐标
+     * @param ty 瓦片y坐标
+     * @return 32个十六进制字符的缓存键
+     */
+    public static String computeKey(RecastConfig cfg, float[] verts, RecastChunkyTriMesh chunkyMesh, byte[] areas,
+                                    int tx, int ty) {
+        float[] tbmin = new float[3];
+        float[] tbmax = new float[3];
+        RecastTileBuilder.calcTileBounds(cfg, tx, ty, tbmin, tbmax);
+        tbmin[0] -= cfg.borderSize.low * cfg.cs;
+        tbmin[2] -= cfg.borderSize.low * cfg.cs;
+        tbmax[0] += cfg.borderSize.high * cfg.cs;
+        tbmax[2] += cfg.borderSize.high * cfg.cs;
+        
+        // 收集重叠块中的三角形哈希
+        float[] rmin = {tbmin[0], tbmin[2]};
+        float[] rmax = {tbmax[0], tbmax[2]};
+        int[] cids = new int[INITIAL_CHUNK_IDS];
+        int ncids = chunkyMesh.getChunksOverlappingRect(rmin, rmax, cids, cids.length);
+        while (ncids == cids.length) {
+            cids = new int[cids.length * 2];
+            ncids = chunkyMesh.getChunksOverlappingRect(rmin, rmax, cids, cids.length);
+        }
+        
+        long[] hashes = new long[64];
+        int nhashes = 0;
+        for (int c = 0; c < ncids; c++) {
+            int start = chunkyMesh.getChunkTriStart(cids[c]);
+            int count = chunkyMesh.getChunkTriCount(cids[c]);
+            for (int t = start; t < start + count; t++) {
+                int area = areas[chunkyMesh.triIds[t]] & 0xff;
+                if (area == RC_NULL_AREA || !overlapsTriangle(verts, chunkyMesh.tris, t, rmin, rmax)) {
+                    continue;
+                }
+                if (nhashes == hashes.length) {
+                    hashes = Arrays.copyOf(hashes, hashes.length * 2);
+                }
+                hashes[nhashes++] = hashTriangle(verts, chunkyMesh.tris, t, area);
+            }
+        }
+        Arrays.sort(hashes, 0, nhashes);
+        
+        // 配置、瓦片边界和三角形哈希
+        ByteBuffer buf = ByteBuffer.allocate(32 * 4 + 6 * 4 + 4 + nhashes * 8).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(CACHE_VERSION);
+        buf.putInt(tx).putInt(ty);
+        buf.putFloat(cfg.cs).putFloat(cfg.ch);
+        buf.putInt(cfg.tileSize).putInt(cfg.borderSize.low).putInt(cfg.borderSize.high);
+        buf.putFloat(cfg.walkableSlopeAngle).putInt(cfg.walkableHeight).putInt(cfg.walkableClimb);
+        buf.putFloat(cfg.maxStepFromWalkableSlope);
+        buf.putInt(cfg.maxEdgeLen).putFloat(cfg.maxSimplificationError);
+        buf.putInt(cfg.minRegionArea).putInt(cfg.mergeRegionArea);
+        buf.putInt(cfg.maxVertsPerPoly).putInt(cfg.regionPartitioning);
+        for (int i = 0; i < 3; i++) {
+            buf.putFloat(tbmin[i]).putFloat(tbmax[i]);
+        }
+        buf.putInt(nhashes);
+        for (int i = 0; i < nhashes; i++) {
+            buf.putLong(hashes[i]);
+        }
+        
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+        digest.update(buf.array(), 0, buf.position());
+        byte[] sha = digest.digest();
+        
+        char[] hex = new char[32];
+        for (int i = 0; i < 16; i++) {
+            hex[i * 2] = Character.forDigit((sha[i] >> 4) & 0xf, 16);
+            hex[i * 2 + 1] = Character.forDigit(sha[i] & 0xf, 16);
+        }
+        return new String(hex);
+    }
+    
+    /**
+     * 检查三角形的xz包围盒是否与矩形重叠
+     * @param verts 顶点数组
+     * @param tris 三角形索引数组
+     * @param t 三角形索引
+     * @param rmin 矩形的最小点 [(x, z)]
+     * @param rmax 矩形的最大点 [(x, z)]
+     * @return true如果重叠
+     */
+    private static boolean overlapsTriangle(float[] verts, int[] tris, int t, float[] rmin, float[] rmax) {
+        float minx = Float.MAX_VALUE;
+        float minz = Float.MAX_VALUE;
+        float maxx = -Float.MAX_VALUE;
+        float maxz = -Float.MAX_VALUE;
+        for (int j = 0; j < 3; j++) {
+            int v = tris[t * 3 + j] * 3;
+            minx = Math.min(minx, verts[v]);
+            minz = Math.min(minz, verts[v + 2]);
+            maxx = Math.max(maxx, verts[v]);
+            maxz = Math.max(maxz, verts[v + 2]);
+        }
+        return minx <= rmax[0] && maxx >= rmin[0] && minz <= rmax[1] && maxz >= rmin[1];
+    }
+    
+    /**
+     * 计算三角形的64位哈希
+     * @param verts 顶点数组
+     * @param tris 三角形索引数组
+     * @param t 三角形索引
+     * @param area 三角形区域id
+     * @return 哈希值
+     */
+    private static long hashTriangle(float[] verts, int[] tris, int t, int area) {
+        long h = 0xcbf29ce484222325L ^ area;
+        for (int j = 0; j < 3; j++) {
+            int v = tris[t * 3 + j] * 3;
+            for (int k = 0; k < 3; k++) {
+                h = mix(h ^ (Float.floatToIntBits(verts[v + k]) & 0xffffffffL));
+            }
+        }
+        return h;
+    }
+    
+    /**
+     * 64位整数混合函数（SplitMix64的终结步骤）
+     * @param x 输入
+     * @return 混合后的值
+     */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+}
\ No newline at end of file
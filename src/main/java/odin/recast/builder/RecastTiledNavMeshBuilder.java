@@ -0,0 +1,512 @@
+package odin.recast.builder;
+
+import odin.detour.core.DetourNavMesh;
+import odin.detour.core.DetourNavMesh.MeshTile;
+import odin.detour.core.DetourNavMesh.NavMeshParams;
+import odin.detour.config.DetourEnums.Status;
+import odin.recast.algorithms.RecastContext;
+import odin.recast.algorithms.RecastUtils;
+import odin.recast.config.RecastConfig;
+import odin.recast.config.RecastEnums.LogCategory;
+import odin.recast.core.RecastChunkyTriMesh;
+import odin.recast.io.RecastMeshLoader.InputMesh;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 瓦片化导航网格并行构建器
+ * 参考RecastDemo Sample_TileMesh.cpp中的buildAllTiles
+ *
+ * 将输入网格按{@link RecastConfig#tileSize}划分为瓦片，在{@link ForkJoinPool}上独立构建每个瓦片，
+ * 再在调用线程上把瓦片加入{@link DetourNavMesh}。输入网格只构建一次{@link RecastChunkyTriMesh}，
+ * 每个瓦片只光栅化与其（含边界）重叠的三角形。
+ *
+ * 每个工作线程使用自己的{@link RecastTileBuilder}，其中包含独立的{@link RecastContext}和可复用的高度字段，
+ * 瓦片之间不共享可变状态。输入网格和区域数组在构建期间不能被修改。
+ *
+ * 几何变化后通过{@link #setInputMesh}设置新的输入网格，再用{@link #rebuildTiles}只重建与变化区域
+ * （按边界大小扩展）重叠的瓦片，并在一次批量修改中替换到导航网格中。
+ * 设置{@link RecastTileCache}后，输入没有变化的瓦片直接从磁盘缓存读取，重复烘焙时跳过这些瓦片的构建。
+ *
+ * @author UE5NavMesh4J
+ */
+public class RecastTiledNavMeshBuilder {
+    
+    /** 每个块的最大三角形数量 */
+    private static final int TRIS_PER_CHUNK = 256;
+    
+    /**
+     * 每个瓦片的最大多边形数量
+     * 瓦片的顶点数量小于0xffff，多边形数量不会超过该值，重建瓦片时不需要重新初始化导航网格
+     */
+    private static final int MAX_POLYS_PER_TILE = 0x10000;
+    
+    /** 替换瓦片时查找同一位置上已有瓦片的初始数组大小 */
+    private static final int MAX_TILES_AT = 8;
+    
+    /** 构建配置 */
+    private final RecastConfig cfg;
+    
+    /** 当前的输入几何，替换时整体更新，构建任务读取同一份快照 */
+    private volatile InputGeometry geometry;
+    
+    /** x方向的瓦片数量 */
+    private final int tileCountX;
+    
+    /** z方向的瓦片数量 */
+    private final int tileCountY;
+    
+    /** 执行瓦片构建的线程池 */
+    private final ForkJoinPool pool;
+    
+    /** 每个线程的瓦片构建器 */
+    private final ThreadLocal<RecastTileBuilder> builders;
+    
+    /** 是否为每个线程的构建上下文启用日志 */
+    private volatile boolean logEnabled;
+    
+    /** 瓦片构建缓存 [可选] */
+    private volatile RecastTileCache tileCache;
+    
+    /**
+     * 输入几何
+     */
+    private static class InputGeometry {
+        /** 输入网格顶点 [(x, y, z) * nverts] */
+        final float[] verts;
+        /** 顶点数量 */
+        final int nverts;
+        /** 三角形区域id，按原始三角形顺序 [ntris] */
+        final byte[] areas;
+        /** 分块三角形网格 */
+        final RecastChunkyTriMesh chunkyMesh;
+        
+        InputGeometry(float[] verts, int nverts, byte[] areas, RecastChunkyTriMesh chunkyMesh) {
+            this.verts = verts;
+            this.nverts = nverts;
+            this.areas = areas;
+            this.chunkyMesh = chunkyMesh;
+        }
+    }
+    
+    /**
+     * 构造函数
+     *
+     * 配置的bmin/bmax未设置（最大点不大于最小点）时使用输入网格的包围盒。
+     * 区域数组为null时按配置的可行走坡度标记三角形。
+     *
+     * @param cfg 构建配置，tileSize必须大于0
+     * @param mesh 输入网格
+     * @param areas 三角形区域id，按原始三角形顺序 [可选] [ntris]
+     * @param pool 执行瓦片构建的线程池 [可选，默认为公共线程池]
+     */
+    public RecastTiledNavMeshBuilder(RecastConfig cfg, InputMesh mesh, byte[] areas, ForkJoinPool pool) {
+        if (cfg.tileSize <= 0) {
+            throw new IllegalArgumentException("瓦片大小必须大于0: " + cfg.tileSize);
+        }
+        this.cfg = new RecastConfig(cfg);
+        if (this.cfg.bmax[0] <= this.cfg.bmin[0] || this.cfg.bmax[2] <= this.cfg.bmin[2]) {
+            System.arraycopy(mesh.bmin, 0, this.cfg.bmin, 0, 3);
+            System.arraycopy(mesh.bmax, 0, this.cfg.bmax, 0, 3);
+        }
+        
+        this.geometry = createGeometry(mesh, areas);
+        
+        int[] gridSize = RecastUtils.calcGridSize(this.cfg.bmin, this.cfg.bmax, this.cfg.cs);
+        this.cfg.width = gridSize[0];
+        this.cfg.height = gridSize[1];
+        this.tileCountX = (gridSize[0] + this.cfg.tileSize - 1) / this.cfg.tileSize;
+        this.tileCountY = (gridSize[1] + this.cfg.tileSize - 1) / this.cfg.tileSize;
+        
+        this.pool = pool != null ? pool : ForkJoinPool.commonPool();
+        final RecastConfig tileCfg = this.cfg;
+        this.builders = new ThreadLocal<RecastTileBuilder>() {
+            @Override
+            protected RecastTileBuilder initialValue() {
+                return new RecastTileBuilder(tileCfg, new RecastContext(logEnabled));
+            }
+        };
+    }
+    
+    /**
+     * 创建输入几何
+     * @param mesh 输入网格
+     * @param areas 三角形区域id [可选]
+     * @return 输入几何
+     */
+    private InputGeometry createGeometry(InputMesh mesh, byte[] areas) {
+        if (areas == null) {
+            areas = new byte[mesh.ntris];
+            RecastUtils.markWalkableTriangles(null, cfg.walkableSlopeAngle,
+                                              mesh.verts, mesh.nverts, mesh.tris, mesh.ntris, areas);
+        }
+        RecastChunkyTriMesh chunkyMesh = new RecastChunkyTriMesh(mesh.verts, mesh.tris, mesh.ntris, TRIS_PER_CHUNK);
+        return new InputGeometry(mesh.verts, mesh.nverts, areas, chunkyMesh);
+    }
+    
+    /**
+     * 设置新的输入网格
+     *
+     * 重新构建分块三角形网格，瓦片网格（构建配置的边界和瓦片大小）保持不变，
+     * 超出原边界的几何不会被构建。之后构建的瓦片使用新的网格，已经开始的构建不受影响。
+     *
+     * @param mesh 输入网格
+     * @param areas 三角形区域id，按原始三角形顺序 [可选] [ntris]
+     */
+    public void setInputMesh(InputMesh mesh, byte[] areas) {
+        this.geometry = createGeometry(mesh, areas);
+    }
+    
+    /**
+     * 设置是否为工作线程的构建上下文启用日志，只影响之后创建的上下文
+     * @param enabled true启用日志
+     */
+    public void setLogEnabled(boolean enabled) {
+        this.logEnabled = enabled;
+    }
+    
+    /**
+     * 设置瓦片构建缓存
+     *
+     * 设置缓存后，每个瓦片在构建前先按输入内容计算缓存键并查找缓存，命中时直接使用缓存的瓦片，
+     * 未命中时构建并写入缓存。缓存读写失败不影响构建结果，只记录到工作线程的构建上下文。
+     *
+     * @param cache 瓦片构建缓存 [可选，null禁用缓存]
+     */
+    public void setTileCache(RecastTileCache cache) {
+        this.tileCache = cache;
+    }
+    
+    /**
+     * 获取瓦片构建缓存
+     * @return 瓦片构建缓存，未设置时返回null
+     */
+    public RecastTileCache getTileCache() {
+        return tileCache;
+    }
+    
+    /**
+     * 获取构建配置（bmin/bmax、width和height已经计算）
+     * @return 构建配置
+     */
+    public RecastConfig getConfig() {
+        return cfg;
+    }
+    
+    /**
+     * 获取x方向的瓦片数量
+     * @return 瓦片数量
+     */
+    public int getTileCountX() {
+        return tileCountX;
+    }
+    
+    /**
+     * 获取z方向的瓦片数量
+     * @return 瓦片数量
+     */
+    public int getTileCountY() {
+        return tileCountY;
+    }
+    
+    /**
+     * 在当前线程上构建单个瓦片
+     * @param tx 瓦片x坐标
+     * @param ty 瓦片y坐标
+     * @return 瓦片，瓦片中没有可行走区域或构建失败时返回null
+     */
+    public MeshTile buildTile(int tx, int ty) {
+        InputGeometry geom = geometry;
+        RecastTileBuilder builder = builders.get();
+        RecastTileCache cache = tileCache;
+        if (cache == null) {
+            return builder.buildTile(geom.verts, geom.nverts, geom.chunkyMesh, geom.areas, tx, ty);
+        }
+        
+        String key = RecastTileCache.computeKey(cfg, geom.verts, geom.chunkyMesh, geom.areas, tx, ty);
+        MeshTile[] cached = new MeshTile[1];
+        try {
+            if (cache.get(key, cached)) {
+                return cached[0];
+            }
+        } catch (IOException e) {
+            logCacheError(builder, "瓦片 (%d, %d): 无法读取缓存: %s", tx, ty, e);
+        }
+        
+        MeshTile tile = builder.buildTile(geom.verts, geom.nverts, geom.chunkyMesh, geom.areas, tx, ty);
+        try {
+            cache.put(key, tile);
+        } catch (IOException e) {
+            logCacheError(builder, "瓦片 (%d, %d): 无法写入缓存: %s", tx, ty, e);
+        }
+        return tile;
+    }
+    
+    /**
+     * 记录缓存读写错误
+     * @param builder 当前线程的瓦片构建器
+     * @param format 格式字符串
+     * @param tx 瓦片x坐标
+     * @param ty 瓦片y坐标
+     * @param e 异常
+     */
+    private static void logCacheError(RecastTileBuilder builder, String format, int tx, int ty, IOException e) {
+        RecastContext ctx = builder.getContext();
+        if (ctx != null) {
+            ctx.log(LogCategory.RC_LOG_WARNING, format, tx, ty, e.getMessage());
+        }
+    }
+    
+    /**
+     * 并行构建矩形范围内的瓦片
+     * @param minx 最小瓦片x坐标（包含）
+     * @param miny 最小瓦片y坐标（包含）
+     * @param maxx 最大瓦片x坐标（包含）
+     * @param maxy 最大瓦片y坐标（包含）
+     * @return 瓦片数组，索引为(ty - miny) * (maxx - minx + 1) + (tx - minx)，空瓦片为null
+     */
+    public MeshTile[] buildTiles(int minx, int miny, int maxx, int maxy) {
+        int nx = maxx - minx + 1;
+        int ny = maxy - miny + 1;
+        if (nx <= 0 || ny <= 0) {
+            return new MeshTile[0];
+        }
+        int[] coords = new int[nx * ny * 2];
+        for (int y = 0; y < ny; y++) {
+            for (int x = 0; x < nx; x++) {
+                int i = y * nx + x;
+                coords[i * 2] = minx + x;
+                coords[i * 2 + 1] = miny + y;
+            }
+        }
+        MeshTile[] tiles = new MeshTile[nx * ny];
+        pool.invoke(new BuildTask(coords, tiles, 0, tiles.length));
+        return tiles;
+    }
+    
+    /**
+     * 并行构建指定坐标的瓦片
+     * @param coords 瓦片坐标 [(tx, ty) * n]
+     * @param n 瓦片数量
+     * @return 瓦片数组，与坐标一一对应，空瓦片为null
+     */
+    public MeshTile[] buildTiles(int[] coords, int n) {
+        MeshTile[] tiles = new MeshTile[n];
+        pool.invoke(new BuildTask(coords, tiles, 0, n));
+        return tiles;
+    }
+    
+    /**
+     * 创建与构建配置匹配的导航网格参数
+     * @return 导航网格参数
+     */
+    public NavMeshParams createNavMeshParams() {
+        NavMeshParams params = new NavMeshParams();
+        params.orig[0] = cfg.bmin[0];
+        params.orig[1] = cfg.bmin[1];
+        params.orig[2] = cfg.bmin[2];
+        params.tileWidth = cfg.tileSize * cfg.cs;
+        params.tileHeight = cfg.tileSize * cfg.cs;
+        params.maxTiles = Math.max(1, tileCountX * tileCountY);
+        params.maxPolys = MAX_POLYS_PER_TILE;
+        params.walkableHeight = cfg.walkableHeight * cfg.ch;
+        params.walkableRadius = cfg.walkableRadius * cfg.cs;
+        params.walkableClimb = cfg.walkableClimb * cfg.ch;
+        params.setResolutionCellSize(0, cfg.cs);
+        return params;
+    }
+    
+    /**
+     * 构建所有瓦片并组装导航网格
+     * @return 导航网格
+     */
+    public DetourNavMesh build() {
+        DetourNavMesh navMesh = new DetourNavMesh();
+        int status = navMesh.init(createNavMeshParams());
+        if (Status.dtStatusFailed(status)) {
+            throw new IllegalStateException("无法初始化导航网格: " + status);
+        }
+        
+        MeshTile[] tiles = buildTiles(0, 0, tileCountX - 1, tileCountY - 1);
+        for (MeshTile tile : tiles) {
+            if (tile == null) {
+                continue;
+            }
+            status = navMesh.addTile(tile, null);
+            if (Status.dtStatusFailed(status)) {
+                throw new IllegalStateException("无法添加瓦片 (" + tile.header.x + ", " + tile.header.y + "): " + status);
+            }
+        }
+        return navMesh;
+    }
+    
+    /**
+     * 查找受变化区域影响的瓦片
+     *
+     * 瓦片的高度字段向外扩展了边界大小，变化区域在xz平面上按边界大小扩展后与瓦片重叠时，该瓦片需要重建。
+     *
+     * @param bounds 变化区域的包围盒 [(minx, miny, minz, maxx, maxy, maxz) * nbounds]
+     * @param nbounds 包围盒数量
+     * @return 瓦片坐标 [(tx, ty) * n]，按瓦片索引排列且不重复
+     */
+    public int[] findDirtyTiles(float[] bounds, int nbounds) {
+        float tcs = cfg.tileSize * cfg.cs;
+        float padLow = cfg.borderSize.high * cfg.cs;
+        float padHigh = cfg.borderSize.low * cfg.cs;
+        boolean[] dirty = new boolean[tileCountX * tileCountY];
+        int n = 0;
+        for (int i = 0; i < nbounds; i++) {
+            int b = i * 6;
+            int minx = Math.max(0, (int) Math.floor((bounds[b] - padLow - cfg.bmin[0]) / tcs));
+            int miny = Math.max(0, (int) Math.floor((bounds[b + 2] - padLow - cfg.bmin[2]) / tcs));
+            int maxx = Math.min(tileCountX - 1, (int) Math.floor((bounds[b + 3] + padHigh - cfg.bmin[0]) / tcs));
+            int maxy = Math.min(tileCountY - 1, (int) Math.floor((bounds[b + 5] + padHigh - cfg.bmin[2]) / tcs));
+            for (int y = miny; y <= maxy; y++) {
+                for (int x = minx; x <= maxx; x++) {
+                    if (!dirty[y * tileCountX + x]) {
+                        dirty[y * tileCountX + x] = true;
+                        n++;
+                    }
+                }
+            }
+        }
+        
+        int[] coords = new int[n * 2];
+        int k = 0;
+        for (int i = 0; i < dirty.length && k < n * 2; i++) {
+            if (dirty[i]) {
+                coords[k++] = i % tileCountX;
+                coords[k++] = i / tileCountX;
+            }
+        }
+        return coords;
+    }
+    
+    /**
+     * 重建受变化区域影响的瓦片并替换到导航网格中
+     *
+     * 瓦片在线程池上并行构建，之后在调用线程上通过一次批量修改（参见{@link DetourNavMesh#beginUpdate()}）
+     * 移除旧瓦片并加入新瓦片；写时复制模式下查询线程在替换完成前一直看到旧瓦片。
+     * 每个重建位置上的所有瓦片都被移除，包括其他层和其他分辨率加入的瓦片，
+     * 再加入本构建器生成的单层瓦片；重建后没有可行走区域的位置不再有瓦片。被替换瓦片中的多边形引用失效。
+     * 新瓦片在移除旧瓦片之前全部检查（参见{@link DetourNavMesh#checkTile(MeshTile)}）并确认空闲槽位足够，
+     * 检查失败时导航网格保持不变。
+     *
+     * @param navMesh 由本构建器的参数初始化的导航网格，必须在拥有导航网格的线程上调用
+     * @param bounds 变化区域的包围盒 [(minx, miny, minz, maxx, maxy, maxz) * nbounds]
+     * @param nbounds 包围盒数量
+     * @return 重建的瓦片位置数量
+     * @throws IllegalStateException 新瓦片无法加入导航网格或瓦片槽位不足
+     */
+    public int rebuildTiles(DetourNavMesh navMesh, float[] bounds, int nbounds) {
+        int[] coords = findDirtyTiles(bounds, nbounds);
+        int n = coords.length / 2;
+        if (n == 0) {
+            return 0;
+        }
+        MeshTile[] tiles = buildTiles(coords, n);
+        
+        // 在移除任何旧瓦片之前检查所有新瓦片，避免替换到一半失败时发布缺少瓦片的导航网格
+        MeshTile[] existing = new MeshTile[MAX_TILES_AT];
+        int nremoved = 0;
+        int nadded = 0;
+        for (int i = 0; i < n; i++) {
+            int nexisting = navMesh.getTilesAt(coords[i * 2], coords[i * 2 + 1], existing, existing.length);
+            while (nexisting == existing.length) {
+                existing = new MeshTile[existing.length * 2];
+                nexisting = navMesh.getTilesAt(coords[i * 2], coords[i * 2 + 1], existing, existing.length);
+            }
+            nremoved += nexisting;
+            if (tiles[i] != null) {
+                int status = navMesh.checkTile(tiles[i]);
+                if (Status.dtStatusFailed(status)) {
+                    throw new IllegalStateException("无法添加瓦片 (" + coords[i * 2] + ", " + coords[i * 2 + 1] + "): " + status);
+                }
+                nadded++;
+            }
+        }
+        int available = navMesh.getFreeTileCount() + nremoved;
+        if (nadded > available) {
+            throw new IllegalStateException("瓦片槽位不足: 需要 " + nadded + " 个，可用 " + available + " 个");
+        }
+        
+        navMesh.beginUpdate();
+        try {
+            for (int i = 0; i < n; i++) {
+                // 移除该位置上的所有瓦片（各层以及其他分辨率的瓦片）
+                int nexisting = navMesh.getTilesAt(coords[i * 2], coords[i * 2 + 1], existing, existing.length);
+                while (nexisting == existing.length) {
+                    existing = new MeshTile[existing.length * 2];
+                    nexisting = navMesh.getTilesAt(coords[i * 2], coords[i * 2 + 1], existing, existing.length);
+                }
+                for (int j = 0; j < nexisting; j++) {
+                    int status = navMesh.removeTile(navMesh.getTileRef(existing[j]), null);
+                    if (Status.dtStatusFailed(status)) {
+                        throw new IllegalStateException("无法移除瓦片 (" + coords[i * 2] + ", " + coords[i * 2 + 1] + "): " + status);
+                    }
+                    existing[j] = null;
+                }
+                if (tiles[i] != null) {
+                    int status = navMesh.addTile(tiles[i], null);
+                    if (Status.dtStatusFailed(status)) {
+                        throw new IllegalStateException("无法添加瓦片 (" + coords[i * 2] + ", " + coords[i * 2 + 1] + "): " + status);
+                    }
+                }
+            }
+        } finally {
+            navMesh.endUpdate();
+        }
+        return n;
+    }
+    
+    /**
+     * 瓦片构建任务，按坐标范围对半拆分直到单个瓦片
+     */
+    private class BuildTask extends RecursiveAction {
+        
+        private static final long serialVersionUID = 1L;
+        
+        /** 瓦片坐标 [(tx, ty) * n] */
+        private final int[] coords;
+        
+        /** 输出瓦片数组 */
+        private final MeshTile[] tiles;
+        
+        /** 第一个瓦片的索引 */
+        private final int start;
+        
+        /** 最后一个瓦片之后的索引 */
+        private final int end;
+        
+        /**
+         * 构造函数
+         * @param coords 瓦片坐标
+         * @param tiles 输出瓦片数组
+         * @param start 第一个瓦片的索引
+         * @param end 最后一个瓦片之后的索引
+         */
+        BuildTask(int[] coords, MeshTile[] tiles, int start, int end) {
+            this.coords = coords;
+            this.tiles = tiles;
+            this.start = start;
+            this.end = end;
+        }
+        
+        /**
+         * 执行构建
+         */
+        @Override
+        protected void compute() {
+            if (end - start <= 1) {
+                for (int i = start; i < end; i++) {
+                    tiles[i] = buildTile(coords[i * 2], coords[i * 2 + 1]);
+                }
+                return;
+            }
+            int mid = (start + end) >>> 1;
+            invokeAll(new BuildTask(coords, tiles, start, mid), new BuildTask(coords, tiles, mid, end));
+        }
+    }
+}
\ No newline at end of file
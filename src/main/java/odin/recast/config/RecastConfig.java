@@ -158,6 +158,38 @@ public class RecastConfig {
         this.detailSampleMaxError = other.detailSampleMaxError;
     }
     
+    /**
+     * 创建使用另一分辨率的配置（UE5扩展）
+     *
+     * 以体素为单位的参数按新旧单元格大小的比例换算，使代理尺寸、瓦片和边界在世界空间中保持不变：
+     * 水平长度按cs换算，高度按ch换算（可行走高度向上取整，攀爬高度向下取整），面积按cs的平方换算。
+     * 瓦片的世界空间大小应是各分辨率单元格大小的整数倍，否则不同分辨率的瓦片边界不会对齐。
+     *
+     * @param cellSize 新的单元格大小（xz平面） [限制: > 0]
+     * @param cellHeight 新的单元格高度（y轴） [限制: > 0]
+     * @return 新的配置
+     */
+    public RecastConfig forResolution(float cellSize, float cellHeight) {
+        RecastConfig cfg = new RecastConfig(this);
+        float rs = this.cs / cellSize;
+        float rh = this.ch / cellHeight;
+        cfg.cs = cellSize;
+        cfg.ch = cellHeight;
+        cfg.tileSize = Math.round(this.tileSize * rs);
+        cfg.width = (int) Math.ceil(this.width * rs);
+        cfg.height = (int) Math.ceil(this.height * rs);
+        cfg.borderSize = new BorderSize((int) Math.ceil(this.borderSize.low * rs),
+                                        (int) Math.ceil(this.borderSize.high * rs));
+        cfg.walkableHeight = (int) Math.ceil(this.walkableHeight * rh);
+        cfg.walkableClimb = (int) Math.floor(this.walkableClimb * rh);
+        cfg.walkableRadius = (int) Math.ceil(this.walkableRadius * rs);
+        cfg.maxEdgeLen = Math.round(this.maxEdgeLen * rs);
+        cfg.minRegionArea = Math.round(this.minRegionArea * rs * rs);
+        cfg.mergeRegionArea = Math.round(this.mergeRegionArea * rs * rs);
+        cfg.regionChunkSize = Math.max(1, Math.round(this.regionChunkSize * rs));
+        return cfg;
+    }
+    
     /**
      * 设置边界框
      * @param minX 最小X坐标
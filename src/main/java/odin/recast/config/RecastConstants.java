@@ -17,7 +17,7 @@ public final class RecastConstants {
     /** rcSpanData::smin和rcSpanData::smax的最大值 */
     public static final int RC_SPAN_MAX_HEIGHT = (1 << RC_SPAN_HEIGHT_BITS) - 1;
     
-    /** 每个span池分配的span数量 */
+    /** 高度字段span存储的初始容量，存储已满时按倍数扩容 */
     public static final int RC_SPANS_PER_POOL = 2048;
     
     /** 空值标识 */
@@ -32,7 +32,7 @@ public final class RecastConstants {
     
     /** 边界值 */
     public static final int RC_BORDER_REG = 0x8000;
-    public static final int RC_AREA_BORDER = 0x20;
+    public static final int RC_AREA_BORDER = 0x20000;
     
     /** 网格常量 */
     public static final int RC_MULTIPLE_REGS = (RC_BORDER_REG | RC_AREA_BORDER);
@@ -49,6 +49,12 @@ public final class RecastConstants {
     /** Detour相关常量 */
     public static final int RC_NOT_CONNECTED_DETOUR = 0xff;
     
+    /** 二进制三角形网格文件魔数 */
+    public static final int RC_MESH_BINARY_MAGIC = ('R' << 24) | ('C' << 16) | ('T' << 8) | 'M';
+    
+    /** 二进制三角形网格文件版本号 */
+    public static final int RC_MESH_BINARY_VERSION = 1;
+    
     /** 私有构造函数防止实例化 */
     private RecastConstants() {
         throw new UnsupportedOperationException("常量类不能被实例化");
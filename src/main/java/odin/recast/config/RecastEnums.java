@@ -60,6 +60,8 @@ public final class RecastEnums {
         RC_TIMER_MEDIAN_AREA,
         /** 过滤低高度区域的时间 */
         RC_TIMER_FILTER_LOW_HEIGHT_SPANS,
+        /** 腐蚀可行走区域的时间 */
+        RC_TIMER_ERODE_AREA,
         /** 构建多边形网格的时间 */
         RC_TIMER_BUILD_POLYMESH,
         /** 合并多边形网格的时间 */
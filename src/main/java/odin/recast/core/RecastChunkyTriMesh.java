@@ -0,0 +1,342 @@
+package odin.recast.core;
+
+import java.util.Arrays;
+
+/**
+ * 分块三角形网格
+ * 翻译自RecastDemo ChunkyTriMesh.h中的rcChunkyTriMesh结构体
+ *
+ * 按三角形在xz平面上的包围盒自顶向下构建AABB树，每个叶节点（块）最多包含trisPerChunk个三角形。
+ * 构建时三角形按块重新排列，块内三角形在{@link #tris}中连续存放；{@link #triIds}记录每个三角形
+ * 在输入网格中的原始索引，用于查找按原始顺序存放的区域等逐三角形数据。
+ *
+ * 整个关卡只需构建一次，之后每个瓦片只取出与其边界重叠的块进行光栅化
+ * （参见{@link odin.recast.algorithms.RecastRasterization#rasterizeTriangles(odin.recast.algorithms.RecastContext,
+ * float[], int, RecastChunkyTriMesh, byte[], RecastHeightfield.Heightfield, int, int, int[])}），
+ * 瓦片化构建的光栅化总量从O(瓦片数 × 三角形数)降为大约O(三角形数)。
+ *
+ * 节点使用基本类型的并行数组存储，内部节点的索引为转义索引的相反数，与Detour的BV树相同。
+ *
+ * @author UE5NavMesh4J
+ */
+public class RecastChunkyTriMesh {
+    
+    /** 节点包围盒的最小点 [(x, z) * nnodes] */
+    private float[] nodeBmin;
+    
+    /** 节点包围盒的最大点 [(x, z) * nnodes] */
+    private float[] nodeBmax;
+    
+    /** 叶节点为块中第一个三角形的索引，内部节点为转义索引的相反数 [nnodes] */
+    private int[] nodeIndex;
+    
+    /** 叶节点中的三角形数量，内部节点为0 [nnodes] */
+    private int[] nodeTriCount;
+    
+    /** 节点数量 */
+    private int nnodes;
+    
+    /** 块数量（叶节点数量） */
+    private int nchunks;
+    
+    /** 按块重新排列的三角形顶点索引 [(a, b, c) * ntris] */
+    public int[] tris;
+    
+    /** 每个重新排列的三角形在输入网格中的原始索引 [ntris] */
+    public int[] triIds;
+    
+    /** 三角形数量 */
+    public int ntris;
+    
+    /** 单个块中的最大三角形数量 */
+    public int maxTrisPerChunk;
+    
+    /**
+     * 构造函数
+     * @param verts 顶点数组 [(x, y, z) * nv]
+     * @param tris 三角形索引数组 [(a, b, c) * ntris]
+     * @param ntris 三角形数量
+     * @param trisPerChunk 每个块的最大三角形数量 [限制: > 0]
+     */
+    public RecastChunkyTriMesh(float[] verts, int[] tris, int ntris, int trisPerChunk) {
+        int chunkSize = Math.max(1, trisPerChunk);
+        int maxChunks = (ntris + chunkSize - 1) / chunkSize;
+        int maxNodes = Math.max(1, maxChunks * 4);
+        
+        this.nodeBmin = new float[maxNodes * 2];
+        this.nodeBmax = new float[maxNodes * 2];
+        this.nodeIndex = new int[maxNodes];
+        this.nodeTriCount = new int[maxNodes];
+        this.tris = new int[ntris * 3];
+        this.triIds = new int[ntris];
+        this.ntris = ntris;
+        
+        // 计算每个三角形在xz平面上的包围盒
+        float[] itemBounds = new float[ntris * 4];
+        int[] order = new int[ntris];
+        for (int i = 0; i < ntris; i++) {
+            int t = i * 3;
+            int b = i * 4;
+            int v = tris[t] * 3;
+            itemBounds[b] = itemBounds[b + 2] = verts[v];
+            itemBounds[b + 1] = itemBounds[b + 3] = verts[v + 2];
+            for (int j = 1; j < 3; j++) {
+                v = tris[t + j] * 3;
+                itemBounds[b] = Math.min(itemBounds[b], verts[v]);
+                itemBounds[b + 1] = Math.min(itemBounds[b + 1], verts[v + 2]);
+                itemBounds[b + 2] = Math.max(itemBounds[b + 2], verts[v]);
+                itemBounds[b + 3] = Math.max(itemBounds[b + 3], verts[v + 2]);
+            }
+            order[i] = i;
+        }
+        
+        long[] keys = new long[ntris];
+        int[] cur = new int[2];
+        subdivide(tris, itemBounds, order, keys, 0, ntris, chunkSize, cur);
+        this.nnodes = cur[0];
+        
+        // 统计块数量和块的最大三角形数量
+        this.maxTrisPerChunk = 0;
+        for (int i = 0; i < nnodes; i++) {
+            if (nodeIndex[i] >= 0) {
+                nchunks++;
+                maxTrisPerChunk = Math.max(maxTrisPerChunk, nodeTriCount[i]);
+            }
+        }
+    }
+    
+    /**
+     * 递归构建子树
+     * @param srcTris 输入三角形索引
+     * @param itemBounds 三角形的xz包围盒 [(minx, minz, maxx, maxz) * ntris]
+     * @param order 三角形顺序，构建过程中按划分轴重新排序
+     * @param keys 排序用的临时数组
+     * @param imin 子树第一个三角形在order中的位置
+     * @param imax 子树最后一个三角形之后的位置
+     * @param trisPerChunk 每个块的最大三角形数量
+     * @param cur 输入输出：[下一个节点的索引, 下一个输出三角形的索引]
+     */
+    private void subdivide(int[] srcTris, float[] itemBounds, int[] order, long[] keys,
+                           int imin, int imax, int trisPerChunk, int[] cur) {
+        int inum = imax - imin;
+        int icur = cur[0]++;
+        
+        // 计算子树的包围盒
+        float minx = Float.MAX_VALUE;
+        float minz = Float.MAX_VALUE;
+        float maxx = -Float.MAX_VALUE;
+        float maxz = -Float.MAX_VALUE;
+        for (int i = imin; i < imax; i++) {
+            int b = order[i] * 4;
+            minx = Math.min(minx, itemBounds[b]);
+            minz = Math.min(minz, itemBounds[b + 1]);
+            maxx = Math.max(maxx, itemBounds[b + 2]);
+            maxz = Math.max(maxz, itemBounds[b + 3]);
+        }
+        nodeBmin[icur * 2] = minx;
+        nodeBmin[icur * 2 + 1] = minz;
+        nodeBmax[icur * 2] = maxx;
+        nodeBmax[icur * 2 + 1] = maxz;
+        
+        if (inum <= trisPerChunk) {
+            // 叶节点：复制块中的三角形
+            int first = cur[1];
+            for (int i = imin; i < imax; i++) {
+                int src = order[i];
+                int dst = cur[1]++;
+                tris[dst * 3] = srcTris[src * 3];
+                tris[dst * 3 + 1] = srcTris[src * 3 + 1];
+                tris[dst * 3 + 2] = srcTris[src * 3 + 2];
+                triIds[dst] = src;
+            }
+            nodeIndex[icur] = first;
+            nodeTriCount[icur] = inum;
+            return;
+        }
+        
+        // 沿较长轴按包围盒最小值排序后对半划分
+        int axis = maxx - minx >= maxz - minz ? 0 : 1;
+        for (int i = imin; i < imax; i++) {
+            keys[i] = ((long) sortableBits(itemBounds[order[i] * 4 + axis]) << 32) | order[i];
+        }
+        Arrays.sort(keys, imin, imax);
+        for (int i = imin; i < imax; i++) {
+            order[i] = (int) keys[i];
+        }
+        
+        int isplit = imin + inum / 2;
+        subdivide(srcTris, itemBounds, order, keys, imin, isplit, trisPerChunk, cur);
+        subdivide(srcTris, itemBounds, order, keys, isplit, imax, trisPerChunk, cur);
+        
+        // 内部节点存储转义索引的相反数
+        nodeIndex[icur] = -(cur[0] - icur);
+        nodeTriCount[icur] = 0;
+    }
+    
+    /**
+     * 将浮点数转换为有符号整数比较顺序与数值顺序一致的位模式
+     * @param f 浮点数
+     * @return 可排序的位模式
+     */
+    private static int sortableBits(float f) {
+        int bits = Float.floatToIntBits(f);
+        return bits ^ ((bits >> 31) & 0x7fffffff);
+    }
+    
+    /**
+     * 查找与矩形重叠的块
+     * @param bmin 矩形的最小点 [(x, z)]
+     * @param bmax 矩形的最大点 [(x, z)]
+     * @param ids 输出块id（节点索引）
+     * @param maxIds ids的最大数量
+     * @return 找到的块数量，超过maxIds的块被忽略
+     */
+    public int getChunksOverlappingRect(float[] bmin, float[] bmax, int[] ids, int maxIds) {
+        int i = 0;
+        int n = 0;
+        while (i < nnodes) {
+            boolean overlap = checkOverlapRect(bmin, bmax, i);
+            boolean isLeaf = nodeIndex[i] >= 0;
+            
+            if (isLeaf && overlap) {
+                if (n < maxIds) {
+                    ids[n] = i;
+                    n++;
+                }
+            }
+            
+            if (overlap || isLeaf) {
+                i++;
+            } else {
+                i += -nodeIndex[i];
+            }
+        }
+        return n;
+    }
+    
+    /**
+     * 查找与线段重叠的块
+     * @param p 线段起点 [(x, z)]
+     * @param q 线段终点 [(x, z)]
+     * @param ids 输出块id（节点索引）
+     * @param maxIds ids的最大数量
+     * @return 找到的块数量，超过maxIds的块被忽略
+     */
+    public int getChunksOverlappingSegment(float[] p, float[] q, int[] ids, int maxIds) {
+        int i = 0;
+        int n = 0;
+        while (i < nnodes) {
+            boolean overlap = checkOverlapSegment(p, q, i);
+            boolean isLeaf = nodeIndex[i] >= 0;
+            
+            if (isLeaf && overlap) {
+                if (n < maxIds) {
+                    ids[n] = i;
+                    n++;
+                }
+            }
+            
+            if (overlap || isLeaf) {
+                i++;
+            } else {
+                i += -nodeIndex[i];
+            }
+        }
+        return n;
+    }
+    
+    /**
+     * 获取块中第一个三角形在{@link #tris}中的索引
+     * @param chunkId 块id
+     * @return 三角形索引
+     */
+    public int getChunkTriStart(int chunkId) {
+        return nodeIndex[chunkId];
+    }
+    
+    /**
+     * 获取块中的三角形数量
+     * @param chunkId 块id
+     * @return 三角形数量
+     */
+    public int getChunkTriCount(int chunkId) {
+        return nodeTriCount[chunkId];
+    }
+    
+    /**
+     * 获取块数量（叶节点数量）
+     * @return 块数量
+     */
+    public int getChunkCount() {
+        return nchunks;
+    }
+    
+    /**
+     * 获取节点数量
+     * @return 节点数量
+     */
+    public int getNodeCount() {
+        return nnodes;
+    }
+    
+    /**
+     * 检查节点是否与矩形重叠
+     * @param bmin 矩形的最小点 [(x, z)]
+     * @param bmax 矩形的最大点 [(x, z)]
+     * @param node 节点索引
+     * @return true如果重叠
+     */
+    private boolean checkOverlapRect(float[] bmin, float[] bmax, int node) {
+        int b = node * 2;
+        if (bmin[0] > nodeBmax[b] || bmax[0] < nodeBmin[b]) {
+            return false;
+        }
+        if (bmin[1] > nodeBmax[b + 1] || bmax[1] < nodeBmin[b + 1]) {
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * 检查节点是否与线段重叠（xz平面上的slab测试）
+     * @param p 线段起点 [(x, z)]
+     * @param q 线段终点 [(x, z)]
+     * @param node 节点索引
+     * @return true如果重叠
+     */
+    private boolean checkOverlapSegment(float[] p, float[] q, int node) {
+        final float eps = 1e-6f;
+        float tmin = 0.0f;
+        float tmax = 1.0f;
+        for (int k = 0; k < 2; k++) {
+            float d = q[k] - p[k];
+            float lo = nodeBmin[node * 2 + k];
+            float hi = nodeBmax[node * 2 + k];
+            if (Math.abs(d) < eps) {
+                // 线段与该轴平行，起点不在范围内时不相交
+                if (p[k] < lo || p[k] > hi) {
+                    return false;
+                }
+            } else {
+                float ood = 1.0f / d;
+                float t1 = (lo - p[k]) * ood;
+                float t2 = (hi - p[k]) * ood;
+                if (t1 > t2) {
+                    float tmp = t1;
+                    t1 = t2;
+                    t2 = tmp;
+                }
+                if (t1 > tmin) {
+                    tmin = t1;
+                }
+                if (t2 < tmax) {
+                    tmax = t2;
+                }
+                if (tmin > tmax) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
\ No newline at end of file
@@ -1,6 +1,10 @@
 package odin.recast.core;
 
 import odin.recast.config.RecastConfig;
+
+import java.util.Arrays;
+
+import static odin.recast.config.RecastConstants.*;
 import static odin.recast.utils.RecastMath.*;
 
 /**
@@ -14,8 +18,16 @@ public class RecastHeightfield {
     /**
      * 表示受阻空间的动态高度字段
      * 翻译自rcHeightfield结构体
+     *
+     * span存储在按索引访问的基本类型并行数组中（smin、smax、area、next），
+     * 代替rcSpan对象和rcSpanPool；每列的span按高度从低到高通过next链接，
+     * 释放的span通过next链接成空闲列表。span存储只增长不收缩，
+     * 同一个高度字段重复用于多个瓦片时不会产生新的分配。
      */
     public static class Heightfield {
+        /** 表示没有span的索引 */
+        public static final int NULL_SPAN = -1;
+        
         /** 高度字段的宽度（沿x轴的单元格单位） */
         public int width;
         
@@ -34,14 +46,29 @@ public class RecastHeightfield {
         /** 每个单元格的高度（y轴的最小增量） */
         public float ch;
         
-        /** span的高度字段 (width*height) */
-        public RecastSpan.Span[][] spans;
+        /** 每列中最低的span的索引，空列为{@link #NULL_SPAN} [width*height] */
+        public int[] spans;
+        
+        /** span的下限 [限制: < smax] [spanCapacity] */
+        public int[] smin;
+        
+        /** span的上限 [限制: <= RC_SPAN_MAX_HEIGHT] [spanCapacity] */
+        public int[] smax;
         
-        /** span池的链表 */
-        public RecastSpan.SpanPool pools;
+        /** 分配给span的区域id [spanCapacity] */
+        public int[] area;
         
-        /** 下一个空闲span */
-        public RecastSpan.Span freelist;
+        /** 列中更高的下一个span的索引，没有时为{@link #NULL_SPAN} [spanCapacity] */
+        public int[] next;
+        
+        /** 已经分配过的span槽位数量，之后的槽位从未使用 */
+        private int spanTop;
+        
+        /** 空闲span列表的头部，通过{@link #next}链接 */
+        private int freelist;
+        
+        /** 正在使用的span数量 */
+        private int spanCount;
         
         // UE5新光栅化器的扩展
         /** 边缘碰撞标志 (h + 1) */
@@ -62,8 +89,11 @@ public class RecastHeightfield {
             this.cs = 0.0f;
             this.ch = 0.0f;
             this.spans = null;
-            this.pools = null;
-            this.freelist = null;
+            this.smin = null;
+            this.smax = null;
+            this.area = null;
+            this.next = null;
+            this.freelist = NULL_SPAN;
             this.edgeHits = null;
             this.rowExt = null;
             this.tempspans = null;
@@ -71,6 +101,9 @@ public class RecastHeightfield {
         
         /**
          * 初始化高度字段
+         *
+         * 已经分配的span存储在重新初始化时保留，只清空所有列。
+         *
          * @param width 宽度
          * @param height 高度
          * @param bmin 最小边界
@@ -86,8 +119,15 @@ public class RecastHeightfield {
             this.cs = cs;
             this.ch = ch;
             
-            // 分配span数组
-            this.spans = new RecastSpan.Span[width * height][];
+            // 分配列数组和span存储
+            this.spans = new int[width * height];
+            if (this.smin == null) {
+                this.smin = new int[RC_SPANS_PER_POOL];
+                this.smax = new int[RC_SPANS_PER_POOL];
+                this.area = new int[RC_SPANS_PER_POOL];
+                this.next = new int[RC_SPANS_PER_POOL];
+            }
+            reset();
             
             // 初始化UE5扩展结构
             this.edgeHits = new RecastSpan.EdgeHit[height + 1];
@@ -104,40 +144,78 @@ public class RecastHeightfield {
         }
         
         /**
-         * 获取指定位置的span
-         * @param x X坐标
-         * @param z Z坐标
-         * @return span链表的头节点
+         * 清空所有列并释放所有span，保留已分配的存储
          */
-        public RecastSpan.Span getSpan(int x, int z) {
-            if (x < 0 || x >= width || z < 0 || z >= height) {
-                return null;
+        public void reset() {
+            if (spans != null) {
+                Arrays.fill(spans, NULL_SPAN);
             }
-            
-            int index = z * width + x;
-            return spans[index] != null && spans[index].length > 0 ? spans[index][0] : null;
+            spanTop = 0;
+            spanCount = 0;
+            freelist = NULL_SPAN;
+        }
+        
+        /**
+         * 分配一个span，存储已满时按倍数扩容
+         * @return span索引，下一个span为{@link #NULL_SPAN}
+         */
+        public int allocSpan() {
+            int s;
+            if (freelist != NULL_SPAN) {
+                s = freelist;
+                freelist = next[s];
+            } else {
+                if (spanTop == smin.length) {
+                    int capacity = smin.length * 2;
+                    smin = Arrays.copyOf(smin, capacity);
+                    smax = Arrays.copyOf(smax, capacity);
+                    area = Arrays.copyOf(area, capacity);
+                    next = Arrays.copyOf(next, capacity);
+                }
+                s = spanTop++;
+            }
+            next[s] = NULL_SPAN;
+            spanCount++;
+            return s;
         }
         
         /**
-         * 添加span到指定位置
+         * 释放span到空闲列表
+         * @param s span索引
+         */
+        public void freeSpan(int s) {
+            next[s] = freelist;
+            freelist = s;
+            spanCount--;
+        }
+        
+        /**
+         * 获取指定位置最低的span
          * @param x X坐标
          * @param z Z坐标
-         * @param span 要添加的span
+         * @return span索引，位置超出范围或列为空时返回{@link #NULL_SPAN}
          */
-        public void addSpan(int x, int z, RecastSpan.Span span) {
-            if (x < 0 || x >= width || z < 0 || z >= height || span == null) {
-                return;
-            }
-            
-            int index = z * width + x;
-            if (spans[index] == null) {
-                spans[index] = new RecastSpan.Span[1];
-                spans[index][0] = span;
-            } else {
-                // 插入到链表头部
-                span.next = spans[index][0];
-                spans[index][0] = span;
+        public int getSpan(int x, int z) {
+            if (x < 0 || x >= width || z < 0 || z >= height) {
+                return NULL_SPAN;
             }
+            return spans[z * width + x];
+        }
+        
+        /**
+         * 获取正在使用的span数量
+         * @return span数量
+         */
+        public int getSpanCount() {
+            return spanCount;
+        }
+        
+        /**
+         * 获取span存储的容量
+         * @return 可以在不扩容的情况下分配的span数量
+         */
+        public int getSpanCapacity() {
+            return smin != null ? smin.length : 0;
         }
         
         /**
@@ -145,15 +223,13 @@ public class RecastHeightfield {
          */
         public void dispose() {
             spans = null;
-            
-            // 释放span池链表
-            RecastSpan.SpanPool pool = pools;
-            while (pool != null) {
-                RecastSpan.SpanPool next = pool.next;
-                pool = next;
-            }
-            pools = null;
-            freelist = null;
+            smin = null;
+            smax = null;
+            area = null;
+            next = null;
+            spanTop = 0;
+            spanCount = 0;
+            freelist = NULL_SPAN;
             
             edgeHits = null;
             rowExt = null;
@@ -108,141 +108,6 @@ public class RecastSpan {
         }
     }
     
-    /**
-     * 表示高度字段中的一个span
-     * 翻译自rcSpan结构体
-     */
-    public static class Span {
-        /** Span数据 */
-        public SpanData data;
-        
-        /** 列中更高的下一个span */
-        public Span next;
-        
-        /**
-         * 默认构造函数
-         */
-        public Span() {
-            this.data = new SpanData();
-            this.next = null;
-        }
-        
-        /**
-         * 带数据的构造函数
-         * @param data Span数据
-         */
-        public Span(SpanData data) {
-            this.data = new SpanData(data);
-            this.next = null;
-        }
-        
-        /**
-         * 带参数的构造函数
-         * @param smin span下限
-         * @param smax span上限
-         * @param area 区域id
-         */
-        public Span(int smin, int smax, int area) {
-            this.data = new SpanData(smin, smax, area);
-            this.next = null;
-        }
-        
-        /**
-         * 获取span高度
-         * @return span高度
-         */
-        public int getHeight() {
-            return data.getHeight();
-        }
-        
-        /**
-         * 检查是否与另一个span重叠
-         * @param other 另一个span
-         * @return true如果重叠
-         */
-        public boolean overlaps(Span other) {
-            return !(data.smax <= other.data.smin || data.smin >= other.data.smax);
-        }
-        
-        /**
-         * 检查是否在指定高度范围内
-         * @param minHeight 最小高度
-         * @param maxHeight 最大高度
-         * @return true如果在范围内
-         */
-        public boolean isInHeightRange(int minHeight, int maxHeight) {
-            return data.smin >= minHeight && data.smax <= maxHeight;
-        }
-    }
-    
-    /**
-     * 用于在高度字段中快速分配span的内存池
-     * 翻译自rcSpanPool结构体
-     */
-    public static class SpanPool {
-        /** 下一个span池 */
-        public SpanPool next;
-        
-        /** 池中的span数组 */
-        public Span[] items;
-        
-        /** 当前分配索引 */
-        private int allocIndex;
-        
-        /**
-         * 默认构造函数
-         */
-        public SpanPool() {
-            this.next = null;
-            this.items = new Span[RC_SPANS_PER_POOL];
-            this.allocIndex = 0;
-            
-            // 初始化所有span
-            for (int i = 0; i < RC_SPANS_PER_POOL; i++) {
-                this.items[i] = new Span();
-            }
-        }
-        
-        /**
-         * 从池中分配一个span
-         * @return 分配的span，如果池已满则返回null
-         */
-        public Span allocSpan() {
-            if (allocIndex < RC_SPANS_PER_POOL) {
-                return items[allocIndex++];
-            }
-            return null;
-        }
-        
-        /**
-         * 检查池是否已满
-         * @return true如果池已满
-         */
-        public boolean isFull() {
-            return allocIndex >= RC_SPANS_PER_POOL;
-        }
-        
-        /**
-         * 获取剩余容量
-         * @return 剩余span数量
-         */
-        public int getRemainingCapacity() {
-            return RC_SPANS_PER_POOL - allocIndex;
-        }
-        
-        /**
-         * 重置池（清空所有分配）
-         */
-        public void reset() {
-            allocIndex = 0;
-            // 重新初始化所有span
-            for (int i = 0; i < RC_SPANS_PER_POOL; i++) {
-                items[i].data = new SpanData();
-                items[i].next = null;
-            }
-        }
-    }
-    
     /**
      * UE5新光栅化器的扩展结构
      * 翻译自rcRowExt结构体
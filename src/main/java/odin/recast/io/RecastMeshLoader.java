@@ -0,0 +1,586 @@
+package odin.recast.io;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static odin.recast.config.RecastConstants.*;
+
+/**
+ * Recast构建输入网格加载
+ *
+ * 将几何数据直接读入{@link odin.recast.algorithms.RecastRasterization#rasterizeTriangles}使用的
+ * 基本类型数组（顶点[(x, y, z) * nverts]、三角形索引[(a, b, c) * ntris]），读取时同时计算包围盒：
+ * - OBJ：通过NIO通道按块读取，直接在字节缓冲区上逐行解析，不创建行字符串，也不做字符串拆分。
+ *   只读取顶点（v）和面（f）；多边形面按三角扇拆分，支持"v/vt/vn"形式和负数（相对）索引，
+ *   引用不存在顶点的面被跳过。
+ * - 二进制网格：小端序的头部（魔数、版本、顶点数、三角形数、包围盒）后跟顶点和三角形索引，
+ *   通过内存映射整块读取，适合把大型OBJ转换一次后反复加载（参见{@link #writeBinary}）。
+ * - 三角形汤：没有头部和索引的三角形顶点序列，每个三角形9个float，通过内存映射整块读取。
+ *
+ * @author UE5NavMesh4J
+ */
+public final class RecastMeshLoader {
+    
+    /** 私有构造函数防止实例化 */
+    private RecastMeshLoader() {
+        throw new UnsupportedOperationException("工具类不能被实例化");
+    }
+    
+    /** OBJ读取缓冲区的初始大小 */
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+    
+    /** 二进制网格头部大小 (magic, version, nverts, ntris, bmin[3], bmax[3]) */
+    private static final int BINARY_HEADER_SIZE = 4 * 4 + 6 * 4;
+    
+    /** 三角形汤中每个三角形的字节数 */
+    private static final int SOUP_TRIANGLE_SIZE = 9 * 4;
+    
+    /** 快速浮点解析使用的有效数字位数，不超过该位数的尾数可以精确地表示为double */
+    private static final int MAX_MANTISSA_DIGITS = 15;
+    
+    /** 可以精确表示为double的10的幂 */
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    
+    /**
+     * 构建输入网格
+     */
+    public static class InputMesh {
+        /** 顶点 [(x, y, z) * nverts] */
+        public float[] verts;
+        
+        /** 顶点数量 */
+        public int nverts;
+        
+        /** 三角形顶点索引 [(a, b, c) * ntris] */
+        public int[] tris;
+        
+        /** 三角形数量 */
+        public int ntris;
+        
+        /** 顶点包围盒的最小点 [(x, y, z)] */
+        public float[] bmin = new float[3];
+        
+        /** 顶点包围盒的最大点 [(x, y, z)] */
+        public float[] bmax = new float[3];
+        
+        /**
+         * 默认构造函数
+         */
+        public InputMesh() {
+            this.verts = new float[0];
+            this.nverts = 0;
+            this.tris = new int[0];
+            this.ntris = 0;
+        }
+    }
+    
+    // ========== OBJ ==========
+    
+    /**
+     * 加载OBJ文件
+     * @param file 文件路径
+     * @return 输入网格
+     * @throws IOException 读取失败
+     */
+    public static InputMesh loadObj(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return readObj(channel);
+        }
+    }
+    
+    /**
+     * 从通道读取OBJ数据直到通道结束
+     *
+     * 数据按块读入缓冲区，每次解析缓冲区中完整的行，未结束的行移到缓冲区开头与下一块拼接；
+     * 单行超过缓冲区大小时缓冲区加倍。
+     *
+     * @param channel 输入通道，不会被关闭
+     * @return 输入网格
+     * @throws IOException 读取失败
+     */
+    public static InputMesh readObj(ReadableByteChannel channel) throws IOException {
+        ObjParser parser = new ObjParser();
+        ByteBuffer buf = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        boolean eof = false;
+        while (!eof) {
+            eof = channel.read(buf) < 0;
+            int end = buf.position();
+            byte[] b = buf.array();
+            int consumed = parser.parse(b, end, eof);
+            int remaining = end - consumed;
+            if (remaining == buf.capacity()) {
+                ByteBuffer grown = ByteBuffer.allocate(buf.capacity() * 2);
+                grown.put(b, 0, remaining);
+                buf = grown;
+            } else {
+                System.arraycopy(b, consumed, b, 0, remaining);
+                ((Buffer) buf).position(remaining);
+            }
+        }
+        return parser.finish();
+    }
+    
+    /**
+     * OBJ逐行解析器
+     *
+     * 直接在字节数组上解析，顶点和三角形写入按需加倍的基本类型数组。
+     */
+    private static final class ObjParser {
+        /** 顶点 */
+        private float[] verts = new float[3 * 1024];
+        
+        /** 顶点数量 */
+        private int nverts;
+        
+        /** 三角形索引 */
+        private int[] tris = new int[3 * 1024];
+        
+        /** 三角形数量 */
+        private int ntris;
+        
+        /** 包围盒最小点 */
+        private final float[] bmin = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+        
+        /** 包围盒最大点 */
+        private final float[] bmax = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+        
+        /** 当前面的顶点索引 */
+        private int[] face = new int[32];
+        
+        /** 当前解析的字节数组 */
+        private byte[] buf;
+        
+        /** 当前解析位置 */
+        private int pos;
+        
+        /** 当前行的结束位置 */
+        private int lineEnd;
+        
+        /**
+         * 解析缓冲区中所有完整的行
+         * @param b 缓冲区
+         * @param end 缓冲区中有效数据的结束位置
+         * @param eof 是否已到达输入末尾，为true时最后一个没有换行符的行也被解析
+         * @return 第一个未解析字节的位置
+         */
+        int parse(byte[] b, int end, boolean eof) {
+            buf = b;
+            int start = 0;
+            while (start < end) {
+                int nl = start;
+                while (nl < end && b[nl] != '\n') {
+                    nl++;
+                }
+                if (nl == end && !eof) {
+                    break;
+                }
+                parseLine(start, nl);
+                start = nl + 1;
+            }
+            return Math.min(start, end);
+        }
+        
+        /**
+         * 解析一行
+         * @param start 行的起始位置
+         * @param end 行的结束位置（不含换行符）
+         */
+        private void parseLine(int start, int end) {
+            pos = start;
+            lineEnd = end;
+            skipSpaces();
+            if (pos + 1 >= lineEnd || !isSpace(buf[pos + 1])) {
+                return;
+            }
+            byte c = buf[pos];
+            pos++;
+            if (c == 'v') {
+                float x = parseFloat();
+                float y = parseFloat();
+                float z = parseFloat();
+                addVertex(x, y, z);
+            } else if (c == 'f') {
+                parseFace();
+            }
+        }
+        
+        /**
+         * 解析面并按三角扇拆分为三角形
+         */
+        private void parseFace() {
+            int nf = 0;
+            while (true) {
+                skipSpaces();
+                if (pos >= lineEnd) {
+                    break;
+                }
+                int idx = parseInt();
+                
+                // 跳过纹理坐标和法线索引
+                while (pos < lineEnd && !isSpace(buf[pos])) {
+                    pos++;
+                }
+                
+                int v = idx < 0 ? nverts + idx : idx - 1;
+                if (idx == 0 || v < 0 || v >= nverts) {
+                    return;
+                }
+                if (nf == face.length) {
+                    face = Arrays.copyOf(face, nf * 2);
+                }
+                face[nf++] = v;
+            }
+            for (int i = 2; i < nf; i++) {
+                addTriangle(face[0], face[i - 1], face[i]);
+            }
+        }
+        
+        /**
+         * 解析一个浮点数
+         *
+         * 有效数字不超过15位且十进制指数在±22以内时只需一次精确的double乘除；
+         * 超出的低位数字被舍去，对float精度没有影响。没有数字时返回0。
+         *
+         * @return 浮点数
+         */
+        private float parseFloat() {
+            skipSpaces();
+            int p = pos;
+            boolean neg = false;
+            if (p < lineEnd && (buf[p] == '-' || buf[p] == '+')) {
+                neg = buf[p] == '-';
+                p++;
+            }
+            long mant = 0;
+            int digits = 0;
+            int exp = 0;
+            while (p < lineEnd && isDigit(buf[p])) {
+                if (digits < MAX_MANTISSA_DIGITS) {
+                    mant = mant * 10 + (buf[p] - '0');
+                    digits += mant != 0 ? 1 : 0;
+                } else {
+                    exp++;
+                }
+                p++;
+            }
+            if (p < lineEnd && buf[p] == '.') {
+                p++;
+                while (p < lineEnd && isDigit(buf[p])) {
+                    if (digits < MAX_MANTISSA_DIGITS) {
+                        mant = mant * 10 + (buf[p] - '0');
+                        digits += mant != 0 ? 1 : 0;
+                        exp--;
+                    }
+                    p++;
+                }
+            }
+            if (p < lineEnd && (buf[p] == 'e' || buf[p] == 'E')) {
+                pos = p + 1;
+                exp += parseInt();
+                p = pos;
+            }
+            pos = p;
+            
+            double v;
+            if (mant == 0) {
+                v = 0.0;
+            } else if (exp >= 0 && exp < POW10.length) {
+                v = mant * POW10[exp];
+            } else if (exp < 0 && -exp < POW10.length) {
+                v = mant / POW10[-exp];
+            } else {
+                v = mant * Math.pow(10.0, exp);
+            }
+            return (float) (neg ? -v : v);
+        }
+        
+        /**
+         * 解析一个带符号的整数，没有数字时返回0
+         * @return 整数
+         */
+        private int parseInt() {
+            boolean neg = false;
+            if (pos < lineEnd && (buf[pos] == '-' || buf[pos] == '+')) {
+                neg = buf[pos] == '-';
+                pos++;
+            }
+            int v = 0;
+            while (pos < lineEnd && isDigit(buf[pos])) {
+                v = v * 10 + (buf[pos] - '0');
+                pos++;
+            }
+            return neg ? -v : v;
+        }
+        
+        /**
+         * 跳过空格、制表符和回车符
+         */
+        private void skipSpaces() {
+            while (pos < lineEnd && isSpace(buf[pos])) {
+                pos++;
+            }
+        }
+        
+        /**
+         * 添加顶点并扩展包围盒
+         * @param x x坐标
+         * @param y y坐标
+         * @param z z坐标
+         */
+        private void addVertex(float x, float y, float z) {
+            if (nverts * 3 == verts.length) {
+                verts = Arrays.copyOf(verts, verts.length * 2);
+            }
+            int v = nverts * 3;
+            verts[v] = x;
+            verts[v + 1] = y;
+            verts[v + 2] = z;
+            nverts++;
+            bmin[0] = Math.min(bmin[0], x);
+            bmin[1] = Math.min(bmin[1], y);
+            bmin[2] = Math.min(bmin[2], z);
+            bmax[0] = Math.max(bmax[0], x);
+            bmax[1] = Math.max(bmax[1], y);
+            bmax[2] = Math.max(bmax[2], z);
+        }
+        
+        /**
+         * 添加三角形
+         * @param a 顶点A
+         * @param b 顶点B
+         * @param c 顶点C
+         */
+        private void addTriangle(int a, int b, int c) {
+            if (ntris * 3 == tris.length) {
+                tris = Arrays.copyOf(tris, tris.length * 2);
+            }
+            int t = ntris * 3;
+            tris[t] = a;
+            tris[t + 1] = b;
+            tris[t + 2] = c;
+            ntris++;
+        }
+        
+        /**
+         * 结束解析，生成大小精确的输入网格
+         * @return 输入网格
+         */
+        InputMesh finish() {
+            InputMesh mesh = new InputMesh();
+            mesh.verts = Arrays.copyOf(verts, nverts * 3);
+            mesh.nverts = nverts;
+            mesh.tris = Arrays.copyOf(tris, ntris * 3);
+            mesh.ntris = ntris;
+            if (nverts > 0) {
+                System.arraycopy(bmin, 0, mesh.bmin, 0, 3);
+                System.arraycopy(bmax, 0, mesh.bmax, 0, 3);
+            }
+            return mesh;
+        }
+    }
+    
+    /**
+     * 检查字节是否为空白字符（空格、制表符、回车符）
+     * @param c 字节
+     * @return true如果是空白字符
+     */
+    private static boolean isSpace(byte c) {
+        return c == ' ' || c == '\t' || c == '\r';
+    }
+    
+    /**
+     * 检查字节是否为十进制数字
+     * @param c 字节
+     * @return true如果是数字
+     */
+    private static boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+    
+    // ========== 二进制网格 ==========
+    
+    /**
+     * 将输入网格写入二进制网格文件
+     * @param file 文件路径
+     * @param mesh 输入网格
+     * @throws IOException 写入失败
+     */
+    public static void writeBinary(Path file, InputMesh mesh) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(BINARY_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        head.putInt(RC_MESH_BINARY_MAGIC);
+        head.putInt(RC_MESH_BINARY_VERSION);
+        head.putInt(mesh.nverts);
+        head.putInt(mesh.ntris);
+        for (int i = 0; i < 3; i++) {
+            head.putFloat(mesh.bmin[i]);
+        }
+        for (int i = 0; i < 3; i++) {
+            head.putFloat(mesh.bmax[i]);
+        }
+        ((Buffer) head).flip();
+        
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(out, head);
+            ByteBuffer buf = ByteBuffer.allocate(READ_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            int chunk = READ_BUFFER_SIZE / 4;
+            int nv = mesh.nverts * 3;
+            for (int i = 0; i < nv; i += chunk) {
+                int n = Math.min(chunk, nv - i);
+                ((Buffer) buf).clear();
+                buf.asFloatBuffer().put(mesh.verts, i, n);
+                ((Buffer) buf).limit(n * 4);
+                writeFully(out, buf);
+            }
+            int nt = mesh.ntris * 3;
+            for (int i = 0; i < nt; i += chunk) {
+                int n = Math.min(chunk, nt - i);
+                ((Buffer) buf).clear();
+                buf.asIntBuffer().put(mesh.tris, i, n);
+                ((Buffer) buf).limit(n * 4);
+                writeFully(out, buf);
+            }
+        }
+    }
+    
+    /**
+     * 加载二进制网格文件
+     * @param file 文件路径
+     * @return 输入网格
+     * @throws IOException 文件无法读取或不是有效的二进制网格
+     */
+    public static InputMesh loadBinary(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer b = mapFile(channel, file);
+            if (b.capacity() < BINARY_HEADER_SIZE) {
+                throw new IOException("二进制网格文件太小: " + file);
+            }
+            if (b.getInt(0) != RC_MESH_BINARY_MAGIC) {
+                throw new IOException("二进制网格魔数错误: " + file);
+            }
+            if (b.getInt(4) != RC_MESH_BINARY_VERSION) {
+                throw new IOException("二进制网格版本错误: " + file);
+            }
+            int nverts = b.getInt(8);
+            int ntris = b.getInt(12);
+            if (nverts < 0 || ntris < 0 ||
+                BINARY_HEADER_SIZE + ((long) nverts + ntris) * 12 != b.capacity()) {
+                throw new IOException("二进制网格大小不匹配: " + file);
+            }
+            
+            InputMesh mesh = new InputMesh();
+            for (int i = 0; i < 3; i++) {
+                mesh.bmin[i] = b.getFloat(16 + i * 4);
+                mesh.bmax[i] = b.getFloat(28 + i * 4);
+            }
+            mesh.nverts = nverts;
+            mesh.ntris = ntris;
+            mesh.verts = new float[nverts * 3];
+            mesh.tris = new int[ntris * 3];
+            ((Buffer) b).position(BINARY_HEADER_SIZE);
+            b.asFloatBuffer().get(mesh.verts);
+            ((Buffer) b).position(BINARY_HEADER_SIZE + nverts * 12);
+            b.asIntBuffer().get(mesh.tris);
+            
+            for (int i = 0; i < mesh.tris.length; i++) {
+                if (mesh.tris[i] < 0 || mesh.tris[i] >= nverts) {
+                    throw new IOException("二进制网格三角形索引越界: " + file);
+                }
+            }
+            return mesh;
+        }
+    }
+    
+    // ========== 三角形汤 ==========
+    
+    /**
+     * 加载三角形汤文件
+     *
+     * 文件由连续的三角形组成，每个三角形为三个顶点的(x, y, z) float。
+     * 顶点不共享，第i个三角形的索引为(3i, 3i + 1, 3i + 2)。
+     *
+     * @param file 文件路径
+     * @param order 字节序
+     * @return 输入网格
+     * @throws IOException 文件无法读取或大小不是三角形大小的整数倍
+     */
+    public static InputMesh loadTriangleSoup(Path file, ByteOrder order) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer b = mapFile(channel, file).order(order);
+            if (b.capacity() % SOUP_TRIANGLE_SIZE != 0) {
+                throw new IOException("三角形汤文件大小不是三角形大小的整数倍: " + file);
+            }
+            InputMesh mesh = new InputMesh();
+            mesh.ntris = b.capacity() / SOUP_TRIANGLE_SIZE;
+            mesh.nverts = mesh.ntris * 3;
+            mesh.verts = new float[mesh.nverts * 3];
+            b.asFloatBuffer().get(mesh.verts);
+            mesh.tris = new int[mesh.ntris * 3];
+            for (int i = 0; i < mesh.tris.length; i++) {
+                mesh.tris[i] = i;
+            }
+            calcBounds(mesh);
+            return mesh;
+        }
+    }
+    
+    /**
+     * 计算输入网格顶点的包围盒
+     * @param mesh 输入网格
+     */
+    public static void calcBounds(InputMesh mesh) {
+        if (mesh.nverts == 0) {
+            Arrays.fill(mesh.bmin, 0.0f);
+            Arrays.fill(mesh.bmax, 0.0f);
+            return;
+        }
+        for (int k = 0; k < 3; k++) {
+            mesh.bmin[k] = mesh.verts[k];
+            mesh.bmax[k] = mesh.verts[k];
+        }
+        float[] v = mesh.verts;
+        for (int i = 3; i < mesh.nverts * 3; i += 3) {
+            for (int k = 0; k < 3; k++) {
+                mesh.bmin[k] = Math.min(mesh.bmin[k], v[i + k]);
+                mesh.bmax[k] = Math.max(mesh.bmax[k], v[i + k]);
+            }
+        }
+    }
+    
+    /**
+     * 只读映射整个文件
+     * @param channel 文件通道
+     * @param file 文件路径，用于错误信息
+     * @return 小端序的映射缓冲区
+     * @throws IOException 映射失败或文件超过2GB
+     */
+    private static ByteBuffer mapFile(FileChannel channel, Path file) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("文件超过2GB: " + file);
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    
+    /**
+     * 将缓冲区的剩余内容全部写入通道
+     * @param out 输出通道
+     * @param buf 缓冲区
+     * @throws IOException 写入失败
+     */
+    private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,112 @@
+package odin.detour.core;
+
+import odin.detour.config.DetourEnums.Status;
+import odin.detour.core.DetourNavMesh.MeshTile;
+import odin.detour.core.DetourNavMeshQuery.QueryStatus;
+import odin.detour.io.DetourTileSerializer;
+import odin.recast.builder.DungeonNavMesh;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * DetourFlowField的构建和增量修复测试
+ *
+ * @author UE5NavMesh4J
+ */
+public class DetourFlowFieldTest {
+    
+    private DetourNavMesh navMesh;
+    
+    private DetourNavMeshQuery query;
+    
+    private long goalRef;
+    
+    private final float[] goalPos = new float[3];
+    
+    @Before
+    public void buildNavMesh() throws Exception {
+        navMesh = DungeonNavMesh.createBuilder().build();
+        query = new DetourNavMeshQuery();
+        assertTrue(query.init(navMesh, 2048));
+        
+        MeshTile tile = DungeonNavMesh.tiles(navMesh).get(0);
+        goalRef = navMesh.getPolyRefBase(tile);
+        float[] center = new float[3];
+        for (int k = 0; k < 3; k++) {
+            center[k] = (float) (tile.header.bmin[k] + tile.header.bmax[k]) * 0.5f;
+        }
+        navMesh.closestPointOnPoly(tile, tile.polys[0], center, goalPos);
+    }
+    
+    @Test
+    public void updateRepairsRemovedAndReaddedTile() {
+        DetourFlowField field = new DetourFlowField(navMesh);
+        assertEquals(QueryStatus.SUCCESS, field.build(query, goalRef, goalPos, null, null, Float.MAX_VALUE, new DetourQueryFilter()));
+        int reached = field.getReachedCount();
+        
+        // 移除目标瓦片以外到达多边形最多的瓦片
+        MeshTile removed = null;
+        int removedReached = 0;
+        for (MeshTile tile : DungeonNavMesh.tiles(navMesh)) {
+            int n = countReached(field, tile);
+            if (tile.index != navMesh.decodePolyIdTile(goalRef) && n > removedReached) {
+                removed = tile;
+                removedReached = n;
+            }
+        }
+        assertNotNull(removed);
+        byte[] data = DetourTileSerializer.writeTile(removed);
+        assertTrue(Status.dtStatusSucceed(navMesh.removeTile(navMesh.getTileRef(removed), null)));
+        
+        assertEquals(QueryStatus.SUCCESS, field.update(query));
+        assertTrue(field.getReachedCount() <= reached - removedReached);
+        
+        // 重新加入的瓦片只能通过瓦片代数发现
+        MeshTile[] result = new MeshTile[1];
+        assertTrue(Status.dtStatusSucceed(DetourTileSerializer.readTile(data, result)));
+        assertTrue(Status.dtStatusSucceed(navMesh.addTile(result[0], null)));
+        assertEquals(QueryStatus.SUCCESS, field.update(query));
+        
+        DetourFlowField fresh = new DetourFlowField(navMesh);
+        assertEquals(QueryStatus.SUCCESS, fresh.build(query, goalRef, goalPos, null, null, Float.MAX_VALUE, new DetourQueryFilter()));
+        assertEquals(reached, fresh.getReachedCount());
+        assertEquals(fresh.getReachedCount(), field.getReachedCount());
+        for (MeshTile tile : DungeonNavMesh.tiles(navMesh)) {
+            long base = navMesh.getPolyRefBase(tile);
+            for (int i = 0; i < tile.header.polyCount; i++) {
+                float expected = fresh.getCost(base | i);
+                assertEquals(expected, field.getCost(base | i), expected * 1e-4f);
+            }
+        }
+    }
+    
+    @Test
+    public void updateIsNoOpWithoutChanges() {
+        DetourFlowField field = new DetourFlowField(navMesh);
+        assertEquals(QueryStatus.SUCCESS, field.build(query, goalRef, goalPos, null, null, Float.MAX_VALUE, new DetourQueryFilter()));
+        int reached = field.getReachedCount();
+        assertEquals(QueryStatus.SUCCESS, field.update(query));
+        assertEquals(reached, field.getReachedCount());
+    }
+    
+    /**
+     * 统计瓦片中流场已到达的多边形数量
+     * @param field 流场
+     * @param tile 瓦片
+     * @return 多边形数量
+     */
+    private int countReached(DetourFlowField field, MeshTile tile) {
+        long base = navMesh.getPolyRefBase(tile);
+        int n = 0;
+        for (int i = 0; i < tile.header.polyCount; i++) {
+            if (field.isReachable(base | i)) {
+                n++;
+            }
+        }
+        return n;
+    }
+}
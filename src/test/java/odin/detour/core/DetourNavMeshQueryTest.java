@@ -0,0 +1,87 @@
+package odin.detour.core;
+
+import odin.detour.core.DetourNavMesh.MeshTile;
+import odin.detour.core.DetourNavMesh.Poly;
+import odin.detour.core.DetourNavMeshQuery.QueryStatus;
+import odin.recast.builder.DungeonNavMesh;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * DetourNavMeshQuery的查询测试
+ *
+ * @author UE5NavMesh4J
+ */
+public class DetourNavMeshQueryTest {
+    
+    private DetourNavMesh navMesh;
+    
+    private DetourNavMeshQuery query;
+    
+    @Before
+    public void buildNavMesh() throws Exception {
+        navMesh = DungeonNavMesh.createBuilder().build();
+        query = new DetourNavMeshQuery();
+        assertTrue(query.init(navMesh, 2048));
+    }
+    
+    @Test
+    public void randomPointsFollowTileArea() {
+        List<MeshTile> tiles = DungeonNavMesh.tiles(navMesh);
+        float totalArea = 0.0f;
+        for (MeshTile tile : tiles) {
+            totalArea += tile.totalArea;
+        }
+        
+        int samples = 20000;
+        int[] hits = new int[navMesh.getMaxTiles()];
+        Random random = new Random(7);
+        long[] ref = new long[1];
+        float[] pt = new float[3];
+        DetourQueryFilter filter = new DetourQueryFilter();
+        for (int i = 0; i < samples; i++) {
+            assertEquals(QueryStatus.SUCCESS, query.findRandomPoint(filter, random::nextFloat, ref, pt));
+            MeshTile tile = navMesh.getTileByRef(ref[0]);
+            assertTrue(pt[0] >= tile.header.bmin[0] && pt[0] <= tile.header.bmax[0]);
+            assertTrue(pt[2] >= tile.header.bmin[2] && pt[2] <= tile.header.bmax[2]);
+            hits[tile.index]++;
+        }
+        
+        for (MeshTile tile : tiles) {
+            assertEquals(tile.totalArea / totalArea, hits[tile.index] / (float) samples, 0.02f);
+        }
+    }
+    
+    @Test
+    public void randomPointsRespectFilter() {
+        final int acceptedIndex = DungeonNavMesh.tiles(navMesh).get(1).index;
+        DetourQueryFilter oneTile = new DetourQueryFilter() {
+            @Override
+            protected boolean passVirtualFilter(long ref, MeshTile tile, Poly poly) {
+                return tile.index == acceptedIndex;
+            }
+        };
+        Random random = new Random(3);
+        long[] ref = new long[1];
+        float[] pt = new float[3];
+        for (int i = 0; i < 200; i++) {
+            assertEquals(QueryStatus.SUCCESS, query.findRandomPoint(oneTile, random::nextFloat, 100000, ref, pt));
+            assertEquals(acceptedIndex, navMesh.decodePolyIdTile(ref[0]));
+        }
+        
+        // 过滤器拒绝所有多边形时在重试次数用完后失败
+        DetourQueryFilter none = new DetourQueryFilter() {
+            @Override
+            protected boolean passVirtualFilter(long ref, MeshTile tile, Poly poly) {
+                return false;
+            }
+        };
+        assertEquals(QueryStatus.FAILURE, query.findRandomPoint(none, random::nextFloat, ref, pt));
+        assertEquals(0, ref[0]);
+    }
+}
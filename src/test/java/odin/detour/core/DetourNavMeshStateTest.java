@@ -0,0 +1,150 @@
+package odin.detour.core;
+
+import odin.detour.config.DetourEnums.Status;
+import odin.detour.core.DetourNavMesh.MeshTile;
+import odin.detour.io.DetourTileSerializer;
+import odin.recast.builder.DungeonNavMesh;
+import org.junit.Before;
+import org.junit.Test;
+
+import static odin.detour.config.DetourConstants.DT_MAX_AREAS;
+import static org.junit.Assert.*;
+
+/**
+ * DetourNavMesh的多边形状态测试
+ *
+ * 包括storeTileState/restoreTileState往返以及批量更新中的多边形修改。
+ *
+ * @author UE5NavMesh4J
+ */
+public class DetourNavMeshStateTest {
+    
+    private DetourNavMesh navMesh;
+    
+    private MeshTile tile;
+    
+    @Before
+    public void buildNavMesh() throws Exception {
+        navMesh = DungeonNavMesh.createBuilder().build();
+        for (MeshTile t : DungeonNavMesh.tiles(navMesh)) {
+            if (tile == null || t.header.polyCount > tile.header.polyCount) {
+                tile = t;
+            }
+        }
+    }
+    
+    @Test
+    public void restoreUndoesFlagAndAreaChanges() {
+        int polyCount = tile.header.polyCount;
+        int[] flags = new int[polyCount];
+        int[] areas = new int[polyCount];
+        for (int i = 0; i < polyCount; i++) {
+            flags[i] = tile.polys[i].flags;
+            areas[i] = tile.polys[i].area;
+        }
+        
+        byte[] state = new byte[navMesh.getTileStateSize(tile)];
+        assertTrue(Status.dtStatusSucceed(navMesh.storeTileState(tile, state, state.length)));
+        
+        long base = navMesh.getPolyRefBase(tile);
+        for (int i = 0; i < polyCount; i++) {
+            assertTrue(Status.dtStatusSucceed(navMesh.setPolyFlags(base | i, 0x8000 | i)));
+            assertTrue(Status.dtStatusSucceed(navMesh.setPolyArea(base | i, (areas[i] + 1) % 32)));
+        }
+        
+        assertTrue(Status.dtStatusSucceed(navMesh.restoreTileState(tile, state, state.length)));
+        int[] out = new int[1];
+        for (int i = 0; i < polyCount; i++) {
+            navMesh.getPolyFlags(base | i, out);
+            assertEquals(flags[i], out[0]);
+            navMesh.getPolyArea(base | i, out);
+            assertEquals(areas[i], out[0]);
+        }
+    }
+    
+    @Test
+    public void restoreRejectsOtherTileAndSmallBuffers() {
+        byte[] state = new byte[navMesh.getTileStateSize(tile)];
+        assertTrue(Status.dtStatusFailed(navMesh.storeTileState(tile, state, state.length - 1)));
+        assertTrue(Status.dtStatusSucceed(navMesh.storeTileState(tile, state, state.length)));
+        
+        for (MeshTile other : DungeonNavMesh.tiles(navMesh)) {
+            if (other != tile && other.header.polyCount == tile.header.polyCount) {
+                assertTrue(Status.dtStatusFailed(navMesh.restoreTileState(other, state, state.length)));
+            }
+        }
+        
+        byte[] corrupt = state.clone();
+        corrupt[0] ^= 0xff;
+        assertTrue(Status.dtStatusFailed(navMesh.restoreTileState(tile, corrupt, corrupt.length)));
+    }
+    
+    @Test
+    public void batchedUpdatesSeeTilesAddedInBatch() {
+        navMesh.setCopyOnWrite(true);
+        int polyCount = tile.header.polyCount;
+        
+        // 在同一批次中替换瓦片，再修改新瓦片的多边形
+        navMesh.beginUpdate();
+        assertTrue(Status.dtStatusSucceed(navMesh.removeTile(navMesh.getTileRef(tile), null)));
+        MeshTile[] result = new MeshTile[1];
+        assertTrue(Status.dtStatusSucceed(DetourTileSerializer.readTile(DetourTileSerializer.writeTile(tile), result)));
+        long[] added = new long[1];
+        assertTrue(Status.dtStatusSucceed(navMesh.addTile(result[0], added)));
+        assertTrue(Status.dtStatusSucceed(navMesh.setPolyFlags(added[0], 0x8000)));
+        long[] refs = new long[polyCount];
+        for (int i = 0; i < polyCount; i++) {
+            refs[i] = added[0] | i;
+        }
+        assertEquals(polyCount, navMesh.setPolyArea(refs, polyCount, 0x1f));
+        navMesh.endUpdate();
+        
+        int[] out = new int[1];
+        assertTrue(Status.dtStatusSucceed(navMesh.getPolyFlags(added[0], out)));
+        assertEquals(0x8000, out[0]);
+        for (int i = 0; i < polyCount; i++) {
+            assertTrue(Status.dtStatusSucceed(navMesh.getPolyArea(refs[i], out)));
+            assertEquals(0x1f, out[0]);
+        }
+    }
+    
+    @Test
+    public void stateVersionChangesOnlyWhenPolysChange() {
+        long base = navMesh.getPolyRefBase(tile);
+        int[] out = new int[1];
+        navMesh.getPolyFlags(base, out);
+        long version = navMesh.getStateVersion();
+        long tileVersion = navMesh.getTileVersion(base);
+        
+        // 写入相同的值不改变状态版本
+        assertTrue(Status.dtStatusSucceed(navMesh.setPolyFlags(base, out[0])));
+        assertEquals(0, navMesh.setPolyFlags(new long[] {base, base | 1}, 1, out[0]));
+        assertEquals(version, navMesh.getStateVersion());
+        assertEquals(tileVersion, navMesh.getTileVersion(base));
+        
+        long[] refs = {base, base | 1};
+        assertEquals(2, navMesh.setPolyFlags(refs, 2, 0x8000));
+        assertEquals(version + 1, navMesh.getStateVersion());
+        assertEquals(version + 1, navMesh.getTileVersion(base));
+    }
+    
+    @Test
+    public void outOfRangeAreaIsRejected() {
+        long base = navMesh.getPolyRefBase(tile);
+        int[] before = new int[1];
+        navMesh.getPolyArea(base, before);
+        long version = navMesh.getStateVersion();
+        
+        assertTrue(Status.dtStatusFailed(navMesh.setPolyArea(base, DT_MAX_AREAS)));
+        assertTrue(Status.dtStatusFailed(navMesh.setPolyArea(base, -1)));
+        assertEquals(0, navMesh.setPolyArea(new long[] {base}, 1, DT_MAX_AREAS));
+        float[] bmin = {(float) tile.header.bmin[0], (float) tile.header.bmin[1], (float) tile.header.bmin[2]};
+        float[] bmax = {(float) tile.header.bmax[0], (float) tile.header.bmax[1], (float) tile.header.bmax[2]};
+        assertEquals(0, navMesh.setPolyAreaInBounds(bmin, bmax, DT_MAX_AREAS));
+        
+        int[] after = new int[1];
+        navMesh.getPolyArea(base, after);
+        assertEquals(before[0], after[0]);
+        assertEquals(version, navMesh.getStateVersion());
+    }
+}
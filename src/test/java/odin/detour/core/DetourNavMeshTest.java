@@ -0,0 +1,175 @@
+package odin.detour.core;
+
+import odin.detour.config.DetourEnums.Status;
+import odin.detour.core.DetourNavMesh.MeshTile;
+import odin.detour.io.DetourTileSerializer;
+import odin.recast.builder.DungeonNavMesh;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static odin.detour.config.DetourConstants.DT_NULL_LINK;
+import static org.junit.Assert.*;
+
+/**
+ * DetourNavMesh的瓦片管理测试
+ *
+ * @author UE5NavMesh4J
+ */
+public class DetourNavMeshTest {
+    
+    private DetourNavMesh navMesh;
+    
+    /** 与其他瓦片链接最多的瓦片 */
+    private MeshTile tile;
+    
+    @Before
+    public void buildNavMesh() throws Exception {
+        navMesh = DungeonNavMesh.createBuilder().build();
+        int best = 0;
+        for (MeshTile t : DungeonNavMesh.tiles(navMesh)) {
+            int n = countLinksInto(navMesh.getTileRef(t));
+            if (n > best) {
+                tile = t;
+                best = n;
+            }
+        }
+        assertNotNull(tile);
+    }
+    
+    @Test
+    public void removeTileUnlinksNeighbours() {
+        long tileRef = navMesh.getTileRef(tile);
+        long polyRef = navMesh.getPolyRefBase(tile);
+        assertTrue(navMesh.isValidPolyRef(polyRef));
+        
+        MeshTile[] removed = new MeshTile[1];
+        assertTrue(Status.dtStatusSucceed(navMesh.removeTile(tileRef, removed)));
+        assertSame(tile, removed[0]);
+        assertFalse(navMesh.isValidPolyRef(polyRef));
+        assertNull(navMesh.getTileByRef(polyRef));
+        assertEquals(0, countLinksInto(tileRef));
+        assertTrue(Status.dtStatusFailed(navMesh.removeTile(tileRef, null)));
+    }
+    
+    @Test
+    public void reusedSlotGetsNewSalt() {
+        long oldRef = navMesh.getTileRef(tile);
+        int links = countLinksInto(oldRef);
+        byte[] data = DetourTileSerializer.writeTile(tile);
+        assertTrue(Status.dtStatusSucceed(navMesh.removeTile(oldRef, null)));
+        
+        MeshTile[] result = new MeshTile[1];
+        assertTrue(Status.dtStatusSucceed(DetourTileSerializer.readTile(data, result)));
+        long[] added = new long[1];
+        assertTrue(Status.dtStatusSucceed(navMesh.addTile(result[0], added)));
+        
+        // 空闲列表重用被释放的槽位，盐值区分新旧引用
+        assertEquals(navMesh.decodePolyIdTile(oldRef), navMesh.decodePolyIdTile(added[0]));
+        assertNotEquals(navMesh.decodePolyIdSalt(oldRef), navMesh.decodePolyIdSalt(added[0]));
+        assertFalse(navMesh.isValidPolyRef(oldRef));
+        assertTrue(navMesh.isValidPolyRef(added[0]));
+        assertEquals(0, countLinksInto(oldRef));
+        assertEquals(links, countLinksInto(added[0]));
+    }
+    
+    @Test
+    public void addTileRejectsOccupiedLocation() {
+        MeshTile[] result = new MeshTile[1];
+        assertTrue(Status.dtStatusSucceed(DetourTileSerializer.readTile(DetourTileSerializer.writeTile(tile), result)));
+        assertTrue(Status.dtStatusFailed(navMesh.addTile(result[0], null)));
+    }
+    
+    @Test
+    public void copyOnWriteBatchPublishesAtEndUpdate() {
+        navMesh.setCopyOnWrite(true);
+        long oldRef = navMesh.getTileRef(tile);
+        int links = countLinksInto(oldRef);
+        long[] oldLinkRefs = tile.linkRefs.clone();
+        MeshTile[] result = new MeshTile[1];
+        assertTrue(Status.dtStatusSucceed(DetourTileSerializer.readTile(DetourTileSerializer.writeTile(tile), result)));
+        
+        navMesh.beginUpdate();
+        assertTrue(Status.dtStatusSucceed(navMesh.removeTile(oldRef, null)));
+        long[] added = new long[1];
+        assertTrue(Status.dtStatusSucceed(navMesh.addTile(result[0], added)));
+        
+        // 批次结束前查询仍然看到原来的瓦片
+        assertTrue(navMesh.isValidPolyRef(oldRef));
+        assertFalse(navMesh.isValidPolyRef(added[0]));
+        assertSame(tile, navMesh.getTileByRef(oldRef));
+        navMesh.endUpdate();
+        
+        assertFalse(navMesh.isValidPolyRef(oldRef));
+        assertTrue(navMesh.isValidPolyRef(added[0]));
+        assertEquals(links, countLinksInto(added[0]));
+        
+        // 已取得的旧瓦片对象保持不变
+        assertArrayEquals(oldLinkRefs, tile.linkRefs);
+    }
+    
+    @Test
+    public void copyOnWriteReadersNeverSeeHoles() throws Exception {
+        navMesh.setCopyOnWrite(true);
+        final int x = tile.header.x;
+        final int y = tile.header.y;
+        final byte[] data = DetourTileSerializer.writeTile(tile);
+        final AtomicInteger holes = new AtomicInteger();
+        final AtomicBoolean done = new AtomicBoolean();
+        
+        Thread reader = new Thread(() -> {
+            MeshTile[] at = new MeshTile[4];
+            while (!done.get()) {
+                if (navMesh.getTilesAt(x, y, at, at.length) != 1) {
+                    holes.incrementAndGet();
+                }
+            }
+        });
+        reader.start();
+        try {
+            MeshTile[] result = new MeshTile[1];
+            for (int i = 0; i < 200; i++) {
+                MeshTile[] at = new MeshTile[1];
+                navMesh.getTilesAt(x, y, at, at.length);
+                assertTrue(Status.dtStatusSucceed(DetourTileSerializer.readTile(data, result)));
+                navMesh.beginUpdate();
+                assertTrue(Status.dtStatusSucceed(navMesh.removeTile(navMesh.getTileRef(at[0]), null)));
+                assertTrue(Status.dtStatusSucceed(navMesh.addTile(result[0], null)));
+                navMesh.endUpdate();
+            }
+        } finally {
+            done.set(true);
+            reader.join();
+        }
+        assertEquals(0, holes.get());
+    }
+    
+    /**
+     * 统计其他瓦片中指向指定瓦片的链接数量
+     * @param tileRef 瓦片引用
+     * @return 链接数量
+     */
+    private int countLinksInto(long tileRef) {
+        int slot = navMesh.decodePolyIdTile(tileRef);
+        long salt = navMesh.decodePolyIdSalt(tileRef);
+        List<MeshTile> tiles = DungeonNavMesh.tiles(navMesh);
+        int n = 0;
+        for (MeshTile t : tiles) {
+            if (t.index == slot) {
+                continue;
+            }
+            for (int i = 0; i < t.header.polyCount; i++) {
+                for (long k = t.polys[i].firstLink; k != DT_NULL_LINK; k = navMesh.getLinkNext(t, k)) {
+                    long ref = navMesh.getLinkRef(t, k);
+                    if (ref != 0 && navMesh.decodePolyIdTile(ref) == slot && navMesh.decodePolyIdSalt(ref) == salt) {
+                        n++;
+                    }
+                }
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,187 @@
+package odin.detour.core;
+
+import odin.detour.config.DetourEnums.Status;
+import odin.detour.core.DetourNavMesh.MeshTile;
+import odin.detour.core.DetourNavMesh.Poly;
+import odin.detour.core.DetourNavMeshQuery.QueryStatus;
+import odin.detour.io.DetourTileSerializer;
+import odin.recast.builder.DungeonNavMesh;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * DetourPathCache的命中、未命中和失效测试
+ *
+ * @author UE5NavMesh4J
+ */
+public class DetourPathCacheTest {
+    
+    private DetourNavMesh navMesh;
+    
+    private DetourNavMeshQuery query;
+    
+    private DetourPathCache cache;
+    
+    private final long[] startRef = new long[1];
+    
+    private final float[] startPos = new float[3];
+    
+    private final long[] endRef = new long[1];
+    
+    private final float[] endPos = new float[3];
+    
+    /** 路径经过的瓦片索引 */
+    private final Set<Integer> pathTiles = new HashSet<>();
+    
+    @Before
+    public void buildNavMesh() throws Exception {
+        navMesh = DungeonNavMesh.createBuilder().build();
+        query = new DetourNavMeshQuery();
+        assertTrue(query.init(navMesh, 2048));
+        cache = new DetourPathCache(query, navMesh, 16);
+        
+        // 选取一条跨越多个瓦片的完整路径
+        DetourQueryFilter filter = new DetourQueryFilter();
+        Random random = new Random(11);
+        List<Long> path = new ArrayList<>();
+        float[] cost = new float[1];
+        while (pathTiles.size() < 2) {
+            query.findRandomPoint(filter, random::nextFloat, startRef, startPos);
+            query.findRandomPoint(filter, random::nextFloat, endRef, endPos);
+            pathTiles.clear();
+            if (query.findPath(startRef[0], endRef[0], startPos, endPos, Float.MAX_VALUE, filter, path, cost) == QueryStatus.SUCCESS) {
+                for (long ref : path) {
+                    pathTiles.add(navMesh.decodePolyIdTile(ref));
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void repeatedQueryHits() {
+        List<Long> first = new ArrayList<>();
+        List<Long> second = new ArrayList<>();
+        float[] cost = new float[1];
+        assertEquals(QueryStatus.SUCCESS, findPath(new DetourQueryFilter(), first, cost));
+        float firstCost = cost[0];
+        assertEquals(QueryStatus.SUCCESS, findPath(new DetourQueryFilter(), second, cost));
+        assertEquals(first, second);
+        assertEquals(firstCost, cost[0], 0.0f);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        
+        // 数据值不同的过滤器不共享条目
+        DetourQueryFilter other = new DetourQueryFilter();
+        other.setExcludeFlags(0x4000);
+        findPath(other, second, cost);
+        assertEquals(2, cache.getMisses());
+    }
+    
+    @Test
+    public void changeOnPathInvalidates() {
+        List<Long> path = new ArrayList<>();
+        findPath(new DetourQueryFilter(), path, null);
+        
+        assertTrue(Status.dtStatusSucceed(navMesh.setPolyFlags(path.get(path.size() - 1), 0x4001)));
+        findPath(new DetourQueryFilter(), path, null);
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getInvalidations());
+        
+        // 替换路径经过的瓦片
+        MeshTile tile = navMesh.getTileByRef(path.get(0));
+        byte[] data = DetourTileSerializer.writeTile(tile);
+        assertTrue(Status.dtStatusSucceed(navMesh.removeTile(navMesh.getTileRef(tile), null)));
+        MeshTile[] result = new MeshTile[1];
+        assertTrue(Status.dtStatusSucceed(DetourTileSerializer.readTile(data, result)));
+        assertTrue(Status.dtStatusSucceed(navMesh.addTile(result[0], null)));
+        startRef[0] = navMesh.getPolyRefBase(result[0]) | navMesh.decodePolyIdPoly(startRef[0]);
+        findPath(new DetourQueryFilter(), path, null);
+        assertEquals(0, cache.getHits());
+    }
+    
+    @Test
+    public void changeOffPathKeepsEntryUnlessRequested() {
+        MeshTile offPath = null;
+        for (MeshTile tile : DungeonNavMesh.tiles(navMesh)) {
+            if (!pathTiles.contains(tile.index)) {
+                offPath = tile;
+            }
+        }
+        assertNotNull(offPath);
+        long offRef = navMesh.getPolyRefBase(offPath);
+        
+        List<Long> path = new ArrayList<>();
+        findPath(new DetourQueryFilter(), path, null);
+        assertTrue(Status.dtStatusSucceed(navMesh.setPolyFlags(offRef, 0x4001)));
+        findPath(new DetourQueryFilter(), path, null);
+        assertEquals(1, cache.getHits());
+        
+        cache.setInvalidateOnAnyChange(true);
+        assertTrue(Status.dtStatusSucceed(navMesh.setPolyFlags(offRef, 0x4002)));
+        findPath(new DetourQueryFilter(), path, null);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getInvalidations());
+    }
+    
+    @Test
+    public void subclassesNeedFingerprint() {
+        List<Long> path = new ArrayList<>();
+        
+        // 没有指纹的子类不被缓存
+        DetourQueryFilter plain = new DetourQueryFilter() {
+            @Override
+            protected boolean passVirtualFilter(long ref, MeshTile tile, Poly poly) {
+                return true;
+            }
+        };
+        findPath(plain, path, null);
+        findPath(plain, path, null);
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.size());
+        
+        // 按指纹区分附加状态不同的实例
+        findPath(new ExcludingFilter(1), path, null);
+        findPath(new ExcludingFilter(2), path, null);
+        assertEquals(0, cache.getHits());
+        findPath(new ExcludingFilter(1), path, null);
+        assertEquals(1, cache.getHits());
+    }
+    
+    /**
+     * 通过缓存查找选定起点到终点的路径
+     * @param filter 查询过滤器
+     * @param path 输出路径
+     * @param cost 输出总成本，可以为null
+     * @return 查询状态
+     */
+    private QueryStatus findPath(DetourQueryFilter filter, List<Long> path, float[] cost) {
+        return cache.findPath(startRef[0], endRef[0], startPos, endPos, Float.MAX_VALUE, filter, path, cost);
+    }
+    
+    /** 带有附加状态的过滤器子类 */
+    private static class ExcludingFilter extends DetourQueryFilter {
+        private final long excludedRef;
+        
+        ExcludingFilter(long excludedRef) {
+            this.excludedRef = excludedRef;
+        }
+        
+        @Override
+        protected boolean passVirtualFilter(long ref, MeshTile tile, Poly poly) {
+            return ref != excludedRef && super.passVirtualFilter(ref, tile, poly);
+        }
+        
+        @Override
+        public Object getStateFingerprint() {
+            return excludedRef;
+        }
+    }
+}
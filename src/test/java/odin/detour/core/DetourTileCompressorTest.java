@@ -0,0 +1,174 @@
+package odin.detour.core;
+
+import odin.detour.config.DetourEnums.Status;
+import odin.detour.core.DetourNavMesh.MeshTile;
+import odin.detour.core.DetourNavMesh.Poly;
+import odin.detour.core.DetourNavMeshQuery.QueryStatus;
+import odin.detour.io.DetourTileSerializer;
+import odin.recast.builder.DungeonNavMesh;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * DetourTileCompressor的压缩/解压往返测试
+ *
+ * @author UE5NavMesh4J
+ */
+public class DetourTileCompressorTest {
+    
+    private DetourNavMesh navMesh;
+    
+    @Before
+    public void buildNavMesh() throws Exception {
+        navMesh = DungeonNavMesh.createBuilder().build();
+    }
+    
+    @Test
+    public void decompressRestoresTileDataAndLinks() {
+        List<MeshTile> tiles = DungeonNavMesh.tiles(navMesh);
+        int linked = 0;
+        for (MeshTile tile : tiles) {
+            byte[] before = DetourTileSerializer.writeTile(tile);
+            long[] linkRefs = tile.linkRefs.clone();
+            int[] linkNext = tile.linkNext.clone();
+            byte[] linkEdge = tile.linkEdge.clone();
+            byte[] linkSide = tile.linkSide.clone();
+            long[] firstLinks = new long[tile.header.polyCount];
+            for (int i = 0; i < firstLinks.length; i++) {
+                firstLinks[i] = tile.polys[i].firstLink;
+            }
+            for (long ref : linkRefs) {
+                if (ref != 0) {
+                    linked++;
+                }
+            }
+            
+            byte[] compressed = DetourTileCompressor.compress(tile);
+            DetourTileCompressor.releaseTileData(tile);
+            assertNull(tile.polys);
+            assertNull(tile.linkRefs);
+            
+            assertTrue(Status.dtStatusSucceed(DetourTileCompressor.decompress(compressed, tile)));
+            assertArrayEquals(linkRefs, tile.linkRefs);
+            assertArrayEquals(linkNext, tile.linkNext);
+            assertArrayEquals(linkEdge, tile.linkEdge);
+            assertArrayEquals(linkSide, tile.linkSide);
+            for (int i = 0; i < firstLinks.length; i++) {
+                assertEquals(firstLinks[i], tile.polys[i].firstLink);
+            }
+            assertArrayEquals(before, DetourTileSerializer.writeTile(tile));
+        }
+        assertTrue(linked > 0);
+    }
+    
+    @Test
+    public void compressedTilesDecodeOnAccess() {
+        List<MeshTile> tiles = DungeonNavMesh.tiles(navMesh);
+        byte[][] before = new byte[tiles.size()][];
+        long[] refs = new long[tiles.size()];
+        for (int i = 0; i < tiles.size(); i++) {
+            before[i] = DetourTileSerializer.writeTile(tiles.get(i));
+            refs[i] = navMesh.getTileRef(tiles.get(i));
+        }
+        
+        for (long ref : refs) {
+            assertTrue(Status.dtStatusSucceed(navMesh.compressTile(ref)));
+        }
+        assertEquals(tiles.size(), navMesh.getCompressedTileCount());
+        
+        for (int i = 0; i < refs.length; i++) {
+            MeshTile tile = navMesh.getTileByRef(refs[i]);
+            assertNotNull(tile.polys);
+            assertArrayEquals(before[i], DetourTileSerializer.writeTile(tile));
+        }
+    }
+    
+    @Test
+    public void queriesResolveTilesEvictedDuringScan() {
+        List<MeshTile> tiles = DungeonNavMesh.tiles(navMesh);
+        assertTrue(tiles.size() > 9);
+        final int firstIndex = tiles.get(0).index;
+        
+        float[] center = new float[3];
+        float[] extents = new float[3];
+        for (int k = 0; k < 3; k++) {
+            center[k] = (float) (navMesh.getParams().orig[k] + 0.5);
+            extents[k] = 1000.0f;
+        }
+        DetourNavMeshQuery query = new DetourNavMeshQuery();
+        assertTrue(query.init(navMesh, 2048));
+        long[] expectedRef = new long[1];
+        float[] expectedPt = new float[3];
+        assertEquals(QueryStatus.SUCCESS, query.findNearestPoly(center, extents, new DetourQueryFilter(), expectedRef, expectedPt));
+        
+        navMesh.setDecodedTileCapacity(9);
+        assertTrue(navMesh.getCompressedTileCount() > 0);
+        
+        // 只接受第一个瓦片的多边形，采样期间其余瓦片被解码并淘汰
+        DetourQueryFilter firstTileOnly = new DetourQueryFilter() {
+            @Override
+            protected boolean passVirtualFilter(long ref, MeshTile tile, Poly poly) {
+                return tile.index == firstIndex;
+            }
+        };
+        Random random = new Random(1);
+        long[] randomRef = new long[1];
+        float[] randomPt = new float[3];
+        for (int i = 0; i < 8; i++) {
+            assertEquals(QueryStatus.SUCCESS, query.findRandomPoint(firstTileOnly, random::nextFloat, 100000, randomRef, randomPt));
+            assertEquals(firstIndex, navMesh.decodePolyIdTile(randomRef[0]));
+        }
+        
+        long[] nearestRef = new long[1];
+        float[] nearestPt = new float[3];
+        assertEquals(QueryStatus.SUCCESS, query.findNearestPoly(center, extents, new DetourQueryFilter(), nearestRef, nearestPt));
+        assertEquals(expectedRef[0], nearestRef[0]);
+        assertArrayEquals(expectedPt, nearestPt, 0.0f);
+    }
+    
+    @Test
+    public void decodingFromAnotherThreadIsRejected() throws Exception {
+        navMesh.setDecodedTileCapacity(9);
+        DungeonNavMesh.tiles(navMesh);
+        final Throwable[] error = new Throwable[1];
+        Thread other = new Thread(() -> {
+            try {
+                DungeonNavMesh.tiles(navMesh);
+            } catch (Throwable e) {
+                error[0] = e;
+            }
+        });
+        other.start();
+        other.join();
+        assertTrue(error[0] instanceof IllegalStateException);
+        
+        // 重新设置容量后可以在另一个线程上继续使用
+        other = new Thread(() -> {
+            try {
+                navMesh.setDecodedTileCapacity(9);
+                DungeonNavMesh.tiles(navMesh);
+            } catch (Throwable e) {
+                error[0] = e;
+            }
+        });
+        error[0] = null;
+        other.start();
+        other.join();
+        assertNull(error[0]);
+    }
+    
+    @Test
+    public void corruptDataIsRejected() {
+        MeshTile tile = DungeonNavMesh.tiles(navMesh).get(0);
+        byte[] compressed = DetourTileCompressor.compress(tile);
+        byte[] truncated = java.util.Arrays.copyOf(compressed, compressed.length / 2);
+        MeshTile target = new MeshTile();
+        target.header = tile.header;
+        assertTrue(Status.dtStatusFailed(DetourTileCompressor.decompress(truncated, target)));
+    }
+}
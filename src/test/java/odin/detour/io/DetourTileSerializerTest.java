@@ -0,0 +1,87 @@
+package odin.detour.io;
+
+import odin.detour.config.DetourEnums.Status;
+import odin.detour.core.DetourNavMesh;
+import odin.detour.core.DetourNavMesh.MeshTile;
+import odin.recast.builder.DungeonNavMesh;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * DetourTileSerializer的写入/读取往返测试
+ *
+ * @author UE5NavMesh4J
+ */
+public class DetourTileSerializerTest {
+    
+    private static List<MeshTile> tiles;
+    
+    @BeforeClass
+    public static void buildNavMesh() throws Exception {
+        DetourNavMesh navMesh = DungeonNavMesh.createBuilder().build();
+        tiles = DungeonNavMesh.tiles(navMesh);
+        assertFalse(tiles.isEmpty());
+    }
+    
+    @Test
+    public void readTileRestoresTileData() {
+        for (MeshTile tile : tiles) {
+            byte[] data = DetourTileSerializer.writeTile(tile);
+            assertEquals(DetourTileSerializer.getTileDataSize(tile), data.length);
+            
+            MeshTile[] result = new MeshTile[1];
+            assertTrue(Status.dtStatusSucceed(DetourTileSerializer.readTile(data, result)));
+            MeshTile read = result[0];
+            
+            assertEquals(tile.header.x, read.header.x);
+            assertEquals(tile.header.y, read.header.y);
+            assertEquals(tile.header.layer, read.header.layer);
+            assertEquals(tile.header.polyCount, read.header.polyCount);
+            assertEquals(tile.header.vertCount, read.header.vertCount);
+            assertEquals(tile.getVertStorage(), read.getVertStorage());
+            assertArrayEquals(tile.verts, read.verts, 0.0);
+            assertArrayEquals(tile.polyVerts, read.polyVerts);
+            assertArrayEquals(tile.polyNeis, read.polyNeis);
+            assertArrayEquals(tile.linkRefs, read.linkRefs);
+            assertArrayEquals(tile.linkNext, read.linkNext);
+            assertArrayEquals(tile.linkEdge, read.linkEdge);
+            assertArrayEquals(tile.linkSide, read.linkSide);
+            assertArrayEquals(tile.detailTris, read.detailTris);
+            for (int i = 0; i < tile.header.polyCount; i++) {
+                assertEquals(tile.polys[i].firstLink, read.polys[i].firstLink);
+                assertEquals(tile.polys[i].flags, read.polys[i].flags);
+                assertEquals(tile.polys[i].area, read.polys[i].area);
+                assertEquals(tile.polys[i].vertCount, read.polys[i].vertCount);
+            }
+            
+            assertArrayEquals(data, DetourTileSerializer.writeTile(read));
+        }
+    }
+    
+    @Test
+    public void tilesReadBackToBackFromOneBuffer() {
+        int size = 0;
+        for (MeshTile tile : tiles) {
+            size += DetourTileSerializer.getTileDataSize(tile);
+        }
+        ByteBuffer buf = ByteBuffer.allocateDirect(size);
+        for (MeshTile tile : tiles) {
+            assertTrue(Status.dtStatusSucceed(DetourTileSerializer.writeTile(tile, buf)));
+        }
+        assertEquals(size, buf.position());
+        
+        buf.flip();
+        MeshTile[] result = new MeshTile[1];
+        for (MeshTile tile : tiles) {
+            assertEquals(DetourTileSerializer.getTileDataSize(tile), DetourTileSerializer.peekTileDataSize(buf));
+            assertTrue(Status.dtStatusSucceed(DetourTileSerializer.readTile(buf, result)));
+            assertArrayEquals(DetourTileSerializer.writeTile(tile), DetourTileSerializer.writeTile(result[0]));
+        }
+        assertEquals(0, buf.remaining());
+    }
+}
@@ -0,0 +1,75 @@
+package odin.recast.builder;
+
+import odin.detour.core.DetourNavMesh;
+import odin.detour.core.DetourNavMesh.MeshTile;
+import odin.recast.config.RecastConfig;
+import odin.recast.io.RecastMeshLoader;
+import odin.recast.io.RecastMeshLoader.InputMesh;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 测试用的地牢导航网格
+ *
+ * 从项目根目录的dungeon.obj按固定配置构建瓦片化导航网格。
+ *
+ * @author UE5NavMesh4J
+ */
+public final class DungeonNavMesh {
+    
+    /** 私有构造函数防止实例化 */
+    private DungeonNavMesh() {
+        throw new UnsupportedOperationException("工具类不能被实例化");
+    }
+    
+    /**
+     * 加载地牢输入网格
+     * @return 输入网格
+     * @throws IOException 读取失败
+     */
+    public static InputMesh loadMesh() throws IOException {
+        return RecastMeshLoader.loadObj(Paths.get("dungeon.obj"));
+    }
+    
+    /**
+     * 创建测试使用的构建配置
+     * @return 构建配置
+     */
+    public static RecastConfig createConfig() {
+        RecastConfig cfg = new RecastConfig();
+        cfg.tileSize = 32;
+        cfg.borderSize = new RecastConfig.BorderSize(3, 3);
+        cfg.walkableHeight = 10;
+        cfg.walkableClimb = 4;
+        cfg.walkableRadius = 2;
+        return cfg;
+    }
+    
+    /**
+     * 创建地牢的瓦片化构建器
+     * @return 构建器
+     * @throws IOException 读取失败
+     */
+    public static RecastTiledNavMeshBuilder createBuilder() throws IOException {
+        return new RecastTiledNavMeshBuilder(createConfig(), loadMesh(), null, null);
+    }
+    
+    /**
+     * 收集导航网格中的所有瓦片
+     * @param navMesh 导航网格
+     * @return 按槽位排列的瓦片
+     */
+    public static List<MeshTile> tiles(DetourNavMesh navMesh) {
+        List<MeshTile> tiles = new ArrayList<>();
+        for (int i = 0; i < navMesh.getMaxTiles(); i++) {
+            MeshTile tile = navMesh.getTile(i);
+            if (tile != null && tile.header != null) {
+                tiles.add(tile);
+            }
+        }
+        return tiles;
+    }
+}
@@ -0,0 +1,165 @@
+package odin.recast.builder;
+
+import odin.detour.config.DetourEnums.Status;
+import odin.detour.core.DetourNavMesh;
+import odin.detour.core.DetourNavMesh.MeshTile;
+import odin.detour.core.DetourNavMesh.NavMeshParams;
+import odin.detour.io.DetourTileSerializer;
+import odin.recast.config.RecastConfig;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * RecastTiledNavMeshBuilder的瓦片重建测试
+ *
+ * @author UE5NavMesh4J
+ */
+public class RecastTiledNavMeshBuilderTest {
+    
+    private RecastTiledNavMeshBuilder builder;
+    
+    private DetourNavMesh navMesh;
+    
+    @Before
+    public void buildNavMesh() throws Exception {
+        builder = DungeonNavMesh.createBuilder();
+        navMesh = builder.build();
+    }
+    
+    /**
+     * 计算瓦片中心点所在的一个很小的变化区域
+     * @param tile 瓦片
+     * @return 包围盒 [(minx, miny, minz, maxx, maxy, maxz)]
+     */
+    private static float[] centerBounds(MeshTile tile) {
+        float x = (float) (tile.header.bmin[0] + tile.header.bmax[0]) * 0.5f;
+        float y = (float) (tile.header.bmin[1] + tile.header.bmax[1]) * 0.5f;
+        float z = (float) (tile.header.bmin[2] + tile.header.bmax[2]) * 0.5f;
+        return new float[] {x, y, z, x, y, z};
+    }
+    
+    @Test
+    public void rebuildReplacesTilesAtDirtyLocations() {
+        List<MeshTile> tiles = DungeonNavMesh.tiles(navMesh);
+        MeshTile old = tiles.get(tiles.size() / 2);
+        float[] bounds = centerBounds(old);
+        int[] coords = builder.findDirtyTiles(bounds, 1);
+        assertTrue(coords.length >= 2);
+        
+        // 记录每个重建位置上的旧瓦片
+        int n = coords.length / 2;
+        long[] oldRefs = new long[n];
+        byte[][] oldData = new byte[n][];
+        MeshTile[] at = new MeshTile[4];
+        for (int i = 0; i < n; i++) {
+            int count = navMesh.getTilesAt(coords[i * 2], coords[i * 2 + 1], at, at.length);
+            if (count > 0) {
+                oldRefs[i] = navMesh.getTileRef(at[0]);
+                oldData[i] = DetourTileSerializer.writeTile(at[0]);
+            }
+        }
+        
+        assertEquals(n, builder.rebuildTiles(navMesh, bounds, 1));
+        
+        for (int i = 0; i < n; i++) {
+            int count = navMesh.getTilesAt(coords[i * 2], coords[i * 2 + 1], at, at.length);
+            if (oldRefs[i] == 0) {
+                assertEquals(0, count);
+                continue;
+            }
+            assertEquals(1, count);
+            assertNull(navMesh.getTileByRef(oldRefs[i]));
+            assertNotEquals(oldRefs[i], navMesh.getTileRef(at[0]));
+            
+            // 输入几何没有变化，新瓦片的几何与旧瓦片相同
+            MeshTile[] result = new MeshTile[1];
+            assertTrue(Status.dtStatusSucceed(DetourTileSerializer.readTile(oldData[i], result)));
+            assertEquals(result[0].header.polyCount, at[0].header.polyCount);
+            assertEquals(result[0].header.vertCount, at[0].header.vertCount);
+            assertArrayEquals(result[0].verts, at[0].verts, 0.0);
+            assertArrayEquals(result[0].polyVerts, at[0].polyVerts);
+        }
+    }
+    
+    @Test
+    public void rebuildRemovesOtherLayersAtLocation() {
+        List<MeshTile> tiles = DungeonNavMesh.tiles(navMesh);
+        MeshTile old = tiles.get(0);
+        int x = old.header.x;
+        int y = old.header.y;
+        
+        // 在同一位置加入第二层瓦片
+        MeshTile[] result = new MeshTile[1];
+        assertTrue(Status.dtStatusSucceed(DetourTileSerializer.readTile(DetourTileSerializer.writeTile(old), result)));
+        result[0].header.layer = old.header.layer + 1;
+        assertTrue(Status.dtStatusSucceed(navMesh.addTile(result[0], null)));
+        MeshTile[] at = new MeshTile[4];
+        assertEquals(2, navMesh.getTilesAt(x, y, at, at.length));
+        
+        builder.rebuildTiles(navMesh, centerBounds(old), 1);
+        
+        assertEquals(1, navMesh.getTilesAt(x, y, at, at.length));
+        assertEquals(0, at[0].header.layer);
+    }
+    
+    @Test
+    public void rebuildWithoutFreeSlotsLeavesNavMeshUnchanged() {
+        List<MeshTile> tiles = DungeonNavMesh.tiles(navMesh);
+        MeshTile missing = tiles.get(tiles.size() / 2);
+        
+        // 槽位刚好容纳除一个瓦片之外的所有瓦片，重建该位置需要一个额外的槽位
+        NavMeshParams params = builder.createNavMeshParams();
+        params.maxTiles = tiles.size() - 1;
+        DetourNavMesh full = new DetourNavMesh();
+        assertTrue(Status.dtStatusSucceed(full.init(params)));
+        MeshTile[] result = new MeshTile[1];
+        for (MeshTile tile : tiles) {
+            if (tile != missing) {
+                assertTrue(Status.dtStatusSucceed(DetourTileSerializer.readTile(DetourTileSerializer.writeTile(tile), result)));
+                assertTrue(Status.dtStatusSucceed(full.addTile(result[0], null)));
+            }
+        }
+        assertEquals(0, full.getFreeTileCount());
+        List<MeshTile> before = DungeonNavMesh.tiles(full);
+        long[] refs = new long[before.size()];
+        for (int i = 0; i < refs.length; i++) {
+            refs[i] = full.getTileRef(before.get(i));
+        }
+        
+        // 整个瓦片的范围按边界大小扩展后覆盖相邻瓦片，缺失的位置之前的瓦片会先被处理
+        float[] bounds = new float[6];
+        for (int i = 0; i < 3; i++) {
+            bounds[i] = (float) missing.header.bmin[i];
+            bounds[i + 3] = (float) missing.header.bmax[i];
+        }
+        assertTrue(builder.findDirtyTiles(bounds, 1).length > 2);
+        
+        try {
+            builder.rebuildTiles(full, bounds, 1);
+            fail("重建需要的槽位超过可用槽位时应当失败");
+        } catch (IllegalStateException expected) {
+            // 预期的异常
+        }
+        
+        // 没有瓦片被移除
+        for (long ref : refs) {
+            assertNotNull(full.getTileByRef(ref));
+        }
+        assertEquals(refs.length, DungeonNavMesh.tiles(full).size());
+    }
+    
+    @Test
+    public void findDirtyTilesCoversBorder() {
+        RecastConfig cfg = builder.getConfig();
+        float tileWidth = cfg.tileSize * cfg.cs;
+        // 位于两个瓦片边界上的点，边界大小扩展后两侧的瓦片都需要重建
+        float x = cfg.bmin[0] + tileWidth;
+        float z = cfg.bmin[2] + tileWidth * 0.5f;
+        int[] coords = builder.findDirtyTiles(new float[] {x, 0, z, x, 0, z}, 1);
+        assertArrayEquals(new int[] {0, 0, 1, 0}, coords);
+    }
+}
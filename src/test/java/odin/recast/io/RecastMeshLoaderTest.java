@@ -0,0 +1,113 @@
+package odin.recast.io;
+
+import odin.recast.io.RecastMeshLoader.InputMesh;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * RecastMeshLoader的OBJ解析和二进制网格往返测试
+ *
+ * @author UE5NavMesh4J
+ */
+public class RecastMeshLoaderTest {
+    
+    /** 读取缓冲区大小，与RecastMeshLoader一致 */
+    private static final int CHUNK = 1 << 20;
+    
+    @Test
+    public void parsesNegativeIndicesAndSlashForms() throws IOException {
+        InputMesh mesh = read("v 0 0 0\n" +
+                              "v 1 0 0\n" +
+                              "v 1 0 1\n" +
+                              "v 0 0 1\n" +
+                              "vt 0.5 0.5\n" +
+                              "vn 0 1 0\n" +
+                              "f -4/1/1 -3/1/1 -2/1/1 -1/1/1\n" +
+                              "f 1//1 3//1 4//1\n" +
+                              "f 1/1 2/1 3/1\n");
+        assertEquals(4, mesh.nverts);
+        assertEquals(4, mesh.ntris);
+        assertArrayEquals(new int[] {0, 1, 2, 0, 2, 3, 0, 2, 3, 0, 1, 2}, mesh.tris);
+    }
+    
+    @Test
+    public void parsesNumberFormsAndCrlf() throws IOException {
+        InputMesh mesh = read("v 1.5e2 -2.25E-1 +3\r\n" +
+                              "v\t-.5 0.125 1e0\r\n" +
+                              "v 0 0 0");
+        assertEquals(3, mesh.nverts);
+        assertArrayEquals(new float[] {150.0f, -0.225f, 3.0f, -0.5f, 0.125f, 1.0f, 0.0f, 0.0f, 0.0f}, mesh.verts, 0.0f);
+        assertArrayEquals(new float[] {-0.5f, -0.225f, 0.0f}, mesh.bmin, 0.0f);
+        assertArrayEquals(new float[] {150.0f, 0.125f, 3.0f}, mesh.bmax, 0.0f);
+    }
+    
+    @Test
+    public void dropsFacesWithInvalidIndices() throws IOException {
+        InputMesh mesh = read("v 0 0 0\nv 1 0 0\nv 1 0 1\nf 1 2 4\nf 0 1 2\nf -4 1 2\nf 1 2 3\n");
+        assertEquals(1, mesh.ntris);
+        assertArrayEquals(new int[] {0, 1, 2}, mesh.tris);
+    }
+    
+    @Test
+    public void parsesLinesAcrossReadChunks() throws IOException {
+        // 顶点行跨越第一个读取块的边界
+        StringBuilder sb = new StringBuilder();
+        sb.append('#');
+        while (sb.length() < CHUNK - 8) {
+            sb.append('x');
+        }
+        sb.append('\n');
+        sb.append("v 1.25 2.5 3.75\n");
+        
+        // 超过缓冲区大小的单行
+        sb.append('#');
+        for (int i = 0; i < 2 * CHUNK + 100; i++) {
+            sb.append('y');
+        }
+        sb.append('\n');
+        sb.append("v 4 5 6\nv 7 8 9\nf 1 2 3\n");
+        
+        InputMesh mesh = read(sb.toString());
+        assertEquals(3, mesh.nverts);
+        assertArrayEquals(new float[] {1.25f, 2.5f, 3.75f, 4, 5, 6, 7, 8, 9}, mesh.verts, 0.0f);
+        assertEquals(1, mesh.ntris);
+    }
+    
+    @Test
+    public void binaryRoundTrip() throws IOException {
+        InputMesh mesh = read("v 0 0 0\nv 1 0 0\nv 1 0 1\nv 0 2 1\nf 1 2 3 4\n");
+        Path file = Files.createTempFile("mesh", ".bin");
+        try {
+            RecastMeshLoader.writeBinary(file, mesh);
+            InputMesh loaded = RecastMeshLoader.loadBinary(file);
+            assertEquals(mesh.nverts, loaded.nverts);
+            assertEquals(mesh.ntris, loaded.ntris);
+            assertArrayEquals(mesh.verts, Arrays.copyOf(loaded.verts, loaded.nverts * 3), 0.0f);
+            assertArrayEquals(mesh.tris, Arrays.copyOf(loaded.tris, loaded.ntris * 3));
+            assertArrayEquals(mesh.bmin, loaded.bmin, 0.0f);
+            assertArrayEquals(mesh.bmax, loaded.bmax, 0.0f);
+        } finally {
+            Files.delete(file);
+        }
+    }
+    
+    /**
+     * 从字符串读取OBJ数据
+     * @param obj OBJ文本
+     * @return 输入网格
+     * @throws IOException 读取失败
+     */
+    private static InputMesh read(String obj) throws IOException {
+        byte[] data = obj.getBytes(StandardCharsets.US_ASCII);
+        return RecastMeshLoader.readObj(Channels.newChannel(new ByteArrayInputStream(data)));
+    }
+}